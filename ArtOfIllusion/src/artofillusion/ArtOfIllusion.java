@@ -94,7 +94,9 @@ public class ArtOfIllusion
     // Build a table of classes which have moved.    
     try {        
         Properties translations = new Properties();
-        translations.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("mappings.properties"));
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream("mappings.properties");
+        if (in != null)
+          translations.load(in);
         classTranslations.putAll((Map)translations);
     } catch(IOException ioe) {        
     }
@@ -116,34 +118,7 @@ public class ArtOfIllusion
     ToolTipManager.sharedInstance().setLightWeightPopupEnabled(false);
 
     TitleWindow title = new TitleWindow();
-    PluginRegistry.addCategory(Plugin.class);
-    PluginRegistry.addCategory(Renderer.class);
-    PluginRegistry.addCategory(Translator.class);
-    PluginRegistry.addCategory(ModellingTool.class);
-    PluginRegistry.addCategory(Texture.class);
-    PluginRegistry.addCategory(Material.class);
-    PluginRegistry.addCategory(TextureMapping.class);
-    PluginRegistry.addCategory(MaterialMapping.class);
-    PluginRegistry.addCategory(ImageFilter.class);
-    PluginRegistry.addCategory(artofillusion.procedural.Module.class);
-    PluginRegistry.registerPlugin(new UniformTexture());
-    PluginRegistry.registerPlugin(new ImageMapTexture());
-    PluginRegistry.registerPlugin(new ProceduralTexture2D());
-    PluginRegistry.registerPlugin(new ProceduralTexture3D());
-    PluginRegistry.registerPlugin(new UniformMaterial());
-    PluginRegistry.registerPlugin(new ProceduralMaterial3D());
-    PluginRegistry.registerPlugin(new UniformMapping(null, null));
-    PluginRegistry.registerPlugin(new ProjectionMapping(null, null));
-    PluginRegistry.registerPlugin(new CylindricalMapping(null, null));
-    PluginRegistry.registerPlugin(new SphericalMapping(null, null));
-    PluginRegistry.registerPlugin(new UVMapping(null, null));
-    PluginRegistry.registerPlugin(new LinearMapping3D(null, null));
-    PluginRegistry.registerPlugin(new LinearMaterialMapping(null, null));
-    PluginRegistry.registerResource("TranslateBundle", "artofillusion", ArtOfIllusion.class.getClassLoader(), "artofillusion", null);
-    PluginRegistry.registerResource("UITheme", "default", ArtOfIllusion.class.getClassLoader(), "artofillusion/Icons/defaultTheme.xml", null);
-    PluginRegistry.scanPlugins();
-    ThemeManager.initThemes();
-    preferences = new ApplicationPreferences();
+    initialize();
     KeystrokeManager.loadRecords();
     ViewerCanvas.addViewerControl(new ViewerOrientationControl());
     ViewerCanvas.addViewerControl(new ViewerPerspectiveControl());
@@ -180,6 +155,42 @@ public class ArtOfIllusion
     title.dispose();
   }
 
+  /** Register the built in plugins and resources, scan the Plugins directory for additional
+      ones, and load the user's preferences.  This is everything needed to load and render
+      scenes, without creating any part of the user interface. */
+
+  static void initialize()
+  {
+    PluginRegistry.addCategory(Plugin.class);
+    PluginRegistry.addCategory(Renderer.class);
+    PluginRegistry.addCategory(Translator.class);
+    PluginRegistry.addCategory(ModellingTool.class);
+    PluginRegistry.addCategory(Texture.class);
+    PluginRegistry.addCategory(Material.class);
+    PluginRegistry.addCategory(TextureMapping.class);
+    PluginRegistry.addCategory(MaterialMapping.class);
+    PluginRegistry.addCategory(ImageFilter.class);
+    PluginRegistry.addCategory(artofillusion.procedural.Module.class);
+    PluginRegistry.registerPlugin(new UniformTexture());
+    PluginRegistry.registerPlugin(new ImageMapTexture());
+    PluginRegistry.registerPlugin(new ProceduralTexture2D());
+    PluginRegistry.registerPlugin(new ProceduralTexture3D());
+    PluginRegistry.registerPlugin(new UniformMaterial());
+    PluginRegistry.registerPlugin(new ProceduralMaterial3D());
+    PluginRegistry.registerPlugin(new UniformMapping(null, null));
+    PluginRegistry.registerPlugin(new ProjectionMapping(null, null));
+    PluginRegistry.registerPlugin(new CylindricalMapping(null, null));
+    PluginRegistry.registerPlugin(new SphericalMapping(null, null));
+    PluginRegistry.registerPlugin(new UVMapping(null, null));
+    PluginRegistry.registerPlugin(new LinearMapping3D(null, null));
+    PluginRegistry.registerPlugin(new LinearMaterialMapping(null, null));
+    PluginRegistry.registerResource("TranslateBundle", "artofillusion", ArtOfIllusion.class.getClassLoader(), "artofillusion", null);
+    PluginRegistry.registerResource("UITheme", "default", ArtOfIllusion.class.getClassLoader(), "artofillusion/Icons/defaultTheme.xml", null);
+    PluginRegistry.scanPlugins();
+    ThemeManager.initThemes();
+    preferences = new ApplicationPreferences();
+  }
+
   /** Get the complete version number of Art of Illusion. */
 
   public static String getVersion()
@@ -0,0 +1,693 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.image.*;
+import artofillusion.object.*;
+import artofillusion.ui.*;
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/** This class renders scenes without displaying any user interface.  It can be used from
+    other code, or run from the command line to render a still image or a range of animation
+    frames, for example on a render farm:
+    <pre>
+    java -Djava.awt.headless=true -cp ArtOfIllusion.jar artofillusion.BatchRenderer [options] scene.aoi
+    </pre>
+    Run it with no arguments for a list of options.  Any settings that are not specified
+    on the command line are taken from the ones saved in the scene by the Render Setup dialog.
+    <p>
+    When rendering an animation, a second copy of the scene can be supplied with
+    setAlternateScene().  The two copies are then used for alternate images, so that the
+    next image can be prepared (by setting the time, which applies all animation tracks)
+    while the current one is being rendered. */
+
+public class BatchRenderer
+{
+  private final Scene scene;
+  private Scene alternateScene;
+  private Renderer renderer;
+  private int camera, width, height, fps, subimages;
+  private double startTime, endTime;
+  private boolean movie;
+  private PrintStream log;
+
+  /** Create a BatchRenderer for a scene.  It is initialized with the settings saved in the
+      scene by the Render Setup dialog, or the default settings if there are none. */
+
+  public BatchRenderer(Scene scene)
+  {
+    this.scene = scene;
+    renderer = ArtOfIllusion.getPreferences().getDefaultRenderer();
+    width = 640;
+    height = 480;
+    fps = 30;
+    subimages = 1;
+    endTime = 1.0;
+    loadSettings();
+    loadRendererSettings();
+  }
+
+  /** Load the settings saved by the Render Setup dialog. */
+
+  private void loadSettings()
+  {
+    Object settings = scene.getMetadata("RenderSetupDialog settings");
+    if (!(settings instanceof Map))
+      return;
+    try
+    {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) settings).entrySet())
+      {
+        Object value = entry.getValue();
+        switch ((String) entry.getKey())
+        {
+          case "rendererName":
+            Renderer r = findRenderer((String) value);
+            if (r != null)
+              renderer = r;
+            break;
+          case "currentCamera":
+            camera = (Integer) value;
+            break;
+          case "width":
+            width = (Integer) value;
+            break;
+          case "height":
+            height = (Integer) value;
+            break;
+          case "fps":
+            fps = (Integer) value;
+            break;
+          case "subimages":
+            subimages = (Integer) value;
+            break;
+          case "startTime":
+            startTime = ((Number) value).doubleValue();
+            break;
+          case "endTime":
+            endTime = ((Number) value).doubleValue();
+            break;
+          case "movie":
+            movie = (Boolean) value;
+            break;
+        }
+      }
+    }
+    catch (ClassCastException ex)
+    {
+      // Unexpected objects in the map.  Just ignore.
+    }
+  }
+
+  /** Load the settings saved in the scene for the current renderer. */
+
+  private void loadRendererSettings()
+  {
+    if (renderer == null)
+      return;
+    Object settings = scene.getMetadata(renderer.getClass().getName()+" settings");
+    if (!(settings instanceof Map))
+      return;
+    try
+    {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) settings).entrySet())
+        renderer.setConfiguration((String) entry.getKey(), entry.getValue());
+    }
+    catch (ClassCastException ex)
+    {
+      // Unexpected objects in the map.  Just ignore.
+    }
+  }
+
+  /** Find the installed Renderer with a specified name, or null if there is none. */
+
+  public static Renderer findRenderer(String name)
+  {
+    for (Renderer r : PluginRegistry.getPlugins(Renderer.class))
+      if (r.getName().equals(name))
+        return r;
+    return null;
+  }
+
+  /** Get the Renderer to use. */
+
+  public Renderer getRenderer()
+  {
+    return renderer;
+  }
+
+  /** Set the Renderer to use.  Any settings saved in the scene for it are loaded. */
+
+  public void setRenderer(Renderer renderer)
+  {
+    this.renderer = renderer;
+    loadRendererSettings();
+  }
+
+  /** Set a configuration option for the Renderer.  The value is converted to the same type
+      as the current value of the option.  If the Renderer does not report a current value,
+      it is interpreted as a boolean, integer, or floating point number if possible, and
+      otherwise passed on as a String. */
+
+  public void setRendererOption(String name, String value)
+  {
+    Object current = renderer.getConfiguration().get(name);
+    Object converted;
+    if (current instanceof Boolean || (current == null && ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value))))
+      converted = Boolean.valueOf(value);
+    else if (current instanceof Integer)
+      converted = Integer.valueOf(value);
+    else if (current instanceof Float)
+      converted = Float.valueOf(value);
+    else if (current instanceof Number)
+      converted = Double.valueOf(value);
+    else if (current != null)
+      converted = value;
+    else
+    {
+      try
+      {
+        converted = Integer.valueOf(value);
+      }
+      catch (NumberFormatException ex)
+      {
+        try
+        {
+          converted = Double.valueOf(value);
+        }
+        catch (NumberFormatException ex2)
+        {
+          converted = value;
+        }
+      }
+    }
+    renderer.setConfiguration(name, converted);
+  }
+
+  /** Set the index of the camera to render from (among the cameras returned by
+      Scene.getCameras()). */
+
+  public void setCamera(int index)
+  {
+    camera = index;
+  }
+
+  /** Set the size of the image to render. */
+
+  public void setImageSize(int width, int height)
+  {
+    this.width = width;
+    this.height = height;
+  }
+
+  /** Get the width of the image to render. */
+
+  public int getWidth()
+  {
+    return width;
+  }
+
+  /** Get the height of the image to render. */
+
+  public int getHeight()
+  {
+    return height;
+  }
+
+  /** Get the number of frames per second. */
+
+  public int getFramesPerSecond()
+  {
+    return fps;
+  }
+
+  /** Set the number of frames per second, and the number of subimages to average for each
+      frame to simulate motion blur. */
+
+  public void setFrameRate(int fps, int subimages)
+  {
+    this.fps = fps;
+    this.subimages = subimages;
+  }
+
+  /** Get whether the settings saved in the scene are for rendering an animation. */
+
+  public boolean isMovie()
+  {
+    return movie;
+  }
+
+  /** Get the number of the first frame of the animation described by the saved settings.
+      Frames are numbered from 1, the same way as when rendering from the Render Setup dialog. */
+
+  public int getFirstFrame()
+  {
+    return (int) Math.round(startTime*fps)+1;
+  }
+
+  /** Get the number of the last frame of the animation described by the saved settings. */
+
+  public int getLastFrame()
+  {
+    return getFirstFrame()+Math.max(1, (int) Math.ceil((endTime-startTime)*fps))-1;
+  }
+
+  /** Get the time at which a frame begins. */
+
+  public double getFrameTime(int frame)
+  {
+    return (frame-1)/(double) fps;
+  }
+
+  /** Set a second copy of the scene to use for preparing each image while the previous one
+      renders.  It must be an independent copy, such as one loaded separately from the same
+      file.  Pass null to render every image from the main scene. */
+
+  public void setAlternateScene(Scene alternate)
+  {
+    alternateScene = alternate;
+  }
+
+  /** Set a stream to which progress messages should be printed, or null to print nothing. */
+
+  public void setLog(PrintStream log)
+  {
+    this.log = log;
+  }
+
+  /** Render a single image of the scene at a specified time.  If the frame rate specifies
+      more than one subimage, they are averaged together over the length of one frame.
+      Camera filters are applied to the result. */
+
+  public ComplexImage renderFrame(double time) throws InterruptedException
+  {
+    ImageAverager averager = (subimages > 1 ? new ImageAverager(width, height) : null);
+    for (int i = 0; i < subimages; i++)
+    {
+      scene.setTime(time+i/(double) (fps*subimages));
+      ComplexImage image = new RenderJob(scene).waitForImage();
+      if (averager == null)
+        return image;
+      averager.addImage(image);
+    }
+    return averager.getAverageImage();
+  }
+
+  /** Render a range of frames and save them.
+      @param firstFrame   the first frame to render, numbered from 1
+      @param lastFrame    the last frame to render
+      @param saver        the ImageSaver to save frames with
+  */
+
+  public void renderAnimation(int firstFrame, int lastFrame, ImageSaver saver) throws IOException, InterruptedException
+  {
+    int numImages = (lastFrame-firstFrame+1)*subimages;
+    if (numImages <= 0)
+      return;
+    double originalTime = scene.getTime();
+    ImageAverager averager = (subimages > 1 ? new ImageAverager(width, height) : null);
+    double start = getFrameTime(firstFrame);
+    scene.setTime(start);
+    for (int i = 0; i < numImages; i++)
+    {
+      int frame = firstFrame+i/subimages;
+      if (i%subimages == 0)
+        print("Rendering frame "+frame+" ("+(frame-firstFrame+1)+" of "+(lastFrame-firstFrame+1)+")");
+      Scene current = getSceneForImage(i);
+      RenderJob job = new RenderJob(current);
+
+      // While this image renders, prepare the next one on the other copy of the scene.
+
+      if (i+1 < numImages)
+      {
+        Scene next = getSceneForImage(i+1);
+        if (next != current)
+          next.setTime(start+(i+1)/(double) (fps*subimages));
+      }
+      ComplexImage image = job.waitForImage();
+      if (i+1 < numImages && getSceneForImage(i+1) == current)
+        current.setTime(start+(i+1)/(double) (fps*subimages));
+      if (averager == null)
+        saver.saveImage(image);
+      else
+      {
+        averager.addImage(image);
+        if ((i+1)%subimages == 0)
+        {
+          saver.saveImage(averager.getAverageImage());
+          averager.clear();
+        }
+      }
+    }
+    saver.lastMovieImage();
+    scene.setTime(originalTime);
+  }
+
+  /** Get the copy of the scene to use for a particular image of an animation. */
+
+  private Scene getSceneForImage(int index)
+  {
+    return (alternateScene != null && index%2 == 1 ? alternateScene : scene);
+  }
+
+  private void print(String message)
+  {
+    if (log != null)
+      log.println(message);
+  }
+
+  /** This class renders one image and waits for it to complete. */
+
+  private class RenderJob implements RenderListener
+  {
+    private final Scene theScene;
+    private final ObjectInfo cameraInfo;
+    private final CountDownLatch done;
+    private ComplexImage image;
+
+    RenderJob(Scene theScene)
+    {
+      this.theScene = theScene;
+      List<ObjectInfo> cameras = theScene.getCameras();
+      if (cameras.isEmpty())
+        throw new IllegalStateException(Translate.text("noCameraError"));
+      cameraInfo = cameras.get(camera < cameras.size() ? camera : 0);
+      done = new CountDownLatch(1);
+      SceneCamera sc = (SceneCamera) cameraInfo.getObject();
+      renderer.renderScene(theScene, sc.createCamera(width, height, cameraInfo.getCoords()), this, sc);
+    }
+
+    /** Wait for rendering to finish, then apply the camera's filters and return the image. */
+
+    ComplexImage waitForImage() throws InterruptedException
+    {
+      try
+      {
+        done.await();
+      }
+      catch (InterruptedException ex)
+      {
+        renderer.cancelRendering(theScene);
+        throw ex;
+      }
+      if (image == null)
+        throw new InterruptedException("Rendering was canceled");
+      ((SceneCamera) cameraInfo.getObject()).applyImageFilters(image, theScene, cameraInfo.getCoords());
+      return image;
+    }
+
+    @Override
+    public void imageUpdated(Image image)
+    {
+    }
+
+    @Override
+    public void statusChanged(String status)
+    {
+    }
+
+    @Override
+    public void imageComplete(ComplexImage image)
+    {
+      this.image = image;
+      done.countDown();
+    }
+
+    @Override
+    public void renderingCanceled()
+    {
+      done.countDown();
+    }
+  }
+
+  /** Render a scene from the command line. */
+
+  public static void main(String args[])
+  {
+    System.setProperty("java.awt.headless", "true");
+    Translate.setLocale(Locale.getDefault());
+    ArtOfIllusion.initialize();
+    try
+    {
+      System.exit(run(args, System.out));
+    }
+    catch (Exception ex)
+    {
+      System.err.println(ex.getMessage() == null ? ex.toString() : ex.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /** Parse a set of command line arguments and perform the requested rendering.  This
+      returns 0 on success, or a nonzero value if the arguments are invalid. */
+
+  static int run(String args[], PrintStream out) throws IOException, InterruptedException
+  {
+    String rendererName = null, output = null, file = null, formatName = null, workers = null, workerSecret = null, meshCache = null;
+    Integer cameraIndex = null, imageWidth = null, imageHeight = null, frameRate = null, numSubimages = null, tileSize = null, workerTimeout = null, meshCacheSize = null;
+    Double time = null, start = null, end = null;
+    int firstFrame = -1, lastFrame = -1;
+    double quality = 90.0;
+    boolean overlap = false;
+    Map<String, String> options = new LinkedHashMap<String, String>();
+    try
+    {
+      for (int i = 0; i < args.length; i++)
+      {
+        String arg = args[i];
+        if (!arg.startsWith("-"))
+        {
+          if (file != null)
+            throw new IllegalArgumentException("Only one scene file may be specified");
+          file = arg;
+          continue;
+        }
+        if (arg.equals("-overlap"))
+        {
+          overlap = true;
+          continue;
+        }
+        if (i+1 == args.length)
+          throw new IllegalArgumentException("Missing value for "+arg);
+        String value = args[++i];
+        switch (arg)
+        {
+          case "-renderer":
+            rendererName = value;
+            break;
+          case "-camera":
+            cameraIndex = Integer.valueOf(value);
+            break;
+          case "-width":
+            imageWidth = Integer.valueOf(value);
+            break;
+          case "-height":
+            imageHeight = Integer.valueOf(value);
+            break;
+          case "-fps":
+            frameRate = Integer.valueOf(value);
+            break;
+          case "-subimages":
+            numSubimages = Integer.valueOf(value);
+            break;
+          case "-time":
+            time = Double.valueOf(value);
+            break;
+          case "-start":
+            start = Double.valueOf(value);
+            break;
+          case "-end":
+            end = Double.valueOf(value);
+            break;
+          case "-frames":
+            int dash = value.indexOf('-', 1);
+            firstFrame = Integer.parseInt(dash == -1 ? value : value.substring(0, dash));
+            lastFrame = (dash == -1 ? firstFrame : Integer.parseInt(value.substring(dash+1)));
+            break;
+          case "-output":
+            output = value;
+            break;
+          case "-format":
+            formatName = value;
+            break;
+          case "-quality":
+            quality = Double.parseDouble(value);
+            break;
+          case "-workers":
+            workers = value;
+            break;
+          case "-tileSize":
+            tileSize = Integer.valueOf(value);
+            break;
+          case "-workerTimeout":
+            workerTimeout = Integer.valueOf(value);
+            break;
+          case "-workerSecretFile":
+            workerSecret = value;
+            break;
+          case "-meshCache":
+            meshCache = value;
+            break;
+          case "-meshCacheSize":
+            meshCacheSize = Integer.valueOf(value);
+            break;
+          case "-set":
+            int equals = value.indexOf('=');
+            if (equals < 1)
+              throw new IllegalArgumentException("Renderer options must have the form name=value");
+            options.put(value.substring(0, equals), value.substring(equals+1));
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option: "+arg);
+        }
+      }
+      if (file == null || output == null)
+        throw new IllegalArgumentException("A scene file and an output file must be specified");
+    }
+    catch (IllegalArgumentException ex)
+    {
+      out.println(ex.getMessage());
+      printUsage(out);
+      return 2;
+    }
+
+    // Load the scene and configure the renderer.
+
+    Scene theScene = new Scene(new File(file), true);
+    BatchRenderer batch = new BatchRenderer(theScene);
+    batch.setLog(out);
+    if (rendererName != null)
+    {
+      Renderer r = findRenderer(rendererName);
+      if (r == null)
+      {
+        out.println("Unknown renderer: "+rendererName);
+        return 2;
+      }
+      batch.setRenderer(r);
+    }
+    if (batch.getRenderer() == null)
+    {
+      out.println("No renderer is available");
+      return 2;
+    }
+    for (Map.Entry<String, String> entry : options.entrySet())
+      batch.setRendererOption(entry.getKey(), entry.getValue());
+    if (cameraIndex != null)
+      batch.setCamera(cameraIndex);
+    batch.setImageSize(imageWidth == null ? batch.width : imageWidth, imageHeight == null ? batch.height : imageHeight);
+    batch.setFrameRate(frameRate == null ? batch.fps : frameRate, numSubimages == null ? batch.subimages : numSubimages);
+    if (start != null)
+      batch.startTime = start;
+    if (end != null)
+      batch.endTime = end;
+    boolean animate = (time == null && (firstFrame > 0 || start != null || end != null || batch.isMovie()));
+    if (animate && firstFrame < 1)
+    {
+      firstFrame = batch.getFirstFrame();
+      lastFrame = batch.getLastFrame();
+    }
+    int format = (formatName == null ? ImageSaver.getFormatForFile(output) : ImageSaver.getFormatForFile("."+formatName));
+    if (format == -1)
+    {
+      out.println("Unknown image format: "+(formatName == null ? output : formatName));
+      return 2;
+    }
+    if (format == ImageSaver.FORMAT_QUICKTIME && !animate)
+    {
+      out.println("Quicktime can only be used for animations");
+      return 2;
+    }
+    ImageSaver saver = new ImageSaver(new File(output), format, quality, batch.getWidth(), batch.getHeight(), batch.getFramesPerSecond(), animate ? firstFrame : Integer.MIN_VALUE);
+    if (meshCacheSize != null)
+      RenderingMeshCache.getDefault().setMaxDiskSpace(meshCacheSize*1024L*1024);
+    if (meshCache != null)
+      RenderingMeshCache.getDefault().setDirectory(new File(meshCache));
+    long startMillis = System.currentTimeMillis();
+    RenderingMeshCache.getDefault().beginSession();
+    try
+    {
+      if (workers != null)
+      {
+        DistributedRenderer distributed = new DistributedRenderer(theScene, batch.getRenderer(), DistributedRenderer.parseAddresses(workers));
+        distributed.setLog(out);
+        distributed.setCamera(batch.camera);
+        distributed.setImageSize(batch.getWidth(), batch.getHeight());
+        distributed.setFrameRate(batch.getFramesPerSecond(), batch.subimages);
+        if (tileSize == null)
+          tileSize = (!animate && batch.getRenderer() instanceof RegionRenderer ? 128 : 0);
+        distributed.setTileSize(tileSize);
+        if (workerTimeout != null)
+          distributed.setTimeout(workerTimeout*1000);
+        if (workerSecret != null)
+          distributed.setSecret(RenderWorker.readSecret(workerSecret));
+        if (animate)
+          distributed.renderAnimation(firstFrame, lastFrame, saver);
+        else
+        {
+          out.println("Rendering image");
+          saver.saveImage(distributed.renderFrame(time == null ? theScene.getTime() : time));
+        }
+      }
+      else if (animate)
+      {
+        if (overlap)
+          batch.setAlternateScene(new Scene(new File(file), true));
+        batch.renderAnimation(firstFrame, lastFrame, saver);
+      }
+      else
+      {
+        out.println("Rendering image");
+        saver.saveImage(batch.renderFrame(time == null ? theScene.getTime() : time));
+      }
+    }
+    finally
+    {
+      RenderingMeshCache.getDefault().endSession();
+    }
+    out.println("Finished in "+(System.currentTimeMillis()-startMillis)/1000.0+" seconds");
+    RenderingMeshCache cache = RenderingMeshCache.getDefault();
+    if (cache.getMemoryHits()+cache.getDiskHits()+cache.getMisses() > 0)
+      out.println("Mesh cache: "+cache.getMemoryHits()+" memory hits, "+cache.getDiskHits()+" disk hits, "+cache.getMisses()+" misses, "+cache.getEvictions()+" evictions");
+    return 0;
+  }
+
+  private static void printUsage(PrintStream out)
+  {
+    out.println("Usage: java -cp ArtOfIllusion.jar artofillusion.BatchRenderer [options] -output file scene.aoi");
+    out.println("Options:");
+    out.println("  -renderer name      the renderer to use (for example Raytracer or Raster)");
+    out.println("  -set name=value     set a renderer configuration option (may be repeated)");
+    out.println("  -camera index       the index of the camera to render from");
+    out.println("  -width pixels       the width of the image");
+    out.println("  -height pixels      the height of the image");
+    out.println("  -time seconds       render a single image at the specified time");
+    out.println("  -frames first-last  render a range of animation frames, numbered from 1");
+    out.println("  -start seconds      the start time of the animation to render");
+    out.println("  -end seconds        the end time of the animation to render");
+    out.println("  -fps n              the number of frames per second");
+    out.println("  -subimages n        the number of subimages to average for motion blur");
+    out.println("  -format name        jpg, tif, png, bmp, hdr, or mov (default: from the output file name)");
+    out.println("  -quality n          the quality for jpg and mov files, from 0 to 100");
+    out.println("  -overlap            prepare each animation frame while the previous one renders");
+    out.println("  -workers host:port,...  distribute rendering among RenderWorker processes");
+    out.println("  -tileSize pixels    split images into tiles of this size when using workers (0 for whole frames)");
+    out.println("  -workerTimeout n    seconds to wait for an unresponsive worker before giving its job to another (default: 60)");
+    out.println("  -workerSecretFile file  a file containing the secret the workers were started with");
+    out.println("  -meshCache dir      save tessellated meshes in a directory so later renders can reuse them");
+    out.println("  -meshCacheSize mb   the maximum size of the mesh cache directory in megabytes (default: 1024)");
+    out.println("Animation frames are numbered by inserting the frame number before the extension.");
+  }
+}
@@ -0,0 +1,578 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.image.*;
+import artofillusion.object.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.List;
+
+/** A DistributedRenderer divides the work of rendering images among RenderWorkers running
+    in other processes.  It connects to each worker and sends it the scene once.  The
+    images to render are then split into jobs, each one a complete image or (if the
+    Renderer is a RegionRenderer and a tile size has been set) a rectangular tile of one.
+    Each worker is given a new job as soon as it finishes the previous one.
+    <p>
+    The pieces are assembled into complete images, including any depth, object, and noise
+    channels, and then the camera's filters are applied.  If a worker reports an error, its
+    job is given to another worker.  If the connection to a worker fails or it stops
+    responding, that worker is dropped and its job is given to another worker.  A job is only
+    given back to a worker it already failed on once every remaining worker has failed it.
+    Rendering fails only if a job fails too many times, or if no workers remain. */
+
+public class DistributedRenderer
+{
+  private final Scene scene;
+  private final Renderer renderer;
+  private final List<InetSocketAddress> workers;
+  private int camera, width, height, fps, subimages, tileSize, maxAttempts, timeout, nextJobId;
+  private String secret;
+  private PrintStream log;
+  private byte sceneData[];
+
+  private final LinkedList<Job> pending;
+  private final Set<Integer> liveWorkers;
+  private final List<Socket> sockets;
+  private String failure;
+
+  /** Create a DistributedRenderer.
+      @param scene      the scene to render
+      @param renderer   the renderer to use.  The workers will use the renderer with the
+                        same name, configured with its current settings.
+      @param workers    the addresses of the workers to use
+  */
+
+  public DistributedRenderer(Scene scene, Renderer renderer, List<InetSocketAddress> workers)
+  {
+    this.scene = scene;
+    this.renderer = renderer;
+    this.workers = new ArrayList<InetSocketAddress>(workers);
+    width = 640;
+    height = 480;
+    fps = 30;
+    subimages = 1;
+    maxAttempts = 3;
+    timeout = 60000;
+    secret = "";
+    pending = new LinkedList<Job>();
+    liveWorkers = new HashSet<Integer>();
+    sockets = new ArrayList<Socket>();
+  }
+
+  /** Parse a comma separated list of worker addresses of the form host:port.  If the port
+      is omitted, RenderWorker.DEFAULT_PORT is used. */
+
+  public static List<InetSocketAddress> parseAddresses(String list)
+  {
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (String address : list.split(","))
+    {
+      address = address.trim();
+      if (address.length() == 0)
+        continue;
+      int colon = address.lastIndexOf(':');
+      if (colon == -1)
+        addresses.add(new InetSocketAddress(address, RenderWorker.DEFAULT_PORT));
+      else
+        addresses.add(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon+1))));
+    }
+    return addresses;
+  }
+
+  /** Set the index of the camera to render from (among the cameras returned by
+      Scene.getCameras()). */
+
+  public void setCamera(int index)
+  {
+    camera = index;
+  }
+
+  /** Set the size of the image to render. */
+
+  public void setImageSize(int width, int height)
+  {
+    this.width = width;
+    this.height = height;
+  }
+
+  /** Set the number of frames per second, and the number of subimages to average for each
+      frame to simulate motion blur. */
+
+  public void setFrameRate(int fps, int subimages)
+  {
+    this.fps = fps;
+    this.subimages = subimages;
+  }
+
+  /** Set the size of the tiles to split each image into.  If this is 0, every job renders
+      a complete image.  Tiles can only be used if the Renderer is a RegionRenderer. */
+
+  public void setTileSize(int size)
+  {
+    if (size > 0 && !(renderer instanceof RegionRenderer))
+      throw new IllegalArgumentException(renderer.getName()+" cannot render images in tiles");
+    tileSize = size;
+  }
+
+  /** Set the maximum number of times to attempt each job before giving up. */
+
+  public void setMaxAttempts(int attempts)
+  {
+    maxAttempts = attempts;
+  }
+
+  /** Set how long to wait, in milliseconds, for a worker to connect or respond before treating
+      it as failed.  Workers report that they are still busy while rendering, so this does not
+      limit how long a job may take.  0 means to wait forever. */
+
+  public void setTimeout(int millis)
+  {
+    timeout = millis;
+  }
+
+  /** Set the secret which the workers have been told to require.  An empty secret (the
+      default) is only accepted by workers which were not given one. */
+
+  public void setSecret(String secret)
+  {
+    this.secret = secret;
+  }
+
+  /** Set a stream to which progress messages should be printed, or null to print nothing. */
+
+  public void setLog(PrintStream log)
+  {
+    this.log = log;
+  }
+
+  /** Render a single image of the scene at a specified time.  If the frame rate specifies
+      more than one subimage, they are averaged together over the length of one frame.
+      Camera filters are applied to the result. */
+
+  public ComplexImage renderFrame(double time) throws IOException, InterruptedException
+  {
+    final ComplexImage result[] = new ComplexImage [1];
+    render(new double [] {time}, new FrameHandler() {
+      @Override
+      public void frameComplete(int index, ComplexImage image)
+      {
+        result[0] = image;
+      }
+    });
+    return result[0];
+  }
+
+  /** Render a range of frames and save them.
+      @param firstFrame   the first frame to render, numbered from 1
+      @param lastFrame    the last frame to render
+      @param saver        the ImageSaver to save frames with
+  */
+
+  public void renderAnimation(final int firstFrame, int lastFrame, final ImageSaver saver) throws IOException, InterruptedException
+  {
+    if (lastFrame < firstFrame)
+      return;
+    double times[] = new double [lastFrame-firstFrame+1];
+    for (int i = 0; i < times.length; i++)
+      times[i] = (firstFrame+i-1)/(double) fps;
+    render(times, new FrameHandler() {
+      @Override
+      public void frameComplete(int index, ComplexImage image) throws IOException
+      {
+        print("Saving frame "+(firstFrame+index));
+        saver.saveImage(image);
+      }
+    });
+    saver.lastMovieImage();
+  }
+
+  /** Render a series of frames.  The frames are passed to the handler in order as they are
+      completed. */
+
+  private void render(double frameTimes[], FrameHandler handler) throws IOException, InterruptedException
+  {
+    // Create the jobs.
+
+    List<Rectangle> tiles = new ArrayList<Rectangle>();
+    if (tileSize > 0)
+    {
+      for (int y = 0; y < height; y += tileSize)
+        for (int x = 0; x < width; x += tileSize)
+          tiles.add(new Rectangle(x, y, Math.min(tileSize, width-x), Math.min(tileSize, height-y)));
+    }
+    else
+      tiles.add(new Rectangle(0, 0, width, height));
+    PendingImage images[] = new PendingImage [frameTimes.length*subimages];
+    synchronized (this)
+    {
+      pending.clear();
+      failure = null;
+      for (int i = 0; i < images.length; i++)
+      {
+        double time = frameTimes[i/subimages]+(i%subimages)/(double) (fps*subimages);
+        images[i] = new PendingImage(time, tiles.size());
+        for (Rectangle tile : tiles)
+          pending.add(new Job(nextJobId++, images[i], tile));
+      }
+    }
+
+    // Start a thread to communicate with each worker.
+
+    if (sceneData == null)
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      scene.writeToStream(out);
+      out.close();
+      sceneData = bytes.toByteArray();
+    }
+    List<Thread> threads = new ArrayList<Thread>();
+    synchronized (this)
+    {
+      liveWorkers.clear();
+      for (int i = 0; i < workers.size(); i++)
+        liveWorkers.add(i);
+    }
+    for (int i = 0; i < workers.size(); i++)
+    {
+      final InetSocketAddress address = workers.get(i);
+      final int worker = i;
+      Thread thread = new Thread("Render worker connection "+address) {
+        @Override
+        public void run()
+        {
+          runWorker(address, worker);
+        }
+      };
+      thread.setDaemon(true);
+      threads.add(thread);
+      thread.start();
+    }
+
+    // Wait for the images in order, and assemble them into frames.
+
+    try
+    {
+      ImageAverager averager = (subimages > 1 ? new ImageAverager(width, height) : null);
+      for (int i = 0; i < images.length; i++)
+      {
+        PendingImage image = images[i];
+        synchronized (this)
+        {
+          while (image.tilesRemaining > 0 && failure == null)
+            wait();
+          if (failure != null)
+            throw new IOException(failure);
+        }
+        images[i] = null;
+        ComplexImage complete = image.createComplexImage();
+        scene.setTime(image.time);
+        ObjectInfo cameraInfo = getCamera();
+        ((SceneCamera) cameraInfo.getObject()).applyImageFilters(complete, scene, cameraInfo.getCoords());
+        if (averager == null)
+          handler.frameComplete(i, complete);
+        else
+        {
+          averager.addImage(complete);
+          if ((i+1)%subimages == 0)
+          {
+            handler.frameComplete(i/subimages, averager.getAverageImage());
+            averager.clear();
+          }
+        }
+      }
+    }
+    finally
+    {
+      synchronized (this)
+      {
+        pending.clear();
+        if (failure == null)
+          failure = "Rendering finished";
+        notifyAll();
+        for (Socket socket : sockets)
+        {
+          try
+          {
+            socket.close();
+          }
+          catch (IOException ex)
+          {
+          }
+        }
+        sockets.clear();
+      }
+      for (Thread thread : threads)
+        thread.interrupt();
+      for (Thread thread : threads)
+        thread.join();
+    }
+  }
+
+  /** Get the camera to render from. */
+
+  private ObjectInfo getCamera()
+  {
+    List<ObjectInfo> cameras = scene.getCameras();
+    if (cameras.isEmpty())
+      throw new IllegalStateException("The scene contains no camera");
+    return cameras.get(camera < cameras.size() ? camera : 0);
+  }
+
+  /** Send jobs to a worker until there are none left or the connection fails. */
+
+  private void runWorker(InetSocketAddress address, int worker)
+  {
+    Job job = null;
+    String error = null;
+    try (Socket socket = new Socket())
+    {
+      synchronized (this)
+      {
+        if (failure != null)
+          return;
+        sockets.add(socket);
+      }
+      socket.connect(address, timeout);
+      socket.setSoTimeout(timeout);
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      out.writeInt(RenderWorker.MAGIC);
+      out.writeInt(RenderWorker.PROTOCOL_VERSION);
+      out.flush();
+      if (in.readInt() != RenderWorker.MAGIC || in.readInt() != RenderWorker.PROTOCOL_VERSION)
+        throw new IOException("Unsupported protocol");
+      byte challenge[] = new byte [RenderWorker.CHALLENGE_LENGTH];
+      in.readFully(challenge);
+      out.write(RenderWorker.getResponse(challenge, secret));
+      out.flush();
+      if (in.readInt() != RenderWorker.MSG_ACCEPTED)
+        throw new IOException("The worker rejected the secret");
+      out.writeInt(RenderWorker.MSG_SCENE);
+      out.writeUTF(renderer.getName());
+      RenderWorker.writeConfiguration(out, renderer.getConfiguration());
+      out.writeInt(camera);
+      out.writeInt(width);
+      out.writeInt(height);
+      out.writeInt(timeout);
+      out.writeInt(sceneData.length);
+      out.write(sceneData);
+      out.flush();
+      print("Connected to "+address);
+      while ((job = nextJob(worker)) != null)
+      {
+        out.writeInt(RenderWorker.MSG_RENDER);
+        out.writeInt(job.id);
+        out.writeDouble(job.image.time);
+        out.writeInt(job.region.x);
+        out.writeInt(job.region.y);
+        out.writeInt(job.region.width);
+        out.writeInt(job.region.height);
+        out.flush();
+        int message;
+        do
+        {
+          message = in.readInt();
+          if (in.readInt() != job.id)
+            throw new IOException("Received a reply for the wrong job");
+        } while (message == RenderWorker.MSG_BUSY);
+        if (message == RenderWorker.MSG_ERROR)
+        {
+          String workerError = in.readUTF();
+          print("Error from "+address+": "+workerError);
+          retry(job, worker, workerError);
+          job = null;
+          continue;
+        }
+        if (message != RenderWorker.MSG_IMAGE)
+          throw new IOException("Unknown message: "+message);
+        job.image.addTile(job.region, in);
+        synchronized (this)
+        {
+          notifyAll();
+        }
+        job = null;
+      }
+    }
+    catch (Exception ex)
+    {
+      error = ex.toString();
+      synchronized (this)
+      {
+        if (failure == null)
+          print("Lost connection to "+address+": "+ex);
+      }
+    }
+    finally
+    {
+      // Whatever went wrong, make sure the job this worker was working on is not lost.
+
+      synchronized (this)
+      {
+        if (job != null)
+          retry(job, worker, error == null ? "Lost connection to "+address : error);
+        liveWorkers.remove(worker);
+        if (liveWorkers.isEmpty() && failure == null)
+          failure = "No render workers are available";
+        notifyAll();
+      }
+    }
+  }
+
+  /** Get the next job for a worker to perform, or null if there are no more.  Jobs which
+      have already failed on this worker are skipped, unless every remaining worker has
+      failed them. */
+
+  private synchronized Job nextJob(int worker)
+  {
+    while (failure == null)
+    {
+      for (Iterator<Job> iter = pending.iterator(); iter.hasNext(); )
+      {
+        Job job = iter.next();
+        if (!job.failedWorkers.contains(worker) || job.failedWorkers.containsAll(liveWorkers))
+        {
+          iter.remove();
+          return job;
+        }
+      }
+      try
+      {
+        wait();
+      }
+      catch (InterruptedException ex)
+      {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /** Put a job that failed back at the front of the queue, unless it has been attempted too
+      many times. */
+
+  private synchronized void retry(Job job, int worker, String error)
+  {
+    if (failure != null)
+      return;
+    job.failedWorkers.add(worker);
+    if (++job.attempts >= maxAttempts)
+      failure = "Rendering failed after "+job.attempts+" attempts: "+error;
+    else
+      pending.addFirst(job);
+    notifyAll();
+  }
+
+  private void print(String message)
+  {
+    if (log != null)
+      log.println(message);
+  }
+
+  /** This interface receives frames as they are completed. */
+
+  private interface FrameHandler
+  {
+    void frameComplete(int index, ComplexImage image) throws IOException;
+  }
+
+  /** This class describes one piece of an image to be rendered. */
+
+  private static class Job
+  {
+    final int id;
+    final PendingImage image;
+    final Rectangle region;
+    final Set<Integer> failedWorkers;
+    int attempts;
+
+    Job(int id, PendingImage image, Rectangle region)
+    {
+      this.id = id;
+      this.image = image;
+      this.region = region;
+      failedWorkers = new HashSet<Integer>();
+    }
+  }
+
+  /** This class holds an image while its tiles are being received. */
+
+  private class PendingImage
+  {
+    final double time;
+    int tilesRemaining;
+    int pixels[];
+    float components[][];
+
+    PendingImage(double time, int tiles)
+    {
+      this.time = time;
+      tilesRemaining = tiles;
+    }
+
+    /** Read a tile sent by a worker and copy it into the image. */
+
+    void addTile(Rectangle region, DataInputStream in) throws IOException
+    {
+      int w = in.readInt(), h = in.readInt(), mask = in.readInt();
+      if (w != region.width || h != region.height)
+        throw new IOException("Received an image of the wrong size");
+      int tilePixels[] = new int [w*h];
+      for (int i = 0; i < tilePixels.length; i++)
+        tilePixels[i] = in.readInt();
+      float tileComponents[][] = new float [RenderWorker.FLOAT_COMPONENTS.length][];
+      for (int i = 0; i < tileComponents.length; i++)
+        if ((mask&RenderWorker.FLOAT_COMPONENTS[i]) != 0)
+        {
+          tileComponents[i] = new float [w*h];
+          for (int j = 0; j < tileComponents[i].length; j++)
+            tileComponents[i][j] = in.readFloat();
+        }
+      synchronized (DistributedRenderer.this)
+      {
+        if (pixels == null)
+        {
+          pixels = new int [width*height];
+          components = new float [tileComponents.length][];
+        }
+        for (int y = 0; y < h; y++)
+          System.arraycopy(tilePixels, y*w, pixels, (region.y+y)*width+region.x, w);
+        for (int i = 0; i < tileComponents.length; i++)
+        {
+          if (tileComponents[i] == null)
+            continue;
+          if (components[i] == null)
+            components[i] = new float [width*height];
+          for (int y = 0; y < h; y++)
+            System.arraycopy(tileComponents[i], y*w, components[i], (region.y+y)*width+region.x, w);
+        }
+        tilesRemaining--;
+      }
+    }
+
+    /** Create a ComplexImage from the assembled tiles. */
+
+    ComplexImage createComplexImage()
+    {
+      MemoryImageSource source = new MemoryImageSource(width, height, pixels, 0, width);
+      ComplexImage image = new ComplexImage(Toolkit.getDefaultToolkit().createImage(source));
+      for (int i = 0; i < components.length; i++)
+        if (components[i] != null)
+          image.setComponentValues(RenderWorker.FLOAT_COMPONENTS[i], components[i]);
+      return image;
+    }
+  }
+}
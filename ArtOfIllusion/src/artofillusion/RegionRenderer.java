@@ -0,0 +1,32 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.object.*;
+import java.awt.*;
+
+/** A RegionRenderer is a Renderer that can render just one rectangular region of an image.
+    This allows an image to be split into tiles which are rendered separately, then
+    assembled into the full image. */
+
+public interface RegionRenderer extends Renderer
+{
+  /** Begin rendering a region of an image.  This is identical to renderScene(), except that
+      the image passed to the listener contains only the pixels inside the region.
+      @param theScene      the Scene to render
+      @param theCamera     the Camera to render from, whose size is the size of the full image
+      @param listener      the listener to notify of progress
+      @param sceneCamera   the SceneCamera to render from
+      @param region        the region of the full image to render
+  */
+
+  public void renderRegion(Scene theScene, Camera theCamera, RenderListener listener, SceneCamera sceneCamera, Rectangle region);
+}
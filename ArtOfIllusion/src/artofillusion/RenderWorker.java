@@ -0,0 +1,533 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.image.*;
+import artofillusion.object.*;
+import artofillusion.ui.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/** A RenderWorker renders images on behalf of a DistributedRenderer running in another
+    process, usually on another machine.  It listens for connections on a socket.  Each
+    coordinator that connects first sends a scene and renderer configuration, then any
+    number of requests to render a frame or a region of a frame at a particular time.  The
+    worker renders each one and sends back the raw image, including any depth, object, and
+    noise channels needed by the camera's filters.  The filters themselves are applied by
+    the coordinator once the image is assembled.  While it is rendering, the worker
+    periodically tells the coordinator that it is still busy, so the coordinator can tell
+    a long render apart from a worker that has stopped responding.
+    <p>
+    To start a worker from the command line, use
+    <pre>
+    java -Djava.awt.headless=true -cp ArtOfIllusion.jar artofillusion.RenderWorker [-port n] [-bind address] [-secretFile file]
+    </pre>
+    Coordinators are served one at a time.
+    <p>
+    A worker trusts every coordinator that connects to it completely.  Loading a scene can
+    create instances of any class named in it, so anyone who can send a scene can run code
+    in the worker's process.  For that reason a worker only listens on the loopback address
+    unless it is given a different address with -bind, and it then requires a secret, which
+    is read from a file so it does not appear on the command line.  Every coordinator must
+    prove that it knows the same secret before it can send anything.  The secret itself is
+    never sent, but nothing else is encrypted or authenticated, so workers should only be
+    reachable over networks where nobody can watch or tamper with the connections, or through
+    a tunnel such as SSH. */
+
+public class RenderWorker
+{
+  private final ServerSocket server;
+  private final String secret;
+  private final SecureRandom random;
+  private PrintStream log;
+
+  public static final int DEFAULT_PORT = 9271;
+
+  static final int MAGIC = 0x416f4952;
+  static final int PROTOCOL_VERSION = 2;
+  static final int MSG_SCENE = 1;
+  static final int MSG_RENDER = 2;
+  static final int MSG_IMAGE = 3;
+  static final int MSG_ERROR = 4;
+  static final int MSG_BUSY = 5;
+  static final int MSG_ACCEPTED = 6;
+  static final int MSG_REJECTED = 7;
+
+  /** The length of the random challenge a worker sends to each coordinator. */
+
+  static final int CHALLENGE_LENGTH = 16;
+
+  /** Limits on values received from a coordinator, so a malformed request cannot make the
+      worker try to allocate absurd amounts of memory. */
+
+  static final int MAX_SCENE_SIZE = 1<<30;
+  static final int MAX_CONFIGURATION_SIZE = 10000;
+  static final int MAX_IMAGE_SIZE = 16384;
+
+  /** The components which are transferred as floating point data, if present. */
+
+  static final int FLOAT_COMPONENTS[] = {ComplexImage.RED, ComplexImage.GREEN, ComplexImage.BLUE, ComplexImage.ALPHA,
+      ComplexImage.DEPTH, ComplexImage.OBJECT, ComplexImage.NOISE};
+
+  /** Create a RenderWorker which accepts connections on a ServerSocket.
+      @param server    the socket to accept connections on
+      @param secret    coordinators must prove they know this secret before they are served.
+                       This may be empty, in which case anyone who can connect to the socket
+                       will be served.
+  */
+
+  public RenderWorker(ServerSocket server, String secret)
+  {
+    this.server = server;
+    this.secret = secret;
+    random = new SecureRandom();
+  }
+
+  /** Set a stream to which progress messages should be printed, or null to print nothing. */
+
+  public void setLog(PrintStream log)
+  {
+    this.log = log;
+  }
+
+  /** Accept and serve coordinators until the ServerSocket is closed. */
+
+  public void run()
+  {
+    while (!server.isClosed())
+    {
+      try (Socket socket = server.accept())
+      {
+        print("Connection from "+socket.getRemoteSocketAddress());
+
+        // Keep meshes in memory while serving this coordinator, so later jobs for the same scene
+        // can reuse them, but release them once it disconnects.
+
+        RenderingMeshCache.getDefault().beginSession();
+        try
+        {
+          serve(socket);
+        }
+        finally
+        {
+          RenderingMeshCache.getDefault().endSession();
+        }
+      }
+      catch (Exception ex)
+      {
+        if (!server.isClosed())
+          print("Connection ended: "+ex);
+      }
+    }
+  }
+
+  /** Handle all requests from one coordinator. */
+
+  private void serve(Socket socket) throws IOException
+  {
+    socket.setTcpNoDelay(true);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    if (in.readInt() != MAGIC || in.readInt() != PROTOCOL_VERSION)
+      throw new IOException("Unsupported protocol");
+    byte challenge[] = new byte [CHALLENGE_LENGTH];
+    random.nextBytes(challenge);
+    out.writeInt(MAGIC);
+    out.writeInt(PROTOCOL_VERSION);
+    out.write(challenge);
+    out.flush();
+    byte expected[] = getResponse(challenge, secret);
+    byte response[] = new byte [expected.length];
+    in.readFully(response);
+    if (!MessageDigest.isEqual(expected, response))
+    {
+      out.writeInt(MSG_REJECTED);
+      out.flush();
+      throw new IOException("Incorrect secret");
+    }
+    out.writeInt(MSG_ACCEPTED);
+    out.flush();
+    Scene scene = null;
+    Renderer renderer = null;
+    int camera = 0, width = 0, height = 0, timeout = 0;
+    while (true)
+    {
+      int message;
+      try
+      {
+        message = in.readInt();
+      }
+      catch (EOFException ex)
+      {
+        print("Coordinator disconnected");
+        return;
+      }
+      if (message == MSG_SCENE)
+      {
+        String rendererName = in.readUTF();
+        Map<String, Object> config = readConfiguration(in);
+        camera = in.readInt();
+        width = in.readInt();
+        height = in.readInt();
+        timeout = in.readInt();
+        if (camera < 0 || width < 1 || height < 1 || width > MAX_IMAGE_SIZE || height > MAX_IMAGE_SIZE || timeout < 0)
+          throw new IOException("Invalid scene parameters");
+        byte data[] = readData(in, MAX_SCENE_SIZE);
+        renderer = BatchRenderer.findRenderer(rendererName);
+        if (renderer == null)
+          throw new IOException("Unknown renderer: "+rendererName);
+        for (Map.Entry<String, Object> entry : config.entrySet())
+          renderer.setConfiguration(entry.getKey(), entry.getValue());
+        scene = new Scene(new DataInputStream(new ByteArrayInputStream(data)), true);
+        print("Received scene ("+data.length+" bytes)");
+      }
+      else if (message == MSG_RENDER)
+      {
+        int job = in.readInt();
+        double time = in.readDouble();
+        Rectangle region = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        if (scene == null)
+          throw new IOException("No scene has been sent");
+        if (region.x < 0 || region.y < 0 || region.width < 1 || region.height < 1 || region.width > width-region.x || region.height > height-region.y)
+          throw new IOException("Invalid region: "+region);
+        ComplexImage image;
+        try
+        {
+          image = render(scene, renderer, camera, width, height, time, region, job, timeout/4, out);
+        }
+        catch (Exception ex)
+        {
+          out.writeInt(MSG_ERROR);
+          out.writeInt(job);
+          out.writeUTF(ex.toString());
+          out.flush();
+          continue;
+        }
+        writeImage(out, job, image);
+        out.flush();
+      }
+      else
+        throw new IOException("Unknown message: "+message);
+    }
+  }
+
+  /** Render an image, or one region of it.  If heartbeat is greater than 0, a message is
+      sent to the coordinator every heartbeat milliseconds until rendering is complete. */
+
+  private ComplexImage render(final Scene scene, final Renderer renderer, int camera, int width, int height, double time, Rectangle region,
+      final int job, int heartbeat, final DataOutputStream out) throws InterruptedException
+  {
+    print("Rendering "+region.width+"x"+region.height+" region at ("+region.x+", "+region.y+"), time "+time);
+    scene.setTime(time);
+    List<ObjectInfo> cameras = scene.getCameras();
+    if (cameras.isEmpty())
+      throw new IllegalStateException("The scene contains no camera");
+    ObjectInfo cameraInfo = cameras.get(camera < cameras.size() ? camera : 0);
+    SceneCamera sc = (SceneCamera) cameraInfo.getObject();
+    Camera cam = sc.createCamera(width, height, cameraInfo.getCoords());
+    final ComplexImage result[] = new ComplexImage [1];
+    final CountDownLatch done = new CountDownLatch(1);
+    RenderListener listener = new RenderListener() {
+      @Override
+      public void imageComplete(ComplexImage image)
+      {
+        result[0] = image;
+        done.countDown();
+      }
+
+      @Override
+      public void renderingCanceled()
+      {
+        done.countDown();
+      }
+    };
+    if (!(region.x == 0 && region.y == 0 && region.width == width && region.height == height) && !(renderer instanceof RegionRenderer))
+      throw new IllegalStateException(renderer.getName()+" cannot render regions of images");
+
+    // Some renderers do all their work inside renderScene(), so the heartbeat is sent from a
+    // separate thread.
+
+    final boolean rendering[] = {true};
+    Timer timer = new Timer("Render worker heartbeat", true);
+    if (heartbeat > 0)
+      timer.schedule(new TimerTask() {
+        @Override
+        public void run()
+        {
+          try
+          {
+            synchronized (rendering)
+            {
+              if (!rendering[0])
+                return;
+              out.writeInt(MSG_BUSY);
+              out.writeInt(job);
+              out.flush();
+            }
+          }
+          catch (IOException ex)
+          {
+            // The coordinator has gone away, so there is no point in finishing.
+
+            cancel();
+            renderer.cancelRendering(scene);
+          }
+        }
+      }, heartbeat, heartbeat);
+    try
+    {
+      if (region.x == 0 && region.y == 0 && region.width == width && region.height == height)
+        renderer.renderScene(scene, cam, listener, sc);
+      else
+        ((RegionRenderer) renderer).renderRegion(scene, cam, listener, sc, region);
+      done.await();
+    }
+    finally
+    {
+      synchronized (rendering)
+      {
+        rendering[0] = false;
+      }
+      timer.cancel();
+    }
+    if (result[0] == null)
+      throw new IllegalStateException("Rendering was canceled");
+    return result[0];
+  }
+
+  /** Start a worker from the command line. */
+
+  public static void main(String args[])
+  {
+    System.setProperty("java.awt.headless", "true");
+    int port = DEFAULT_PORT;
+    InetAddress address = InetAddress.getLoopbackAddress();
+    String secret = "";
+    try
+    {
+      if (args.length%2 != 0)
+        throw new IllegalArgumentException("Missing value for "+args[args.length-1]);
+      for (int i = 0; i < args.length; i += 2)
+      {
+        if (args[i].equals("-port"))
+          port = Integer.parseInt(args[i+1]);
+        else if (args[i].equals("-bind"))
+          address = InetAddress.getByName(args[i+1]);
+        else if (args[i].equals("-secretFile"))
+          secret = readSecret(args[i+1]);
+        else
+          throw new IllegalArgumentException("Unknown option: "+args[i]);
+      }
+      if (!address.isLoopbackAddress() && secret.length() == 0)
+        throw new IllegalArgumentException("A secret is required to listen on "+address.getHostAddress());
+    }
+    catch (Exception ex)
+    {
+      System.out.println(ex.getMessage());
+      System.out.println("Usage: java -cp ArtOfIllusion.jar artofillusion.RenderWorker [-port n] [-bind address] [-secretFile file]");
+      System.exit(2);
+    }
+    Translate.setLocale(Locale.getDefault());
+    ArtOfIllusion.initialize();
+    try
+    {
+      ServerSocket server = new ServerSocket(port, 50, address);
+      System.out.println("Listening on "+address.getHostAddress()+" port "+server.getLocalPort());
+      RenderWorker worker = new RenderWorker(server, secret);
+      worker.setLog(System.out);
+      worker.run();
+    }
+    catch (IOException ex)
+    {
+      System.err.println(ex.getMessage());
+      System.exit(1);
+    }
+  }
+
+  private void print(String message)
+  {
+    if (log != null)
+      log.println(message);
+  }
+
+  /** Read a secret from the first line of a file. */
+
+  static String readSecret(String file) throws IOException
+  {
+    List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+    String secret = (lines.isEmpty() ? "" : lines.get(0).trim());
+    if (secret.length() == 0)
+      throw new IOException("No secret found in "+file);
+    return secret;
+  }
+
+  /** Get the response that proves a coordinator knows the secret, given the challenge sent
+      by the worker. */
+
+  static byte[] getResponse(byte challenge[], String secret)
+  {
+    try
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(challenge);
+      digest.update(secret.getBytes(StandardCharsets.UTF_8));
+      return digest.digest();
+    }
+    catch (NoSuchAlgorithmException ex)
+    {
+      // Every Java implementation is required to support SHA-256.
+
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /** Read a block of data which is preceded by its length.  The buffer only grows as data
+      arrives, so a bad length cannot make this allocate more memory than is actually sent. */
+
+  static byte[] readData(DataInputStream in, int maxLength) throws IOException
+  {
+    int length = in.readInt();
+    if (length < 0 || length > maxLength)
+      throw new IOException("Invalid data length: "+length);
+    ByteArrayOutputStream data = new ByteArrayOutputStream(Math.min(length, 65536));
+    byte buffer[] = new byte [Math.min(length, 65536)];
+    while (data.size() < length)
+    {
+      int count = in.read(buffer, 0, Math.min(buffer.length, length-data.size()));
+      if (count < 0)
+        throw new EOFException();
+      data.write(buffer, 0, count);
+    }
+    return data.toByteArray();
+  }
+
+  /** Write a renderer configuration.  Only values of the types allowed for renderer options
+      are written. */
+
+  static void writeConfiguration(DataOutputStream out, Map<String, Object> config) throws IOException
+  {
+    Map<String, Object> valid = new LinkedHashMap<String, Object>();
+    for (Map.Entry<String, Object> entry : config.entrySet())
+    {
+      Object value = entry.getValue();
+      if (value instanceof Boolean || value instanceof Integer || value instanceof Float || value instanceof Double || value instanceof String)
+        valid.put(entry.getKey(), value);
+    }
+    out.writeInt(valid.size());
+    for (Map.Entry<String, Object> entry : valid.entrySet())
+    {
+      out.writeUTF(entry.getKey());
+      Object value = entry.getValue();
+      if (value instanceof Boolean)
+      {
+        out.writeByte('Z');
+        out.writeBoolean((Boolean) value);
+      }
+      else if (value instanceof Integer)
+      {
+        out.writeByte('I');
+        out.writeInt((Integer) value);
+      }
+      else if (value instanceof Float)
+      {
+        out.writeByte('F');
+        out.writeFloat((Float) value);
+      }
+      else if (value instanceof Double)
+      {
+        out.writeByte('D');
+        out.writeDouble((Double) value);
+      }
+      else
+      {
+        out.writeByte('S');
+        out.writeUTF((String) value);
+      }
+    }
+  }
+
+  /** Read a renderer configuration written by writeConfiguration(). */
+
+  static Map<String, Object> readConfiguration(DataInputStream in) throws IOException
+  {
+    Map<String, Object> config = new LinkedHashMap<String, Object>();
+    int count = in.readInt();
+    if (count < 0 || count > MAX_CONFIGURATION_SIZE)
+      throw new IOException("Invalid configuration size: "+count);
+    for (int i = 0; i < count; i++)
+    {
+      String key = in.readUTF();
+      int type = in.readByte();
+      switch (type)
+      {
+        case 'Z':
+          config.put(key, in.readBoolean());
+          break;
+        case 'I':
+          config.put(key, in.readInt());
+          break;
+        case 'F':
+          config.put(key, in.readFloat());
+          break;
+        case 'D':
+          config.put(key, in.readDouble());
+          break;
+        case 'S':
+          config.put(key, in.readUTF());
+          break;
+        default:
+          throw new IOException("Unknown value type: "+type);
+      }
+    }
+    return config;
+  }
+
+  /** Write a rendered image, along with all floating point components it contains. */
+
+  static void writeImage(DataOutputStream out, int job, ComplexImage image) throws IOException
+  {
+    int width = image.getWidth(), height = image.getHeight();
+    int pixels[] = new int [width*height];
+    PixelGrabber pg = new PixelGrabber(image.getImage(), 0, 0, width, height, pixels, 0, width);
+    try
+    {
+      pg.grabPixels();
+    }
+    catch (InterruptedException ex)
+    {
+      throw new InterruptedIOException();
+    }
+    int components = 0;
+    for (int component : FLOAT_COMPONENTS)
+      if (image.hasFloatData(component))
+        components |= component;
+    out.writeInt(MSG_IMAGE);
+    out.writeInt(job);
+    out.writeInt(width);
+    out.writeInt(height);
+    out.writeInt(components);
+    for (int pixel : pixels)
+      out.writeInt(pixel);
+    for (int component : FLOAT_COMPONENTS)
+      if ((components&component) != 0)
+        for (int y = 0; y < height; y++)
+          for (int x = 0; x < width; x++)
+            out.writeFloat(image.getPixelComponent(x, y, component));
+  }
+}
@@ -39,7 +39,7 @@ public class RenderingDialog extends BDialog implements RenderListener
   private BFrame parent;
   private int w, h, fps, subimages, currentFrame, currentSubimage, totalFrames;
   private long startTime;
-  private boolean done, hasModifiedFilters;
+  private boolean done, hasModifiedFilters, meshCacheSession;
 
   /** Render a single frame. */
 
@@ -52,6 +52,7 @@ public class RenderingDialog extends BDialog implements RenderListener
     theScene = sc;
     layoutDialog(parent, cam);
     startTime = System.currentTimeMillis();
+    beginMeshCacheSession();
     SceneCamera scm = (SceneCamera) sceneCamera.getObject();
     rend.renderScene(sc, cam, this, scm);
     setVisible(true);
@@ -81,6 +82,7 @@ public class RenderingDialog extends BDialog implements RenderListener
       imgaverager = new ImageAverager(theCamera.getSize().width, theCamera.getSize().height);
     layoutDialog(parent, cam);
     startTime = System.currentTimeMillis();
+    beginMeshCacheSession();
     sc.setTime(start);
     theCamera.setCameraCoordinates(sceneCamera.getCoords().duplicate());
     SceneCamera scm = (SceneCamera) sceneCamera.getObject();
@@ -117,10 +119,28 @@ public class RenderingDialog extends BDialog implements RenderListener
     addEventLink(WindowClosingEvent.class, this, "doCancel");
   }
 
+  /** Keep tessellated meshes in memory while rendering, so they can be reused for every frame. */
+
+  private synchronized void beginMeshCacheSession()
+  {
+    RenderingMeshCache.getDefault().beginSession();
+    meshCacheSession = true;
+  }
+
+  /** Release the meshes kept in memory once rendering has finished or been canceled. */
+
+  private synchronized void endMeshCacheSession()
+  {
+    if (meshCacheSession)
+      RenderingMeshCache.getDefault().endSession();
+    meshCacheSession = false;
+  }
+
   private void doCancel()
   {
     done = true;
     renderer.cancelRendering(theScene);
+    endMeshCacheSession();
     if (imgsaver != null)
     {
       theScene.setTime(originalTime);
@@ -324,6 +344,7 @@ public class RenderingDialog extends BDialog implements RenderListener
             if (currentFrame == totalFrames)
             {
               done = true;
+              endMeshCacheSession();
               if (imgsaver != null)
                 imgsaver.lastMovieImage();
               label1.setText(Translate.text("doneRendering"));
@@ -361,6 +382,7 @@ public class RenderingDialog extends BDialog implements RenderListener
   @Override
   public void renderingCanceled()
   {
+    endMeshCacheSession();
     dispose();
   }
 
@@ -0,0 +1,568 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.material.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+/** A RenderingMeshCache stores the rendering meshes generated for objects, so that objects
+    which have not changed do not need to be tessellated again for every frame of an
+    animation, or every time a scene is rendered.
+    <p>
+    Meshes are identified by a hash of the object's serialized contents and the surface
+    error they were generated with, so any change to an object automatically causes a new
+    mesh to be generated, and identical objects share a single mesh.  Only the geometry and
+    texture parameters are stored.  Each time a mesh is retrieved, its triangles are
+    regenerated from the object's current TextureMapping, so textures may be changed freely.
+    <p>
+    Meshes are only kept in memory while a render is in progress, as marked by calls to
+    {@link #beginSession()} and {@link #endSession()}, and are discarded when the last session
+    ends.  Within a session they are kept up to a maximum size, discarding the least recently
+    used ones when it is exceeded.  Optionally a directory may also be specified, in which case
+    meshes are also saved to disk so they can be reused by later renders and processes.  The
+    directory is limited to a maximum size as well, deleting the least recently used files
+    when it is exceeded.  Meshes are only cached
+    for objects whose tessellation is expensive (triangle meshes, spline meshes, tubes,
+    implicit objects, and CSG objects).  Other objects are tessellated directly. */
+
+public class RenderingMeshCache
+{
+  private final LinkedHashMap<String, Entry> entries;
+  private long maxMemory, usedMemory, maxDiskSpace, usedDiskSpace;
+  private File directory;
+  private int sessions;
+  private long memoryHits, diskHits, misses, evictions;
+
+  private static final RenderingMeshCache defaultCache = new RenderingMeshCache(Math.min(Runtime.getRuntime().maxMemory()/8, 256L*1024*1024));
+  private static final Scene EMPTY_SCENE = new Scene();
+  private static final int FILE_VERSION = 0;
+  private static final String FILE_SUFFIX = ".mesh";
+
+  /** Create a RenderingMeshCache.
+      @param maxMemory    the approximate number of bytes of meshes to keep in memory
+  */
+
+  public RenderingMeshCache(long maxMemory)
+  {
+    this.maxMemory = maxMemory;
+    maxDiskSpace = 1024L*1024*1024;
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  }
+
+  /** Get the cache used by ObjectInfo.getRenderingMesh(). */
+
+  public static RenderingMeshCache getDefault()
+  {
+    return defaultCache;
+  }
+
+  /** Get the approximate number of bytes of meshes to keep in memory. */
+
+  public synchronized long getMaxMemory()
+  {
+    return maxMemory;
+  }
+
+  /** Set the approximate number of bytes of meshes to keep in memory. */
+
+  public synchronized void setMaxMemory(long bytes)
+  {
+    maxMemory = bytes;
+    evict();
+  }
+
+  /** Get the approximate number of bytes currently used by meshes in memory. */
+
+  public synchronized long getMemoryUsed()
+  {
+    return usedMemory;
+  }
+
+  /** Mark the start of a render.  Until the matching call to {@link #endSession()}, meshes are
+      kept in memory so later requests for the same objects can reuse them.  Sessions may be
+      nested or overlap, in which case meshes are kept until all of them have ended. */
+
+  public synchronized void beginSession()
+  {
+    sessions++;
+  }
+
+  /** Mark the end of a render which was started with {@link #beginSession()}.  When no other
+      sessions remain, all meshes are discarded from memory. */
+
+  public synchronized void endSession()
+  {
+    if (sessions == 0)
+      throw new IllegalStateException("endSession() called without a matching beginSession()");
+    if (--sessions == 0)
+      clear();
+  }
+
+  /** Get the maximum number of bytes of mesh files to keep in the directory. */
+
+  public synchronized long getMaxDiskSpace()
+  {
+    return maxDiskSpace;
+  }
+
+  /** Set the maximum number of bytes of mesh files to keep in the directory.  When it is
+      exceeded, the least recently used files are deleted. */
+
+  public synchronized void setMaxDiskSpace(long bytes)
+  {
+    maxDiskSpace = bytes;
+    if (usedDiskSpace > maxDiskSpace)
+      pruneDirectory();
+  }
+
+  /** Get the approximate number of bytes used by mesh files in the directory. */
+
+  public synchronized long getDiskSpaceUsed()
+  {
+    return usedDiskSpace;
+  }
+
+  /** Get the directory in which meshes are saved, or null if they are only kept in memory. */
+
+  public synchronized File getDirectory()
+  {
+    return directory;
+  }
+
+  /** Set the directory in which meshes should be saved, or null if they should only be kept
+      in memory.  The least recently used files in this directory are deleted whenever their
+      total size exceeds the limit set by {@link #setMaxDiskSpace(long)}. */
+
+  public synchronized void setDirectory(File dir)
+  {
+    if (dir != null)
+      dir.mkdirs();
+    directory = dir;
+    usedDiskSpace = 0;
+    if (dir != null)
+      pruneDirectory();
+  }
+
+  /** Discard all meshes stored in memory. */
+
+  public synchronized void clear()
+  {
+    entries.clear();
+    usedMemory = 0;
+  }
+
+  /** Get the number of meshes that were found in memory. */
+
+  public synchronized long getMemoryHits()
+  {
+    return memoryHits;
+  }
+
+  /** Get the number of meshes that were loaded from disk. */
+
+  public synchronized long getDiskHits()
+  {
+    return diskHits;
+  }
+
+  /** Get the number of meshes that were not found in the cache and needed to be generated. */
+
+  public synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  /** Get the number of meshes that have been discarded from memory to make room for others. */
+
+  public synchronized long getEvictions()
+  {
+    return evictions;
+  }
+
+  /** Reset all of the hit, miss, and eviction counts to 0. */
+
+  public synchronized void resetStatistics()
+  {
+    memoryHits = diskHits = misses = evictions = 0;
+  }
+
+  /** Get a rendering mesh for an object, either from the cache or by tessellating it.
+      @param obj      the object to get a mesh for
+      @param tol      the maximum allowed surface error
+      @param info     the ObjectInfo to pass to the object's getRenderingMesh() method
+      @return a new mesh which the caller is free to modify
+  */
+
+  public RenderingMesh getRenderingMesh(Object3D obj, double tol, ObjectInfo info)
+  {
+    // Computing the key means serializing the whole object, so skip it when the mesh could
+    // neither be found nor kept.
+
+    synchronized (this)
+    {
+      if (sessions == 0 && directory == null)
+        return obj.getRenderingMesh(tol, false, info);
+    }
+    String key = getKey(obj, tol);
+    if (key == null)
+      return obj.getRenderingMesh(tol, false, info);
+    Entry entry;
+    File dir;
+    synchronized (this)
+    {
+      entry = entries.get(key);
+      if (entry != null)
+        memoryHits++;
+      dir = directory;
+    }
+    if (entry == null && dir != null)
+    {
+      File file = new File(dir, key+FILE_SUFFIX);
+      entry = readEntry(file);
+      if (entry != null)
+      {
+        file.setLastModified(System.currentTimeMillis());
+        synchronized (this)
+        {
+          diskHits++;
+          add(key, entry);
+        }
+      }
+    }
+    if (entry != null)
+      return entry.createMesh(obj.getTextureMapping(), obj.getMaterialMapping());
+    RenderingMesh mesh = obj.getRenderingMesh(tol, false, info);
+    boolean keep;
+    synchronized (this)
+    {
+      misses++;
+      keep = (sessions > 0);
+    }
+    if (mesh == null || (!keep && dir == null))
+      return mesh;
+    entry = new Entry(mesh);
+    synchronized (this)
+    {
+      add(key, entry);
+    }
+    if (dir != null)
+    {
+      long bytes = writeEntry(new File(dir, key+FILE_SUFFIX), entry);
+      synchronized (this)
+      {
+        if (dir == directory)
+        {
+          usedDiskSpace += bytes;
+          if (usedDiskSpace > maxDiskSpace)
+            pruneDirectory();
+        }
+      }
+    }
+    return mesh;
+  }
+
+  /** Determine whether meshes for an object should be cached. */
+
+  private static boolean isCacheable(Object3D obj)
+  {
+    while (obj instanceof ObjectWrapper)
+      obj = ((ObjectWrapper) obj).getWrappedObject();
+    return (obj instanceof TriangleMesh || obj instanceof SplineMesh || obj instanceof Tube ||
+        obj instanceof ImplicitObject || obj instanceof CSGObject);
+  }
+
+  /** Compute the key identifying the mesh for an object, or return null if it should not
+      be cached. */
+
+  static String getKey(Object3D obj, double tol)
+  {
+    if (!isCacheable(obj) || obj.getTextureMapping() == null)
+      return null;
+    while (obj instanceof ObjectWrapper)
+      obj = ((ObjectWrapper) obj).getWrappedObject();
+    try
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+        @Override
+        public void write(int b)
+        {
+        }
+
+        @Override
+        public void write(byte b[], int off, int len)
+        {
+        }
+      }, digest));
+      out.writeUTF(obj.getClass().getName());
+      out.writeDouble(tol);
+      obj.writeToFile(out, EMPTY_SCENE);
+      out.flush();
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest())
+        key.append(Character.forDigit((b>>4)&15, 16)).append(Character.forDigit(b&15, 16));
+      return key.toString();
+    }
+    catch (Exception ex)
+    {
+      // The object cannot be serialized without a real scene, so just don't cache it.
+
+      return null;
+    }
+  }
+
+  /** Add an entry to the cache, and discard old ones if necessary.  Nothing is kept in memory
+      unless a session is in progress. */
+
+  private void add(String key, Entry entry)
+  {
+    if (sessions == 0)
+      return;
+    Entry old = entries.put(key, entry);
+    if (old != null)
+      usedMemory -= old.size;
+    usedMemory += entry.size;
+    evict();
+  }
+
+  /** Discard the least recently used entries until the memory limit is satisfied. */
+
+  private void evict()
+  {
+    Iterator<Entry> iter = entries.values().iterator();
+    while (usedMemory > maxMemory && iter.hasNext())
+    {
+      usedMemory -= iter.next().size;
+      iter.remove();
+      evictions++;
+    }
+  }
+
+  /** Measure the mesh files in the directory, and if they exceed the maximum size, delete the
+      least recently used ones until they only fill 3/4 of it.  This leaves room for new files
+      so the directory does not need to be pruned again after every mesh is written.  The
+      directory may be shared with other processes, so its contents are always measured rather
+      than trusting usedDiskSpace. */
+
+  private void pruneDirectory()
+  {
+    File files[] = directory.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file)
+      {
+        return file.isFile() && file.getName().endsWith(FILE_SUFFIX);
+      }
+    });
+    if (files == null)
+      return;
+    final Map<File, Long> modified = new HashMap<File, Long>();
+    long total = 0;
+    for (File file : files)
+    {
+      modified.put(file, file.lastModified());
+      total += file.length();
+    }
+    if (total > maxDiskSpace)
+    {
+      Arrays.sort(files, new Comparator<File>() {
+        @Override
+        public int compare(File a, File b)
+        {
+          return Long.compare(modified.get(a), modified.get(b));
+        }
+      });
+      for (int i = 0; i < files.length && total > maxDiskSpace/4*3; i++)
+      {
+        long length = files[i].length();
+        if (files[i].delete())
+          total -= length;
+      }
+    }
+    usedDiskSpace = total;
+  }
+
+  /** Load an entry from a file, or return null if it does not exist or cannot be read. */
+
+  private static Entry readEntry(File file)
+  {
+    if (!file.isFile())
+      return null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      if (in.readShort() != FILE_VERSION)
+        return null;
+      double vert[] = new double [in.readInt()];
+      for (int i = 0; i < vert.length; i++)
+        vert[i] = in.readDouble();
+      double norm[] = new double [in.readInt()];
+      for (int i = 0; i < norm.length; i++)
+        norm[i] = in.readDouble();
+      int tri[] = new int [in.readInt()];
+      for (int i = 0; i < tri.length; i++)
+        tri[i] = in.readInt();
+      int numParams = in.readInt();
+      ParameterValue param[] = (numParams < 0 ? null : new ParameterValue [numParams]);
+      for (int i = 0; i < numParams; i++)
+        param[i] = Object3D.readParameterValue(in);
+      return new Entry(vert, norm, tri, param);
+    }
+    catch (IOException ex)
+    {
+      return null;
+    }
+  }
+
+  /** Save an entry to a file.  It is first written to a temporary file, then renamed, so
+      other processes sharing the directory never see a partial file.  This returns the size of
+      the file, or 0 if it could not be written. */
+
+  private static long writeEntry(File file, Entry entry)
+  {
+    File temp = null;
+    try
+    {
+      temp = File.createTempFile("mesh", ".tmp", file.getParentFile());
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+      {
+        out.writeShort(FILE_VERSION);
+        out.writeInt(entry.vert.length);
+        for (double d : entry.vert)
+          out.writeDouble(d);
+        out.writeInt(entry.norm.length);
+        for (double d : entry.norm)
+          out.writeDouble(d);
+        out.writeInt(entry.tri.length);
+        for (int i : entry.tri)
+          out.writeInt(i);
+        if (entry.param == null)
+          out.writeInt(-1);
+        else
+        {
+          out.writeInt(entry.param.length);
+          for (ParameterValue p : entry.param)
+          {
+            out.writeUTF(p.getClass().getName());
+            p.writeToStream(out);
+          }
+        }
+      }
+      long length = temp.length();
+      if (temp.renameTo(file))
+        return length;
+      temp.delete();
+    }
+    catch (IOException ex)
+    {
+      if (temp != null)
+        temp.delete();
+    }
+    return 0;
+  }
+
+  /** This class stores the information needed to recreate a mesh. */
+
+  private static class Entry
+  {
+    final double vert[], norm[];
+    final int tri[];
+    final ParameterValue param[];
+    final long size;
+
+    Entry(RenderingMesh mesh)
+    {
+      vert = new double [mesh.vert.length*3];
+      for (int i = 0; i < mesh.vert.length; i++)
+      {
+        vert[i*3] = mesh.vert[i].x;
+        vert[i*3+1] = mesh.vert[i].y;
+        vert[i*3+2] = mesh.vert[i].z;
+      }
+      norm = new double [mesh.norm.length*3];
+      for (int i = 0; i < mesh.norm.length; i++)
+      {
+        Vec3 n = mesh.norm[i];
+        norm[i*3] = (n == null ? Double.NaN : n.x);
+        norm[i*3+1] = (n == null ? Double.NaN : n.y);
+        norm[i*3+2] = (n == null ? Double.NaN : n.z);
+      }
+      tri = new int [mesh.triangle.length*6];
+      for (int i = 0; i < mesh.triangle.length; i++)
+      {
+        RenderingTriangle t = mesh.triangle[i];
+        tri[i*6] = t.v1;
+        tri[i*6+1] = t.v2;
+        tri[i*6+2] = t.v3;
+        tri[i*6+3] = t.n1;
+        tri[i*6+4] = t.n2;
+        tri[i*6+5] = t.n3;
+      }
+      param = duplicate(mesh.param);
+      size = estimateSize();
+    }
+
+    Entry(double vert[], double norm[], int tri[], ParameterValue param[])
+    {
+      this.vert = vert;
+      this.norm = norm;
+      this.tri = tri;
+      this.param = param;
+      size = estimateSize();
+    }
+
+    private long estimateSize()
+    {
+      long bytes = 8L*(vert.length+norm.length)+4L*tri.length;
+      if (param != null)
+        for (ParameterValue p : param)
+        {
+          if (p instanceof VertexParameterValue)
+            bytes += 8L*vert.length/3;
+          else if (p instanceof FaceParameterValue || p instanceof FaceVertexParameterValue)
+            bytes += 8L*tri.length;
+        }
+      return bytes;
+    }
+
+    /** Create a mesh from this entry. */
+
+    RenderingMesh createMesh(TextureMapping mapping, MaterialMapping matMapping)
+    {
+      Vec3 v[] = new Vec3 [vert.length/3];
+      for (int i = 0; i < v.length; i++)
+        v[i] = new Vec3(vert[i*3], vert[i*3+1], vert[i*3+2]);
+      Vec3 n[] = new Vec3 [norm.length/3];
+      for (int i = 0; i < n.length; i++)
+        if (!Double.isNaN(norm[i*3]))
+          n[i] = new Vec3(norm[i*3], norm[i*3+1], norm[i*3+2]);
+      RenderingTriangle t[] = new RenderingTriangle [tri.length/6];
+      for (int i = 0; i < t.length; i++)
+        t[i] = mapping.mapTriangle(tri[i*6], tri[i*6+1], tri[i*6+2], tri[i*6+3], tri[i*6+4], tri[i*6+5], v);
+      RenderingMesh mesh = new RenderingMesh(v, n, t, mapping, matMapping);
+      mesh.setParameters(duplicate(param));
+      return mesh;
+    }
+
+    private static ParameterValue [] duplicate(ParameterValue param[])
+    {
+      if (param == null)
+        return null;
+      ParameterValue copy[] = new ParameterValue [param.length];
+      for (int i = 0; i < param.length; i++)
+        copy[i] = param[i].duplicate();
+      return copy;
+    }
+  }
+}
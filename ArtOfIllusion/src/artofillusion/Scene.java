@@ -42,6 +42,8 @@ public class Scene
   private Vector<ListChangeListener> textureListeners, materialListeners;
   private HashMap<String, Object> metadataMap;
   private HashMap<ObjectInfo, Integer> objectIndexMap;
+  private SceneSpatialIndex spatialIndex;
+  private TrackDependencyGraph trackGraph;
   private RGBColor ambientColor, environColor, fogColor;
   private Texture environTexture;
   private TextureMapping environMapping;
@@ -66,6 +68,10 @@ public class Scene
 
   private static final byte FILE_PREFIX[] = {'A', 'o', 'I', 'S', 'c', 'e', 'n', 'e'};
 
+  /** The minimum number of independent objects to update in parallel when applying tracks. */
+
+  private static final int MIN_PARALLEL_OBJECTS = 128;
+
   public Scene()
   {
     UniformTexture defTex = new UniformTexture();
@@ -139,9 +145,15 @@ public class Scene
   public void setTime(double t)
   {
     time = t;
-    boolean processed[] = new boolean [objects.size()];
-    objects.forEach(item ->
-        applyTracksToObject(item, processed, null, objects.indexOf(item)));
+    TrackDependencyGraph graph = getTrackGraph();
+    for (int i = 0; i < objects.size(); i++)
+      if (!graph.isAnimated(i))
+      {
+        ObjectInfo info = objects.get(i);
+        info.setPose(null);
+        info.clearDistortion();
+      }
+    applyTracks(graph, null);
     for (ObjectInfo obj : objects)
       obj.getObject().sceneChanged(obj, this);
   }
@@ -150,7 +162,33 @@ public class Scene
 
   public void applyTracksToObject(ObjectInfo info)
   {
-    applyTracksToObject(info, new boolean[objects.size()], null, 0);
+    TrackDependencyGraph graph = getTrackGraph();
+    int index = indexOf(info);
+    if (index == -1)
+      applyTracksToSingleObject(info);
+    else if (!graph.isAnimated(index))
+    {
+      info.setPose(null);
+      info.clearDistortion();
+    }
+    else
+    {
+      // Update the object along with everything it depends on.
+
+      boolean select[] = new boolean [objects.size()];
+      int stack[] = new int [objects.size()];
+      int stackSize = 1;
+      stack[0] = index;
+      select[index] = true;
+      while (stackSize > 0)
+        for (int k : graph.getDependencies(stack[--stackSize]))
+          if (!select[k] && graph.isAnimated(k))
+          {
+            select[k] = true;
+            stack[stackSize++] = k;
+          }
+      applyTracks(graph, select);
+    }
     objects.forEach(item -> item.getObject().sceneChanged(item, this));
   }
 
@@ -162,14 +200,14 @@ public class Scene
   public void applyTracksAfterModification(Collection<ObjectInfo> changedObjects)
   {
     boolean changed[] = new boolean[objects.size()];
-    boolean processed[] = new boolean[objects.size()];
+    boolean select[] = new boolean[objects.size()];
 
     // First apply a subset of the tracks of the modified objects.
 
     for (ObjectInfo info : changedObjects)
     {
       int index = indexOf(info);
-      changed[index] = processed[index] = true;
+      changed[index] = true;
 
       // Find Constraint and IK tracks at the top of the list and apply them.
 
@@ -184,39 +222,97 @@ public class Scene
     }
 
     // Now apply tracks to all dependent objects.
-    objects.forEach(item ->
-        applyTracksToObject(item, processed, changed, objects.indexOf(item)));
+
+    TrackDependencyGraph graph = getTrackGraph();
+    for (int i : graph.getOrder())
+    {
+      if (changed[i])
+        continue;
+      for (int k : graph.getDependencies(i))
+        if (changed[k])
+        {
+          changed[i] = select[i] = true;
+          break;
+        }
+    }
+    applyTracks(graph, select);
     objects.forEach(item -> item.getObject().sceneChanged(item, this));
   }
 
-  private void applyTracksToObject(ObjectInfo info, boolean processed[], boolean changed[], int index)
+  /** Get the graph describing dependencies between objects' tracks, rebuilding it if the
+      scene has changed since it was last used. */
+
+  private TrackDependencyGraph getTrackGraph()
+  {
+    if (trackGraph == null || !trackGraph.isValid(this))
+      trackGraph = new TrackDependencyGraph(this);
+    return trackGraph;
+  }
+
+  /** Apply the tracks of animated objects, updating each one only after all the objects it
+      depends on.  If select is not null, only objects for which it is true are updated.
+      Large sets of independent objects are updated in parallel. */
+
+  private void applyTracks(TrackDependencyGraph graph, boolean select[])
   {
-    if (processed[index])
+    int order[] = graph.getOrder();
+    ThreadManager threads = null;
+    for (int level = 0; level < graph.getNumLevels(); level++)
     {
-      // This object has already been updated.
+      List<ObjectInfo> update = new ArrayList<>();
+      for (int k = graph.getLevelStart(level); k < graph.getLevelStart(level+1); k++)
+        if (select == null || select[order[k]])
+          update.add(objects.get(order[k]));
+      if (update.size() < MIN_PARALLEL_OBJECTS || graph.isCyclic() || ThreadManager.getPoolSize() < 2 || sharesGeometry(update))
+      {
+        update.forEach(this::applyTracksToSingleObject);
+        continue;
+      }
+      if (threads == null)
+        threads = new ThreadManager();
+      threads.setNumIndices(update.size());
+      threads.setTask(new ThreadManager.Task() {
+        @Override
+        public void execute(int index)
+        {
+          applyTracksToSingleObject(update.get(index));
+        }
 
-      info.getObject().sceneChanged(info, this);
-      return;
+        @Override
+        public void cleanup()
+        {
+        }
+      });
+      threads.run();
     }
-    processed[index] = true;
+    if (threads != null)
+      threads.finish();
+  }
 
-    // Determine whether this object possesses a Position or Rotation track, and update any
-    // tracks it is dependent on.
+  /** Determine whether any two objects in a list share the same Object3D.  Their tracks
+      may both modify it, so they cannot be updated in parallel. */
+
+  private static boolean sharesGeometry(List<ObjectInfo> list)
+  {
+    Set<Object3D> found = Collections.newSetFromMap(new IdentityHashMap<Object3D, Boolean>());
+    for (ObjectInfo info : list)
+      if (!found.add(info.getObject()))
+        return true;
+    return false;
+  }
+
+  /** Apply the tracks of a single object.  Any objects it depends on should already have
+      been updated. */
+
+  private void applyTracksToSingleObject(ObjectInfo info)
+  {
+    // Determine whether this object possesses a Position or Rotation track.
 
     boolean hasPos = false, hasRot = false, hasPose = false;
     for (Track track : info.getTracks())
     {
       if (track.isNullTrack() || !track.isEnabled())
         continue;
-      ObjectInfo depends[] = track.getDependencies();
-      for (int i = 0; i < depends.length; i++)
-      {
-        int k = indexOf(depends[i]);
-        if (k > -1 && !processed[k])
-          applyTracksToObject(depends[i], processed, changed, k);
-        if (k > -1 && changed != null && changed[k])
-          changed[index] = true;
-      }
       if (track instanceof PositionTrack || track instanceof ProceduralPositionTrack)
         hasPos = true;
       else if (track instanceof RotationTrack || track instanceof ProceduralRotationTrack)
@@ -224,8 +320,6 @@ public class Scene
       else if (track instanceof PoseTrack || track instanceof IKTrack)
         hasPose = true;
     }
-    if (changed != null && !changed[index])
-      return;
     if (hasPos)
     {
       Vec3 orig = info.getCoords().getOrigin();
@@ -478,6 +572,8 @@ public class Scene
     info.getObject().sceneChanged(info, this);
     objects.insertElementAt(info, index);
     objectIndexMap = null;
+    spatialIndex = null;
+    trackGraph = null;
     
     if (undo != null)
         undo.addCommandAtBeginning(UndoRecord.DELETE_OBJECT, index);
@@ -493,6 +589,8 @@ public class Scene
     ObjectInfo info = objects.elementAt(which);
     objects.removeElementAt(which);
     objectIndexMap = null;
+    spatialIndex = null;
+    trackGraph = null;
     if (undo != null)
       undo.addCommandAtBeginning(UndoRecord.ADD_OBJECT, info, which);
     if (info.getParent() != null)
@@ -992,12 +1090,24 @@ public class Scene
     {
       // Build an index for fast lookup
       objectIndexMap = new HashMap<>();
-      objects.forEach(item -> objectIndexMap.put(item, objects.indexOf(item)));
+      for (int i = 0; i < objects.size(); i++)
+        objectIndexMap.putIfAbsent(objects.get(i), i);
     }
 
     return objectIndexMap.getOrDefault(info, -1);
   }
 
+  /** Get a spatial index of the objects in this scene, which can be used to quickly find the
+      objects in a region of space.  It is kept up to date automatically as objects are added,
+      removed, moved, or modified. */
+
+  public SceneSpatialIndex getSpatialIndex()
+  {
+    if (spatialIndex == null)
+      spatialIndex = new SceneSpatialIndex(this);
+    return spatialIndex;
+  }
+
   /** Get the number of textures in this scene. */
 
   public int getNumTextures()
@@ -1318,6 +1428,8 @@ public class Scene
     for (int i = 0; i < count; i++)
       objects.addElement(readObjectFromFile(in, table, version));
     objectIndexMap = null;
+    spatialIndex = null;
+    trackGraph = null;
     selection = new Vector<Integer>();
 
     // Read the list of children for each object.
@@ -0,0 +1,311 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.math.*;
+import artofillusion.object.*;
+import java.util.*;
+import java.util.function.*;
+
+/** A SceneSpatialIndex is a bounding volume hierarchy over the world space bounding boxes of the
+    objects in a Scene.  It is used to find the objects in part of the view, or under a point on the
+    screen, without having to examine every object in the scene.
+    <p>
+    The index listens to every object (see ObjectInfo.addChangeListener()), which notifies it whenever
+    the object's CoordinateSystem changes, its visibility changes, or its cached meshes are cleared
+    (for example by Scene.objectModified()).  Those objects are marked as needing to be updated, and
+    the next search updates only them, along with the parts of the tree containing them.  An object is
+    only considered to have changed if its transform or bounding box has been replaced, which is cheap
+    to check by comparing references.  The Scene discards the index when objects are added or removed. */
+
+public class SceneSpatialIndex
+{
+  private final Entry entry[];
+  private final ArrayList<Entry> needRefresh;
+  private Node root;
+  private int changedSinceBuild;
+  private boolean needsRebuild;
+
+  private static final int MAX_OBJECTS_PER_LEAF = 4;
+
+  /** Create an index of the objects currently in a scene. */
+
+  public SceneSpatialIndex(Scene scene)
+  {
+    entry = new Entry [scene.getNumObjects()];
+    needRefresh = new ArrayList<Entry>();
+    for (int i = 0; i < entry.length; i++)
+    {
+      entry[i] = new Entry(scene.getObject(i), i);
+      entry[i].info.addChangeListener(entry[i]);
+      entry[i].refresh();
+    }
+    needRefresh.clear();
+    build();
+  }
+
+  /** Find the objects whose world space bounding boxes pass a test.  Entire branches of the tree
+      are skipped when their bounding boxes fail it, so the test must be conservative: any box it
+      rejects must also be rejected for every smaller box inside it.  Hidden objects are never returned.
+      @param test    the test to apply to bounding boxes
+      @return the indices of the matching objects within the scene, in increasing order
+  */
+
+  public synchronized int [] findObjects(Predicate<BoundingBox> test)
+  {
+    update();
+    int found[] = new int [16], count = 0;
+    if (root == null)
+      return new int [0];
+    ArrayDeque<Node> stack = new ArrayDeque<Node>();
+    stack.push(root);
+    while (!stack.isEmpty())
+    {
+      Node node = stack.pop();
+      if (node.bounds == null || !test.test(node.bounds))
+        continue;
+      if (node.entries == null)
+      {
+        stack.push(node.child2);
+        stack.push(node.child1);
+        continue;
+      }
+      for (Entry e : node.entries)
+      {
+        if (e.worldBounds == null || !test.test(e.worldBounds))
+          continue;
+        if (count == found.length)
+          found = Arrays.copyOf(found, 2*count);
+        found[count++] = e.index;
+      }
+    }
+    found = Arrays.copyOf(found, count);
+    Arrays.sort(found);
+    return found;
+  }
+
+  /** Record that an object may have changed, so it will be updated before the next search. */
+
+  private synchronized void markChanged(Entry e)
+  {
+    if (!e.needsRefresh)
+    {
+      e.needsRefresh = true;
+      needRefresh.add(e);
+    }
+  }
+
+  /** Update the objects which may have changed since the last time the index was used, and update
+      the tree to reflect them. */
+
+  private void update()
+  {
+    if (needRefresh.isEmpty())
+      return;
+
+    // Refreshing an object can cause it to be marked again (for example, if its distortion has
+    // changed), so take the current list first.
+
+    Entry toRefresh[] = needRefresh.toArray(new Entry [needRefresh.size()]);
+    needRefresh.clear();
+    int changed = 0;
+    for (Entry e : toRefresh)
+    {
+      e.needsRefresh = false;
+      if (e.refresh())
+      {
+        changed++;
+        if (e.leaf == null)
+          needsRebuild = true;
+        for (Node node = e.leaf; node != null && !node.dirty; node = node.parent)
+          node.dirty = true;
+      }
+    }
+    if (changed == 0)
+      return;
+
+    // Refitting the existing tree is fast, but its quality gradually degrades as objects move
+    // away from their original positions.  Once there have been enough changes, build a new one.
+
+    changedSinceBuild += changed;
+    if (needsRebuild || changedSinceBuild > entry.length)
+      build();
+    else
+      refit(root);
+  }
+
+  /** Build a new tree containing every object which is currently visible. */
+
+  private void build()
+  {
+    ArrayList<Entry> visible = new ArrayList<Entry>();
+    for (Entry e : entry)
+    {
+      e.leaf = null;
+      if (e.worldBounds != null)
+        visible.add(e);
+    }
+    Entry list[] = visible.toArray(new Entry [visible.size()]);
+    root = (list.length == 0 ? null : buildNode(list, 0, list.length, null));
+    changedSinceBuild = 0;
+    needsRebuild = false;
+  }
+
+  /** Build the node containing a range of the (partially sorted) list of objects. */
+
+  private static Node buildNode(Entry list[], int start, int end, Node parent)
+  {
+    Node node = new Node();
+    node.parent = parent;
+    BoundingBox b = list[start].worldBounds;
+    double minx = b.minx, maxx = b.maxx, miny = b.miny, maxy = b.maxy, minz = b.minz, maxz = b.maxz;
+    for (int i = start+1; i < end; i++)
+    {
+      b = list[i].worldBounds;
+      minx = Math.min(minx, b.minx);
+      maxx = Math.max(maxx, b.maxx);
+      miny = Math.min(miny, b.miny);
+      maxy = Math.max(maxy, b.maxy);
+      minz = Math.min(minz, b.minz);
+      maxz = Math.max(maxz, b.maxz);
+    }
+    node.bounds = new BoundingBox(minx, maxx, miny, maxy, minz, maxz);
+    if (end-start <= MAX_OBJECTS_PER_LEAF)
+    {
+      node.entries = Arrays.copyOfRange(list, start, end);
+      for (Entry e : node.entries)
+        e.leaf = node;
+      return node;
+    }
+
+    // Divide the objects in half along the longest axis of the node.
+
+    final int axis;
+    if (maxx-minx >= maxy-miny && maxx-minx >= maxz-minz)
+      axis = 0;
+    else if (maxy-miny >= maxz-minz)
+      axis = 1;
+    else
+      axis = 2;
+    Arrays.sort(list, start, end, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry e1, Entry e2)
+      {
+        return Double.compare(e1.center(axis), e2.center(axis));
+      }
+    });
+    int mid = (start+end)/2;
+    node.child1 = buildNode(list, start, mid, node);
+    node.child2 = buildNode(list, mid, end, node);
+    return node;
+  }
+
+  /** Recompute the bounding boxes of all nodes that have been marked as dirty. */
+
+  private static void refit(Node node)
+  {
+    if (!node.dirty)
+      return;
+    node.dirty = false;
+    BoundingBox bounds = null;
+    if (node.entries != null)
+    {
+      for (Entry e : node.entries)
+        bounds = merge(bounds, e.worldBounds);
+    }
+    else
+    {
+      refit(node.child1);
+      refit(node.child2);
+      bounds = merge(node.child1.bounds, node.child2.bounds);
+    }
+    node.bounds = bounds;
+  }
+
+  /** Get a box containing two others, either of which may be null. */
+
+  private static BoundingBox merge(BoundingBox b1, BoundingBox b2)
+  {
+    if (b1 == null)
+      return b2;
+    if (b2 == null)
+      return b1;
+    return b1.merge(b2);
+  }
+
+  /** An Entry records what the index knows about one object.  It is also the listener which
+      is notified when the object changes. */
+
+  private class Entry implements Runnable
+  {
+    final ObjectInfo info;
+    final int index;
+    Mat4 transform;
+    BoundingBox localBounds, worldBounds;
+    Node leaf;
+    boolean needsRefresh;
+
+    Entry(ObjectInfo info, int index)
+    {
+      this.info = info;
+      this.index = index;
+    }
+
+    @Override
+    public void run()
+    {
+      markChanged(this);
+    }
+
+    /** Update the world space bounding box (which is null if the object is hidden).  Returns true
+        if it has changed. */
+
+    boolean refresh()
+    {
+      if (!info.isVisible())
+      {
+        if (worldBounds == null)
+          return false;
+        transform = null;
+        localBounds = worldBounds = null;
+        return true;
+      }
+      Mat4 newTransform = info.getCoords().fromLocal();
+      BoundingBox newBounds = info.getBounds();
+      if (worldBounds != null && newTransform == transform && newBounds == localBounds)
+        return false;
+      transform = newTransform;
+      localBounds = newBounds;
+      worldBounds = newBounds.transformAndOutset(newTransform);
+      return true;
+    }
+
+    double center(int axis)
+    {
+      if (axis == 0)
+        return worldBounds.minx+worldBounds.maxx;
+      if (axis == 1)
+        return worldBounds.miny+worldBounds.maxy;
+      return worldBounds.minz+worldBounds.maxz;
+    }
+  }
+
+  /** A node in the tree.  Leaf nodes hold a list of objects, while internal nodes have two children.
+      The bounding box is null if the node contains no visible objects. */
+
+  private static class Node
+  {
+    BoundingBox bounds;
+    Node parent, child1, child2;
+    Entry entries[];
+    boolean dirty;
+  }
+}
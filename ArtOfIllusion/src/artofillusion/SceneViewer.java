@@ -22,6 +22,7 @@ import buoy.event.*;
 import buoy.widget.*;
 import java.awt.*;
 import java.util.*;
+import java.util.function.*;
 
 /** The SceneViewer class is a component which displays a view of a Scene. */
 
@@ -35,6 +36,9 @@ public class SceneViewer extends ViewerCanvas
   ObjectInfo clickedObject;
   int deselect;
 
+  /** The largest surface error, in pixels, which is acceptable when choosing a preview mesh. */
+  private static final double MAX_PREVIEW_ERROR = 1.0;
+
   public SceneViewer(Scene s, RowContainer p, EditingWindow fr)
   {
     this(s, p, fr, false);
@@ -261,8 +265,10 @@ public class SceneViewer extends ViewerCanvas
       // Draw the objects.
 
       Vec3 viewdir = theCamera.getViewToWorld().timesDirection(Vec3.vz());
-      for(ObjectInfo obj: theScene.getObjects())
+      Rectangle bounds = getBounds();
+      for (int i : theScene.getSpatialIndex().findObjects(mayAppearIn(new Rectangle(0, 0, bounds.width, bounds.height))))
       {
+        ObjectInfo obj = theScene.getObject(i);
         if(obj == boundCamera || !obj.isVisible())
            continue;
         theCamera.setObjectTransform(obj.getCoords().fromLocal());
@@ -473,8 +479,9 @@ public class SceneViewer extends ViewerCanvas
     minarea = Integer.MAX_VALUE;
     Vec3 cameraPosition = theCamera.getCameraCoordinates().getOrigin();
     Vec3 cameraAxis = theCamera.getCameraCoordinates().getZDirection();
-    for (i = 0; i < theScene.getNumObjects(); i++)
+    for (int candidate : theScene.getSpatialIndex().findObjects(mayAppearIn(new Rectangle(p.x, p.y, 0, 0))))
     {
+      i = candidate;
       info = theScene.getObject(i);
       if (info.isVisible() && !info.isLocked() && inFront(info, cameraPosition, cameraAxis))
       {
@@ -538,6 +545,78 @@ public class SceneViewer extends ViewerCanvas
     return (r.x-1 <= p.x && r.y-1 <= p.y && r.x+r.width+1 >= p.x && r.y+r.height+1 >= p.y);
   }
 
+  /**
+   * Get the mesh to use when displaying an object.  This finds how many pixels one unit covers at the
+   * point of the object's bounding box nearest the camera, and chooses the coarsest preview mesh whose
+   * surface error will appear no larger than MAX_PREVIEW_ERROR pixels.  The camera's object transform
+   * must already be set for the object.
+   */
+
+  @Override
+  public RenderingMesh getPreviewMesh(ObjectInfo obj)
+  {
+    double maxError = getMaxPreviewError(theCamera, obj.getBounds(), isPerspective());
+    if (maxError == 0.0)
+      return obj.getPreviewMesh();
+    return obj.getPreviewMesh(maxError);
+  }
+
+  /**
+   * Get the largest surface error (in object coordinates) which will appear no larger than
+   * MAX_PREVIEW_ERROR pixels for an object with the specified bounding box.  The camera's object
+   * transform must already be set for the object.  If the scale cannot be determined, this returns 0.
+   */
+
+  static double getMaxPreviewError(Camera camera, BoundingBox bounds, boolean perspective)
+  {
+    Mat4 toView = camera.getObjectToView();
+    double nearest = Double.MAX_VALUE;
+    for (Vec3 corner : bounds.getCorners())
+      nearest = Math.min(nearest, toView.timesZ(corner));
+    if (perspective)
+      nearest = Math.max(nearest, camera.getClipDistance());
+    Mat4 toScreen = camera.getViewToScreen();
+    double pixelsPerUnit = toScreen.timesXY(new Vec3(0.0, 0.0, nearest)).distance(toScreen.timesXY(new Vec3(1.0, 0.0, nearest)));
+    if (!(pixelsPerUnit > 0.0) || Double.isInfinite(pixelsPerUnit))
+      return 0.0;
+    return MAX_PREVIEW_ERROR/pixelsPerUnit;
+  }
+
+  /**
+   * Get a test for whether a box in world coordinates might appear (even partly) inside a rectangle
+   * on the screen.  It allows a 2 pixel tolerance, which is more than enough to cover rounding in
+   * findScreenBounds() and pointInRectangle().  Boxes which cross the front clipping plane cannot be
+   * projected reliably, so they are always accepted.
+   */
+
+  private Predicate<BoundingBox> mayAppearIn(Rectangle r)
+  {
+    Mat4 toView = theCamera.getWorldToView();
+    Mat4 toScreen = theCamera.getWorldToScreen();
+    boolean perspective = theCamera.isPerspective();
+    double clip = theCamera.getClipDistance();
+    return box -> {
+      double minx = Double.MAX_VALUE, miny = Double.MAX_VALUE, maxx = -Double.MAX_VALUE, maxy = -Double.MAX_VALUE;
+      int clipped = 0;
+      for (Vec3 corner : box.getCorners())
+      {
+        if (perspective && toView.timesZ(corner) <= clip)
+        {
+          clipped++;
+          continue;
+        }
+        Vec2 pos = toScreen.timesXY(corner);
+        minx = Math.min(minx, pos.x);
+        miny = Math.min(miny, pos.y);
+        maxx = Math.max(maxx, pos.x);
+        maxy = Math.max(maxy, pos.y);
+      }
+      if (clipped > 0)
+        return (clipped < 8);
+      return (maxx >= r.x-2 && maxy >= r.y-2 && minx <= r.x+r.width+2 && miny <= r.y+r.height+2);
+    };
+  }
+
   /** 
    * Check if an object can be selected in perspective mode. An object, whose origin is on the "camera plane"
    * or behid it, should not be selected, when the view is set to perspective.
@@ -644,7 +723,7 @@ public class SceneViewer extends ViewerCanvas
       }
 	  Vec3 cameraPosition = theCamera.getCameraCoordinates().getOrigin();
       Vec3 cameraAxis = theCamera.getCameraCoordinates().getZDirection();
-      for (int i = 0; i < theScene.getNumObjects(); i++)
+      for (int i : theScene.getSpatialIndex().findObjects(mayAppearIn(r)))
       {
         info = theScene.getObject(i);
         if (info.isVisible() && !info.isLocked() && inFront(info, cameraPosition, cameraAxis))
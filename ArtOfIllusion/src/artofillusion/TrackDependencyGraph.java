@@ -0,0 +1,227 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.animation.*;
+import artofillusion.object.*;
+import java.util.*;
+
+/** A TrackDependencyGraph describes the dependencies between the animation tracks of the
+    objects in a Scene.  It records which objects are animated (that is, have at least one
+    enabled, non-null track), and lists them in an order such that every object comes after
+    all the objects its tracks depend on.
+    <p>
+    The animated objects are grouped into levels.  An object's level is one greater than the
+    highest level of any object it depends on, so the tracks of all objects in a level can be
+    applied independently of each other once the previous levels are complete.  If the
+    dependencies contain a cycle, the whole graph is treated as a single level, ordered the
+    same way a depth first traversal of the scene would visit it. */
+
+class TrackDependencyGraph
+{
+  private final ObjectInfo objects[];
+  private final ObjectInfo dependencies[][];
+  private final int dependencyIndex[][];
+  private final int order[];
+  private final int levelStart[];
+  private final boolean cyclic;
+
+  private static final ObjectInfo NO_DEPENDENCIES[] = new ObjectInfo [0];
+
+  /** Build the graph for a scene. */
+
+  TrackDependencyGraph(Scene scene)
+  {
+    int n = scene.getNumObjects();
+    objects = new ObjectInfo [n];
+    dependencies = new ObjectInfo [n][];
+    dependencyIndex = new int [n][];
+    for (int i = 0; i < n; i++)
+    {
+      objects[i] = scene.getObject(i);
+      dependencies[i] = findDependencies(objects[i]);
+      if (dependencies[i] == null)
+        continue;
+      int index[] = new int [dependencies[i].length];
+      int count = 0;
+      for (ObjectInfo dep : dependencies[i])
+      {
+        int k = scene.indexOf(dep);
+        if (k > -1)
+          index[count++] = k;
+      }
+      dependencyIndex[i] = (count == index.length ? index : Arrays.copyOf(index, count));
+    }
+
+    // Visit the objects depth first to find an order that respects the dependencies, and
+    // assign each one to a level.
+
+    int level[] = new int [n];
+    int state[] = new int [n];
+    int dfsOrder[] = new int [n];
+    int numAnimated = 0, numLevels = 0;
+    boolean foundCycle = false;
+    int stack[] = new int [n], position[] = new int [n];
+    for (int i = 0; i < n; i++)
+    {
+      if (state[i] != 0)
+        continue;
+      int depth = 0;
+      stack[0] = i;
+      position[0] = 0;
+      state[i] = 1;
+      while (depth >= 0)
+      {
+        int current = stack[depth];
+        int deps[] = dependencyIndex[current];
+        if (deps != null && position[depth] < deps.length)
+        {
+          int k = deps[position[depth]++];
+          if (state[k] == 0)
+          {
+            state[k] = 1;
+            stack[++depth] = k;
+            position[depth] = 0;
+          }
+          else if (state[k] == 1)
+            foundCycle = true;
+          continue;
+        }
+        state[current] = 2;
+        depth--;
+        if (deps == null)
+          continue;
+        int lev = 0;
+        for (int k : deps)
+          lev = Math.max(lev, level[k]+1);
+        level[current] = lev;
+        numLevels = Math.max(numLevels, lev+1);
+        dfsOrder[numAnimated++] = current;
+      }
+    }
+    cyclic = foundCycle;
+    if (cyclic || numLevels < 2)
+    {
+      order = Arrays.copyOf(dfsOrder, numAnimated);
+      levelStart = new int [] {0, numAnimated};
+      return;
+    }
+
+    // Sort the objects by level, preserving their order within each level.
+
+    levelStart = new int [numLevels+1];
+    for (int i = 0; i < numAnimated; i++)
+      levelStart[level[dfsOrder[i]]+1]++;
+    for (int i = 0; i < numLevels; i++)
+      levelStart[i+1] += levelStart[i];
+    int next[] = Arrays.copyOf(levelStart, numLevels);
+    order = new int [numAnimated];
+    for (int i = 0; i < numAnimated; i++)
+      order[next[level[dfsOrder[i]]]++] = dfsOrder[i];
+  }
+
+  /** Find the objects that the tracks of an object depend on.  If the object has no enabled,
+      non-null tracks, this returns null. */
+
+  static ObjectInfo[] findDependencies(ObjectInfo info)
+  {
+    ObjectInfo result[] = null;
+    for (Track track : info.getTracks())
+    {
+      if (track.isNullTrack() || !track.isEnabled())
+        continue;
+      ObjectInfo depends[] = track.getDependencies();
+      if (result == null || result.length == 0)
+        result = (depends.length == 0 ? NO_DEPENDENCIES : depends.clone());
+      else if (depends.length > 0)
+      {
+        ObjectInfo combined[] = Arrays.copyOf(result, result.length+depends.length);
+        System.arraycopy(depends, 0, combined, result.length, depends.length);
+        result = combined;
+      }
+    }
+    return result;
+  }
+
+  /** Determine whether this graph still describes a scene.  It becomes invalid if objects are
+      added or removed, or if tracks are added, removed, enabled, disabled, or retargeted in
+      a way that changes which objects are animated or what they depend on. */
+
+  boolean isValid(Scene scene)
+  {
+    if (scene.getNumObjects() != objects.length)
+      return false;
+    for (int i = 0; i < objects.length; i++)
+    {
+      ObjectInfo info = scene.getObject(i);
+      if (info != objects[i])
+        return false;
+      ObjectInfo deps[] = findDependencies(info);
+      if (deps == null || dependencies[i] == null)
+      {
+        if (deps != dependencies[i])
+          return false;
+        continue;
+      }
+      if (deps.length != dependencies[i].length)
+        return false;
+      for (int j = 0; j < deps.length; j++)
+        if (deps[j] != dependencies[i][j])
+          return false;
+    }
+    return true;
+  }
+
+  /** Get whether the object with a specified index has any enabled, non-null tracks. */
+
+  boolean isAnimated(int index)
+  {
+    return (dependencyIndex[index] != null);
+  }
+
+  /** Get the indices of the objects that the object with a specified index depends on.  This
+      returns null if it is not animated. */
+
+  int[] getDependencies(int index)
+  {
+    return dependencyIndex[index];
+  }
+
+  /** Get the indices of all animated objects, in the order their tracks should be applied. */
+
+  int[] getOrder()
+  {
+    return order;
+  }
+
+  /** Get the number of levels in the graph. */
+
+  int getNumLevels()
+  {
+    return levelStart.length-1;
+  }
+
+  /** Get the position in the array returned by getOrder() at which a level begins.  If
+      level equals getNumLevels(), this returns the length of the array. */
+
+  int getLevelStart(int level)
+  {
+    return levelStart[level];
+  }
+
+  /** Get whether the dependencies contain a cycle.  If so, objects must be updated one at a
+      time in the order returned by getOrder(). */
+
+  boolean isCyclic()
+  {
+    return cyclic;
+  }
+}
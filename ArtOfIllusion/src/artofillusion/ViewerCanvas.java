@@ -1554,6 +1554,15 @@ public abstract class ViewerCanvas extends CustomWidget
     drawer.renderMesh(mesh, shader, cam, closed, hideFace);
   }
 
+  /** Get the mesh to use when displaying an object in this view.  By default this is the object's
+      standard preview mesh, but subclasses may choose a less detailed one for objects that appear
+      small on screen.  The camera's object transform must already be set for the object. */
+
+  public RenderingMesh getPreviewMesh(ObjectInfo obj)
+  {
+    return obj.getPreviewMesh();
+  }
+
   /** Draw a piece of text onto the canvas. */
 
   public void drawString(String text, int x, int y, Color color)
@@ -87,6 +87,53 @@ public class ImageSaver
     }
   }
 
+  /** Create an ImageSaver object which saves images to a specified file, without displaying
+      any dialogs.  This is used when rendering from the command line.
+      @param file               the file to save to.  When saving the frames of an animation as
+                                individual images, the frame number is inserted before the extension.
+      @param format             the format to save in (one of the FORMAT_ constants)
+      @param quality            the quality for JPEG and Quicktime files, between 0 and 100
+      @param width              the image width, in pixels
+      @param height             the image height, in pixels
+      @param fps                the number of frames per second
+      @param startFrameNumber   the number for the first frame of an animation, or Integer.MIN_VALUE
+                                to save a single image
+  */
+
+  public ImageSaver(File file, int format, double quality, int width, int height, int fps, int startFrameNumber) throws IOException
+  {
+    File parentDir = file.getAbsoluteFile().getParentFile();
+    name = file.getName();
+    directory = parentDir.getAbsolutePath();
+    this.format = format;
+    this.quality = quality;
+    premultiply = premultiplyDefault;
+    index = startFrameNumber;
+    ok = true;
+    if (format == FORMAT_QUICKTIME)
+    {
+      qt = new QuickTimeWriter(new File(directory, name));
+      qt.addVideoTrack(QuickTimeWriter.VideoFormat.JPG, fps, width, height);
+      qt.setCompressionQuality(0, (float) quality*0.01f);
+    }
+  }
+
+  /** Get the format (one of the FORMAT_ constants) whose standard extension matches a file name,
+      or -1 if there is none. */
+
+  public static int getFormatForFile(String filename)
+  {
+    String lower = filename.toLowerCase();
+    if (lower.endsWith(".jpeg"))
+      return FORMAT_JPEG;
+    if (lower.endsWith(".tiff"))
+      return FORMAT_TIFF;
+    for (int i = 0; i < FORMAT_EXTENSION.length; i++)
+      if (lower.endsWith("."+FORMAT_EXTENSION[i]))
+        return i;
+    return -1;
+  }
+
   /** Initialize the ImageSaver and display the dialog.
       @param parent             the parent window
       @param startFrameNumber   the default number for the first frame of an animation, or Integer.MIN_VALUE for a single image
@@ -193,7 +240,7 @@ public class ImageSaver
     {
       BufferedImage buffer = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
       Graphics2D g = buffer.createGraphics();
-      g.drawImage(img.getImage(), 0, 0, parent.getComponent());
+      g.drawImage(img.getImage(), 0, 0, parent == null ? null : parent.getComponent());
       g.dispose();
       qt.writeFrame(0, buffer, 1);
       return true;
@@ -219,6 +266,8 @@ public class ImageSaver
     }
     catch (Exception ex)
     {
+      if (parent == null)
+        throw (ex instanceof IOException ? (IOException) ex : new IOException(ex));
       ex.printStackTrace();
       new BStandardDialog("", Translate.text("errorSavingFile", ex.getMessage() == null ? "" : ex.getMessage()), BStandardDialog.ERROR).showMessageDialog(parent);
     }
@@ -68,7 +68,7 @@ public class ProceduralMaterial3D extends Material3D implements ProcedureOwner
       {
         Procedure localProc = createProcedure();
         localProc.copy(proc);
-        return localProc;
+        return CompiledProcedure.compile(localProc);
       }
     };
   }
@@ -94,7 +94,7 @@ public class ProceduralMaterial3D extends Material3D implements ProcedureOwner
   {
     Procedure pr = (Procedure) renderingProc.get();
     OutputModule output[] = pr.getOutputModules();
-    PointInfo info = new PointInfo();
+    PointInfo info = pr.getPointInfo();
     info.x = x;
     info.y = y;
     info.z = z;
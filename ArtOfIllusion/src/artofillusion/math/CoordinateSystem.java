@@ -10,6 +10,7 @@
 
 package artofillusion.math;
 
+import artofillusion.util.*;
 import java.io.*;
 
 /** The CoordinateSystem class describes the position and orientation of one coordinate
@@ -25,6 +26,7 @@ public class CoordinateSystem
   Vec3 orig, zdir, updir;
   Mat4 transformTo, transformFrom;
   double xrot, yrot, zrot;
+  private WeakListenerList changeListeners;
 
   /** Create a new CoordinateSystem which represents an identity transformation (i.e. no
       translation or rotation). */
@@ -100,7 +102,7 @@ public class CoordinateSystem
   public final void setOrigin(Vec3 orig)
   {
     this.orig = orig;
-    transformTo = transformFrom = null;
+    changed();
   }
 
   /** Set the orientation of this CoordinateSystem.
@@ -116,7 +118,7 @@ public class CoordinateSystem
     zdir.normalize();
     updir.normalize();
     findRotationAngles();
-    transformTo = transformFrom = null;
+    changed();
   }
 
   /** Set the orientation of this CoordinateSystem.
@@ -135,7 +137,36 @@ public class CoordinateSystem
     m = Mat4.yrotation(-yrot).times(Mat4.xrotation(-xrot)).times(Mat4.zrotation(-zrot));
     zdir = m.times(Vec3.vz());
     updir = m.times(Vec3.vy());
+    changed();
+  }
+
+  /** Add a listener to be notified whenever the position or orientation of this CoordinateSystem
+      changes.  It is held by a weak reference, so the caller must keep a reference to it for as long
+      as it should be notified.  Listeners are not copied by duplicate(). */
+
+  public final synchronized void addChangeListener(Runnable listener)
+  {
+    if (changeListeners == null)
+      changeListeners = new WeakListenerList();
+    changeListeners.add(listener);
+  }
+
+  /** Remove a listener which was added with addChangeListener(). */
+
+  public final synchronized void removeChangeListener(Runnable listener)
+  {
+    if (changeListeners != null)
+      changeListeners.remove(listener);
+  }
+
+  /** Discard the cached transforms, and notify the listeners that this has changed. */
+
+  private void changed()
+  {
     transformTo = transformFrom = null;
+    WeakListenerList listeners = changeListeners;
+    if (listeners != null)
+      listeners.fire();
   }
 
   /** Get the origin of this CoordinateSystem. */
@@ -173,7 +204,7 @@ public class CoordinateSystem
     zdir = m.timesDirection(zdir);
     updir = m.timesDirection(updir);
     findRotationAngles();
-    transformTo = transformFrom = null;
+    changed();
   }
 
   /** Transform this CoordinateSystem's position by applying a matrix to its origin. */
@@ -181,7 +212,7 @@ public class CoordinateSystem
   public final void transformOrigin(Mat4 m)
   {
     orig = m.times(orig);
-    transformTo = transformFrom = null;
+    changed();
   }
 
   /** Transform this CoordinateSystem's position and orientation by applying a matrix to its origin
@@ -193,7 +224,7 @@ public class CoordinateSystem
     zdir = m.timesDirection(zdir);
     updir = m.timesDirection(updir);
     findRotationAngles();
-    transformTo = transformFrom = null;
+    changed();
   }
 
   /** Return a matrix which will transform points from this coordinate system to the outside
@@ -13,8 +13,10 @@ package artofillusion.object;
 import artofillusion.texture.*;
 import artofillusion.math.*;
 import artofillusion.*;
+import artofillusion.util.*;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /** This class is used by CSGObject.  It performs the actual work of applying boolean
  operators to create meshes based on the original objects.  This is based on the
@@ -30,7 +32,6 @@ public class CSGModeller
 {
   private Vector<VertexInfo> vert1, vert2;
   private Vector<FaceInfo> face1, face2;
-  private int mainAxis;
 
   static final int VERTEX = 0;
   static final int FACE = 1;
@@ -47,27 +48,22 @@ public class CSGModeller
 
   static final double TOL = 1e-10;
 
+  private static final int MAX_FACES_PER_LEAF = 4;
+  private static final int SPLIT_BLOCK_SIZE = 64;
+  private static final int MIN_PARALLEL_SPLIT = 1024;
+
   public CSGModeller(TriangleMesh obj1, TriangleMesh obj2, CoordinateSystem coords1, CoordinateSystem coords2)
   {
-    // Find the axis which best divides the two objects from each other.
+    this(obj1, obj2, coords1, coords2, true);
+  }
 
+  /** Create a CSGModeller, specifying whether the faces of large meshes may be split on multiple
+   threads.  Both options produce identical results. */
+
+  CSGModeller(TriangleMesh obj1, TriangleMesh obj2, CoordinateSystem coords1, CoordinateSystem coords2, boolean parallel)
+  {
     BoundingBox bounds1 = obj1.getBounds().transformAndOutset(coords1.fromLocal());
     BoundingBox bounds2 = obj2.getBounds().transformAndOutset(coords2.fromLocal());
-    double xoverlap = Math.max(0, Math.min(bounds1.maxx-bounds2.minx, bounds2.maxx-bounds1.minx));
-    double yoverlap = Math.max(0, Math.min(bounds1.maxy-bounds2.miny, bounds2.maxy-bounds1.miny));
-    double zoverlap = Math.max(0, Math.min(bounds1.maxz-bounds2.minz, bounds2.maxz-bounds1.minz));
-    double xwidth = Math.max(bounds1.maxx-bounds2.minx, bounds2.maxx-bounds1.minx);
-    double ywidth = Math.max(bounds1.maxy-bounds2.miny, bounds2.maxy-bounds1.miny);
-    double zwidth = Math.max(bounds1.maxz-bounds2.minz, bounds2.maxz-bounds1.minz);
-    double xratio = (xwidth == 0.0 ? 1.0 : xoverlap/xwidth);
-    double yratio = (ywidth == 0.0 ? 1.0 : yoverlap/ywidth);
-    double zratio = (zwidth == 0.0 ? 1.0 : zoverlap/zwidth);
-    if (xratio <= yratio && xratio <= zratio)
-      mainAxis = 0;
-    else if (yratio <= xratio && yratio <= zratio)
-      mainAxis = 1;
-    else
-      mainAxis = 2;
 
     // Create the lists of vertices, edges, and faces for each mesh.
 
@@ -104,9 +100,9 @@ public class CSGModeller
 
     // Step 1: Split the faces of each object so that they do not intersect.
 
-    splitFaces(vert1, face1, bounds1, vert2, face2, bounds2);
-    splitFaces(vert2, face2, bounds2, vert1, face1, bounds1);
-    splitFaces(vert1, face1, bounds1, vert2, face2, bounds2);
+    splitFaces(vert1, face1, bounds1, vert2, face2, bounds2, parallel);
+    splitFaces(vert2, face2, bounds2, vert1, face1, bounds1, parallel);
+    splitFaces(vert1, face1, bounds1, vert2, face2, bounds2, parallel);
 
     // Step 2: Determine which vertices on one object are inside or outside the other.
 
@@ -322,426 +318,427 @@ public class CSGModeller
 
   /** Split the faces in one mesh so that they do not intersect the faces of the other mesh. */
 
-  private void splitFaces(Vector<VertexInfo> v1, Vector<FaceInfo> f1, BoundingBox bounds1, Vector<VertexInfo> v2, final Vector<FaceInfo> f2, BoundingBox bounds2)
+  private void splitFaces(Vector<VertexInfo> v1, Vector<FaceInfo> f1, BoundingBox bounds1, Vector<VertexInfo> v2, Vector<FaceInfo> f2, BoundingBox bounds2, boolean parallel)
   {
     if (!intersect(bounds1, bounds2))
       return;
 
-    int intersectVertA[] = new int [2], intersectVertB[] = new int [2];
-    double intersectDistA[] = new double [2], intersectDistB[] = new double [2];
-    int intersectTypeA[] = new int [2];
-    int spanTypeA;
-    double m[][] = new double [3][3], b[] = new double [3];
-    Vec3 root = new Vec3();
-    Vec3 line;
+    // The faces of the second mesh do not change while the first one is being split, so a single
+    // tree can be used to find the candidates for every face.
 
-    // Sort the faces in the second mesh along the main axis.
+    final FaceTree tree = new FaceTree(f2);
 
-    Integer faceIndex[] = new Integer[f2.size()];
-    for (int i = 0; i < faceIndex.length; i++)
-      faceIndex[i] = i;
-    Arrays.sort(faceIndex, new Comparator<Integer>() {
+    // Each face of the first mesh is split on its own, independently of all the others.  The pieces
+    // are merged back into the mesh afterward, in order, so the result does not depend on how
+    // many threads were used.
+
+    final int numFaces = f1.size();
+    final FaceSplit split[] = new FaceSplit [numFaces];
+    forEachBlock(numFaces, parallel, new IndexRange() {
       @Override
-      public int compare(Integer index1, Integer index2)
+      public void process(int start, int end)
       {
-        double max1 = f2.get(index1).max;
-        double max2 = f2.get(index2).max;
-        if (max1 < max2)
-          return -1;
-        if (max2 < max1)
-          return 1;
-        return 0;
+        for (int i = start; i < end; i++)
+          split[i] = splitFace(v1, f1.elementAt(i), v2, f2, bounds2, tree);
       }
     });
-    double minAfter[] = new double[f2.size()];
-    minAfter[f2.size()-1] = f2.get(faceIndex[f2.size()-1]).min;
-    for (int i = faceIndex.length-2; i >= 0; i--)
-      minAfter[i] = Math.min(minAfter[i+1], f2.get(faceIndex[i]).min);
-
-    p1 :for (int i = 0; i < f1.size(); i++)
-    {
-      FaceInfo fa = f1.elementAt(i);
-      if (!intersect(fa.bounds, bounds2))
-        continue;
-      VertexInfo va1 = v1.elementAt(fa.v1);
-      VertexInfo va2 = v1.elementAt(fa.v2);
-      VertexInfo va3 = v1.elementAt(fa.v3);
+    for (int i = 0; i < numFaces; i++)
+      if (split[i] != null)
+        split[i].merge(v1, f1, i);
+  }
 
-      // Do a binary search to find the first face we need to intersect against.
+  /** Split one face of the first mesh until it no longer intersects any face of the second mesh.
+   The face itself is not modified, though its vertices may be marked as BOUNDARY (which is safe to
+   do from several threads at once).  This returns a FaceSplit describing the pieces it should be
+   replaced by, or null if it does not need to be split. */
 
-      int start = 0;
-      int end = f2.size();
-      while (end > start+1)
-      {
-        int mid = (start+end)/2;
-        // This was 'if (f2.get(faceIndex[mid]).max > fa.min+TOL)' but that skips cases when ---.max = fa.min.
-        // This happens often the third times that splitFaces() is called. Some triangles were not split as they should!
-        if (f2.get(faceIndex[mid]).max > fa.min-TOL)
-          end = mid;
-        else
-          start = mid;
-      }
+  private FaceSplit splitFace(Vector<VertexInfo> v1, FaceInfo fa, Vector<VertexInfo> v2, Vector<FaceInfo> f2, BoundingBox bounds2, FaceTree tree)
+  {
+    if (!intersect(fa.bounds, bounds2) || tree.findFaces(fa.bounds).length == 0)
+      return null;
+    FaceSplit split = new FaceSplit(v1, fa);
+    boolean any = false;
+    for (int i = 0; i < split.face.size(); i++)
+      while (splitAtFirstIntersection(split.vert, split.face, i, v2, f2, tree))
+        any = true;
+    return (any ? split : null);
+  }
 
-      // Look for intersecting faces.
+  /** Find the first face of the second mesh which intersects a face of the first mesh, and split
+   the face along it.  Returns true if the face was split. */
 
-      for (int j = start; j < f2.size(); j++)
-      {
-        FaceInfo fb = f2.elementAt(faceIndex[j]);
-        if (minAfter[j] > fa.max+TOL)
-          break;
-        if (!intersect(fa.bounds, fb.bounds))
-          continue;
+  private boolean splitAtFirstIntersection(Vector<VertexInfo> v1, Vector<FaceInfo> f1, int which, Vector<VertexInfo> v2, Vector<FaceInfo> f2, FaceTree tree)
+  {
+    int candidates[] = tree.findFaces(f1.elementAt(which).bounds);
+    for (int j = 0; j < candidates.length; j++)
+      if (splitWithFace(v1, f1, which, v2, f2.elementAt(candidates[j])))
+        return true;
+    return false;
+  }
 
-        // Determine whether two faces actually intersect.
+  /** Test a face of the first mesh against one face of the second mesh, and split it if they
+   intersect.  Returns true if the face was split. */
 
-        VertexInfo vb1 = v2.elementAt(fb.v1);
-        VertexInfo vb2 = v2.elementAt(fb.v2);
-        VertexInfo vb3 = v2.elementAt(fb.v3);
-        double dista1, dista2, dista3, distb1, distb2, distb3;
-        dista1 = va1.r.dot(fb.norm)-fb.distRoot;
-        dista2 = va2.r.dot(fb.norm)-fb.distRoot;
-        dista3 = va3.r.dot(fb.norm)-fb.distRoot;
-        if (dista1 > TOL && dista2 > TOL && dista3 > TOL)
-          continue;
-        if (dista1 < -TOL && dista2 < -TOL && dista3 < -TOL)
-          continue;
-        int signa1 = (dista1 > TOL ? 1 : (dista1 < -TOL ? -1 : 0));
-        int signa2 = (dista2 > TOL ? 1 : (dista2 < -TOL ? -1 : 0));
-        int signa3 = (dista3 > TOL ? 1 : (dista3 < -TOL ? -1 : 0));
-        if (signa1 == 0 && signa2 == 0 && signa3 == 0)
+  private boolean splitWithFace(Vector<VertexInfo> v1, Vector<FaceInfo> f1, int which, Vector<VertexInfo> v2, FaceInfo fb)
+  {
+    int intersectVertA[] = new int [2], intersectVertB[] = new int [2];
+    double intersectDistA[] = new double [2], intersectDistB[] = new double [2];
+    int intersectTypeA[] = new int [2];
+    int spanTypeA;
+    double m[][] = new double [3][3], b[] = new double [3];
+    Vec3 root = new Vec3();
+    Vec3 line;
+    FaceInfo fa = f1.elementAt(which);
+    VertexInfo va1 = v1.elementAt(fa.v1);
+    VertexInfo va2 = v1.elementAt(fa.v2);
+    VertexInfo va3 = v1.elementAt(fa.v3);
+
+
+    // Determine whether two faces actually intersect.
+
+    VertexInfo vb1 = v2.elementAt(fb.v1);
+    VertexInfo vb2 = v2.elementAt(fb.v2);
+    VertexInfo vb3 = v2.elementAt(fb.v3);
+    double dista1, dista2, dista3, distb1, distb2, distb3;
+    dista1 = va1.r.dot(fb.norm)-fb.distRoot;
+    dista2 = va2.r.dot(fb.norm)-fb.distRoot;
+    dista3 = va3.r.dot(fb.norm)-fb.distRoot;
+    if (dista1 > TOL && dista2 > TOL && dista3 > TOL)
+      return false;
+    if (dista1 < -TOL && dista2 < -TOL && dista3 < -TOL)
+      return false;
+    int signa1 = (dista1 > TOL ? 1 : (dista1 < -TOL ? -1 : 0));
+    int signa2 = (dista2 > TOL ? 1 : (dista2 < -TOL ? -1 : 0));
+    int signa3 = (dista3 > TOL ? 1 : (dista3 < -TOL ? -1 : 0));
+    if (signa1 == 0 && signa2 == 0 && signa3 == 0)
+    {
+      // Coplanar faces: the original algorithm mandates that such polygons are not split at all.
+      // But this is wrong. If object A and object B are overlapping in one area, the first time
+      // splitFaces() is called all polygons of A crossing that area will get split to create a boundary,
+      // and new boundary vertices will be added.
+      // Such new vertices may also be added to some polygons of B at the second call to splitFaces(),
+      // but NOT to the coplanar polygons. Thus an irregular mesh will be created in the overlapping area
+      // by some boolean operation, e.g. the union.
+      // What follows corrects this, and fixes issue #25.
+
+      Vec3 a1a2 = va2.r.minus(va1.r);
+      a1a2.normalize();
+      Vec3 a1a3 = va3.r.minus(va1.r);
+      a1a3.normalize();
+      Vec3 a2a3 = va3.r.minus(va2.r);
+      a2a3.normalize();
+      Vec3 a1b1 = vb1.r.minus(va1.r);
+      a1b1.normalize();
+      Vec3 a1b2 = vb2.r.minus(va1.r);
+      a1b2.normalize();
+      Vec3 a1b3 = vb3.r.minus(va1.r);
+      a1b3.normalize();
+      Vec3 a2b1 = vb1.r.minus(va2.r);
+      a2b1.normalize();
+      Vec3 a2b2 = vb2.r.minus(va2.r);
+      a2b2.normalize();
+      Vec3 a2b3 = vb3.r.minus(va2.r);
+      a2b3.normalize();
+
+      int b1Aligned = (a1a2.dot(a1b1) > 1 - TOL ? 1 : 0);
+      int b2Aligned = (a1a2.dot(a1b2) > 1 - TOL ? 1 : 0);
+      int b3Aligned = (a1a2.dot(a1b3) > 1 - TOL ? 1 : 0);
+      if (b1Aligned + b2Aligned + b3Aligned >= 2)
+      {
+        // Two vertices of B are aligned with a1a2
+        line = a1a2;
+        root.set(va1.r);
+        intersectVertA[0] = fa.v1;
+        intersectDistA[0] = 0;
+        intersectVertA[1] = fa.v2;
+        intersectDistA[1] = va1.r.distance(va2.r);
+      }
+      else
+      {
+        b1Aligned = (a1a3.dot(a1b1) > 1 - TOL ? 1 : 0);
+        b2Aligned = (a1a3.dot(a1b2) > 1 - TOL ? 1 : 0);
+        b3Aligned = (a1a3.dot(a1b3) > 1 - TOL ? 1 : 0);
+        if (b1Aligned + b2Aligned + b3Aligned >= 2)
         {
-          // Coplanar faces: the original algorithm mandates that such polygons are not split at all.
-          // But this is wrong. If object A and object B are overlapping in one area, the first time
-          // splitFaces() is called all polygons of A crossing that area will get split to create a boundary,
-          // and new boundary vertices will be added.
-          // Such new vertices may also be added to some polygons of B at the second call to splitFaces(),
-          // but NOT to the coplanar polygons. Thus an irregular mesh will be created in the overlapping area
-          // by some boolean operation, e.g. the union.
-          // What follows corrects this, and fixes issue #25.
-
-          Vec3 a1a2 = va2.r.minus(va1.r);
-          a1a2.normalize();
-          Vec3 a1a3 = va3.r.minus(va1.r);
-          a1a3.normalize();
-          Vec3 a2a3 = va3.r.minus(va2.r);
-          a2a3.normalize();
-          Vec3 a1b1 = vb1.r.minus(va1.r);
-          a1b1.normalize();
-          Vec3 a1b2 = vb2.r.minus(va1.r);
-          a1b2.normalize();
-          Vec3 a1b3 = vb3.r.minus(va1.r);
-          a1b3.normalize();
-          Vec3 a2b1 = vb1.r.minus(va2.r);
-          a2b1.normalize();
-          Vec3 a2b2 = vb2.r.minus(va2.r);
-          a2b2.normalize();
-          Vec3 a2b3 = vb3.r.minus(va2.r);
-          a2b3.normalize();
-
-          int b1Aligned = (a1a2.dot(a1b1) > 1 - TOL ? 1 : 0);
-          int b2Aligned = (a1a2.dot(a1b2) > 1 - TOL ? 1 : 0);
-          int b3Aligned = (a1a2.dot(a1b3) > 1 - TOL ? 1 : 0);
+          // Two vertices of B are aligned with a1a3
+          line = a1a3;
+          root.set(va1.r);
+          intersectVertA[0] = fa.v1;
+          intersectDistA[0] = 0;
+          intersectVertA[1] = fa.v3;
+          intersectDistA[1] = va1.r.distance(va3.r);
+        }
+        else
+        {
+          b1Aligned = (a2a3.dot(a2b1) > 1 - TOL ? 1 : 0);
+          b2Aligned = (a2a3.dot(a2b2) > 1 - TOL ? 1 : 0);
+          b3Aligned = (a2a3.dot(a2b3) > 1 - TOL ? 1 : 0);
           if (b1Aligned + b2Aligned + b3Aligned >= 2)
           {
-            // Two vertices of B are aligned with a1a2
-            line = a1a2;
-            root.set(va1.r);
-            intersectVertA[0] = fa.v1;
+            // Two vertices of B are aligned with a2a3
+
+            line = a2a3;
+            root.set(va2.r);
+            intersectVertA[0] = fa.v2;
             intersectDistA[0] = 0;
-            intersectVertA[1] = fa.v2;
-            intersectDistA[1] = va1.r.distance(va2.r);
+            intersectVertA[1] = fa.v3;
+            intersectDistA[1] = va2.r.distance(va3.r);
           }
           else
           {
-            b1Aligned = (a1a3.dot(a1b1) > 1 - TOL ? 1 : 0);
-            b2Aligned = (a1a3.dot(a1b2) > 1 - TOL ? 1 : 0);
-            b3Aligned = (a1a3.dot(a1b3) > 1 - TOL ? 1 : 0);
-            if (b1Aligned + b2Aligned + b3Aligned >= 2)
-            {
-              // Two vertices of B are aligned with a1a3
-              line = a1a3;
-              root.set(va1.r);
-              intersectVertA[0] = fa.v1;
-              intersectDistA[0] = 0;
-              intersectVertA[1] = fa.v3;
-              intersectDistA[1] = va1.r.distance(va3.r);
-            }
-            else
-            {
-              b1Aligned = (a2a3.dot(a2b1) > 1 - TOL ? 1 : 0);
-              b2Aligned = (a2a3.dot(a2b2) > 1 - TOL ? 1 : 0);
-              b3Aligned = (a2a3.dot(a2b3) > 1 - TOL ? 1 : 0);
-              if (b1Aligned + b2Aligned + b3Aligned >= 2)
-              {
-                // Two vertices of B are aligned with a2a3
-
-                line = a2a3;
-                root.set(va2.r);
-                intersectVertA[0] = fa.v2;
-                intersectDistA[0] = 0;
-                intersectVertA[1] = fa.v3;
-                intersectDistA[1] = va2.r.distance(va3.r);
-              }
-              else
-              {
-                // No common edge, skip to next polygon
-                continue;
-              }
-            }
+            // No common edge, skip to next polygon
+            return false;
           }
+        }
+      }
 
-          // If we get here, a common edge was found. Check whether a split is needed
-          intersectTypeA[0] = intersectTypeA[1] = VERTEX;
-          spanTypeA = EDGE;
-          boolean splitNeeded = false;
-          int index = 0;
-          if (b1Aligned == 1)
-          {
-            intersectDistB[index] = vb1.r.minus(root).dot(line);
-            if (vb1.type == BOUNDARY && intersectDistB[index] > TOL && intersectDistB[index] < intersectDistA[1]-TOL)
-              splitNeeded = true;
-            index ++;
-          }
-          if (b2Aligned == 1)
-          {
-            intersectDistB[index] = vb2.r.minus(root).dot(line);
-            if (vb2.type == BOUNDARY && intersectDistB[index] > TOL && intersectDistB[index] < intersectDistA[1]-TOL)
-              splitNeeded = true;
-            index ++;
-          }
-          if (b3Aligned == 1 && index < 2)
-          {
-            intersectDistB[index] = vb3.r.minus(root).dot(line);
-            if (vb3.type == BOUNDARY && intersectDistB[index] > TOL && intersectDistB[index] < intersectDistA[1]-TOL)
-              splitNeeded = true;
-          }
+      // If we get here, a common edge was found. Check whether a split is needed
+      intersectTypeA[0] = intersectTypeA[1] = VERTEX;
+      spanTypeA = EDGE;
+      boolean splitNeeded = false;
+      int index = 0;
+      if (b1Aligned == 1)
+      {
+        intersectDistB[index] = vb1.r.minus(root).dot(line);
+        if (vb1.type == BOUNDARY && intersectDistB[index] > TOL && intersectDistB[index] < intersectDistA[1]-TOL)
+          splitNeeded = true;
+        index ++;
+      }
+      if (b2Aligned == 1)
+      {
+        intersectDistB[index] = vb2.r.minus(root).dot(line);
+        if (vb2.type == BOUNDARY && intersectDistB[index] > TOL && intersectDistB[index] < intersectDistA[1]-TOL)
+          splitNeeded = true;
+        index ++;
+      }
+      if (b3Aligned == 1 && index < 2)
+      {
+        intersectDistB[index] = vb3.r.minus(root).dot(line);
+        if (vb3.type == BOUNDARY && intersectDistB[index] > TOL && intersectDistB[index] < intersectDistA[1]-TOL)
+          splitNeeded = true;
+      }
 
-          if (!splitNeeded)
-            continue;
+      if (!splitNeeded)
+        return false;
+    }
+    else
+    {
+      // Non coplanar faces
+
+      distb1 = vb1.r.dot(fa.norm)-fa.distRoot;
+      distb2 = vb2.r.dot(fa.norm)-fa.distRoot;
+      distb3 = vb3.r.dot(fa.norm)-fa.distRoot;
+      if (distb1 > TOL && distb2 > TOL && distb3 > TOL)
+        return false;
+      if (distb1 < -TOL && distb2 < -TOL && distb3 < -TOL)
+        return false;
+
+      // Find the line of intersection between the planes of the two faces.  Find
+      // the span along that line where face A intersects it.
+
+      line = fa.norm.cross(fb.norm);
+      line.normalize();
+      int index = 0;
+      if (signa1 == 0)
+      {
+        intersectVertA[index] = fa.v1;
+        intersectDistA[index] = line.dot(va1.r);
+        intersectTypeA[index++] = VERTEX;
+        if (signa2 == signa3)
+        {
+          intersectVertA[index] = fa.v1;
+          intersectDistA[index] = intersectDistA[index-1];
+          intersectTypeA[index++] = VERTEX;
+        }
+      }
+      if (signa2 == 0)
+      {
+        intersectVertA[index] = fa.v2;
+        intersectDistA[index] = line.dot(va2.r);
+        intersectTypeA[index++] = VERTEX;
+        if (signa1 == signa3)
+        {
+          intersectVertA[index] = fa.v2;
+          intersectDistA[index] = intersectDistA[index-1];
+          intersectTypeA[index++] = VERTEX;
+        }
+      }
+      if (signa3 == 0)
+      {
+        intersectVertA[index] = fa.v3;
+        intersectDistA[index] = line.dot(va3.r);
+        intersectTypeA[index++] = VERTEX;
+        if (signa1 == signa2)
+        {
+          intersectVertA[index] = fa.v3;
+          intersectDistA[index] = intersectDistA[index-1];
+          intersectTypeA[index++] = VERTEX;
         }
+      }
+      if (index == 2)
+      {
+        if (intersectVertA[0] == intersectVertA[1])
+          spanTypeA = VERTEX;
         else
+          spanTypeA = EDGE;
+      }
+      else
+      {
+        if ((signa1 == 1 && signa2 == -1) || (signa1 == -1 && signa2 == 1))
         {
-          // Non coplanar faces
-
-          distb1 = vb1.r.dot(fa.norm)-fa.distRoot;
-          distb2 = vb2.r.dot(fa.norm)-fa.distRoot;
-          distb3 = vb3.r.dot(fa.norm)-fa.distRoot;
-          if (distb1 > TOL && distb2 > TOL && distb3 > TOL)
-            continue;
-          if (distb1 < -TOL && distb2 < -TOL && distb3 < -TOL)
-            continue;
-
-          // Find the line of intersection between the planes of the two faces.  Find
-          // the span along that line where face A intersects it.
-
-          line = fa.norm.cross(fb.norm);
-          line.normalize();
-          int index = 0;
-          if (signa1 == 0)
-          {
-            intersectVertA[index] = fa.v1;
-            intersectDistA[index] = line.dot(va1.r);
-            intersectTypeA[index++] = VERTEX;
-            if (signa2 == signa3)
-            {
-              intersectVertA[index] = fa.v1;
-              intersectDistA[index] = intersectDistA[index-1];
-              intersectTypeA[index++] = VERTEX;
-            }
-          }
-          if (signa2 == 0)
-          {
-            intersectVertA[index] = fa.v2;
-            intersectDistA[index] = line.dot(va2.r);
-            intersectTypeA[index++] = VERTEX;
-            if (signa1 == signa3)
-            {
-              intersectVertA[index] = fa.v2;
-              intersectDistA[index] = intersectDistA[index-1];
-              intersectTypeA[index++] = VERTEX;
-            }
-          }
-          if (signa3 == 0)
-          {
-            intersectVertA[index] = fa.v3;
-            intersectDistA[index] = line.dot(va3.r);
-            intersectTypeA[index++] = VERTEX;
-            if (signa1 == signa2)
-            {
-              intersectVertA[index] = fa.v3;
-              intersectDistA[index] = intersectDistA[index-1];
-              intersectTypeA[index++] = VERTEX;
-            }
-          }
-          if (index == 2)
-          {
-            if (intersectVertA[0] == intersectVertA[1])
-              spanTypeA = VERTEX;
-            else
-              spanTypeA = EDGE;
-          }
-          else
-          {
-            if ((signa1 == 1 && signa2 == -1) || (signa1 == -1 && signa2 == 1))
-            {
-              intersectVertA[index] = fa.v1;
-              double fract = dista2/(dista2-dista1);
-              intersectDistA[index] = fract*line.dot(va1.r) + (1.0-fract)*line.dot(va2.r);
-              intersectTypeA[index++] = EDGE;
-            }
-            if ((signa2 == 1 && signa3 == -1) || (signa2 == -1 && signa3 == 1))
-            {
-              intersectVertA[index] = fa.v2;
-              double fract = dista3/(dista3-dista2);
-              intersectDistA[index] = fract*line.dot(va2.r) + (1.0-fract)*line.dot(va3.r);
-              intersectTypeA[index++] = EDGE;
-            }
-            if ((signa3 == 1 && signa1 == -1) || (signa3 == -1 && signa1 == 1))
-            {
-              intersectVertA[index] = fa.v3;
-              double fract = dista1/(dista1-dista3);
-              intersectDistA[index] = fract*line.dot(va3.r) + (1.0-fract)*line.dot(va1.r);
-              intersectTypeA[index++] = EDGE;
-            }
-            spanTypeA = FACE;
-          }
+          intersectVertA[index] = fa.v1;
+          double fract = dista2/(dista2-dista1);
+          intersectDistA[index] = fract*line.dot(va1.r) + (1.0-fract)*line.dot(va2.r);
+          intersectTypeA[index++] = EDGE;
+        }
+        if ((signa2 == 1 && signa3 == -1) || (signa2 == -1 && signa3 == 1))
+        {
+          intersectVertA[index] = fa.v2;
+          double fract = dista3/(dista3-dista2);
+          intersectDistA[index] = fract*line.dot(va2.r) + (1.0-fract)*line.dot(va3.r);
+          intersectTypeA[index++] = EDGE;
+        }
+        if ((signa3 == 1 && signa1 == -1) || (signa3 == -1 && signa1 == 1))
+        {
+          intersectVertA[index] = fa.v3;
+          double fract = dista1/(dista1-dista3);
+          intersectDistA[index] = fract*line.dot(va3.r) + (1.0-fract)*line.dot(va1.r);
+          intersectTypeA[index++] = EDGE;
+        }
+        spanTypeA = FACE;
+      }
 
-          // Now do the same for face B.
+      // Now do the same for face B.
 
-          int signb1 = (distb1 > TOL ? 1 : (distb1 < -TOL ? -1 : 0));
-          int signb2 = (distb2 > TOL ? 1 : (distb2 < -TOL ? -1 : 0));
-          int signb3 = (distb3 > TOL ? 1 : (distb3 < -TOL ? -1 : 0));
-          if (signb1 == 0 && signb2 == 0 && signb3 == 0)
-            continue;
-          index = 0;
-          if (signb1 == 0)
-          {
-            intersectVertB[index] = fb.v1;
-            intersectDistB[index] = line.dot(vb1.r);
-            index++;
-            if (signb2 == signb3)
-            {
-              intersectVertB[index] = fb.v1;
-              intersectDistB[index] = intersectDistB[index-1];
-              index++;
-            }
-          }
-          if (signb2 == 0)
-          {
-            intersectVertB[index] = fb.v2;
-            intersectDistB[index] = line.dot(vb2.r);
-            index++;
-            if (signb1 == signb3)
-            {
-              intersectVertB[index] = fb.v2;
-              intersectDistB[index] = intersectDistB[index-1];
-              index++;
-            }
-          }
-          if (signb3 == 0)
-          {
-            intersectVertB[index] = fb.v3;
-            intersectDistB[index] = line.dot(vb3.r);
-            index++;
-            if (signb1 == signb2)
-            {
-              intersectVertB[index] = fb.v3;
-              intersectDistB[index] = intersectDistB[index-1];
-              index++;
-            }
-          }
-          if (index != 2)
-          {
-            if ((signb1 == 1 && signb2 == -1) || (signb1 == -1 && signb2 == 1))
-            {
-              intersectVertB[index] = fb.v1;
-              double fract = distb2/(distb2-distb1);
-              intersectDistB[index] = fract*line.dot(vb1.r) + (1.0-fract)*line.dot(vb2.r);
-              index++;
-            }
-            if ((signb2 == 1 && signb3 == -1) || (signb2 == -1 && signb3 == 1))
-            {
-              intersectVertB[index] = fb.v2;
-              double fract = distb3/(distb3-distb2);
-              intersectDistB[index] = fract*line.dot(vb2.r) + (1.0-fract)*line.dot(vb3.r);
-              index++;
-            }
-            if ((signb3 == 1 && signb1 == -1) || (signb3 == -1 && signb1 == 1))
-            {
-              intersectVertB[index] = fb.v3;
-              double fract = distb1/(distb1-distb3);
-              intersectDistB[index] = fract*line.dot(vb3.r) + (1.0-fract)*line.dot(vb1.r);
-            }
-          }
-
-          // Determine whether the spans overlap.
+      int signb1 = (distb1 > TOL ? 1 : (distb1 < -TOL ? -1 : 0));
+      int signb2 = (distb2 > TOL ? 1 : (distb2 < -TOL ? -1 : 0));
+      int signb3 = (distb3 > TOL ? 1 : (distb3 < -TOL ? -1 : 0));
+      if (signb1 == 0 && signb2 == 0 && signb3 == 0)
+        return false;
+      index = 0;
+      if (signb1 == 0)
+      {
+        intersectVertB[index] = fb.v1;
+        intersectDistB[index] = line.dot(vb1.r);
+        index++;
+        if (signb2 == signb3)
+        {
+          intersectVertB[index] = fb.v1;
+          intersectDistB[index] = intersectDistB[index-1];
+          index++;
+        }
+      }
+      if (signb2 == 0)
+      {
+        intersectVertB[index] = fb.v2;
+        intersectDistB[index] = line.dot(vb2.r);
+        index++;
+        if (signb1 == signb3)
+        {
+          intersectVertB[index] = fb.v2;
+          intersectDistB[index] = intersectDistB[index-1];
+          index++;
+        }
+      }
+      if (signb3 == 0)
+      {
+        intersectVertB[index] = fb.v3;
+        intersectDistB[index] = line.dot(vb3.r);
+        index++;
+        if (signb1 == signb2)
+        {
+          intersectVertB[index] = fb.v3;
+          intersectDistB[index] = intersectDistB[index-1];
+          index++;
+        }
+      }
+      if (index != 2)
+      {
+        if ((signb1 == 1 && signb2 == -1) || (signb1 == -1 && signb2 == 1))
+        {
+          intersectVertB[index] = fb.v1;
+          double fract = distb2/(distb2-distb1);
+          intersectDistB[index] = fract*line.dot(vb1.r) + (1.0-fract)*line.dot(vb2.r);
+          index++;
+        }
+        if ((signb2 == 1 && signb3 == -1) || (signb2 == -1 && signb3 == 1))
+        {
+          intersectVertB[index] = fb.v2;
+          double fract = distb3/(distb3-distb2);
+          intersectDistB[index] = fract*line.dot(vb2.r) + (1.0-fract)*line.dot(vb3.r);
+          index++;
+        }
+        if ((signb3 == 1 && signb1 == -1) || (signb3 == -1 && signb1 == 1))
+        {
+          intersectVertB[index] = fb.v3;
+          double fract = distb1/(distb1-distb3);
+          intersectDistB[index] = fract*line.dot(vb3.r) + (1.0-fract)*line.dot(vb1.r);
+        }
+      }
 
-          double minA = Math.min(intersectDistA[0], intersectDistA[1]);
-          double maxA = Math.max(intersectDistA[0], intersectDistA[1]);
-          double minB = Math.min(intersectDistB[0], intersectDistB[1]);
-          double maxB = Math.max(intersectDistB[0], intersectDistB[1]);
+      // Determine whether the spans overlap.
 
-          // Issues #457 and #479: now don't split if faces are far apart by TOL as least
-          if (maxA < minB-TOL || maxB < minA-TOL)
-            continue;
+      double minA = Math.min(intersectDistA[0], intersectDistA[1]);
+      double maxA = Math.max(intersectDistA[0], intersectDistA[1]);
+      double minB = Math.min(intersectDistB[0], intersectDistB[1]);
+      double maxB = Math.max(intersectDistB[0], intersectDistB[1]);
 
-          // Issues #457 and #479: handle special cases of single point spans resulting from touching edges
+      // Issues #457 and #479: now don't split if faces are far apart by TOL as least
+      if (maxA < minB-TOL || maxB < minA-TOL)
+        return false;
 
-          if (maxA < minB + TOL || maxB < minA + TOL)
-          {
-            if (intersectTypeA[0] == VERTEX && (intersectDistA[0] == minA && maxB < minA + TOL
-                || intersectDistA[0] == maxA && maxA < minB + TOL))
-            {
-              intersectDistA[1] = intersectDistA[0];
-              intersectVertA[1] = intersectVertA[0];
-              intersectTypeA[1] = spanTypeA = VERTEX;
-            }
-            else if (intersectTypeA[1] == VERTEX && (intersectDistA[1] == minA && maxB < minA + TOL
-                || intersectDistA[1] == maxA && maxA < minB + TOL))
-            {
-              intersectDistA[0] = intersectDistA[1];
-              intersectVertA[0] = intersectVertA[1];
-              intersectTypeA[0] = spanTypeA = VERTEX;
-            }
-            else
-            {
-              double intersectDist = (maxA < minB + TOL ? maxA : minA);
-              int intersection = (intersectDist == intersectDistA[0] ? 0 : 1);
-              int other = 1 - intersection;
-              intersectDistA[other] = intersectDist;
-              intersectVertA[other] = intersectVertA[intersection];
-              intersectTypeA[other] = intersectTypeA[intersection] = EDGE;
-              spanTypeA = POINT_ON_EDGE;
-            }
-          }
+      // Issues #457 and #479: handle special cases of single point spans resulting from touching edges
 
-          // Ok!  The faces intersect, and we know the positions and types of their
-          // spans along the line of intersection.  Now we need to actually subdivide
-          // the faces.
-
-          m[0][0] = fa.norm.x;
-          m[0][1] = fa.norm.y;
-          m[0][2] = fa.norm.z;
-          m[1][0] = fb.norm.x;
-          m[1][1] = fb.norm.y;
-          m[1][2] = fb.norm.z;
-          m[2][0] = line.x;
-          m[2][1] = line.y;
-          m[2][2] = line.z;
-          b[0] = fa.distRoot;
-          b[1] = fb.distRoot;
-          b[2] = 0.0;
-          SVD.solve(m, b);
-          root.set(b[0], b[1], b[2]);
+      if (maxA < minB + TOL || maxB < minA + TOL)
+      {
+        if (intersectTypeA[0] == VERTEX && (intersectDistA[0] == minA && maxB < minA + TOL
+            || intersectDistA[0] == maxA && maxA < minB + TOL))
+        {
+          intersectDistA[1] = intersectDistA[0];
+          intersectVertA[1] = intersectVertA[0];
+          intersectTypeA[1] = spanTypeA = VERTEX;
+        }
+        else if (intersectTypeA[1] == VERTEX && (intersectDistA[1] == minA && maxB < minA + TOL
+            || intersectDistA[1] == maxA && maxA < minB + TOL))
+        {
+          intersectDistA[0] = intersectDistA[1];
+          intersectVertA[0] = intersectVertA[1];
+          intersectTypeA[0] = spanTypeA = VERTEX;
+        }
+        else
+        {
+          double intersectDist = (maxA < minB + TOL ? maxA : minA);
+          int intersection = (intersectDist == intersectDistA[0] ? 0 : 1);
+          int other = 1 - intersection;
+          intersectDistA[other] = intersectDist;
+          intersectVertA[other] = intersectVertA[intersection];
+          intersectTypeA[other] = intersectTypeA[intersection] = EDGE;
+          spanTypeA = POINT_ON_EDGE;
         }
-        int oldSize = f1.size();
-        splitOneFace(v1, f1, i, intersectVertA, intersectDistA, intersectDistB, intersectTypeA, spanTypeA, line, root);
-        if (f1.size() == oldSize)
-          continue;
-        i--;
-        continue p1;
       }
+
+      // Ok!  The faces intersect, and we know the positions and types of their
+      // spans along the line of intersection.  Now we need to actually subdivide
+      // the faces.
+
+      m[0][0] = fa.norm.x;
+      m[0][1] = fa.norm.y;
+      m[0][2] = fa.norm.z;
+      m[1][0] = fb.norm.x;
+      m[1][1] = fb.norm.y;
+      m[1][2] = fb.norm.z;
+      m[2][0] = line.x;
+      m[2][1] = line.y;
+      m[2][2] = line.z;
+      b[0] = fa.distRoot;
+      b[1] = fb.distRoot;
+      b[2] = 0.0;
+      SVD.solve(m, b);
+      root.set(b[0], b[1], b[2]);
     }
+    int oldSize = f1.size();
+    splitOneFace(v1, f1, which, intersectVertA, intersectDistA, intersectDistB, intersectTypeA, spanTypeA, line, root);
+    return (f1.size() != oldSize);
   }
 
   /** Split a face of one of the component objects.
@@ -1295,13 +1292,14 @@ public class CSGModeller
 
     // Loop over the faces, and determine whether they are inside or outside.
 
+    FaceTree tree = new FaceTree(f2);
     for (int i = 0; i < f1.size(); i++)
     {
       FaceInfo f = f1.elementAt(i);
 
       if (f.type != UNKNOWN)
         continue;
-      f.type = classifyFace(f, v1, v2, f2);
+      f.type = classifyFace(f, v1, v2, f2, tree);
 
       // Mark the vertices of this face, and any adjacent faces.
 
@@ -1322,7 +1320,7 @@ public class CSGModeller
 
   /** Determine whether a particular face is inside or outside the other object. */
 
-  private int classifyFace(FaceInfo f, Vector<VertexInfo> v1, Vector<VertexInfo> v2, Vector<FaceInfo> f2)
+  private int classifyFace(FaceInfo f, Vector<VertexInfo> v1, Vector<VertexInfo> v2, Vector<FaceInfo> f2, FaceTree tree)
   {
     VertexInfo vi1 = v1.elementAt(f.v1);
     VertexInfo vi2 = v1.elementAt(f.v2);
@@ -1334,44 +1332,18 @@ public class CSGModeller
 
     orig.set(vi1.r.x+vi2.r.x+vi3.r.x, vi1.r.y+vi2.r.y+vi3.r.y, vi1.r.z+vi2.r.z+vi3.r.z);
     orig.scale(1.0/3.0);
-    int first, second;
-    double firstDist, secondDist;
-    first = -1;
-    firstDist = Double.MAX_VALUE;
+    int first = -1;
+    double firstDist = Double.MAX_VALUE, secondDist;
 
     // Use a for loop to set a limit to the iterations
     for (int n = 0; n < 10; n ++)
     {
-      first = second = -1;
-      firstDist = secondDist = Double.MAX_VALUE;
-      for (int j = 0; j < f2.size(); j++)
-      {
-        FaceInfo fb = f2.elementAt(j);
-        double dist = rayBoxIntersectionDist(orig, dir, fb.bounds);
-        if (dist >= secondDist)
-          continue;
-        VertexInfo vb1 = v2.elementAt(fb.v1);
-        VertexInfo vb2 = v2.elementAt(fb.v2);
-        VertexInfo vb3 = v2.elementAt(fb.v3);
-        dist = rayFaceIntersectionDist(orig, dir, fb, vb1.r, vb2.r, vb3.r);
-
-        if (dist == -Double.MAX_VALUE && fb.norm.length2() == 0.0)
-          continue;
-        if (dist < firstDist)
-        {
-          second = first;
-          secondDist = firstDist;
-          first = j;
-          firstDist = dist;
-        }
-        else if (dist < secondDist)
-        {
-          second = j;
-          secondDist = dist;
-        }
-        if (dist == -Double.MAX_VALUE)
-          break;
-      }
+      RayHits hits = new RayHits();
+      if (tree.root != null)
+        findRayHits(tree.root, orig, dir, v2, f2, hits);
+      first = hits.first;
+      firstDist = hits.firstDist;
+      secondDist = hits.secondDist;
 
       if (firstDist == Double.MAX_VALUE || firstDist > -Double.MAX_VALUE && secondDist - firstDist > TOL)
         // A reliable result was found. Exit from for-n loop
@@ -1405,9 +1377,57 @@ public class CSGModeller
     return OUTSIDE;
   }
 
+  /** Find the two closest faces hit by a ray, skipping any part of the tree that cannot contain a closer
+   hit than the two already found.  If the ray lies in the plane of a face or passes through one of
+   its edges, that face is recorded as the first hit with a distance of -Double.MAX_VALUE, and false
+   is returned to indicate that the search was abandoned. */
+
+  private boolean findRayHits(FaceNode node, Vec3 orig, Vec3 dir, Vector<VertexInfo> v2, Vector<FaceInfo> f2, RayHits hits)
+  {
+    if (node.face == null)
+    {
+      // Visit the nearer child first, since that is likely to let us skip the other one.
+
+      double dist1 = rayBoxIntersectionDist(orig, dir, node.child1.bounds);
+      double dist2 = rayBoxIntersectionDist(orig, dir, node.child2.bounds);
+      FaceNode near = (dist1 <= dist2 ? node.child1 : node.child2);
+      FaceNode far = (dist1 <= dist2 ? node.child2 : node.child1);
+      if (Math.min(dist1, dist2) < hits.secondDist && !findRayHits(near, orig, dir, v2, f2, hits))
+        return false;
+      if (Math.max(dist1, dist2) < hits.secondDist && !findRayHits(far, orig, dir, v2, f2, hits))
+        return false;
+      return true;
+    }
+    for (int j : node.face)
+    {
+      FaceInfo fb = f2.elementAt(j);
+      double dist = rayBoxIntersectionDist(orig, dir, fb.bounds);
+      if (dist >= hits.secondDist)
+        continue;
+      VertexInfo vb1 = v2.elementAt(fb.v1);
+      VertexInfo vb2 = v2.elementAt(fb.v2);
+      VertexInfo vb3 = v2.elementAt(fb.v3);
+      dist = rayFaceIntersectionDist(orig, dir, fb, vb1.r, vb2.r, vb3.r);
+
+      if (dist == -Double.MAX_VALUE && fb.norm.length2() == 0.0)
+        continue;
+      if (dist < hits.firstDist)
+      {
+        hits.secondDist = hits.firstDist;
+        hits.first = j;
+        hits.firstDist = dist;
+      }
+      else if (dist < hits.secondDist)
+        hits.secondDist = dist;
+      if (dist == -Double.MAX_VALUE)
+        return false;
+    }
+    return true;
+  }
+
   /** Determine whether two bounding boxes intersect, to within the minimum tolerance. */
 
-  private boolean intersect(BoundingBox b1, BoundingBox b2)
+  private static boolean intersect(BoundingBox b1, BoundingBox b2)
   {
     if (b1.minx > b2.maxx+TOL || b1.maxx < b2.minx-TOL || b1.miny > b2.maxy+TOL || b1.maxy < b2.miny-TOL || b1.minz > b2.maxz+TOL || b1.maxz < b2.minz-TOL)
       return false;
@@ -1663,6 +1683,56 @@ public class CSGModeller
     return (dist < TOL*norm);
   }
 
+  /** Process a range of indices, in blocks of SPLIT_BLOCK_SIZE.  If parallel is true and there are enough
+   of them, the blocks are distributed between the threads of the shared pool. */
+
+  private static void forEachBlock(final int count, boolean parallel, final IndexRange range)
+  {
+    final int numBlocks = (count+SPLIT_BLOCK_SIZE-1)/SPLIT_BLOCK_SIZE;
+    if (!parallel || count < MIN_PARALLEL_SPLIT || ThreadManager.getPoolSize() < 2)
+    {
+      for (int block = 0; block < numBlocks; block++)
+        range.process(block*SPLIT_BLOCK_SIZE, Math.min((block+1)*SPLIT_BLOCK_SIZE, count));
+      return;
+    }
+    final ThreadManager threads = new ThreadManager();
+    final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+    threads.setNumIndices(numBlocks);
+    threads.setTask(new ThreadManager.Task() {
+      @Override
+      public void execute(int block)
+      {
+        try
+        {
+          range.process(block*SPLIT_BLOCK_SIZE, Math.min((block+1)*SPLIT_BLOCK_SIZE, count));
+        }
+        catch (RuntimeException ex)
+        {
+          // Report it from the calling thread, just as if the calculation had been done there.
+
+          failure.compareAndSet(null, ex);
+          threads.cancel();
+        }
+      }
+
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    threads.run();
+    threads.finish();
+    if (failure.get() != null)
+      throw failure.get();
+  }
+
+  /** A task to be performed on a range of indices. */
+
+  private interface IndexRange
+  {
+    void process(int start, int end);
+  }
+
   /* Inner classes for keeping track of information about vertices and faces. */
 
   private static class VertexInfo
@@ -1689,14 +1759,14 @@ public class CSGModeller
     }
   }
 
-  private class FaceInfo
+  private static class FaceInfo
   {
     int v1, v2, v3;
     int type;
     BoundingBox bounds;
     Vec3 norm;
     float smoothness1, smoothness2, smoothness3;
-    double distRoot, min, max;
+    double distRoot;
 
     public FaceInfo(int v1, int v2, int v3, Vector vertices, float s1, float s2, float s3)
     {
@@ -1738,21 +1808,201 @@ public class CSGModeller
       maxy = Math.max(Math.max(vert1.y, vert2.y), vert3.y);
       maxz = Math.max(Math.max(vert1.z, vert2.z), vert3.z);
       bounds = new BoundingBox(minx, maxx, miny, maxy, minz, maxz);
-      if (mainAxis == 0)
+    }
+  }
+  /** A FaceSplit holds the pieces a single face is split into, along with any new vertices
+   they need.  The first three vertices are those of the original face, and the first face
+   is the one which will replace it. */
+
+  private static class FaceSplit
+  {
+    Vector<VertexInfo> vert;
+    Vector<FaceInfo> face;
+    int originalVert[];
+
+    public FaceSplit(Vector<VertexInfo> vertices, FaceInfo f)
+    {
+      originalVert = new int [] {f.v1, f.v2, f.v3};
+      vert = new Vector<VertexInfo>();
+      vert.addElement(vertices.elementAt(f.v1));
+      vert.addElement(vertices.elementAt(f.v2));
+      vert.addElement(vertices.elementAt(f.v3));
+      face = new Vector<FaceInfo>();
+      face.addElement(new FaceInfo(0, 1, 2, vert, f.smoothness1, f.smoothness2, f.smoothness3, f.norm, f.distRoot));
+    }
+
+    /** Add the new vertices and faces to a mesh, replacing the face that was split. */
+
+    public void merge(Vector<VertexInfo> vertices, Vector<FaceInfo> faces, int which)
+    {
+      int firstNew = vertices.size();
+      for (int i = 3; i < vert.size(); i++)
+        vertices.addElement(vert.elementAt(i));
+      for (int i = 0; i < face.size(); i++)
+      {
+        FaceInfo f = face.elementAt(i);
+        f.v1 = (f.v1 < 3 ? originalVert[f.v1] : firstNew+f.v1-3);
+        f.v2 = (f.v2 < 3 ? originalVert[f.v2] : firstNew+f.v2-3);
+        f.v3 = (f.v3 < 3 ? originalVert[f.v3] : firstNew+f.v3-3);
+        if (i == 0)
+          faces.setElementAt(f, which);
+        else
+          faces.addElement(f);
+      }
+    }
+  }
+
+  /** A FaceTree is a bounding volume hierarchy over the faces of a mesh.  It is used to find the
+   faces which might intersect a given face or ray, without needing to test every face. */
+
+  private static class FaceTree
+  {
+    FaceNode root;
+    BoundingBox faceBounds[];
+    int depth;
+
+    public FaceTree(Vector<FaceInfo> faces)
+    {
+      int numFaces = faces.size();
+      faceBounds = new BoundingBox [numFaces];
+      if (numFaces == 0)
+        return;
+      int index[] = new int [numFaces];
+      double center[][] = new double [3][numFaces];
+      for (int i = 0; i < numFaces; i++)
       {
-        min = minx;
-        max = maxx;
+        BoundingBox b = faces.elementAt(i).bounds;
+        faceBounds[i] = b;
+        index[i] = i;
+        center[0][i] = b.minx+b.maxx;
+        center[1][i] = b.miny+b.maxy;
+        center[2][i] = b.minz+b.maxz;
       }
-      else if (mainAxis == 1)
+      root = buildNode(index, center, 0, numFaces, 1);
+    }
+
+    /** Build the node containing a range of the (partially sorted) face indices. */
+
+    private FaceNode buildNode(int index[], double center[][], int start, int end, int level)
+    {
+      FaceNode node = new FaceNode();
+      BoundingBox b = faceBounds[index[start]];
+      double minx = b.minx, maxx = b.maxx, miny = b.miny, maxy = b.maxy, minz = b.minz, maxz = b.maxz;
+      for (int i = start+1; i < end; i++)
       {
-        min = miny;
-        max = maxy;
+        b = faceBounds[index[i]];
+        minx = Math.min(minx, b.minx);
+        maxx = Math.max(maxx, b.maxx);
+        miny = Math.min(miny, b.miny);
+        maxy = Math.max(maxy, b.maxy);
+        minz = Math.min(minz, b.minz);
+        maxz = Math.max(maxz, b.maxz);
       }
+      node.bounds = new BoundingBox(minx, maxx, miny, maxy, minz, maxz);
+      depth = Math.max(depth, level);
+      if (end-start <= MAX_FACES_PER_LEAF)
+      {
+        node.face = Arrays.copyOfRange(index, start, end);
+        return node;
+      }
+
+      // Divide the faces in half along the longest axis of the node.
+
+      int axis;
+      if (maxx-minx >= maxy-miny && maxx-minx >= maxz-minz)
+        axis = 0;
+      else if (maxy-miny >= maxz-minz)
+        axis = 1;
       else
+        axis = 2;
+      int mid = (start+end)/2;
+      partition(index, center[axis], start, end, mid);
+      node.child1 = buildNode(index, center, start, mid, level+1);
+      node.child2 = buildNode(index, center, mid, end, level+1);
+      return node;
+    }
+
+    /** Reorder a range of face indices so that every face before k has a center no greater
+     than the one at k, and every face after it has a center no less than it. */
+
+    private static void partition(int index[], double center[], int start, int end, int k)
+    {
+      while (end-start > 1)
       {
-        min = minz;
-        max = maxz;
+        double pivot = center[index[(start+end)/2]];
+        int i = start, j = end-1;
+        while (i <= j)
+        {
+          while (center[index[i]] < pivot)
+            i++;
+          while (center[index[j]] > pivot)
+            j--;
+          if (i <= j)
+          {
+            int swap = index[i];
+            index[i++] = index[j];
+            index[j--] = swap;
+          }
+        }
+        if (k <= j)
+          end = j+1;
+        else if (k >= i)
+          start = i;
+        else
+          return;
       }
     }
+
+    /** Get the indices of all faces whose bounding boxes intersect a box, to within the
+     minimum tolerance. */
+
+    public int [] findFaces(BoundingBox box)
+    {
+      int found[] = new int [8], count = 0;
+      if (root == null)
+        return new int [0];
+      FaceNode stack[] = new FaceNode [depth+1];
+      int stackSize = 0;
+      stack[stackSize++] = root;
+      while (stackSize > 0)
+      {
+        FaceNode node = stack[--stackSize];
+        if (!intersect(node.bounds, box))
+          continue;
+        if (node.face == null)
+        {
+          stack[stackSize++] = node.child2;
+          stack[stackSize++] = node.child1;
+          continue;
+        }
+        for (int j : node.face)
+        {
+          if (!intersect(faceBounds[j], box))
+            continue;
+          if (count == found.length)
+            found = Arrays.copyOf(found, 2*count);
+          found[count++] = j;
+        }
+      }
+      return Arrays.copyOf(found, count);
+    }
+  }
+
+  /** A node in a FaceTree.  Leaf nodes list the indices of their faces, while internal nodes
+   have two children. */
+
+  private static class FaceNode
+  {
+    BoundingBox bounds;
+    FaceNode child1, child2;
+    int face[];
+  }
+
+  /** The closest faces found so far along a ray. */
+
+  private static class RayHits
+  {
+    int first = -1;
+    double firstDist = Double.MAX_VALUE, secondDist = Double.MAX_VALUE;
   }
 }
\ No newline at end of file
@@ -106,6 +106,24 @@ public class CompoundImplicitObject extends ImplicitObject
     return value;
   }
 
+  /**
+   * The gradient can be no larger than the sum of the maximum gradients of the component objects.
+   */
+
+  @Override
+  public double getMaxGradient()
+  {
+    double max = 0.0;
+    for (ImplicitObject obj : objects)
+    {
+      double objMax = obj.getMaxGradient();
+      if (objMax == Double.MAX_VALUE)
+        return Double.MAX_VALUE;
+      max += objMax;
+    }
+    return max;
+  }
+
   @Override
   public void getFieldGradient(double x, double y, double z, double size, double time, Vec3 grad)
   {
@@ -139,41 +157,46 @@ public class CompoundImplicitObject extends ImplicitObject
       {
         if (grid == null)
         {
-          gridSize = (int) Math.ceil(Math.pow(objects.size(), 1.0/3.0));
-          grid = new ArrayList<ArrayList<Integer>>(gridSize*gridSize*gridSize);
-          for (int i = 0; i < gridSize*gridSize*gridSize; i++)
-            grid.add(null);
+          // Build the grid completely before publishing it, since other threads may be evaluating
+          // the field at the same time.
+
+          int newGridSize = (int) Math.ceil(Math.pow(objects.size(), 1.0/3.0));
+          ArrayList<ArrayList<Integer>> newGrid = new ArrayList<ArrayList<Integer>>(newGridSize*newGridSize*newGridSize);
+          for (int i = 0; i < newGridSize*newGridSize*newGridSize; i++)
+            newGrid.add(null);
           for (int index = 0; index < objects.size(); index++)
           {
             BoundingBox objBounds = objects.get(index).getBounds().transformAndOutset(objectCoords.get(index).fromLocal());
-            int minx = (int) Math.floor(gridSize*(objBounds.minx-gridBounds.minx)/(gridBounds.maxx-gridBounds.minx));
-            int maxx = (int) Math.ceil(gridSize*(objBounds.maxx-gridBounds.minx)/(gridBounds.maxx-gridBounds.minx));
-            int miny = (int) Math.floor(gridSize*(objBounds.miny-gridBounds.miny)/(gridBounds.maxy-gridBounds.miny));
-            int maxy = (int) Math.ceil(gridSize*(objBounds.maxy-gridBounds.miny)/(gridBounds.maxy-gridBounds.miny));
-            int minz = (int) Math.floor(gridSize*(objBounds.minz-gridBounds.minz)/(gridBounds.maxz-gridBounds.minz));
-            int maxz = (int) Math.ceil(gridSize*(objBounds.maxz-gridBounds.minz)/(gridBounds.maxz-gridBounds.minz));
-            minx = Math.max(0, Math.min(gridSize-1, minx));
-            maxx = Math.max(0, Math.min(gridSize-1, maxx));
-            miny = Math.max(0, Math.min(gridSize-1, miny));
-            maxy = Math.max(0, Math.min(gridSize-1, maxy));
-            minz = Math.max(0, Math.min(gridSize-1, minz));
-            maxz = Math.max(0, Math.min(gridSize-1, maxz));
+            int minx = (int) Math.floor(newGridSize*(objBounds.minx-gridBounds.minx)/(gridBounds.maxx-gridBounds.minx));
+            int maxx = (int) Math.ceil(newGridSize*(objBounds.maxx-gridBounds.minx)/(gridBounds.maxx-gridBounds.minx));
+            int miny = (int) Math.floor(newGridSize*(objBounds.miny-gridBounds.miny)/(gridBounds.maxy-gridBounds.miny));
+            int maxy = (int) Math.ceil(newGridSize*(objBounds.maxy-gridBounds.miny)/(gridBounds.maxy-gridBounds.miny));
+            int minz = (int) Math.floor(newGridSize*(objBounds.minz-gridBounds.minz)/(gridBounds.maxz-gridBounds.minz));
+            int maxz = (int) Math.ceil(newGridSize*(objBounds.maxz-gridBounds.minz)/(gridBounds.maxz-gridBounds.minz));
+            minx = Math.max(0, Math.min(newGridSize-1, minx));
+            maxx = Math.max(0, Math.min(newGridSize-1, maxx));
+            miny = Math.max(0, Math.min(newGridSize-1, miny));
+            maxy = Math.max(0, Math.min(newGridSize-1, maxy));
+            minz = Math.max(0, Math.min(newGridSize-1, minz));
+            maxz = Math.max(0, Math.min(newGridSize-1, maxz));
             for (int i = minx; i <= maxx; i++)
               for (int j = miny; j <= maxy; j++)
                 for (int k = minz; k <= maxz; k++)
                 {
-                  int n = k+gridSize*(j+gridSize*i);
-                  if (grid.get(n) == null)
-                    grid.set(n, new ArrayList<Integer>());
-                  grid.get(n).add(index);
+                  int n = k+newGridSize*(j+newGridSize*i);
+                  if (newGrid.get(n) == null)
+                    newGrid.set(n, new ArrayList<Integer>());
+                  newGrid.get(n).add(index);
                 }
           }
+          ArrayList<Integer> empty = new ArrayList<Integer>();
+          for (int i = 0; i < newGridSize*newGridSize*newGridSize; i++)
+            if (newGrid.get(i) == null)
+              newGrid.set(i, empty);
+          gridSize = newGridSize;
+          grid = newGrid;
         }
       }
-      ArrayList<Integer> empty = new ArrayList<Integer>();
-      for (int i = 0; i < gridSize*gridSize*gridSize; i++)
-        if (grid.get(i) == null)
-          grid.set(i, empty);
     }
     int i = (int) (gridSize*(x-gridBounds.minx)/(gridBounds.maxx-gridBounds.minx));
     int j = (int) (gridSize*(y-gridBounds.miny)/(gridBounds.maxy-gridBounds.miny));
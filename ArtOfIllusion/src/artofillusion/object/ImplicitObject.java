@@ -12,10 +12,12 @@ package artofillusion.object;
 
 import artofillusion.math.*;
 import artofillusion.*;
+import artofillusion.util.*;
 
 import java.awt.Point;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * This abstract class represents an object whose surface is defined as an isosurface of a
@@ -39,6 +41,10 @@ public abstract class ImplicitObject extends Object3D
   private WireframeMesh cachedWireframe;
   private double lastTime;
 
+  private static final int SLAB_THICKNESS = 16;
+  private static final int BLOCK_SIZE = 8;
+  private static final int NO_VERTEX = Integer.MIN_VALUE;
+
   /**
    * Get the value of the field function at a point specified in object coordinates.
    *
@@ -246,12 +252,6 @@ public abstract class ImplicitObject extends Object3D
     {0, 0, 1},{1, 0, 1},{1, 1, 1},{0, 1, 1}
   };
 
-  private static final double edgeDirection[][] = new double[][]
-  {
-      {1.0, 0.0, 0.0},{0.0, 1.0, 0.0},{-1.0, 0.0, 0.0},{0.0, -1.0, 0.0},
-      {1.0, 0.0, 0.0},{0.0, 1.0, 0.0},{-1.0, 0.0, 0.0},{0.0, -1.0, 0.0},
-      {0.0, 0.0, 1.0},{0.0, 0.0, 1.0},{ 0.0, 0.0, 1.0},{0.0,  0.0, 1.0}
-  };
   private static final int edgeConnection[][] = new int[][]
   {
       {0,1}, {1,2}, {2,3}, {3,0},
@@ -539,6 +539,11 @@ public abstract class ImplicitObject extends Object3D
 
   /**
    * Construct a mesh from the implicit function.
+   * <p>
+   * The bounding box is divided into a grid of cells no larger than tol, and the surface is
+   * triangulated with marching cubes.  The grid is split into slabs perpendicular to the x axis,
+   * which are meshed in parallel and then joined.  If getMaxGradient() returns a finite value,
+   * it is used to skip blocks of cells which cannot contain any part of the surface.
    *
    * @param tol        the surface error tolerance
    * @param vertices   the coordinates of mesh vertices will be added to this List
@@ -546,150 +551,357 @@ public abstract class ImplicitObject extends Object3D
    */
 
   public void generateMesh(double tol, List<Vec3> vertices, List<int[]> faces)
+  {
+    generateMesh(tol, vertices, faces, true, getMaxGradient() < Double.MAX_VALUE);
+  }
+
+  /**
+   * This is identical to generateMesh(tol, vertices, faces), except that it specifies whether slabs
+   * may be meshed on multiple threads, and whether getMaxGradient() should be used to skip empty space.
+   * Neither one affects the result.
+   */
+
+  void generateMesh(double tol, List<Vec3> vertices, List<int[]> faces, boolean parallel, boolean sparse)
   {
     BoundingBox bounds = getBounds();
-    int xsize = (int) Math.ceil((bounds.maxx-bounds.minx)/tol)+1;
-    int ysize = (int) Math.ceil((bounds.maxy-bounds.miny)/tol)+1;
-    int zsize = (int) Math.ceil((bounds.maxz-bounds.minz)/tol)+1;
-    double xscale = (bounds.maxx-bounds.minx)/xsize;
-    double yscale = (bounds.maxy-bounds.miny)/ysize;
-    double zscale = (bounds.maxz-bounds.minz)/zsize;
-    double cornerValues[] = new double[8];
-    int edgeVertIndex[] = new int[12];
-    HashMap<Integer, Integer> xEdgeVertMap = new HashMap<Integer, Integer>();
-    HashMap<Integer, Integer> yEdgeVertMap = new HashMap<Integer, Integer>();
-    HashMap<Integer, Integer> zEdgeVertMap = new HashMap<Integer, Integer>();
-    double cutoff = getCutoff();
-
-    // Look up the values for the x==minx plane.
-
-    double values[][] = new double[2][ysize*zsize];
-    for (int j = 0; j < ysize; j++)
-      for (int k = 0; k < zsize; k++)
-        values[0][j*zsize+k] = getFieldValue(bounds.minx, bounds.miny+j*yscale, bounds.minz+k*zscale, tol, lastTime)-cutoff;
-    for (int i = 0; i < xsize; i++)
+    int xsize = Math.max(1, (int) Math.ceil((bounds.maxx-bounds.minx)/tol));
+    int ysize = Math.max(1, (int) Math.ceil((bounds.maxy-bounds.miny)/tol));
+    int zsize = Math.max(1, (int) Math.ceil((bounds.maxz-bounds.minz)/tol));
+    double maxGradient = (sparse ? getMaxGradient() : Double.MAX_VALUE);
+    int numSlabs = (xsize+SLAB_THICKNESS-1)/SLAB_THICKNESS;
+    final MeshSlab slabs[] = new MeshSlab[numSlabs];
+    for (int i = 0; i < numSlabs; i++)
+      slabs[i] = new MeshSlab(bounds, xsize, ysize, zsize, tol, maxGradient, i*SLAB_THICKNESS, Math.min((i+1)*SLAB_THICKNESS, xsize));
+    if (!parallel || numSlabs < 2 || ThreadManager.getPoolSize() < 2)
     {
-      // Look up the values for the next plane.
-
-      for (int j = 0; j < ysize-1; j++)
-        for (int k = 0; k < zsize-1; k++)
-          values[1][j*zsize+k] = getFieldValue(bounds.minx+i*xscale, bounds.miny+j*yscale, bounds.minz+k*zscale, tol, lastTime)-cutoff;
-      for (int j = 0; j < ysize-1; j++)
-      {
-        for (int k = 0; k < zsize-1; k++)
+      for (MeshSlab slab : slabs)
+        slab.build();
+    }
+    else
+    {
+      ThreadManager threads = new ThreadManager();
+      AtomicReference<RuntimeException> failure = new AtomicReference<>();
+      threads.setNumIndices(numSlabs);
+      threads.setTask(new ThreadManager.Task() {
+        @Override
+        public void execute(int index)
         {
-          // Record the values at the four corners of this cell, and record which ones are outside.
-
-          int flagIndex = 0;
-          for (int corner = 0; corner < 8; corner++)
+          try
           {
-            cornerValues[corner] = values[vertexOffset[corner][0]][(j+vertexOffset[corner][1])*zsize+k+vertexOffset[corner][2]];
-            if (cornerValues[corner] <= 0)
-              flagIndex += 1<<corner;
+            slabs[index].build();
           }
-          int edgeFlag = cubeEdgeFlags[flagIndex];
-          if (edgeFlag == 0)
-            continue;
-          double baseX = xscale*i+bounds.minx;
-          double baseY = yscale*j+bounds.miny;
-          double baseZ = zscale*k+bounds.minz;
+          catch (RuntimeException ex)
+          {
+            failure.compareAndSet(null, ex);
+            threads.cancel();
+          }
+        }
+
+        @Override
+        public void cleanup()
+        {
+        }
+      });
+      threads.run();
+      threads.finish();
+      if (failure.get() != null)
+        throw failure.get();
+    }
 
-          // Compute a vertex for each edge of the cell that intersects the surface.
+    // Join the slabs.  Faces that touch the lower side of a slab refer to the vertices created there
+    // by the slab below it, so the seams are closed.
 
-          for (int edge = 0; edge < 12; edge++)
+    int offset[] = new int[numSlabs];
+    for (int s = 0; s < numSlabs; s++)
+    {
+      MeshSlab slab = slabs[s];
+      offset[s] = vertices.size();
+      for (int i = 0; i < slab.numVert; i++)
+        vertices.add(new Vec3(slab.vert[3*i], slab.vert[3*i+1], slab.vert[3*i+2]));
+      for (int i = 0; i < slab.numFaces; i++)
+      {
+        int face[] = new int[3];
+        for (int j = 0; j < 3; j++)
+        {
+          int ref = slab.face[3*i+j];
+          if (ref >= 0)
+            face[j] = ref+offset[s];
+          else
           {
-            if ((edgeFlag&(1<<edge)) != 0)
+            // This can only fail if getMaxGradient() underestimated the gradient.
+
+            int below = slabs[s-1].findUpperVertex(-ref-1);
+            if (below < 0)
             {
-              int corner1 = edgeConnection[edge][0];
-              int vert1 = ysize*zsize*(i+vertexOffset[corner1][0])+zsize*(j+vertexOffset[corner1][1])+(k+vertexOffset[corner1][2]);
-              int corner2 = edgeConnection[edge][1];
-              int vert2 = ysize*zsize*(i+vertexOffset[corner2][0])+zsize*(j+vertexOffset[corner2][1])+(k+vertexOffset[corner2][2]);
-              Integer firstVert = (vert1 < vert2 ? vert1 : vert2);
+              face = null;
+              break;
+            }
+            face[j] = below+offset[s-1];
+          }
+        }
+        if (face != null)
+          faces.add(face);
+      }
+    }
+  }
 
-              // See if we already created a vertex for this edge.
+  /**
+   * This class triangulates one slab of the grid used by generateMesh().  The slab covers all cells
+   * whose x index is between firstCell (inclusive) and lastCell (exclusive).  Vertices are identified
+   * by the grid edge they lie on, and are recorded in arrays covering one plane of the grid.  Edges in
+   * the plane x==firstCell are shared with the slab below, which creates their vertices.  Faces refer
+   * to them by negative indices, which are resolved when the slabs are joined.
+   */
 
-              if (edgeDirection[edge][0] != 0.0)
+  private class MeshSlab
+  {
+    private final double minx, miny, minz, xscale, yscale, zscale, tol, time, cutoff, maxGradient;
+    private final int ysize, zsize, firstCell, lastCell, numBlocksY, numBlocksZ;
+    private boolean active[];
+    double vert[];
+    int face[], numVert, numFaces;
+    private int upperCode[], upperVert[], numUpper;
+
+    MeshSlab(BoundingBox bounds, int xsize, int ysize, int zsize, double tol, double maxGradient, int firstCell, int lastCell)
+    {
+      minx = bounds.minx;
+      miny = bounds.miny;
+      minz = bounds.minz;
+      xscale = (bounds.maxx-bounds.minx)/xsize;
+      yscale = (bounds.maxy-bounds.miny)/ysize;
+      zscale = (bounds.maxz-bounds.minz)/zsize;
+      this.ysize = ysize;
+      this.zsize = zsize;
+      this.tol = tol;
+      this.maxGradient = maxGradient;
+      this.firstCell = firstCell;
+      this.lastCell = lastCell;
+      time = lastTime;
+      cutoff = getCutoff();
+      numBlocksY = (ysize+BLOCK_SIZE-1)/BLOCK_SIZE;
+      numBlocksZ = (zsize+BLOCK_SIZE-1)/BLOCK_SIZE;
+      vert = new double[96];
+      face = new int[96];
+    }
+
+    /**
+     * Triangulate the slab.
+     */
+
+    void build()
+    {
+      int planeSize = (ysize+1)*(zsize+1);
+      double lowerValue[] = new double[planeSize], upperValue[] = new double[planeSize];
+      int lowerSampled[] = new int[planeSize], upperSampled[] = new int[planeSize];
+      int lowerY[] = new int[planeSize], lowerZ[] = new int[planeSize];
+      int upperY[] = new int[planeSize], upperZ[] = new int[planeSize], xEdge[] = new int[planeSize];
+      double cornerValues[] = new double[8];
+      int edgeVertIndex[] = new int[12];
+      Arrays.fill(lowerY, NO_VERTEX);
+      Arrays.fill(lowerZ, NO_VERTEX);
+      if (maxGradient < Double.MAX_VALUE)
+      {
+        active = new boolean[((lastCell-firstCell+BLOCK_SIZE-1)/BLOCK_SIZE)*numBlocksY*numBlocksZ];
+        markActiveBlocks(0, (lastCell-firstCell+BLOCK_SIZE-1)/BLOCK_SIZE, 0, numBlocksY, 0, numBlocksZ);
+      }
+      for (int i = firstCell; i < lastCell; i++)
+      {
+        int blockX = (i-firstCell)/BLOCK_SIZE;
+        Arrays.fill(upperY, NO_VERTEX);
+        Arrays.fill(upperZ, NO_VERTEX);
+        Arrays.fill(xEdge, NO_VERTEX);
+        for (int blockY = 0; blockY < numBlocksY; blockY++)
+          for (int blockZ = 0; blockZ < numBlocksZ; blockZ++)
+          {
+            if (active != null && !active[(blockX*numBlocksY+blockY)*numBlocksZ+blockZ])
+              continue;
+            int minj = blockY*BLOCK_SIZE, maxj = Math.min(minj+BLOCK_SIZE, ysize);
+            int mink = blockZ*BLOCK_SIZE, maxk = Math.min(mink+BLOCK_SIZE, zsize);
+            samplePlane(i, lowerValue, lowerSampled, minj, maxj, mink, maxk);
+            samplePlane(i+1, upperValue, upperSampled, minj, maxj, mink, maxk);
+            for (int j = minj; j < maxj; j++)
+              for (int k = mink; k < maxk; k++)
               {
-                Integer vertIndex = xEdgeVertMap.get(firstVert);
-                if (vertIndex == null)
-                  xEdgeVertMap.put(firstVert, vertices.size());
-                else
+                // Record the values at the eight corners of this cell, and record which ones are outside.
+
+                int flagIndex = 0;
+                for (int corner = 0; corner < 8; corner++)
                 {
-                  edgeVertIndex[edge] = vertIndex;
-                  continue;
+                  double values[] = (vertexOffset[corner][0] == 0 ? lowerValue : upperValue);
+                  cornerValues[corner] = values[(j+vertexOffset[corner][1])*(zsize+1)+k+vertexOffset[corner][2]];
+                  if (cornerValues[corner] <= 0)
+                    flagIndex += 1<<corner;
                 }
-              }
-              if (edgeDirection[edge][1] != 0.0)
-              {
-                Integer vertIndex = yEdgeVertMap.get(firstVert);
-                if (vertIndex == null)
-                  yEdgeVertMap.put(firstVert, vertices.size());
-                else
-                {
-                  edgeVertIndex[edge] = vertIndex;
+                int edgeFlag = cubeEdgeFlags[flagIndex];
+                if (edgeFlag == 0)
                   continue;
+
+                // Find the vertex for each edge of the cell that intersects the surface, creating it
+                // if necessary.  Each edge is identified by the grid point at its lower end.
+
+                for (int edge = 0; edge < 12; edge++)
+                {
+                  if ((edgeFlag&(1<<edge)) == 0)
+                    continue;
+                  int corner1[] = vertexOffset[edgeConnection[edge][0]];
+                  int corner2[] = vertexOffset[edgeConnection[edge][1]];
+                  int index = (j+Math.min(corner1[1], corner2[1]))*(zsize+1)+k+Math.min(corner1[2], corner2[2]);
+                  boolean lower = (corner1[0] == 0 && corner2[0] == 0);
+                  int table[];
+                  if (corner1[0] != corner2[0])
+                    table = xEdge;
+                  else if (corner1[1] != corner2[1])
+                    table = (lower ? lowerY : upperY);
+                  else
+                    table = (lower ? lowerZ : upperZ);
+                  if (table[index] == NO_VERTEX)
+                  {
+                    if (lower && i == firstCell && firstCell > 0)
+                      table[index] = -1-(2*index+(table == lowerY ? 0 : 1));
+                    else
+                      table[index] = addVertex(i, j, k, edge, cornerValues);
+                  }
+                  edgeVertIndex[edge] = table[index];
                 }
-              }
-              if (edgeDirection[edge][2] != 0.0)
-              {
-                Integer vertIndex = zEdgeVertMap.get(firstVert);
-                if (vertIndex == null)
-                  zEdgeVertMap.put(firstVert, vertices.size());
-                else
+
+                // Create new faces.
+
+                for (int f = 0; f < 5; f++)
                 {
-                  edgeVertIndex[edge] = vertIndex;
-                  continue;
+                  if (triangleConnectionTable[flagIndex][3*f] < 0)
+                    break;
+                  addFace(edgeVertIndex[triangleConnectionTable[flagIndex][3*f]],
+                      edgeVertIndex[triangleConnectionTable[flagIndex][3*f+1]],
+                      edgeVertIndex[triangleConnectionTable[flagIndex][3*f+2]]);
                 }
               }
+          }
 
-              // Create a new vertex.
+        // Swap the arrays so the plane x==i+1 will be the lower one.
+
+        double tempValue[] = lowerValue;
+        lowerValue = upperValue;
+        upperValue = tempValue;
+        int temp[] = lowerSampled;
+        lowerSampled = upperSampled;
+        upperSampled = temp;
+        temp = lowerY;
+        lowerY = upperY;
+        upperY = temp;
+        temp = lowerZ;
+        lowerZ = upperZ;
+        upperZ = temp;
+      }
 
-              edgeVertIndex[edge] = vertices.size();
-              double offset = findOffset(cornerValues[edgeConnection[edge][0]], cornerValues[edgeConnection[edge][1]]);
-              vertices.add(new Vec3(
-                  baseX+(vertexOffset[edgeConnection[edge][0]][0]+offset*edgeDirection[edge][0])*xscale,
-                  baseY+(vertexOffset[edgeConnection[edge][0]][1]+offset*edgeDirection[edge][1])*yscale,
-                  baseZ+(vertexOffset[edgeConnection[edge][0]][2]+offset*edgeDirection[edge][2])*zscale
-              ));
-            }
-          }
+      // Keep a compact record of the vertices on the plane x==lastCell, which is shared with the next slab.
 
-          // Create new faces.
+      upperCode = new int[16];
+      upperVert = new int[16];
+      for (int index = 0; index < planeSize; index++)
+      {
+        if (lowerY[index] != NO_VERTEX)
+          addUpperVertex(2*index, lowerY[index]);
+        if (lowerZ[index] != NO_VERTEX)
+          addUpperVertex(2*index+1, lowerZ[index]);
+      }
+    }
 
-          for (int face = 0; face < 5; face++)
-          {
-            if (triangleConnectionTable[flagIndex][3*face] < 0)
-              break;
-            faces.add(new int[] {
-                edgeVertIndex[triangleConnectionTable[flagIndex][3*face]],
-                edgeVertIndex[triangleConnectionTable[flagIndex][3*face+1]],
-                edgeVertIndex[triangleConnectionTable[flagIndex][3*face+2]],
-            });
-          }
+    /**
+     * Recursively determine which blocks of cells might contain part of the surface.  If the
+     * field differs from the cutoff at the center of a box by more than the maximum gradient times
+     * the distance to its corners, the surface cannot pass through it.
+     */
+
+    private void markActiveBlocks(int minbx, int maxbx, int minby, int maxby, int minbz, int maxbz)
+    {
+      int mini = firstCell+minbx*BLOCK_SIZE, maxi = Math.min(firstCell+maxbx*BLOCK_SIZE, lastCell);
+      int minj = minby*BLOCK_SIZE, maxj = Math.min(maxby*BLOCK_SIZE, ysize);
+      int mink = minbz*BLOCK_SIZE, maxk = Math.min(maxbz*BLOCK_SIZE, zsize);
+      double dx = (maxi-mini)*xscale, dy = (maxj-minj)*yscale, dz = (maxk-mink)*zscale;
+      double value = getFieldValue(minx+0.5*(mini+maxi)*xscale, miny+0.5*(minj+maxj)*yscale, minz+0.5*(mink+maxk)*zscale, tol, time)-cutoff;
+      if (Math.abs(value) > maxGradient*0.5*Math.sqrt(dx*dx+dy*dy+dz*dz))
+        return;
+      if (maxbx-minbx == 1 && maxby-minby == 1 && maxbz-minbz == 1)
+      {
+        active[(minbx*numBlocksY+minby)*numBlocksZ+minbz] = true;
+        return;
+      }
+      int midbx = (maxbx-minbx > 1 ? (minbx+maxbx)/2 : maxbx);
+      int midby = (maxby-minby > 1 ? (minby+maxby)/2 : maxby);
+      int midbz = (maxbz-minbz > 1 ? (minbz+maxbz)/2 : maxbz);
+      int bx[] = new int[] {minbx, midbx, maxbx}, by[] = new int[] {minby, midby, maxby}, bz[] = new int[] {minbz, midbz, maxbz};
+      for (int i = 0; i < 2; i++)
+        for (int j = 0; j < 2; j++)
+          for (int k = 0; k < 2; k++)
+            if (bx[i] < bx[i+1] && by[j] < by[j+1] && bz[k] < bz[k+1])
+              markActiveBlocks(bx[i], bx[i+1], by[j], by[j+1], bz[k], bz[k+1]);
+    }
+
+    /**
+     * Evaluate the field at the corners of a range of cells in the plane x==i, skipping any points
+     * that have already been evaluated.
+     */
+
+    private void samplePlane(int i, double values[], int sampled[], int minj, int maxj, int mink, int maxk)
+    {
+      double x = minx+i*xscale;
+      for (int j = minj; j <= maxj; j++)
+        for (int k = mink; k <= maxk; k++)
+        {
+          int index = j*(zsize+1)+k;
+          if (sampled[index] == i+1)
+            continue;
+          values[index] = getFieldValue(x, miny+j*yscale, minz+k*zscale, tol, time)-cutoff;
+          sampled[index] = i+1;
         }
+    }
+
+    /**
+     * Create a vertex where the surface crosses one edge of a cell, and return its index.
+     */
+
+    private int addVertex(int i, int j, int k, int edge, double cornerValues[])
+    {
+      int corner1 = edgeConnection[edge][0], corner2 = edgeConnection[edge][1];
+      double offset = findOffset(cornerValues[corner1], cornerValues[corner2]);
+      if (3*numVert+3 > vert.length)
+        vert = Arrays.copyOf(vert, 2*vert.length);
+      vert[3*numVert] = minx+(i+vertexOffset[corner1][0]+offset*(vertexOffset[corner2][0]-vertexOffset[corner1][0]))*xscale;
+      vert[3*numVert+1] = miny+(j+vertexOffset[corner1][1]+offset*(vertexOffset[corner2][1]-vertexOffset[corner1][1]))*yscale;
+      vert[3*numVert+2] = minz+(k+vertexOffset[corner1][2]+offset*(vertexOffset[corner2][2]-vertexOffset[corner1][2]))*zscale;
+      return numVert++;
+    }
+
+    private void addFace(int v1, int v2, int v3)
+    {
+      if (3*numFaces+3 > face.length)
+        face = Arrays.copyOf(face, 2*face.length);
+      face[3*numFaces] = v1;
+      face[3*numFaces+1] = v2;
+      face[3*numFaces+2] = v3;
+      numFaces++;
+    }
+
+    private void addUpperVertex(int code, int index)
+    {
+      if (numUpper == upperCode.length)
+      {
+        upperCode = Arrays.copyOf(upperCode, 2*numUpper);
+        upperVert = Arrays.copyOf(upperVert, 2*numUpper);
       }
+      upperCode[numUpper] = code;
+      upperVert[numUpper++] = index;
+    }
 
-      // Clean up the edge vertex maps, deleting records for vertices that we don't need any more.
-
-      int firstNeeded = ysize*zsize*(i+1);
-      Iterator<Map.Entry<Integer, Integer>> xiter = xEdgeVertMap.entrySet().iterator();
-      while (xiter.hasNext())
-        if (xiter.next().getKey() < firstNeeded)
-          xiter.remove();
-      Iterator<Map.Entry<Integer, Integer>> yiter = yEdgeVertMap.entrySet().iterator();
-      while (yiter.hasNext())
-        if (yiter.next().getKey() < firstNeeded)
-          yiter.remove();
-      Iterator<Map.Entry<Integer, Integer>> ziter = zEdgeVertMap.entrySet().iterator();
-      while (ziter.hasNext())
-        if (ziter.next().getKey() < firstNeeded)
-          ziter.remove();
-
-      // Swap the value arrays so the values for x==i+1 will be in values[0].
-
-      double temp[] = values[0];
-      values[0] = values[1];
-      values[1] = temp;
+    /**
+     * Find the vertex this slab created on an edge in the plane x==lastCell.  The edge is specified
+     * by the code a face in the next slab used to refer to it.  Returns -1 if there is no vertex.
+     */
+
+    int findUpperVertex(int code)
+    {
+      int index = Arrays.binarySearch(upperCode, 0, numUpper, code);
+      return (index < 0 ? -1 : upperVert[index]);
     }
   }
 
@@ -376,7 +376,7 @@ public abstract class Object3D
       canvas.renderWireframe(obj.getWireframePreview(), theCamera, ViewerCanvas.lineColor);
       return;
     }
-    RenderingMesh mesh = obj.getPreviewMesh();
+    RenderingMesh mesh = canvas.getPreviewMesh(obj);
     if (mesh != null)
     {
       if (parametersChanged)
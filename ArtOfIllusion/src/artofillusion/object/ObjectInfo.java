@@ -16,6 +16,7 @@ import artofillusion.animation.distortion.*;
 import artofillusion.material.*;
 import artofillusion.math.*;
 import artofillusion.texture.*;
+import artofillusion.util.*;
 
 import java.lang.ref.*;
 import java.util.*;
@@ -41,8 +42,17 @@ public class ObjectInfo
   private Distortion distortion, prevDistortion;
   private SoftReference<RenderingMesh> cachedMesh;
   private SoftReference<WireframeMesh> cachedWire;
+  private List<SoftReference<RenderingMesh>> cachedCoarseMesh;
   private BoundingBox cachedBounds;
   private boolean lastPreviewWasWireframe;
+  private WeakListenerList changeListeners;
+  private final Runnable coordsListener = () -> fireChanged();
+
+  /** The ratio between the surface errors of successive levels of detail in getPreviewMesh(double). */
+  public static final double PREVIEW_DETAIL_FACTOR = 4.0;
+
+  /** The number of levels of detail coarser than getPreviewMesh() which getPreviewMesh(double) can use. */
+  public static final int COARSE_PREVIEW_LEVELS = 3;
 
   /** Create a new ObjectInfo. */
 
@@ -260,6 +270,7 @@ public class ObjectInfo
   public void clearDistortion()
   {
     distortion = null;
+    fireChanged();
   }
 
   /** Add a Distortion to apply to the object.  Any other Distortions which
@@ -269,6 +280,7 @@ public class ObjectInfo
   {
     d.setPreviousDistortion(distortion);
     distortion = d;
+    fireChanged();
   }
 
   /** Get the current Distortion applied to this object. */
@@ -290,6 +302,7 @@ public class ObjectInfo
   public void setDistortion(Distortion d)
   {
     distortion = d;
+    fireChanged();
   }
 
   /** See if the Distortion has changed, and clear the cached meshes if it has. */
@@ -320,11 +333,12 @@ public class ObjectInfo
     return obj;
   }
   
-  /** Get a rendering mesh for this object. */
+  /** Get a rendering mesh for this object.  Meshes are retrieved from the default
+      RenderingMeshCache when possible, so unchanged objects need not be tessellated again. */
   
   public RenderingMesh getRenderingMesh(double tol)
   {
-    return getDistortedObject(tol).getRenderingMesh(tol, false, this);
+    return RenderingMeshCache.getDefault().getRenderingMesh(getDistortedObject(tol), tol, this);
   }
   
   /** Get a rendering mesh for interactive previews. */
@@ -349,6 +363,61 @@ public class ObjectInfo
     lastPreviewWasWireframe = false;
     return cached;
   }
+
+  /** Get a rendering mesh for interactive previews, which may be less detailed than the one returned
+      by getPreviewMesh().  This is useful when the object is far enough away that the extra detail
+      would not be visible.  Coarser meshes are generated with the interactive surface error multiplied
+      by successive powers of PREVIEW_DETAIL_FACTOR, and the coarsest one whose surface error does not
+      exceed maxError is returned.  Each one is cached separately.
+
+      @param maxError    the largest surface error which is acceptable for this view of the object
+  */
+
+  public RenderingMesh getPreviewMesh(double maxError)
+  {
+    double tol = ArtOfIllusion.getPreferences().getInteractiveSurfaceError();
+    int level = getPreviewLevel(tol, maxError);
+    if (level == 0)
+      return getPreviewMesh();
+    tol *= Math.pow(PREVIEW_DETAIL_FACTOR, level);
+    checkDistortionChanged();
+    if (cachedCoarseMesh == null)
+      cachedCoarseMesh = new ArrayList<SoftReference<RenderingMesh>>(Collections.<SoftReference<RenderingMesh>>nCopies(COARSE_PREVIEW_LEVELS, null));
+    RenderingMesh cached = null;
+    SoftReference<RenderingMesh> ref = cachedCoarseMesh.get(level-1);
+    if (ref != null)
+      cached = ref.get();
+    if (cached == null)
+      {
+        if (getPose() != null && !getPose().equals(getObject().getPoseKeyframe()))
+          getObject().applyPoseKeyframe(getPose());
+        // Many objects keep a single cached interactive mesh of their own, so ask for a
+        // non-interactive one to be sure of getting it at the requested surface error.
+
+        cached = getDistortedObject(tol).getRenderingMesh(tol, false, this);
+        cachedCoarseMesh.set(level-1, new SoftReference<RenderingMesh>(cached));
+      }
+    lastPreviewWasWireframe = false;
+    return cached;
+  }
+
+  /** Get which level of detail getPreviewMesh(double) uses.  0 is the mesh returned by getPreviewMesh(),
+      and each higher level multiplies the surface error by PREVIEW_DETAIL_FACTOR.
+
+      @param tol         the interactive surface error
+      @param maxError    the largest surface error which is acceptable for this view of the object
+  */
+
+  public static int getPreviewLevel(double tol, double maxError)
+  {
+    int level = 0;
+    while (level < COARSE_PREVIEW_LEVELS && tol*PREVIEW_DETAIL_FACTOR <= maxError)
+    {
+      level++;
+      tol *= PREVIEW_DETAIL_FACTOR;
+    }
+    return level;
+  }
   
   /** Get a wireframe mesh for interactive previews. */
   
@@ -405,7 +474,39 @@ public class ObjectInfo
   {
     cachedMesh = null;
     cachedWire = null;
+    cachedCoarseMesh = null;
     cachedBounds = null;
+    fireChanged();
+  }
+
+  /** Add a listener to be notified whenever this object may have moved, changed its bounding box, or
+      been shown or hidden.  This happens when its CoordinateSystem changes, when it is given a new
+      CoordinateSystem, Object3D, or Distortion, when its visibility changes, and when its cached meshes
+      are cleared (which Scene.objectModified() does).  The listener is held by a weak reference, so
+      the caller must keep a reference to it for as long as it should be notified. */
+
+  public synchronized void addChangeListener(Runnable listener)
+  {
+    if (changeListeners == null)
+      changeListeners = new WeakListenerList();
+    changeListeners.add(listener);
+  }
+
+  /** Remove a listener which was added with addChangeListener(). */
+
+  public synchronized void removeChangeListener(Runnable listener)
+  {
+    if (changeListeners != null)
+      changeListeners.remove(listener);
+  }
+
+  /** Notify the listeners that this object may have changed. */
+
+  private void fireChanged()
+  {
+    WeakListenerList listeners = changeListeners;
+    if (listeners != null)
+      listeners.fire();
   }
 
   /** Get the skeleton for this object, or null if it does not have one. */
@@ -427,6 +528,7 @@ public class ObjectInfo
   public void setObject(Object3D object)
   {
     this.object = object;
+    fireChanged();
   }
 
   /** Get the CoordinateSystem for this object. */
@@ -440,7 +542,12 @@ public class ObjectInfo
 
   public void setCoords(CoordinateSystem coords)
   {
+    if (this.coords != null)
+      this.coords.removeChangeListener(coordsListener);
     this.coords = coords;
+    if (coords != null)
+      coords.addChangeListener(coordsListener);
+    fireChanged();
   }
 
   /** Get the name of this object. */
@@ -468,7 +575,10 @@ public class ObjectInfo
 
   public void setVisible(boolean visible)
   {
+    if (visible == this.visible)
+      return;
     this.visible = visible;
+    fireChanged();
   }
 
   /** Get whether this object is locked. */
@@ -18,6 +18,7 @@ import artofillusion.material.*;
 import artofillusion.math.*;
 import artofillusion.texture.*;
 import artofillusion.ui.*;
+import artofillusion.util.ThreadManager;
 import buoy.widget.*;
 import java.awt.*;
 import java.io.*;
@@ -26,6 +27,7 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** The TriangleMesh class represents an arbitrary surface defined by a mesh of triangular
     faces.  Depending on the selected smoothing method, the surface may simply consist of
@@ -213,6 +215,8 @@ public class TriangleMesh extends Object3D implements FacetedMesh
 
   private static double LOOP_BETA[], BUTTERFLY_COEFF[][];
   private static final int MAX_SUBDIVISIONS = 20;
+  private static final int SUBDIVISION_BLOCK_SIZE = 1024;
+  private static final int MIN_PARALLEL_SUBDIVISION = 8192;
   private static final Property PROPERTIES[] = new Property [] {
     new Property(Translate.text("menu.smoothingMethod"), new Object[] {
       Translate.text("menu.none"), Translate.text("menu.shading"), Translate.text("menu.interpolating"), Translate.text("menu.approximating")
@@ -1209,6 +1213,58 @@ groups:     do
         values[i] = vertValues[i][0][v];
   }
 
+  /** A calculation performed during subdivision on a contiguous range of vertices, edges, or faces. */
+
+  private interface IndexRange
+  {
+    void process(int start, int end);
+  }
+
+  /** Perform a calculation on the indices from 0 to count-1.  They are divided into fixed size blocks,
+      which are processed on the shared ThreadManager pool if parallel is true and there are enough
+      of them to be worth it.  Any scratch space should be allocated once per block, so the result
+      does not depend on which thread processes which block. */
+
+  private static void forEachBlock(int count, boolean parallel, IndexRange range)
+  {
+    int numBlocks = (count+SUBDIVISION_BLOCK_SIZE-1)/SUBDIVISION_BLOCK_SIZE;
+    if (!parallel || count < MIN_PARALLEL_SUBDIVISION || ThreadManager.getPoolSize() < 2)
+    {
+      for (int block = 0; block < numBlocks; block++)
+        range.process(block*SUBDIVISION_BLOCK_SIZE, Math.min((block+1)*SUBDIVISION_BLOCK_SIZE, count));
+      return;
+    }
+    ThreadManager threads = new ThreadManager();
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    threads.setNumIndices(numBlocks);
+    threads.setTask(new ThreadManager.Task() {
+      @Override
+      public void execute(int block)
+      {
+        try
+        {
+          range.process(block*SUBDIVISION_BLOCK_SIZE, Math.min((block+1)*SUBDIVISION_BLOCK_SIZE, count));
+        }
+        catch (RuntimeException ex)
+        {
+          // Report it from the calling thread, just as if the calculation had been done there.
+
+          failure.compareAndSet(null, ex);
+          threads.cancel();
+        }
+      }
+
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    threads.run();
+    threads.finish();
+    if (failure.get() != null)
+      throw failure.get();
+  }
+
   /** Subdivide all or part of the mesh using the mesh's defined smoothing method (linear, approximating, or
       interpolating).
 
@@ -1331,7 +1387,7 @@ groups:     do
 
     // Subdivide the mesh.
 
-    doSubdivide(newmesh, vertex, edge, face, split, newvert, newedge, newface, oldParamValue, newParamValue, paramType);
+    doSubdivide(newmesh, vertex, edge, face, split, newvert, newedge, newface, oldParamValue, newParamValue, paramType, true);
     newmesh.copyTextureAndMaterial(mesh);
     for (i = 0; i < paramType.length; i++)
     {
@@ -1372,18 +1428,24 @@ groups:     do
   */
 
   public static TriangleMesh subdivideLoop(TriangleMesh mesh, boolean refineEdge[], double tol)
+  {
+    return subdivideLoop(mesh, refineEdge, tol, true);
+  }
+
+  /** This is identical to subdivideLoop(mesh, refineEdge, tol), except that it specifies whether
+      the work for large meshes may be split between multiple threads.  The result is the same
+      either way. */
+
+  static TriangleMesh subdivideLoop(TriangleMesh mesh, boolean refineEdge[], double tol, boolean parallel)
   {
     Vertex vertex[] = mesh.vertex, newvert[];
-    Edge edge[] = mesh.edge, newedge[], tempEdge;
-    Face face[] = mesh.face, newface[], tempFace;
+    Edge edge[] = mesh.edge, newedge[];
+    Face face[] = mesh.face, newface[];
     TriangleMesh newmesh = new TriangleMesh();
-    int i, j, e[];
+    int i, newVertIndex[];
     int numVert, numEdge, numFace;
-    Vertex creasePos = newmesh.new Vertex(new Vec3()), smoothPos = newmesh.new Vertex(new Vec3()), temp = newmesh.new Vertex(new Vec3());
-    Vec3 finalPos = new Vec3(), tempVec = new Vec3();
-    double cornerWeight, creaseWeight, smoothWeight, s1, s2, s3, beta;
     boolean refineVert[], notconverged[], done;
-    double tol2 = tol*tol, error;
+    double tol2 = tol*tol;
 
     if (refineEdge == null)
       {
@@ -1430,10 +1492,6 @@ groups:     do
         paramType[i] = PER_FACE_VERTEX;
       }
     }
-    double creaseParam[] = new double [paramType.length];
-    double smoothParam[] = new double [paramType.length];
-    double tempParam[] = new double [paramType.length];
-    double finalParam[] = new double [paramType.length];
 
     // Repeatedly subdivide until all portions of the mesh have converged.
 
@@ -1449,10 +1507,11 @@ groups:     do
         numVert = vertex.length;
         numEdge = edge.length;
         numFace = face.length;
+        newVertIndex = new int [edge.length];
         for (i = 0; i < edge.length; i++)
           if (refineEdge[i])
             {
-              numVert++;
+              newVertIndex[i] = numVert++;
               numEdge += 2;
               numFace++;
               if (edge[i].f2 != -1)
@@ -1480,273 +1539,20 @@ groups:     do
         // weighted average of these three positions, depending on the smoothness values of the
         // vertex and all incident edges.
 
-        s2 = s3 = 0.0;
+        loopVertexPositions(newmesh, vertex, edge, refineVert, newvert, notconverged, oldParamValue, newParamValue, paramType, tol2, parallel);
         for (i = 0; i < vertex.length; i++)
-          {
-            if (!refineVert[i])
-              {
-                // This vertex is already converged, so just copy it over.
-
-                newvert[i] = newmesh.new Vertex(vertex[i]);
-                for (j = 0; j < paramType.length; j++)
-                  if (paramType[j] == PER_VERTEX)
-                    newParamValue[j][0][i] = oldParamValue[j][0][i];
-                continue;
-              }
-
-            // First determine the weights.
-
-            e = vertex[i].getEdges();
-            if (edge[e[0]].f2 == -1) // On the mesh boundary, so use crease rule
-              {
-                cornerWeight = 1.0 - vertex[i].smoothness;
-                creaseWeight = 1.0 - cornerWeight;
-                smoothWeight = 0.0;
-              }
-            else
-              {
-                s1 = s2 = s3 = vertex[i].smoothness;
-                for (j = 0; j < e.length; j++)
-                  {
-                    if (edge[e[j]].smoothness < s1)
-                      {
-                        s3 = s2;
-                        s2 = s1;
-                        s1 = edge[e[j]].smoothness;
-                      }
-                    else if (edge[e[j]].smoothness < s2)
-                      {
-                        s3 = s2;
-                        s2 = edge[e[j]].smoothness;
-                      }
-                    else if (edge[e[j]].smoothness < s3)
-                      s3 = edge[e[j]].smoothness;
-                  }
-                cornerWeight = 1.0 - s3;
-                creaseWeight = 1.0 - s2 - cornerWeight;
-                smoothWeight = 1.0 - cornerWeight - creaseWeight;
-              }
-
-            // Now determine any of the three positions (corner, crease, and smooth) that are
-            // necessary.  Also determine the "final" position (limit position using either
-            // the smooth or crease rule), which is used for judging convergence to the
-            // limit surface.
-
-            temp.clear();
-            for (j = 0; j < tempParam.length; j++)
-              tempParam[j] = 0.0;
-            if (e.length < LOOP_BETA.length)
-              beta = LOOP_BETA[e.length];
-            else
-              {
-                beta = 0.375+0.25*Math.cos(2.0*Math.PI/e.length);
-                beta = (0.625-beta*beta)/e.length;
-              }
-            for (j = 0; j < e.length; j++)
-              {
-                tempEdge = edge[e[j]];
-                if (tempEdge.v1 == i)
-                {
-                  setBlend(temp, temp, vertex[tempEdge.v2], 1.0, 1.0);
-                  setBlendParams(tempParam, tempParam, tempEdge.v2, 1.0, 1.0, oldParamValue, paramType);
-                }
-                else
-                {
-                  setBlend(temp, temp, vertex[tempEdge.v1], 1.0, 1.0);
-                  setBlendParams(tempParam, tempParam, tempEdge.v1, 1.0, 1.0, oldParamValue, paramType);
-                }
-              }
-            if (smoothWeight > 0.0)
-              {
-                // Determine the smooth position.
-
-                setBlend(smoothPos, vertex[i], temp, beta*(1.0/beta-e.length), beta);
-                setBlendParams(smoothParam, tempParam, i, beta*(1.0/beta-e.length), beta, oldParamValue, paramType);
-              }
-            if (edge[e[0]].f2 == -1)
-              {
-                // This is a boundary edge, so use the crease rule.
-
-                tempEdge = edge[e[0]];
-                if (tempEdge.v1 == i)
-                {
-                  setBlend(creasePos, vertex[i], vertex[tempEdge.v2], 0.75, 0.125);
-                  setBlendParams(creaseParam, i, tempEdge.v2, 0.75, 0.125, oldParamValue, paramType);
-                }
-                else
-                {
-                  setBlend(creasePos, vertex[i], vertex[tempEdge.v1], 0.75, 0.125);
-                  setBlendParams(creaseParam, i, tempEdge.v1, 0.75, 0.125, oldParamValue, paramType);
-                }
-                tempEdge = edge[e[e.length-1]];
-                if (tempEdge.v1 == i)
-                {
-                  setBlend(creasePos, creasePos, vertex[tempEdge.v2], 1.0, 0.125);
-                  setBlendParams(creaseParam, creaseParam, tempEdge.v2, 1.0, 0.125, oldParamValue, paramType);
-                }
-                else
-                {
-                  setBlend(creasePos, creasePos, vertex[tempEdge.v1], 1.0, 0.125);
-                  setBlendParams(creaseParam, creaseParam, tempEdge.v1, 1.0, 0.125, oldParamValue, paramType);
-                }
-              }
-            else if (creaseWeight > 0.0)
-              {
-                // Determine the crease position.
-
-                creasePos.copy(vertex[i]);
-                creasePos.scale(0.75);
-                for (j = 0; j < paramType.length; j++)
-                  if (paramType[j] == PER_VERTEX)
-                    creaseParam[j] = 0.75*oldParamValue[j][0][i];
-                for (j = 0; j < e.length; j++)
-                  {
-                    tempEdge = edge[e[j]];
-                    if (tempEdge.smoothness < s3)
-                      {
-                        if (tempEdge.v1 == i)
-                        {
-                          setBlend(creasePos, creasePos, vertex[tempEdge.v2], 1.0, 0.125);
-                          setBlendParams(creaseParam, creaseParam, tempEdge.v2, 1.0, 0.125, oldParamValue, paramType);
-                        }
-                        else
-                        {
-                          setBlend(creasePos, creasePos, vertex[tempEdge.v1], 1.0, 0.125);
-                          setBlendParams(creaseParam, creaseParam, tempEdge.v1, 1.0, 0.125, oldParamValue, paramType);
-                        }
-                      }
-                  }
-              }
-            if (smoothWeight+cornerWeight > 0.0)
-              {
-                // Calculate final position with smooth rule.
-
-                beta = 1.0/(.375/beta + e.length);
-                double w1 = (smoothWeight+cornerWeight)*beta;
-                double w2 = 1.0/beta-e.length;
-                finalPos.set(vertex[i].r);
-                finalPos.scale(w2);
-                finalPos.add(temp.r);
-                finalPos.scale(w1);
-                for (j = 0; j < paramType.length; j++)
-                  if (paramType[j] == PER_VERTEX)
-                    finalParam[j] = w1*(tempParam[j]+w2*oldParamValue[j][0][i]);
-              }
-            else
-            {
-              finalPos.set(0.0, 0.0, 0.0);
-              for (j = 0; j < paramType.length; j++)
-                finalParam[j] = 0.0;
-            }
-            if (creaseWeight > 0.0)
-              {
-                // Calculate final position with crease rule.
-
-                double w1 = creaseWeight/3.0;
-                tempVec.set(creasePos.r);
-                tempVec.scale(4.0);
-                tempVec.subtract(vertex[i].r);
-                tempVec.scale(w1);
-                finalPos.add(tempVec);
-                for (j = 0; j < paramType.length; j++)
-                  if (paramType[j] == PER_VERTEX)
-                    finalParam[j] += w1*(4.0*creaseParam[j]-oldParamValue[j][0][i]);
-              }
-
-            // Construct the new vertex.
-
-            newvert[i] = newmesh.blend(vertex[i], creasePos, smoothPos, cornerWeight, creaseWeight, smoothWeight);
-            newvert[i].smoothness = Math.min(2.0f*vertex[i].smoothness, 1.0f);
-            newvert[i].ikJoint = vertex[i].ikJoint;
-            newvert[i].ikWeight = vertex[i].ikWeight;
-            for (j = 0; j < paramType.length; j++)
-              if (paramType[j] == PER_VERTEX)
-                newParamValue[j][0][i] = finalParam[j];
-            finalPos.subtract(newvert[i].r);
-            error = finalPos.length2();
-            if (error > tol2)
-              {
-                notconverged[i] = true;
-                done = false;
-              }
-          }
+          if (notconverged[i])
+            done = false;
 
         // Step 2: Determine the positions for the new vertices (one for each edge that gets
         // split).  Depending on the smoothness value of the edge, this position can be determined
         // by the smooth rule, the crease rule, or a weighted average of the two.
 
-        j = vertex.length;
-        for (i = 0; i < edge.length; i++)
-          {
-            if (!refineEdge[i])
-              continue;
-            tempEdge = edge[i];
-            setBlend(creasePos, vertex[tempEdge.v1], vertex[tempEdge.v2], 1.0, 1.0);
-            for (int pm = 0; pm < paramType.length; pm++)
-              if (paramType[pm] == PER_VERTEX)
-                creaseParam[pm] = oldParamValue[pm][0][tempEdge.v1]+oldParamValue[pm][0][tempEdge.v2];
-            if (tempEdge.f2 == -1 || tempEdge.smoothness == 0.0f)
-              {
-                // Use the crease rule.
-
-                newvert[j] = newmesh.new Vertex(creasePos);
-                newvert[j].scale(0.5);
-                for (int pm = 0; pm < paramType.length; pm++)
-                  if (paramType[pm] == PER_VERTEX)
-                    newParamValue[pm][0][j] = 0.5*creaseParam[pm];
-              }
-            else
-              {
-                // Use the smooth rule, or a blend of the two.
-
-                tempFace = face[tempEdge.f1];
-                if (tempFace.e1 == i)
-                {
-                  smoothPos.copy(vertex[tempFace.v3]);
-                  recordParamValues(smoothParam, tempFace.v3, oldParamValue, paramType);
-                }
-                else if (tempFace.e2 == i)
-                {
-                  smoothPos.copy(vertex[tempFace.v1]);
-                  recordParamValues(smoothParam, tempFace.v1, oldParamValue, paramType);
-                }
-                else
-                {
-                  smoothPos.copy(vertex[tempFace.v2]);
-                  recordParamValues(smoothParam, tempFace.v2, oldParamValue, paramType);
-                }
-                tempFace = face[tempEdge.f2];
-                if (tempFace.e1 == i)
-                {
-                  setBlend(smoothPos, smoothPos, vertex[tempFace.v3], 1.0, 1.0);
-                  setBlendParams(smoothParam, smoothParam, tempFace.v3, 1.0, 1.0, oldParamValue, paramType);
-                }
-                else if (tempFace.e2 == i)
-                {
-                  setBlend(smoothPos, smoothPos, vertex[tempFace.v1], 1.0, 1.0);
-                  setBlendParams(smoothParam, smoothParam, tempFace.v1, 1.0, 1.0, oldParamValue, paramType);
-                }
-                else
-                {
-                  setBlend(smoothPos, smoothPos, vertex[tempFace.v2], 1.0, 1.0);
-                  setBlendParams(smoothParam, smoothParam, tempFace.v2, 1.0, 1.0, oldParamValue, paramType);
-                }
-                s1 = 1.0-tempEdge.smoothness;
-                creaseWeight = 0.125*s1+0.375;
-                smoothWeight = 0.125*(1.0-s1);
-                    newvert[j] = newmesh.blend(creasePos, smoothPos, creaseWeight, smoothWeight);
-                for (int pm = 0; pm < paramType.length; pm++)
-                  if (paramType[pm] == PER_VERTEX)
-                    newParamValue[pm][0][j] = creaseWeight*creaseParam[pm] + smoothWeight*smoothParam[pm];
-              }
-            newvert[j].smoothness = 1.0f;
-            blendIKParams(newvert[j], vertex[tempEdge.v1], vertex[tempEdge.v2]);
-            j++;
-          }
+        loopEdgePositions(newmesh, vertex, edge, face, refineEdge, newVertIndex, newvert, oldParamValue, newParamValue, paramType, parallel);
 
         // Step 3: Subdivide the mesh.
 
-        doSubdivide(newmesh, vertex, edge, face, refineEdge, newvert, newedge, newface, oldParamValue, newParamValue, paramType);
+        doSubdivide(newmesh, vertex, edge, face, refineEdge, newvert, newedge, newface, oldParamValue, newParamValue, paramType, parallel);
 
         // Update data structures for the next iteration.
 
@@ -1793,6 +1599,298 @@ groups:     do
     return newmesh;
   }
 
+  /** This is called by subdivideLoop() to find the new positions for existing vertices.  Positions can
+      be calculated by three different rules: corner, crease, and smooth.  The final position will be
+      a weighted average of these three positions, depending on the smoothness values of the vertex
+      and all incident edges.  Every vertex which is not yet within tol2 of the limit surface is
+      flagged in notconverged. */
+
+  private static void loopVertexPositions(TriangleMesh newmesh, Vertex vertex[], Edge edge[], boolean refineVert[], Vertex newvert[], boolean notconverged[], double oldParamValue[][][], double newParamValue[][][], int paramType[], double tol2, boolean parallel)
+  {
+    forEachBlock(vertex.length, parallel, (start, end) -> {
+      Vertex creasePos = newmesh.new Vertex(new Vec3()), smoothPos = newmesh.new Vertex(new Vec3()), temp = newmesh.new Vertex(new Vec3());
+      Vec3 finalPos = new Vec3(), tempVec = new Vec3();
+      double creaseParam[] = new double [paramType.length];
+      double smoothParam[] = new double [paramType.length];
+      double tempParam[] = new double [paramType.length];
+      double finalParam[] = new double [paramType.length];
+      double cornerWeight, creaseWeight, smoothWeight, s1, s2 = 0.0, s3 = 0.0, beta, error;
+      Edge tempEdge;
+      int j, e[];
+
+      for (int i = start; i < end; i++)
+        {
+          if (!refineVert[i])
+            {
+              // This vertex is already converged, so just copy it over.
+
+              newvert[i] = newmesh.new Vertex(vertex[i]);
+              for (j = 0; j < paramType.length; j++)
+                if (paramType[j] == PER_VERTEX)
+                  newParamValue[j][0][i] = oldParamValue[j][0][i];
+              continue;
+            }
+
+          // First determine the weights.
+
+          e = vertex[i].getEdges();
+          if (edge[e[0]].f2 == -1) // On the mesh boundary, so use crease rule
+            {
+              cornerWeight = 1.0 - vertex[i].smoothness;
+              creaseWeight = 1.0 - cornerWeight;
+              smoothWeight = 0.0;
+            }
+          else
+            {
+              s1 = s2 = s3 = vertex[i].smoothness;
+              for (j = 0; j < e.length; j++)
+                {
+                  if (edge[e[j]].smoothness < s1)
+                    {
+                      s3 = s2;
+                      s2 = s1;
+                      s1 = edge[e[j]].smoothness;
+                    }
+                  else if (edge[e[j]].smoothness < s2)
+                    {
+                      s3 = s2;
+                      s2 = edge[e[j]].smoothness;
+                    }
+                  else if (edge[e[j]].smoothness < s3)
+                    s3 = edge[e[j]].smoothness;
+                }
+              cornerWeight = 1.0 - s3;
+              creaseWeight = 1.0 - s2 - cornerWeight;
+              smoothWeight = 1.0 - cornerWeight - creaseWeight;
+            }
+
+          // Now determine any of the three positions (corner, crease, and smooth) that are
+          // necessary.  Also determine the "final" position (limit position using either
+          // the smooth or crease rule), which is used for judging convergence to the
+          // limit surface.
+
+          temp.clear();
+          for (j = 0; j < tempParam.length; j++)
+            tempParam[j] = 0.0;
+          if (e.length < LOOP_BETA.length)
+            beta = LOOP_BETA[e.length];
+          else
+            {
+              beta = 0.375+0.25*Math.cos(2.0*Math.PI/e.length);
+              beta = (0.625-beta*beta)/e.length;
+            }
+          for (j = 0; j < e.length; j++)
+            {
+              tempEdge = edge[e[j]];
+              if (tempEdge.v1 == i)
+              {
+                setBlend(temp, temp, vertex[tempEdge.v2], 1.0, 1.0);
+                setBlendParams(tempParam, tempParam, tempEdge.v2, 1.0, 1.0, oldParamValue, paramType);
+              }
+              else
+              {
+                setBlend(temp, temp, vertex[tempEdge.v1], 1.0, 1.0);
+                setBlendParams(tempParam, tempParam, tempEdge.v1, 1.0, 1.0, oldParamValue, paramType);
+              }
+            }
+          if (smoothWeight > 0.0)
+            {
+              // Determine the smooth position.
+
+              setBlend(smoothPos, vertex[i], temp, beta*(1.0/beta-e.length), beta);
+              setBlendParams(smoothParam, tempParam, i, beta*(1.0/beta-e.length), beta, oldParamValue, paramType);
+            }
+          if (edge[e[0]].f2 == -1)
+            {
+              // This is a boundary edge, so use the crease rule.
+
+              tempEdge = edge[e[0]];
+              if (tempEdge.v1 == i)
+              {
+                setBlend(creasePos, vertex[i], vertex[tempEdge.v2], 0.75, 0.125);
+                setBlendParams(creaseParam, i, tempEdge.v2, 0.75, 0.125, oldParamValue, paramType);
+              }
+              else
+              {
+                setBlend(creasePos, vertex[i], vertex[tempEdge.v1], 0.75, 0.125);
+                setBlendParams(creaseParam, i, tempEdge.v1, 0.75, 0.125, oldParamValue, paramType);
+              }
+              tempEdge = edge[e[e.length-1]];
+              if (tempEdge.v1 == i)
+              {
+                setBlend(creasePos, creasePos, vertex[tempEdge.v2], 1.0, 0.125);
+                setBlendParams(creaseParam, creaseParam, tempEdge.v2, 1.0, 0.125, oldParamValue, paramType);
+              }
+              else
+              {
+                setBlend(creasePos, creasePos, vertex[tempEdge.v1], 1.0, 0.125);
+                setBlendParams(creaseParam, creaseParam, tempEdge.v1, 1.0, 0.125, oldParamValue, paramType);
+              }
+            }
+          else if (creaseWeight > 0.0)
+            {
+              // Determine the crease position.
+
+              creasePos.copy(vertex[i]);
+              creasePos.scale(0.75);
+              for (j = 0; j < paramType.length; j++)
+                if (paramType[j] == PER_VERTEX)
+                  creaseParam[j] = 0.75*oldParamValue[j][0][i];
+              for (j = 0; j < e.length; j++)
+                {
+                  tempEdge = edge[e[j]];
+                  if (tempEdge.smoothness < s3)
+                    {
+                      if (tempEdge.v1 == i)
+                      {
+                        setBlend(creasePos, creasePos, vertex[tempEdge.v2], 1.0, 0.125);
+                        setBlendParams(creaseParam, creaseParam, tempEdge.v2, 1.0, 0.125, oldParamValue, paramType);
+                      }
+                      else
+                      {
+                        setBlend(creasePos, creasePos, vertex[tempEdge.v1], 1.0, 0.125);
+                        setBlendParams(creaseParam, creaseParam, tempEdge.v1, 1.0, 0.125, oldParamValue, paramType);
+                      }
+                    }
+                }
+            }
+          if (smoothWeight+cornerWeight > 0.0)
+            {
+              // Calculate final position with smooth rule.
+
+              beta = 1.0/(.375/beta + e.length);
+              double w1 = (smoothWeight+cornerWeight)*beta;
+              double w2 = 1.0/beta-e.length;
+              finalPos.set(vertex[i].r);
+              finalPos.scale(w2);
+              finalPos.add(temp.r);
+              finalPos.scale(w1);
+              for (j = 0; j < paramType.length; j++)
+                if (paramType[j] == PER_VERTEX)
+                  finalParam[j] = w1*(tempParam[j]+w2*oldParamValue[j][0][i]);
+            }
+          else
+          {
+            finalPos.set(0.0, 0.0, 0.0);
+            for (j = 0; j < paramType.length; j++)
+              finalParam[j] = 0.0;
+          }
+          if (creaseWeight > 0.0)
+            {
+              // Calculate final position with crease rule.
+
+              double w1 = creaseWeight/3.0;
+              tempVec.set(creasePos.r);
+              tempVec.scale(4.0);
+              tempVec.subtract(vertex[i].r);
+              tempVec.scale(w1);
+              finalPos.add(tempVec);
+              for (j = 0; j < paramType.length; j++)
+                if (paramType[j] == PER_VERTEX)
+                  finalParam[j] += w1*(4.0*creaseParam[j]-oldParamValue[j][0][i]);
+            }
+
+          // Construct the new vertex.
+
+          newvert[i] = newmesh.blend(vertex[i], creasePos, smoothPos, cornerWeight, creaseWeight, smoothWeight);
+          newvert[i].smoothness = Math.min(2.0f*vertex[i].smoothness, 1.0f);
+          newvert[i].ikJoint = vertex[i].ikJoint;
+          newvert[i].ikWeight = vertex[i].ikWeight;
+          for (j = 0; j < paramType.length; j++)
+            if (paramType[j] == PER_VERTEX)
+              newParamValue[j][0][i] = finalParam[j];
+          finalPos.subtract(newvert[i].r);
+          error = finalPos.length2();
+          if (error > tol2)
+            notconverged[i] = true;
+        }
+    });
+  }
+
+  /** This is called by subdivideLoop() to find the positions for the new vertices (one for each edge
+      that gets split).  Depending on the smoothness value of the edge, this position can be
+      determined by the smooth rule, the crease rule, or a weighted average of the two. */
+
+  private static void loopEdgePositions(TriangleMesh newmesh, Vertex vertex[], Edge edge[], Face face[], boolean refineEdge[], int newVertIndex[], Vertex newvert[], double oldParamValue[][][], double newParamValue[][][], int paramType[], boolean parallel)
+  {
+    forEachBlock(edge.length, parallel, (start, end) -> {
+      Vertex creasePos = newmesh.new Vertex(new Vec3()), smoothPos = newmesh.new Vertex(new Vec3());
+      double creaseParam[] = new double [paramType.length];
+      double smoothParam[] = new double [paramType.length];
+      double creaseWeight, smoothWeight, s1;
+      Edge tempEdge;
+      Face tempFace;
+
+      for (int i = start; i < end; i++)
+        {
+          if (!refineEdge[i])
+            continue;
+          int j = newVertIndex[i];
+          tempEdge = edge[i];
+          setBlend(creasePos, vertex[tempEdge.v1], vertex[tempEdge.v2], 1.0, 1.0);
+          for (int pm = 0; pm < paramType.length; pm++)
+            if (paramType[pm] == PER_VERTEX)
+              creaseParam[pm] = oldParamValue[pm][0][tempEdge.v1]+oldParamValue[pm][0][tempEdge.v2];
+          if (tempEdge.f2 == -1 || tempEdge.smoothness == 0.0f)
+            {
+              // Use the crease rule.
+
+              newvert[j] = newmesh.new Vertex(creasePos);
+              newvert[j].scale(0.5);
+              for (int pm = 0; pm < paramType.length; pm++)
+                if (paramType[pm] == PER_VERTEX)
+                  newParamValue[pm][0][j] = 0.5*creaseParam[pm];
+            }
+          else
+            {
+              // Use the smooth rule, or a blend of the two.
+
+              tempFace = face[tempEdge.f1];
+              if (tempFace.e1 == i)
+              {
+                smoothPos.copy(vertex[tempFace.v3]);
+                recordParamValues(smoothParam, tempFace.v3, oldParamValue, paramType);
+              }
+              else if (tempFace.e2 == i)
+              {
+                smoothPos.copy(vertex[tempFace.v1]);
+                recordParamValues(smoothParam, tempFace.v1, oldParamValue, paramType);
+              }
+              else
+              {
+                smoothPos.copy(vertex[tempFace.v2]);
+                recordParamValues(smoothParam, tempFace.v2, oldParamValue, paramType);
+              }
+              tempFace = face[tempEdge.f2];
+              if (tempFace.e1 == i)
+              {
+                setBlend(smoothPos, smoothPos, vertex[tempFace.v3], 1.0, 1.0);
+                setBlendParams(smoothParam, smoothParam, tempFace.v3, 1.0, 1.0, oldParamValue, paramType);
+              }
+              else if (tempFace.e2 == i)
+              {
+                setBlend(smoothPos, smoothPos, vertex[tempFace.v1], 1.0, 1.0);
+                setBlendParams(smoothParam, smoothParam, tempFace.v1, 1.0, 1.0, oldParamValue, paramType);
+              }
+              else
+              {
+                setBlend(smoothPos, smoothPos, vertex[tempFace.v2], 1.0, 1.0);
+                setBlendParams(smoothParam, smoothParam, tempFace.v2, 1.0, 1.0, oldParamValue, paramType);
+              }
+              s1 = 1.0-tempEdge.smoothness;
+              creaseWeight = 0.125*s1+0.375;
+              smoothWeight = 0.125*(1.0-s1);
+                  newvert[j] = newmesh.blend(creasePos, smoothPos, creaseWeight, smoothWeight);
+              for (int pm = 0; pm < paramType.length; pm++)
+                if (paramType[pm] == PER_VERTEX)
+                  newParamValue[pm][0][j] = creaseWeight*creaseParam[pm] + smoothWeight*smoothParam[pm];
+            }
+          newvert[j].smoothness = 1.0f;
+          blendIKParams(newvert[j], vertex[tempEdge.v1], vertex[tempEdge.v2]);
+        }
+    });
+  }
+
   /** This method subdivides the mesh using interpolating (modified Butterfly) subdivision, and returns
       a new TriangleMesh which approximates the limit surface to within the specified tolerance.
       The subdivision coefficients are taken from Zorin et al. "Interpolating Subdivision for
@@ -1809,19 +1907,25 @@ groups:     do
   */
 
   public static TriangleMesh subdivideButterfly(TriangleMesh mesh, boolean refineEdge[], double tol)
+  {
+    return subdivideButterfly(mesh, refineEdge, tol, true);
+  }
+
+  /** This is identical to subdivideButterfly(mesh, refineEdge, tol), except that it specifies whether
+      the work for large meshes may be split between multiple threads.  The result is the same
+      either way. */
+
+  static TriangleMesh subdivideButterfly(TriangleMesh mesh, boolean refineEdge[], double tol, boolean parallel)
   {
     Vertex vertex[] = mesh.vertex, newvert[];
-    Edge edge[] = mesh.edge, newedge[], tempEdge;
-    Face face[] = mesh.face, newface[], tempFace;
+    Edge edge[] = mesh.edge, newedge[];
+    Face face[] = mesh.face, newface[];
     TriangleMesh newmesh = new TriangleMesh();
-    int i, j, k, n, e[], vertEdge[][];
+    int i, j, newVertIndex[], vertEdge[][];
     int numVert, numEdge, numFace;
-    int v1, v2, v3, e2, e3;
-    Vertex creasePos = newmesh.new Vertex(new Vec3()), smoothPos = newmesh.new Vertex(new Vec3()), cornerPos = newmesh.new Vertex(new Vec3()), temp = newmesh.new Vertex(new Vec3());
-    Vec3 axis = new Vec3(), tempVec = new Vec3();
-    double cornerWeight, creaseWeight, smoothWeight, s1, s2[], s3[], edgeSmoothness[], vertSmoothness[], coeff[];
+    double s2[], s3[], edgeSmoothness[], vertSmoothness[];
     boolean refineVert[], notconverged[], regular[], done;
-    double tol2 = tol*tol*9.0, error;
+    double tol2 = tol*tol*9.0;
 
     if (refineEdge == null)
       {
@@ -1861,11 +1965,6 @@ groups:     do
         paramType[i] = PER_FACE_VERTEX;
       }
     }
-    double creaseParam[] = new double [paramType.length];
-    double smoothParam[] = new double [paramType.length];
-    double cornerParam[] = new double [paramType.length];
-    double tempParam[] = new double [paramType.length];
-
     // Determine which vertices need to be refined.
 
     refineVert = new boolean [vertex.length];
@@ -1887,10 +1986,11 @@ groups:     do
         numVert = vertex.length;
         numEdge = edge.length;
         numFace = face.length;
+        newVertIndex = new int [edge.length];
         for (i = 0; i < edge.length; i++)
           if (refineEdge[i])
             {
-              numVert++;
+              newVertIndex[i] = numVert++;
               numEdge += 2;
               numFace++;
               if (edge[i].f2 != -1)
@@ -1913,43 +2013,13 @@ groups:     do
             newParamValue[i] = new double [3][numFace];
         }
 
-        // Record the list of edges intersecting each vertex.
+        // Record the list of edges intersecting each vertex, and determine the three sharpest
+        // edges intersecting each vertex.
 
         vertEdge = new int [vertex.length][];
-        for (i = 0; i < vertex.length; i++)
-          vertEdge[i] = vertex[i].getEdges();
-
-        // Determine the three sharpest edges intersecting each vertex.
-
         s2 = new double [vertex.length];
         s3 = new double [vertex.length];
-        for (i = 0; i < vertex.length; i++)
-          {
-            s1 = s2[i] = s3[i] = 1.0;
-            e = vertEdge[i];
-            for (j = 0; j < e.length; j++)
-              {
-                if (edge[e[j]].f2 == -1)
-                  {
-                    s3[i] = s2[i];
-                    s2[i] = s1;
-                    s1 = 0.0;
-                  }
-                else if (edge[e[j]].smoothness < s1)
-                  {
-                    s3[i] = s2[i];
-                    s2[i] = s1;
-                    s1 = edge[e[j]].smoothness;
-                  }
-                else if (edge[e[j]].smoothness < s2[i])
-                  {
-                    s3[i] = s2[i];
-                    s2[i] = edge[e[j]].smoothness;
-                  }
-                else if (edge[e[j]].smoothness < s3[i])
-                  s3[i] = edge[e[j]].smoothness;
-              }
-          }
+        findSharpestEdges(vertex, edge, vertEdge, s2, s3, parallel);
 
         // Determine the smoothness value for each edge and vertex, and mark which edges
         // are regular.
@@ -1980,229 +2050,16 @@ groups:     do
         // this position can be determined by the smooth rule, the crease rule, the corner
         // rule, or a weighted average of the three.
 
-        j = vertex.length;
+        butterflyEdgePositions(newmesh, vertex, edge, face, refineEdge, newVertIndex, newvert, notconverged, vertEdge, s2, edgeSmoothness, vertSmoothness, regular, oldParamValue, newParamValue, paramType, tol2, parallel);
         for (i = 0; i < edge.length; i++)
-          {
-            if (!refineEdge[i])
-              continue;
-            tempEdge = edge[i];
-            v1 = tempEdge.v1;
-            v2 = tempEdge.v2;
-            cornerWeight = 1.0-Math.min(vertSmoothness[v1], vertSmoothness[v2]);
-            if (tempEdge.f2 == -1)
-              creaseWeight = 1.0-cornerWeight;
-            else
-              creaseWeight = Math.max(1.0-edgeSmoothness[i]-cornerWeight, 0.0);
-            smoothWeight = 1.0-cornerWeight-creaseWeight;
+          if (notconverged[i])
+            done = false;
 
-            // The corner rule simply places the new point midway between the endpoint.
+        // Subdivide the mesh.
 
-            setBlend(cornerPos, vertex[v1], vertex[v2], 0.5, 0.5);
-            setBlendParams(cornerParam, v1, v2, 0.5, 0.5, oldParamValue, paramType);
+        doSubdivide(newmesh, vertex, edge, face, refineEdge, newvert, newedge, newface, oldParamValue, newParamValue, paramType, parallel);
 
-            // The crease rule uses the four-point rule (-1, 9, 9, -1).  Depending on the
-            // smoothness values for the second and third points, these weights may be modified.
-
-            if (creaseWeight > 0.0)
-              {
-                creasePos.copy(vertex[v1]);
-                recordParamValues(creaseParam, v1, oldParamValue, paramType);
-                if (s2[v1] < 1.0)
-                  {
-                    e = vertEdge[v1];
-                    if (tempEdge.f2 == -1)
-                      {
-                        if (e[0] == i)
-                          k = e.length-1;
-                        else
-                          k = 0;
-                      }
-                    else
-                      for (k = 0; e[k] == i || edgeSmoothness[e[k]] > s2[v1]; k++);
-                    int whichVert = (edge[e[k]].v1 == v1 ? edge[e[k]].v2 : edge[e[k]].v1);
-                    double w2 = -0.125*vertex[v1].smoothness;
-                    double w1 = 1.0-w2;
-                    setBlend(creasePos, creasePos, vertex[whichVert], w1, w2);
-                    setBlendParams(creaseParam, creaseParam, whichVert, w1, w2, oldParamValue, paramType);
-                  }
-                temp.copy(vertex[v2]);
-                recordParamValues(tempParam, v2, oldParamValue, paramType);
-                if (s2[v2] < 1.0)
-                  {
-                    e = vertEdge[v2];
-                    if (tempEdge.f2 == -1)
-                      {
-                        if (e[0] == i)
-                          k = e.length-1;
-                        else
-                          k = 0;
-                      }
-                    else
-                      for (k = 0; e[k] == i || edgeSmoothness[e[k]] > s2[v2]; k++);
-                    int whichVert = (edge[e[k]].v1 == v2 ? edge[e[k]].v2 : edge[e[k]].v1);
-                    double w2 = -0.125*vertex[v2].smoothness;
-                    double w1 = 1.0-w2;
-                    setBlend(temp, temp, vertex[whichVert], w1, w2);
-                    setBlendParams(tempParam, tempParam, whichVert, w1, w2, oldParamValue, paramType);
-                  }
-                setBlend(creasePos, creasePos, temp, 0.5, 0.5);
-                for (k = 0; k < paramType.length; k++)
-                  if (paramType[k] == PER_VERTEX)
-                    creaseParam[k] = 0.5*(creaseParam[k]+tempParam[k]);
-              }
-
-            // The smooth rule uses the modified Butterfly coefficients.
-
-            if (smoothWeight > 0.0)
-              {
-                if (regular[v1] && regular[v2])
-                  {
-                    // Both vertices are regular, so use the standard Butterfly coefficients.
-
-                    smoothPos.copy(cornerPos);
-                    for (k = 0; k < smoothParam.length; k++)
-                      smoothParam[k] = cornerParam[k];
-                    tempFace = face[tempEdge.f1];
-                    if (tempFace.e1 == i)
-                      {
-                        v3 = tempFace.v3;
-                        e2 = tempFace.e2;
-                        e3 = tempFace.e3;
-                      }
-                    else if (tempFace.e2 == i)
-                      {
-                        v3 = tempFace.v1;
-                        e2 = tempFace.e3;
-                        e3 = tempFace.e1;
-                      }
-                    else
-                      {
-                        v3 = tempFace.v2;
-                        e2 = tempFace.e1;
-                        e3 = tempFace.e2;
-                      }
-                    setBlend(smoothPos, smoothPos, vertex[v3], 1.0, 0.125);
-                    setBlendParams(smoothParam, smoothParam, v3, 1.0, 0.125, oldParamValue, paramType);
-                    findOppositeVertex(temp, tempEdge.f1, e2, edgeSmoothness[e2], vertex, edge, face, tempParam, oldParamValue, paramType);
-                    setBlend(smoothPos, smoothPos, temp, 1.0, -0.0625);
-                    for (k = 0; k < paramType.length; k++)
-                      if (paramType[k] == PER_VERTEX)
-                        smoothParam[k] -= 0.0625*tempParam[k];
-                    findOppositeVertex(temp, tempEdge.f1, e3, edgeSmoothness[e3], vertex, edge, face, tempParam, oldParamValue, paramType);
-                    setBlend(smoothPos, smoothPos, temp, 1.0, -0.0625);
-                    for (k = 0; k < paramType.length; k++)
-                      if (paramType[k] == PER_VERTEX)
-                        smoothParam[k] -= 0.0625*tempParam[k];
-                    tempFace = face[tempEdge.f2];
-                    if (tempFace.e1 == i)
-                      {
-                        v3 = tempFace.v3;
-                        e2 = tempFace.e2;
-                        e3 = tempFace.e3;
-                      }
-                    else if (tempFace.e2 == i)
-                      {
-                        v3 = tempFace.v1;
-                        e2 = tempFace.e3;
-                        e3 = tempFace.e1;
-                      }
-                    else
-                      {
-                        v3 = tempFace.v2;
-                        e2 = tempFace.e1;
-                        e3 = tempFace.e2;
-                      }
-                    setBlend(smoothPos, smoothPos, vertex[v3], 1.0, 0.125);
-                    setBlendParams(smoothParam, smoothParam, v3, 1.0, 0.125, oldParamValue, paramType);
-                    findOppositeVertex(temp, tempEdge.f2, e2, edgeSmoothness[e2], vertex, edge, face, tempParam, oldParamValue, paramType);
-                    setBlend(smoothPos, smoothPos, temp, 1.0, -0.0625);
-                    for (k = 0; k < paramType.length; k++)
-                      if (paramType[k] == PER_VERTEX)
-                        smoothParam[k] -= 0.0625*tempParam[k];
-                    findOppositeVertex(temp, tempEdge.f2, e3, edgeSmoothness[e3], vertex, edge, face, tempParam, oldParamValue, paramType);
-                    setBlend(smoothPos, smoothPos, temp, 1.0, -0.0625);
-                    for (k = 0; k < paramType.length; k++)
-                      if (paramType[k] == PER_VERTEX)
-                        smoothParam[k] -= 0.0625*tempParam[k];
-                  }
-                else
-                  {
-                    // At least one of the vertices is extraordinary.  We calculate the smooth
-                    // position based on the extraordinary vertex, or if both vertices are
-                    // extraordinary, an average of the two.
-
-                    smoothPos.clear();
-                    for (k = 0; k < smoothParam.length; k++)
-                      smoothParam[k] = 0.0;
-                    if (!regular[v1])
-                      {
-                        e = vertEdge[v1];
-                        coeff = getButterflyCoeff(e.length);
-                        for (n = 0; e[n] != i; n++);
-                        for (k = 0; k < e.length; k++)
-                          {
-                            tempEdge = edge[e[(n+k)%e.length]];
-                            int whichVert = (tempEdge.v1 == v1 ? tempEdge.v2 : tempEdge.v1);
-                            setBlend(smoothPos, smoothPos, vertex[whichVert], 1.0, coeff[k]);
-                            setBlendParams(smoothParam, smoothParam, whichVert, 1.0, coeff[k], oldParamValue, paramType);
-                          }
-                        setBlend(smoothPos, smoothPos, vertex[v1], 1.0, coeff[k]);
-                        setBlendParams(smoothParam, smoothParam, v1, 1.0, coeff[k], oldParamValue, paramType);
-                      }
-                    if (!regular[v2])
-                      {
-                        e = vertEdge[v2];
-                        coeff = getButterflyCoeff(e.length);
-                        for (n = 0; e[n] != i; n++);
-                        for (k = 0; k < e.length; k++)
-                          {
-                            tempEdge = edge[e[(n+k)%e.length]];
-                            int whichVert = (tempEdge.v1 == v2 ? tempEdge.v2 : tempEdge.v1);
-                            setBlend(smoothPos, smoothPos, vertex[whichVert], 1.0, coeff[k]);
-                            setBlendParams(smoothParam, smoothParam, whichVert, 1.0, coeff[k], oldParamValue, paramType);
-                          }
-                        setBlend(smoothPos, smoothPos, vertex[v2], 1.0, coeff[k]);
-                        setBlendParams(smoothParam, smoothParam, v2, 1.0, coeff[k], oldParamValue, paramType);
-                      }
-                    if (!regular[v1] && !regular[v2])
-                    {
-                      smoothPos.scale(0.5);
-                      for (k = 0; k < smoothParam.length; k++)
-                        smoothParam[k] *= 0.5;
-                    }
-                  }
-              }
-            newvert[j] = newmesh.blend(cornerPos, creasePos, smoothPos, cornerWeight, creaseWeight, smoothWeight);
-            for (k = 0; k < paramType.length; k++)
-              if (paramType[k] == PER_VERTEX)
-                newParamValue[k][0][j] = cornerWeight*cornerParam[k] + creaseWeight*creaseParam[k] + smoothWeight*smoothParam[k];
-            blendIKParams(newvert[j], vertex[tempEdge.v1], vertex[tempEdge.v2]);
-            j++;
-
-            // Determine how far the newly created point is from the edge, and use this to
-            // estimate convergence.
-
-            axis.set(vertex[v2].r);
-            axis.subtract(vertex[v1].r);
-            axis.normalize();
-            tempVec.set(newvert[j-1].r);
-            tempVec.subtract(vertex[v1].r);
-            s1 = tempVec.dot(axis);
-            axis.scale(s1);
-            tempVec.subtract(axis);
-            error = tempVec.length2();
-            if (error > tol2)
-              {
-                notconverged[i] = true;
-                done = false;
-              }
-          }
-
-        // Subdivide the mesh.
-
-        doSubdivide(newmesh, vertex, edge, face, refineEdge, newvert, newedge, newface, oldParamValue, newParamValue, paramType);
-
-        // Update data structures for the next iteration.
+        // Update data structures for the next iteration.
 
         if (!done)
           {
@@ -2247,6 +2104,279 @@ groups:     do
     return newmesh;
   }
 
+  /** This is called by subdivideButterfly() to record the list of edges intersecting each vertex,
+      and the smoothness values of the second and third sharpest ones.  Boundary edges count as
+      completely sharp. */
+
+  private static void findSharpestEdges(Vertex vertex[], Edge edge[], int vertEdge[][], double s2[], double s3[], boolean parallel)
+  {
+    forEachBlock(vertex.length, parallel, (start, end) -> {
+      for (int i = start; i < end; i++)
+        {
+          int e[] = vertEdge[i] = vertex[i].getEdges();
+          double s1 = s2[i] = s3[i] = 1.0;
+          for (int j = 0; j < e.length; j++)
+            {
+              if (edge[e[j]].f2 == -1)
+                {
+                  s3[i] = s2[i];
+                  s2[i] = s1;
+                  s1 = 0.0;
+                }
+              else if (edge[e[j]].smoothness < s1)
+                {
+                  s3[i] = s2[i];
+                  s2[i] = s1;
+                  s1 = edge[e[j]].smoothness;
+                }
+              else if (edge[e[j]].smoothness < s2[i])
+                {
+                  s3[i] = s2[i];
+                  s2[i] = edge[e[j]].smoothness;
+                }
+              else if (edge[e[j]].smoothness < s3[i])
+                s3[i] = edge[e[j]].smoothness;
+            }
+        }
+    });
+  }
+
+  /** This is called by subdivideButterfly() to find the positions for the new vertices (one for each
+      edge that gets split).  Depending on the smoothness values of the edge and the vertices it
+      connects, this position can be determined by the smooth rule, the crease rule, the corner
+      rule, or a weighted average of the three.  Every edge whose new vertex is not yet within
+      tol2 of the limit surface is flagged in notconverged. */
+
+  private static void butterflyEdgePositions(TriangleMesh newmesh, Vertex vertex[], Edge edge[], Face face[], boolean refineEdge[], int newVertIndex[], Vertex newvert[], boolean notconverged[], int vertEdge[][], double s2[], double edgeSmoothness[], double vertSmoothness[], boolean regular[], double oldParamValue[][][], double newParamValue[][][], int paramType[], double tol2, boolean parallel)
+  {
+    forEachBlock(edge.length, parallel, (start, end) -> {
+      Vertex creasePos = newmesh.new Vertex(new Vec3()), smoothPos = newmesh.new Vertex(new Vec3()), cornerPos = newmesh.new Vertex(new Vec3()), temp = newmesh.new Vertex(new Vec3());
+      Vec3 axis = new Vec3(), tempVec = new Vec3();
+      double creaseParam[] = new double [paramType.length];
+      double smoothParam[] = new double [paramType.length];
+      double cornerParam[] = new double [paramType.length];
+      double tempParam[] = new double [paramType.length];
+      double cornerWeight, creaseWeight, smoothWeight, s1, coeff[], error;
+      Edge tempEdge;
+      Face tempFace;
+      int k, n, e[], v1, v2, v3, e2, e3;
+
+      for (int i = start; i < end; i++)
+        {
+          if (!refineEdge[i])
+            continue;
+          int j = newVertIndex[i];
+          tempEdge = edge[i];
+          v1 = tempEdge.v1;
+          v2 = tempEdge.v2;
+          cornerWeight = 1.0-Math.min(vertSmoothness[v1], vertSmoothness[v2]);
+          if (tempEdge.f2 == -1)
+            creaseWeight = 1.0-cornerWeight;
+          else
+            creaseWeight = Math.max(1.0-edgeSmoothness[i]-cornerWeight, 0.0);
+          smoothWeight = 1.0-cornerWeight-creaseWeight;
+
+          // The corner rule simply places the new point midway between the endpoint.
+
+          setBlend(cornerPos, vertex[v1], vertex[v2], 0.5, 0.5);
+          setBlendParams(cornerParam, v1, v2, 0.5, 0.5, oldParamValue, paramType);
+
+          // The crease rule uses the four-point rule (-1, 9, 9, -1).  Depending on the
+          // smoothness values for the second and third points, these weights may be modified.
+
+          if (creaseWeight > 0.0)
+            {
+              creasePos.copy(vertex[v1]);
+              recordParamValues(creaseParam, v1, oldParamValue, paramType);
+              if (s2[v1] < 1.0)
+                {
+                  e = vertEdge[v1];
+                  if (tempEdge.f2 == -1)
+                    {
+                      if (e[0] == i)
+                        k = e.length-1;
+                      else
+                        k = 0;
+                    }
+                  else
+                    for (k = 0; e[k] == i || edgeSmoothness[e[k]] > s2[v1]; k++);
+                  int whichVert = (edge[e[k]].v1 == v1 ? edge[e[k]].v2 : edge[e[k]].v1);
+                  double w2 = -0.125*vertex[v1].smoothness;
+                  double w1 = 1.0-w2;
+                  setBlend(creasePos, creasePos, vertex[whichVert], w1, w2);
+                  setBlendParams(creaseParam, creaseParam, whichVert, w1, w2, oldParamValue, paramType);
+                }
+              temp.copy(vertex[v2]);
+              recordParamValues(tempParam, v2, oldParamValue, paramType);
+              if (s2[v2] < 1.0)
+                {
+                  e = vertEdge[v2];
+                  if (tempEdge.f2 == -1)
+                    {
+                      if (e[0] == i)
+                        k = e.length-1;
+                      else
+                        k = 0;
+                    }
+                  else
+                    for (k = 0; e[k] == i || edgeSmoothness[e[k]] > s2[v2]; k++);
+                  int whichVert = (edge[e[k]].v1 == v2 ? edge[e[k]].v2 : edge[e[k]].v1);
+                  double w2 = -0.125*vertex[v2].smoothness;
+                  double w1 = 1.0-w2;
+                  setBlend(temp, temp, vertex[whichVert], w1, w2);
+                  setBlendParams(tempParam, tempParam, whichVert, w1, w2, oldParamValue, paramType);
+                }
+              setBlend(creasePos, creasePos, temp, 0.5, 0.5);
+              for (k = 0; k < paramType.length; k++)
+                if (paramType[k] == PER_VERTEX)
+                  creaseParam[k] = 0.5*(creaseParam[k]+tempParam[k]);
+            }
+
+          // The smooth rule uses the modified Butterfly coefficients.
+
+          if (smoothWeight > 0.0)
+            {
+              if (regular[v1] && regular[v2])
+                {
+                  // Both vertices are regular, so use the standard Butterfly coefficients.
+
+                  smoothPos.copy(cornerPos);
+                  for (k = 0; k < smoothParam.length; k++)
+                    smoothParam[k] = cornerParam[k];
+                  tempFace = face[tempEdge.f1];
+                  if (tempFace.e1 == i)
+                    {
+                      v3 = tempFace.v3;
+                      e2 = tempFace.e2;
+                      e3 = tempFace.e3;
+                    }
+                  else if (tempFace.e2 == i)
+                    {
+                      v3 = tempFace.v1;
+                      e2 = tempFace.e3;
+                      e3 = tempFace.e1;
+                    }
+                  else
+                    {
+                      v3 = tempFace.v2;
+                      e2 = tempFace.e1;
+                      e3 = tempFace.e2;
+                    }
+                  setBlend(smoothPos, smoothPos, vertex[v3], 1.0, 0.125);
+                  setBlendParams(smoothParam, smoothParam, v3, 1.0, 0.125, oldParamValue, paramType);
+                  findOppositeVertex(temp, tempEdge.f1, e2, edgeSmoothness[e2], vertex, edge, face, tempParam, oldParamValue, paramType);
+                  setBlend(smoothPos, smoothPos, temp, 1.0, -0.0625);
+                  for (k = 0; k < paramType.length; k++)
+                    if (paramType[k] == PER_VERTEX)
+                      smoothParam[k] -= 0.0625*tempParam[k];
+                  findOppositeVertex(temp, tempEdge.f1, e3, edgeSmoothness[e3], vertex, edge, face, tempParam, oldParamValue, paramType);
+                  setBlend(smoothPos, smoothPos, temp, 1.0, -0.0625);
+                  for (k = 0; k < paramType.length; k++)
+                    if (paramType[k] == PER_VERTEX)
+                      smoothParam[k] -= 0.0625*tempParam[k];
+                  tempFace = face[tempEdge.f2];
+                  if (tempFace.e1 == i)
+                    {
+                      v3 = tempFace.v3;
+                      e2 = tempFace.e2;
+                      e3 = tempFace.e3;
+                    }
+                  else if (tempFace.e2 == i)
+                    {
+                      v3 = tempFace.v1;
+                      e2 = tempFace.e3;
+                      e3 = tempFace.e1;
+                    }
+                  else
+                    {
+                      v3 = tempFace.v2;
+                      e2 = tempFace.e1;
+                      e3 = tempFace.e2;
+                    }
+                  setBlend(smoothPos, smoothPos, vertex[v3], 1.0, 0.125);
+                  setBlendParams(smoothParam, smoothParam, v3, 1.0, 0.125, oldParamValue, paramType);
+                  findOppositeVertex(temp, tempEdge.f2, e2, edgeSmoothness[e2], vertex, edge, face, tempParam, oldParamValue, paramType);
+                  setBlend(smoothPos, smoothPos, temp, 1.0, -0.0625);
+                  for (k = 0; k < paramType.length; k++)
+                    if (paramType[k] == PER_VERTEX)
+                      smoothParam[k] -= 0.0625*tempParam[k];
+                  findOppositeVertex(temp, tempEdge.f2, e3, edgeSmoothness[e3], vertex, edge, face, tempParam, oldParamValue, paramType);
+                  setBlend(smoothPos, smoothPos, temp, 1.0, -0.0625);
+                  for (k = 0; k < paramType.length; k++)
+                    if (paramType[k] == PER_VERTEX)
+                      smoothParam[k] -= 0.0625*tempParam[k];
+                }
+              else
+                {
+                  // At least one of the vertices is extraordinary.  We calculate the smooth
+                  // position based on the extraordinary vertex, or if both vertices are
+                  // extraordinary, an average of the two.
+
+                  smoothPos.clear();
+                  for (k = 0; k < smoothParam.length; k++)
+                    smoothParam[k] = 0.0;
+                  if (!regular[v1])
+                    {
+                      e = vertEdge[v1];
+                      coeff = getButterflyCoeff(e.length);
+                      for (n = 0; e[n] != i; n++);
+                      for (k = 0; k < e.length; k++)
+                        {
+                          tempEdge = edge[e[(n+k)%e.length]];
+                          int whichVert = (tempEdge.v1 == v1 ? tempEdge.v2 : tempEdge.v1);
+                          setBlend(smoothPos, smoothPos, vertex[whichVert], 1.0, coeff[k]);
+                          setBlendParams(smoothParam, smoothParam, whichVert, 1.0, coeff[k], oldParamValue, paramType);
+                        }
+                      setBlend(smoothPos, smoothPos, vertex[v1], 1.0, coeff[k]);
+                      setBlendParams(smoothParam, smoothParam, v1, 1.0, coeff[k], oldParamValue, paramType);
+                    }
+                  if (!regular[v2])
+                    {
+                      e = vertEdge[v2];
+                      coeff = getButterflyCoeff(e.length);
+                      for (n = 0; e[n] != i; n++);
+                      for (k = 0; k < e.length; k++)
+                        {
+                          tempEdge = edge[e[(n+k)%e.length]];
+                          int whichVert = (tempEdge.v1 == v2 ? tempEdge.v2 : tempEdge.v1);
+                          setBlend(smoothPos, smoothPos, vertex[whichVert], 1.0, coeff[k]);
+                          setBlendParams(smoothParam, smoothParam, whichVert, 1.0, coeff[k], oldParamValue, paramType);
+                        }
+                      setBlend(smoothPos, smoothPos, vertex[v2], 1.0, coeff[k]);
+                      setBlendParams(smoothParam, smoothParam, v2, 1.0, coeff[k], oldParamValue, paramType);
+                    }
+                  if (!regular[v1] && !regular[v2])
+                  {
+                    smoothPos.scale(0.5);
+                    for (k = 0; k < smoothParam.length; k++)
+                      smoothParam[k] *= 0.5;
+                  }
+                }
+            }
+          newvert[j] = newmesh.blend(cornerPos, creasePos, smoothPos, cornerWeight, creaseWeight, smoothWeight);
+          for (k = 0; k < paramType.length; k++)
+            if (paramType[k] == PER_VERTEX)
+              newParamValue[k][0][j] = cornerWeight*cornerParam[k] + creaseWeight*creaseParam[k] + smoothWeight*smoothParam[k];
+          blendIKParams(newvert[j], vertex[tempEdge.v1], vertex[tempEdge.v2]);
+
+          // Determine how far the newly created point is from the edge, and use this to
+          // estimate convergence.
+
+          axis.set(vertex[v2].r);
+          axis.subtract(vertex[v1].r);
+          axis.normalize();
+          tempVec.set(newvert[j].r);
+          tempVec.subtract(vertex[v1].r);
+          s1 = tempVec.dot(axis);
+          axis.scale(s1);
+          tempVec.subtract(axis);
+          error = tempVec.length2();
+          if (error > tol2)
+            notconverged[i] = true;
+        }
+    });
+  }
+
   /** This method is used for Butterfly subdivision.  Given a face and an edge, it finds the
       other face which is across the edge from the specified one, finds the vertex of that face
       which is opposite the specified edge, and returns its position in pos.  The position of
@@ -2343,350 +2473,369 @@ groups:     do
       TriangleMesh which the new edges and faces should belong to.  split is an array
       specifying which edges of the old mesh should be split. */
 
-  private static void doSubdivide(TriangleMesh mesh, Vertex vertex[], Edge edge[], Face face[], boolean split[], Vertex newvert[], Edge newedge[], Face newface[], double oldParamValue[][][], double newParamValue[][][], int paramType[])
+  private static void doSubdivide(TriangleMesh mesh, Vertex vertex[], Edge edge[], Face face[], boolean split[], Vertex newvert[], Edge newedge[], Face newface[], double oldParamValue[][][], double newParamValue[][][], int paramType[], boolean parallel)
   {
-    Edge tempEdge;
-    Face tempFace;
-    int i, j, k, n, v1, v2, v3, e1, e2, e3, newEdgeIndex[] = new int [edge.length];
+    int newEdgeIndex[] = new int [edge.length], addedBefore[] = new int [face.length];
 
-    // First, subdivide edges.
+    // Work out where the new edges and faces for each edge and face of the old mesh will go,
+    // so they can all be created independently of each other.
 
-    j = edge.length;
-    k = vertex.length;
-    for (i = 0; i < edge.length; i++)
+    int numEdges = edge.length;
+    for (int i = 0; i < edge.length; i++)
+      newEdgeIndex[i] = (split[i] ? numEdges++ : i);
+    int firstFaceEdge = numEdges, numAdded = 0;
+    for (int i = 0; i < face.length; i++)
       {
-        tempEdge = edge[i];
-        v1 = tempEdge.v1;
-        v2 = tempEdge.v2;
-        if (!split[i])
-          {
-            // This edge does not need to be split, so just copy it over.
-
-            newedge[i] = mesh.new Edge(v1, v2, -1);
-            newedge[i].smoothness = tempEdge.smoothness;
-            if (vertex[v1].firstEdge == i)
-              newvert[v1].firstEdge = i;
-            if (vertex[v2].firstEdge == i)
-              newvert[v2].firstEdge = i;
-            newEdgeIndex[i] = i;
-            continue;
-          }
-        newedge[i] = mesh.new Edge(v1, k, -1);
-        newedge[j] = mesh.new Edge(v2, k, -1);
-        newedge[i].smoothness = newedge[j].smoothness = tempEdge.smoothness;
-        if (vertex[v1].firstEdge == i)
-          newvert[v1].firstEdge = i;
-        if (vertex[v2].firstEdge == i)
-          newvert[v2].firstEdge = j;
-        newvert[k].firstEdge = i;
-        newEdgeIndex[i] = j++;
-        k++;
+        addedBefore[i] = numAdded;
+        if (split[face[i].e1])
+          numAdded++;
+        if (split[face[i].e2])
+          numAdded++;
+        if (split[face[i].e3])
+          numAdded++;
       }
 
+    // First, subdivide edges.
+
+    forEachBlock(edge.length, parallel, (start, end) -> {
+      for (int i = start; i < end; i++)
+        {
+          Edge tempEdge = edge[i];
+          int v1 = tempEdge.v1, v2 = tempEdge.v2;
+          if (!split[i])
+            {
+              // This edge does not need to be split, so just copy it over.
+
+              newedge[i] = mesh.new Edge(v1, v2, -1);
+              newedge[i].smoothness = tempEdge.smoothness;
+              if (vertex[v1].firstEdge == i)
+                newvert[v1].firstEdge = i;
+              if (vertex[v2].firstEdge == i)
+                newvert[v2].firstEdge = i;
+              continue;
+            }
+          int j = newEdgeIndex[i], k = vertex.length+j-edge.length;
+          newedge[i] = mesh.new Edge(v1, k, -1);
+          newedge[j] = mesh.new Edge(v2, k, -1);
+          newedge[i].smoothness = newedge[j].smoothness = tempEdge.smoothness;
+          if (vertex[v1].firstEdge == i)
+            newvert[v1].firstEdge = i;
+          if (vertex[v2].firstEdge == i)
+            newvert[v2].firstEdge = j;
+          newvert[k].firstEdge = i;
+        }
+    });
+
     // Next, subdivide faces.  For each face in the old mesh, the can be anywhere from
     // one to four faces in the new mesh, depending on how many of its edges were
     // subdivided.
 
-    int addedFace[] = new int [4];
-    k = face.length;
-    for (i = 0; i < face.length; i++)
+    forEachBlock(face.length, parallel, (start, end) -> {
+      for (int i = start; i < end; i++)
+        subdivideFace(mesh, i, firstFaceEdge+addedBefore[i], face.length+addedBefore[i], edge, face, split, newedge, newface, newEdgeIndex, oldParamValue, newParamValue, paramType);
+    });
+
+    // Record which faces are adjacent to each edge.
+
+    for (int i = 0; i < newface.length; i++)
       {
-        tempFace = face[i];
+        Face tempFace = newface[i];
+        if (newedge[tempFace.e1].f1 == -1)
+          newedge[tempFace.e1].f1 = i;
+        else
+          newedge[tempFace.e1].f2 = i;
+        if (newedge[tempFace.e2].f1 == -1)
+          newedge[tempFace.e2].f1 = i;
+        else
+          newedge[tempFace.e2].f2 = i;
+        if (newedge[tempFace.e3].f1 == -1)
+          newedge[tempFace.e3].f1 = i;
+        else
+          newedge[tempFace.e3].f2 = i;
+      }
+
+    // Count the number of edges intersecting each vertex.
+
+    for (int i = 0; i < newvert.length; i++)
+      newvert[i].edges = 0;
+    for (int i = 0; i < newedge.length; i++)
+      {
+        newvert[newedge[i].v1].edges++;
+        newvert[newedge[i].v2].edges++;
+      }
+  }
+
+  /** This is called by doSubdivide() to split a single face of the old mesh.  i is the index
+      of the face.  Any new edges are placed in newedge starting at index j, and any new faces
+      are placed in newface starting at index k. */
+
+  private static void subdivideFace(TriangleMesh mesh, int i, int j, int k, Edge edge[], Face face[], boolean split[], Edge newedge[], Face newface[], int newEdgeIndex[], double oldParamValue[][][], double newParamValue[][][], int paramType[])
+  {
+    Face tempFace = face[i];
+    int n, v1, v2, v3, e1, e2, e3, addedFace[] = new int [4];
 
-        // Figure out how to subdivide the face, based on which edges are subdivided.
+    // Figure out how to subdivide the face, based on which edges are subdivided.
 
-        if (split[tempFace.e1])
+    if (split[tempFace.e1])
+      {
+        if (split[tempFace.e2])
           {
-            if (split[tempFace.e2])
+            if (split[tempFace.e3])
               {
-                if (split[tempFace.e3])
-                  {
-                    n = 3;
-                    v1 = tempFace.v1;  v2 = tempFace.v2;  v3 = tempFace.v3;
-                    e1 = tempFace.e1;  e2 = tempFace.e2;  e3 = tempFace.e3;
-                  }
-                else
-                  {
-                    n = 2;
-                    v1 = tempFace.v1;  v2 = tempFace.v2;  v3 = tempFace.v3;
-                    e1 = tempFace.e1;  e2 = tempFace.e2;  e3 = tempFace.e3;
-                  }
+                n = 3;
+                v1 = tempFace.v1;  v2 = tempFace.v2;  v3 = tempFace.v3;
+                e1 = tempFace.e1;  e2 = tempFace.e2;  e3 = tempFace.e3;
               }
             else
               {
-                if (split[tempFace.e3])
-                  {
-                    n = 2;
-                    v1 = tempFace.v3;  v2 = tempFace.v1;  v3 = tempFace.v2;
-                    e1 = tempFace.e3;  e2 = tempFace.e1;  e3 = tempFace.e2;
-                  }
-                else
-                  {
-                    n = 1;
-                    v1 = tempFace.v1;  v2 = tempFace.v2;  v3 = tempFace.v3;
-                    e1 = tempFace.e1;  e2 = tempFace.e2;  e3 = tempFace.e3;
-                  }
+                n = 2;
+                v1 = tempFace.v1;  v2 = tempFace.v2;  v3 = tempFace.v3;
+                e1 = tempFace.e1;  e2 = tempFace.e2;  e3 = tempFace.e3;
               }
           }
         else
           {
-            if (split[tempFace.e2])
+            if (split[tempFace.e3])
               {
-                if (split[tempFace.e3])
-                  {
-                    n = 2;
-                    v1 = tempFace.v2;  v2 = tempFace.v3;  v3 = tempFace.v1;
-                    e1 = tempFace.e2;  e2 = tempFace.e3;  e3 = tempFace.e1;
-                  }
-                else
-                  {
-                    n = 1;
-                    v1 = tempFace.v2;  v2 = tempFace.v3;  v3 = tempFace.v1;
-                    e1 = tempFace.e2;  e2 = tempFace.e3;  e3 = tempFace.e1;
-                  }
+                n = 2;
+                v1 = tempFace.v3;  v2 = tempFace.v1;  v3 = tempFace.v2;
+                e1 = tempFace.e3;  e2 = tempFace.e1;  e3 = tempFace.e2;
               }
             else
               {
-                if (split[tempFace.e3])
-                  {
-                    n = 1;
-                    v1 = tempFace.v3;  v2 = tempFace.v1;  v3 = tempFace.v2;
-                    e1 = tempFace.e3;  e2 = tempFace.e1;  e3 = tempFace.e2;
-                  }
-                else
-                  {
-                    n = 0;
-                    v1 = tempFace.v1;  v2 = tempFace.v2;  v3 = tempFace.v3;
-                    e1 = tempFace.e1;  e2 = tempFace.e2;  e3 = tempFace.e3;
-                  }
+                n = 1;
+                v1 = tempFace.v1;  v2 = tempFace.v2;  v3 = tempFace.v3;
+                e1 = tempFace.e1;  e2 = tempFace.e2;  e3 = tempFace.e3;
+              }
+          }
+      }
+    else
+      {
+        if (split[tempFace.e2])
+          {
+            if (split[tempFace.e3])
+              {
+                n = 2;
+                v1 = tempFace.v2;  v2 = tempFace.v3;  v3 = tempFace.v1;
+                e1 = tempFace.e2;  e2 = tempFace.e3;  e3 = tempFace.e1;
+              }
+            else
+              {
+                n = 1;
+                v1 = tempFace.v2;  v2 = tempFace.v3;  v3 = tempFace.v1;
+                e1 = tempFace.e2;  e2 = tempFace.e3;  e3 = tempFace.e1;
+              }
+          }
+        else
+          {
+            if (split[tempFace.e3])
+              {
+                n = 1;
+                v1 = tempFace.v3;  v2 = tempFace.v1;  v3 = tempFace.v2;
+                e1 = tempFace.e3;  e2 = tempFace.e1;  e3 = tempFace.e2;
+              }
+            else
+              {
+                n = 0;
+                v1 = tempFace.v1;  v2 = tempFace.v2;  v3 = tempFace.v3;
+                e1 = tempFace.e1;  e2 = tempFace.e2;  e3 = tempFace.e3;
               }
           }
+      }
 
-        // Now subdivide it, and create the new faces and edges.
+    // Now subdivide it, and create the new faces and edges.
 
-        switch (n)
-        {
-          case 0:
+    switch (n)
+    {
+      case 0:
+
+        // No edges being split, so simply copy the face over.
+
+        newface[i] = mesh.new Face(v1, v2, v3, e1, e2, e3);
+        break;
+
+      case 1:
 
-            // No edges being split, so simply copy the face over.
+        // e1 was split.
 
-            newface[i] = mesh.new Face(v1, v2, v3, e1, e2, e3);
-            break;
+        newedge[j] = mesh.new Edge(v3, newedge[e1].v2, -1);
+        if (edge[e1].v1 == v1)
+          {
+            newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, e1, j, e3);
+            newface[k] = mesh.new Face(v3, newedge[e1].v2, v2, j, newEdgeIndex[e1], e2);
+          }
+        else
+          {
+            newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, newEdgeIndex[e1], j, e3);
+            newface[k] = mesh.new Face(v3, newedge[e1].v2, v2, j, e1, e2);
+          }
+        break;
 
-          case 1:
+      case 2:
 
-            // e1 was split.
+        // e1 and e2 were split.
 
-            newedge[j] = mesh.new Edge(v3, newedge[e1].v2, -1);
-            if (edge[e1].v1 == v1)
+        newedge[j] = mesh.new Edge(newedge[e1].v2, newedge[e2].v2, -1);
+        newedge[j+1] = mesh.new Edge(v3, newedge[e1].v2, -1);
+        if (edge[e1].v1 == v1)
+          {
+            if (edge[e2].v1 == v2)
+              {
+                newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, e1, j+1, e3);
+                newface[k] = mesh.new Face(v3, newedge[e1].v2, newedge[e2].v2, j+1, j, newEdgeIndex[e2]);
+                newface[k+1] = mesh.new Face(newedge[e2].v2, newedge[e1].v2, v2, j, newEdgeIndex[e1], e2);
+              }
+            else
               {
-                newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, e1, j, e3);
-                newface[k] = mesh.new Face(v3, newedge[e1].v2, v2, j, newEdgeIndex[e1], e2);
+                newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, e1, j+1, e3);
+                newface[k] = mesh.new Face(v3, newedge[e1].v2, newedge[e2].v2, j+1, j, e2);
+                newface[k+1] = mesh.new Face(newedge[e2].v2, newedge[e1].v2, v2, j, newEdgeIndex[e1], newEdgeIndex[e2]);
+              }
+          }
+        else
+          {
+            if (edge[e2].v1 == v2)
+              {
+                newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, newEdgeIndex[e1], j+1, e3);
+                newface[k] = mesh.new Face(v3, newedge[e1].v2, newedge[e2].v2, j+1, j, newEdgeIndex[e2]);
+                newface[k+1] = mesh.new Face(newedge[e2].v2, newedge[e1].v2, v2, j, e1, e2);
               }
             else
               {
-                newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, newEdgeIndex[e1], j, e3);
-                newface[k] = mesh.new Face(v3, newedge[e1].v2, v2, j, e1, e2);
+                newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, newEdgeIndex[e1], j+1, e3);
+                newface[k] = mesh.new Face(v3, newedge[e1].v2, newedge[e2].v2, j+1, j, e2);
+                newface[k+1] = mesh.new Face(newedge[e2].v2, newedge[e1].v2, v2, j, e1, newEdgeIndex[e2]);
               }
-            break;
+          }
+        break;
 
-          case 2:
+      case 3:
 
-            // e1 and e2 were split.
+        // All edges being split.
 
-            newedge[j] = mesh.new Edge(newedge[e1].v2, newedge[e2].v2, -1);
-            newedge[j+1] = mesh.new Edge(v3, newedge[e1].v2, -1);
-            if (edge[e1].v1 == v1)
+        newedge[j] = mesh.new Edge(newedge[e1].v2, newedge[e2].v2, -1);
+        newedge[j+1] = mesh.new Edge(newedge[e2].v2, newedge[e3].v2, -1);
+        newedge[j+2] = mesh.new Edge(newedge[e3].v2, newedge[e1].v2, -1);
+        if (edge[e1].v1 == v1)
+          {
+            if (edge[e2].v1 == v2)
               {
-                if (edge[e2].v1 == v2)
+                if (edge[e3].v1 == v3)
                   {
-                    newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, e1, j+1, e3);
-                    newface[k] = mesh.new Face(v3, newedge[e1].v2, newedge[e2].v2, j+1, j, newEdgeIndex[e2]);
-                    newface[k+1] = mesh.new Face(newedge[e2].v2, newedge[e1].v2, v2, j, newEdgeIndex[e1], e2);
+                     newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, e1, j+2, newEdgeIndex[e3]);
+                     newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, e2, j, newEdgeIndex[e1]);
+                     newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, e3, j+1, newEdgeIndex[e2]);
                   }
                 else
                   {
-                    newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, e1, j+1, e3);
-                    newface[k] = mesh.new Face(v3, newedge[e1].v2, newedge[e2].v2, j+1, j, e2);
-                    newface[k+1] = mesh.new Face(newedge[e2].v2, newedge[e1].v2, v2, j, newEdgeIndex[e1], newEdgeIndex[e2]);
+                     newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, e1, j+2, e3);
+                     newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, e2, j, newEdgeIndex[e1]);
+                     newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, newEdgeIndex[e3], j+1, newEdgeIndex[e2]);
                   }
               }
             else
               {
-                if (edge[e2].v1 == v2)
+                if (edge[e3].v1 == v3)
                   {
-                    newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, newEdgeIndex[e1], j+1, e3);
-                    newface[k] = mesh.new Face(v3, newedge[e1].v2, newedge[e2].v2, j+1, j, newEdgeIndex[e2]);
-                    newface[k+1] = mesh.new Face(newedge[e2].v2, newedge[e1].v2, v2, j, e1, e2);
+                     newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, e1, j+2, newEdgeIndex[e3]);
+                     newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, newEdgeIndex[e2], j, newEdgeIndex[e1]);
+                     newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, e3, j+1, e2);
                   }
                 else
                   {
-                    newface[i] = mesh.new Face(v1, newedge[e1].v2, v3, newEdgeIndex[e1], j+1, e3);
-                    newface[k] = mesh.new Face(v3, newedge[e1].v2, newedge[e2].v2, j+1, j, e2);
-                    newface[k+1] = mesh.new Face(newedge[e2].v2, newedge[e1].v2, v2, j, e1, newEdgeIndex[e2]);
+                     newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, e1, j+2, e3);
+                     newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, newEdgeIndex[e2], j, newEdgeIndex[e1]);
+                     newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, newEdgeIndex[e3], j+1, e2);
                   }
               }
-            break;
-
-          case 3:
-
-            // All edges being split.
-
-            newedge[j] = mesh.new Edge(newedge[e1].v2, newedge[e2].v2, -1);
-            newedge[j+1] = mesh.new Edge(newedge[e2].v2, newedge[e3].v2, -1);
-            newedge[j+2] = mesh.new Edge(newedge[e3].v2, newedge[e1].v2, -1);
-            if (edge[e1].v1 == v1)
+          }
+        else
+          {
+            if (edge[e2].v1 == v2)
               {
-                if (edge[e2].v1 == v2)
+                if (edge[e3].v1 == v3)
                   {
-                    if (edge[e3].v1 == v3)
-                      {
-                         newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, e1, j+2, newEdgeIndex[e3]);
-                         newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, e2, j, newEdgeIndex[e1]);
-                         newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, e3, j+1, newEdgeIndex[e2]);
-                      }
-                    else
-                      {
-                         newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, e1, j+2, e3);
-                         newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, e2, j, newEdgeIndex[e1]);
-                         newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, newEdgeIndex[e3], j+1, newEdgeIndex[e2]);
-                      }
+                     newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, newEdgeIndex[e1], j+2, newEdgeIndex[e3]);
+                     newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, e2, j, e1);
+                     newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, e3, j+1, newEdgeIndex[e2]);
                   }
                 else
                   {
-                    if (edge[e3].v1 == v3)
-                      {
-                         newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, e1, j+2, newEdgeIndex[e3]);
-                         newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, newEdgeIndex[e2], j, newEdgeIndex[e1]);
-                         newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, e3, j+1, e2);
-                      }
-                    else
-                      {
-                         newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, e1, j+2, e3);
-                         newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, newEdgeIndex[e2], j, newEdgeIndex[e1]);
-                         newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, newEdgeIndex[e3], j+1, e2);
-                      }
+                     newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, newEdgeIndex[e1], j+2, e3);
+                     newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, e2, j, e1);
+                     newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, newEdgeIndex[e3], j+1, newEdgeIndex[e2]);
                   }
               }
             else
               {
-                if (edge[e2].v1 == v2)
+                if (edge[e3].v1 == v3)
                   {
-                    if (edge[e3].v1 == v3)
-                      {
-                         newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, newEdgeIndex[e1], j+2, newEdgeIndex[e3]);
-                         newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, e2, j, e1);
-                         newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, e3, j+1, newEdgeIndex[e2]);
-                      }
-                    else
-                      {
-                         newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, newEdgeIndex[e1], j+2, e3);
-                         newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, e2, j, e1);
-                         newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, newEdgeIndex[e3], j+1, newEdgeIndex[e2]);
-                      }
+                     newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, newEdgeIndex[e1], j+2, newEdgeIndex[e3]);
+                     newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, newEdgeIndex[e2], j, e1);
+                     newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, e3, j+1, e2);
                   }
                 else
                   {
-                    if (edge[e3].v1 == v3)
-                      {
-                         newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, newEdgeIndex[e1], j+2, newEdgeIndex[e3]);
-                         newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, newEdgeIndex[e2], j, e1);
-                         newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, e3, j+1, e2);
-                      }
-                    else
-                      {
-                         newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, newEdgeIndex[e1], j+2, e3);
-                         newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, newEdgeIndex[e2], j, e1);
-                         newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, newEdgeIndex[e3], j+1, e2);
-                      }
+                     newface[i] = mesh.new Face(v1, newedge[e1].v2, newedge[e3].v2, newEdgeIndex[e1], j+2, e3);
+                     newface[k] = mesh.new Face(v2, newedge[e2].v2, newedge[e1].v2, newEdgeIndex[e2], j, e1);
+                     newface[k+1] = mesh.new Face(v3, newedge[e3].v2, newedge[e2].v2, newEdgeIndex[e3], j+1, e2);
                   }
               }
-            newface[k+2] = mesh.new Face(newedge[e1].v2, newedge[e2].v2, newedge[e3].v2, j, j+1, j+2);
-        }
+          }
+        newface[k+2] = mesh.new Face(newedge[e1].v2, newedge[e2].v2, newedge[e3].v2, j, j+1, j+2);
+    }
 
-        // Copy over per-face and per-face/per-vertex parameter values.
+    // Copy over per-face and per-face/per-vertex parameter values.
 
-        int numAddedFaces = n+1;
-        addedFace[0] = i;
-        for (int m = 0; m < n; m++)
-          addedFace[m+1] = k+m;
-        for (int p = 0; p < paramType.length; p++)
+    int numAddedFaces = n+1;
+    addedFace[0] = i;
+    for (int m = 0; m < n; m++)
+      addedFace[m+1] = k+m;
+    for (int p = 0; p < paramType.length; p++)
+    {
+      if (paramType[p] == PER_FACE)
+        for (int m = 0; m < numAddedFaces; m++)
+          newParamValue[p][0][addedFace[m]] = oldParamValue[p][0][i];
+      else if (paramType[p] == PER_FACE_VERTEX)
+      {
+        int vertInd[] = new int [] {v1, v2, v3, -1, -1, -1};
+        if (n > 0)
+          vertInd[3] = newedge[e1].v2;
+        if (n > 1)
+          vertInd[4] = newedge[e2].v2;
+        if (n > 2)
+          vertInd[5] = newedge[e3].v2;
+        double vertVal[];
+        if (v1 == tempFace.v1)
+          vertVal = new double [] {oldParamValue[p][0][i], oldParamValue[p][1][i], oldParamValue[p][2][i],
+              0.5*(oldParamValue[p][0][i]+oldParamValue[p][1][i]),
+              0.5*(oldParamValue[p][1][i]+oldParamValue[p][2][i]),
+              0.5*(oldParamValue[p][2][i]+oldParamValue[p][0][i])};
+        else if (v1 == tempFace.v2)
+          vertVal = new double [] {oldParamValue[p][1][i], oldParamValue[p][2][i], oldParamValue[p][0][i],
+              0.5*(oldParamValue[p][1][i]+oldParamValue[p][2][i]),
+              0.5*(oldParamValue[p][2][i]+oldParamValue[p][0][i]),
+              0.5*(oldParamValue[p][0][i]+oldParamValue[p][1][i])};
+        else
+          vertVal = new double [] {oldParamValue[p][2][i], oldParamValue[p][0][i], oldParamValue[p][1][i],
+              0.5*(oldParamValue[p][2][i]+oldParamValue[p][0][i]),
+              0.5*(oldParamValue[p][0][i]+oldParamValue[p][1][i]),
+              0.5*(oldParamValue[p][1][i]+oldParamValue[p][2][i])};
+        for (int m = 0; m < numAddedFaces; m++)
         {
-          if (paramType[p] == PER_FACE)
-            for (int m = 0; m < numAddedFaces; m++)
-              newParamValue[p][0][addedFace[m]] = oldParamValue[p][0][i];
-          else if (paramType[p] == PER_FACE_VERTEX)
+          Face fc = newface[addedFace[m]];
+          for (int q = 0; q < 6; q++)
           {
-            int vertInd[] = new int [] {v1, v2, v3, -1, -1, -1};
-            if (n > 0)
-              vertInd[3] = newedge[e1].v2;
-            if (n > 1)
-              vertInd[4] = newedge[e2].v2;
-            if (n > 2)
-              vertInd[5] = newedge[e3].v2;
-            double vertVal[];
-            if (v1 == tempFace.v1)
-              vertVal = new double [] {oldParamValue[p][0][i], oldParamValue[p][1][i], oldParamValue[p][2][i],
-                  0.5*(oldParamValue[p][0][i]+oldParamValue[p][1][i]),
-                  0.5*(oldParamValue[p][1][i]+oldParamValue[p][2][i]),
-                  0.5*(oldParamValue[p][2][i]+oldParamValue[p][0][i])};
-            else if (v1 == tempFace.v2)
-              vertVal = new double [] {oldParamValue[p][1][i], oldParamValue[p][2][i], oldParamValue[p][0][i],
-                  0.5*(oldParamValue[p][1][i]+oldParamValue[p][2][i]),
-                  0.5*(oldParamValue[p][2][i]+oldParamValue[p][0][i]),
-                  0.5*(oldParamValue[p][0][i]+oldParamValue[p][1][i])};
-            else
-              vertVal = new double [] {oldParamValue[p][2][i], oldParamValue[p][0][i], oldParamValue[p][1][i],
-                  0.5*(oldParamValue[p][2][i]+oldParamValue[p][0][i]),
-                  0.5*(oldParamValue[p][0][i]+oldParamValue[p][1][i]),
-                  0.5*(oldParamValue[p][1][i]+oldParamValue[p][2][i])};
-            for (int m = 0; m < numAddedFaces; m++)
-            {
-              Face fc = newface[addedFace[m]];
-              for (int q = 0; q < 6; q++)
-              {
-                if (fc.v1 == vertInd[q])
-                  newParamValue[p][0][addedFace[m]] = vertVal[q];
-                else if (fc.v2 == vertInd[q])
-                  newParamValue[p][1][addedFace[m]] = vertVal[q];
-                else if (fc.v3 == vertInd[q])
-                  newParamValue[p][2][addedFace[m]] = vertVal[q];
-              }
-            }
+            if (fc.v1 == vertInd[q])
+              newParamValue[p][0][addedFace[m]] = vertVal[q];
+            else if (fc.v2 == vertInd[q])
+              newParamValue[p][1][addedFace[m]] = vertVal[q];
+            else if (fc.v3 == vertInd[q])
+              newParamValue[p][2][addedFace[m]] = vertVal[q];
           }
         }
-        j += n;
-        k += n;
-      }
-
-    // Record which faces are adjacent to each edge.
-
-    for (i = 0; i < newface.length; i++)
-      {
-        tempFace = newface[i];
-        if (newedge[tempFace.e1].f1 == -1)
-          newedge[tempFace.e1].f1 = i;
-        else
-          newedge[tempFace.e1].f2 = i;
-        if (newedge[tempFace.e2].f1 == -1)
-          newedge[tempFace.e2].f1 = i;
-        else
-          newedge[tempFace.e2].f2 = i;
-        if (newedge[tempFace.e3].f1 == -1)
-          newedge[tempFace.e3].f1 = i;
-        else
-          newedge[tempFace.e3].f2 = i;
-      }
-
-    // Count the number of edges intersecting each vertex.
-
-    for (i = 0; i < newvert.length; i++)
-      newvert[i].edges = 0;
-    for (i = 0; i < newedge.length; i++)
-      {
-        newvert[newedge[i].v1].edges++;
-        newvert[newedge[i].v2].edges++;
       }
+    }
   }
 
   /** This method splits each selected face into three faces, and returns the subdivided mesh.
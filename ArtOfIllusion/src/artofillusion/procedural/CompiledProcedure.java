@@ -0,0 +1,397 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.procedural;
+
+import artofillusion.math.*;
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+/** A CompiledProcedure is a Procedure which has been rearranged so it can be evaluated at many
+    points more quickly.  It is created from an existing Procedure, whose modules it takes over,
+    and is meant for use by the per-thread copies of a procedure that textures and materials
+    evaluate during rendering.  It must not be edited.
+    <p>
+    Compiling a procedure makes the following changes to it:
+    <ul>
+    <li>The graphs built by ExprModules are inlined, so their modules are linked directly to the
+    modules that use the expressions.</li>
+    <li>Modules that do not contribute to any output are never initialized.</li>
+    <li>Modules whose init() method does nothing are skipped when initializing for a new point,
+    as are modules which only record the PointInfo, unless a different PointInfo is passed in.</li>
+    <li>When the output of a module is used in more than one place, the value is calculated
+    once for each point and then shared.</li>
+    <li>Parts of the procedure which do not depend on the point are evaluated once and reused
+    for every point.</li>
+    </ul>
+    The outputs are identical to those of the original procedure.  If the procedure cannot be
+    compiled (for example because it contains a feedback loop), compile() returns the original
+    procedure, which is then interpreted as usual. */
+
+public class CompiledProcedure extends Procedure
+{
+  // Procedures are built from Modules, which are deprecated in favor of ProceduralModule.  Modules
+  // defined by plugins may still extend Module directly, so everything that walks the graph of
+  // modules has to use that type, and suppresses the deprecation warnings.
+
+  @SuppressWarnings("deprecation")
+  private final Module pointModules[], initModules[];
+  private final PointInfo point;
+  private PointInfo lastPoint;
+
+  private static boolean enabled = true;
+
+  /** Modules which are cheap to evaluate, so there is nothing to gain from caching their values. */
+
+  private static final Set<Class<?>> TRIVIAL_MODULES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+      NumberModule.class, ColorModule.class, CoordinateModule.class, ParameterModule.class, ViewAngleModule.class));
+
+  /** Modules whose init() method only records the PointInfo. */
+
+  private static final Set<Class<?>> POINT_MODULES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+      CoordinateModule.class, ParameterModule.class, ViewAngleModule.class));
+
+  /** Modules whose outputs depend only on their inputs, not on the point being evaluated. */
+
+  private static final Set<Class<?>> PURE_MODULES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+      AbsModule.class, BiasModule.class, BlendModule.class, BlurModule.class, ClipModule.class,
+      ColorDarkenModule.class, ColorDifferenceModule.class, ColorLightenModule.class, ColorModule.class,
+      ColorProductModule.class, ColorScaleModule.class, ColorSumModule.class, CompareModule.class,
+      CosineModule.class, DifferenceModule.class, ExpModule.class, FunctionModule.class, GainModule.class,
+      HLSModule.class, HSVModule.class, InterpModule.class, LogModule.class, MaxModule.class,
+      MinModule.class, ModModule.class, NumberModule.class, PowerModule.class, ProductModule.class,
+      RatioModule.class, RGBModule.class, ScaleShiftModule.class, SineModule.class, SpectrumModule.class,
+      SqrtModule.class, SumModule.class));
+
+  /** Get a compiled version of a procedure.  The procedure itself should not be used afterward,
+      since the compiled procedure takes over its modules and changes how they are linked.
+      @param proc    the procedure to compile
+      @return a CompiledProcedure, or the original procedure if it could not be compiled or
+              compilation has been disabled
+  */
+
+  public static Procedure compile(Procedure proc)
+  {
+    if (!enabled)
+      return proc;
+    try
+    {
+      return new CompiledProcedure(proc);
+    }
+    catch (IllegalStateException ex)
+    {
+      return proc;
+    }
+  }
+
+  /** Get whether compile() should compile procedures. */
+
+  public static boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /** Set whether compile() should compile procedures.  If this is false, procedures are always
+      interpreted.  This only affects procedures compiled after it is called. */
+
+  public static void setEnabled(boolean enable)
+  {
+    enabled = enable;
+  }
+
+  @SuppressWarnings("deprecation")
+  private CompiledProcedure(Procedure proc)
+  {
+    super(proc.getOutputModules());
+    module = proc.module;
+    link = proc.link;
+    point = new PointInfo();
+
+    // Find all modules that contribute to the outputs, with every module listed after the ones
+    // it depends on.  This is done before making any changes, so the procedure is left untouched
+    // if it contains a feedback loop.
+
+    List<Module> reachable = new ArrayList<Module>();
+    Map<Module, Boolean> visited = new IdentityHashMap<Module, Boolean>();
+    for (OutputModule out : output)
+      for (int i = 0; i < out.linkFrom.length; i++)
+        if (out.linkFrom[i] != null)
+          findReachable(resolve(out.linkFrom[i], out.linkFromIndex[i]).module, reachable, visited);
+
+    // Link directly to the modules that calculate ExprModule outputs, then decide which modules
+    // depend on the point and how many times each output port is used.
+
+    List<Module> consumers = new ArrayList<Module>(reachable);
+    consumers.addAll(Arrays.asList(output));
+    for (Module m : consumers)
+      for (int i = 0; i < m.linkFrom.length; i++)
+        if (m.linkFrom[i] != null)
+        {
+          Port source = resolve(m.linkFrom[i], m.linkFromIndex[i]);
+          m.linkFrom[i] = source.module;
+          m.linkFromIndex[i] = source.index;
+        }
+    Set<Module> constant = Collections.newSetFromMap(new IdentityHashMap<Module, Boolean>());
+    Map<Module, int[]> uses = new IdentityHashMap<Module, int[]>();
+    for (Module m : reachable)
+    {
+      boolean isConstant = PURE_MODULES.contains(m.getClass());
+      for (int i = 0; i < m.linkFrom.length; i++)
+        if (m.linkFrom[i] != null && !constant.contains(m.linkFrom[i]))
+          isConstant = false;
+      if (isConstant)
+        constant.add(m);
+      uses.put(m, new int [m.getOutputPorts().length]);
+    }
+    for (Module m : consumers)
+      for (int i = 0; i < m.linkFrom.length; i++)
+        if (m.linkFrom[i] != null)
+          uses.get(m.linkFrom[i])[m.linkFromIndex[i]]++;
+
+    // Insert caches where a constant value is used by a module that depends on the point, or where
+    // a value that depends on the point is used more than once.
+
+    Map<Module, CachedPort[]> caches = new IdentityHashMap<Module, CachedPort[]>();
+    List<Module> init = new ArrayList<Module>(), pointInit = new ArrayList<Module>();
+    for (Module m : consumers)
+    {
+      if (constant.contains(m))
+        continue;
+      for (int i = 0; i < m.linkFrom.length; i++)
+      {
+        Module source = m.linkFrom[i];
+        int index = m.linkFromIndex[i];
+        if (source == null || TRIVIAL_MODULES.contains(source.getClass()))
+          continue;
+        boolean isConstant = constant.contains(source);
+        if (!isConstant && uses.get(source)[index] < 2)
+          continue;
+        CachedPort cache[] = caches.get(source);
+        if (cache == null)
+          caches.put(source, cache = new CachedPort [source.getOutputPorts().length]);
+        if (cache[index] == null)
+        {
+          cache[index] = new CachedPort(source, index, isConstant ? findConstantModules(source) : null);
+          if (!isConstant)
+            init.add(cache[index]);
+        }
+        m.linkFrom[i] = cache[index];
+        m.linkFromIndex[i] = 0;
+      }
+    }
+
+    // Decide which modules need to be initialized for each point.
+
+    for (Module m : reachable)
+    {
+      if (constant.contains(m))
+        m.init(null);
+      else if (POINT_MODULES.contains(m.getClass()))
+        pointInit.add(m);
+      else if (overridesInit(m))
+        init.add(m);
+    }
+    initModules = init.toArray(new Module [init.size()]);
+    pointModules = pointInit.toArray(new Module [pointInit.size()]);
+  }
+
+  /** Follow a link through any ExprModules to the port that actually calculates its value. */
+
+  @SuppressWarnings("deprecation")
+  private static Port resolve(Module m, int index)
+  {
+    for (int i = 0; m instanceof ExprModule; i++)
+    {
+      ExprModule expr = (ExprModule) m;
+      if (i > 1000 || expr.getResultModule() == null)
+        throw new IllegalStateException();
+      m = expr.getResultModule();
+      index = expr.getResultPort();
+    }
+    return new Port(m, index);
+  }
+
+  /** Add a module and everything it depends on to a list, with every module following the
+      ones it depends on. */
+
+  @SuppressWarnings("deprecation")
+  private static void findReachable(Module m, List<Module> reachable, Map<Module, Boolean> visited)
+  {
+    Boolean done = visited.get(m);
+    if (done == Boolean.TRUE)
+      return;
+    if (done == Boolean.FALSE)
+      throw new IllegalStateException("feedback loop");
+    visited.put(m, Boolean.FALSE);
+    for (int i = 0; i < m.linkFrom.length; i++)
+      if (m.linkFrom[i] != null)
+        findReachable(resolve(m.linkFrom[i], m.linkFromIndex[i]).module, reachable, visited);
+    visited.put(m, Boolean.TRUE);
+    reachable.add(m);
+  }
+
+  /** Find all of the constant modules that a constant module depends on, including itself. */
+
+  @SuppressWarnings("deprecation")
+  private static Module[] findConstantModules(Module m)
+  {
+    List<Module> found = new ArrayList<Module>();
+    findReachable(m, found, new IdentityHashMap<Module, Boolean>());
+    return found.toArray(new Module [found.size()]);
+  }
+
+  /** Determine whether a module overrides init(). */
+
+  @SuppressWarnings("deprecation")
+  private static boolean overridesInit(Module m)
+  {
+    try
+    {
+      return m.getClass().getMethod("init", PointInfo.class).getDeclaringClass() != Module.class;
+    }
+    catch (NoSuchMethodException ex)
+    {
+      return true;
+    }
+  }
+
+  /** Get a PointInfo to pass to initForPoint().  This always returns the same object, which
+      allows modules that only record the PointInfo to be skipped when initializing. */
+
+  @Override
+  public PointInfo getPointInfo()
+  {
+    return point;
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public void initForPoint(PointInfo p)
+  {
+    if (p != lastPoint)
+    {
+      for (Module m : pointModules)
+        m.init(p);
+      lastPoint = p;
+    }
+    for (Module m : initModules)
+      m.init(p);
+  }
+
+  /** An output port of a module. */
+
+  @SuppressWarnings("deprecation")
+  private static class Port
+  {
+    final Module module;
+    final int index;
+
+    Port(Module module, int index)
+    {
+      this.module = module;
+      this.index = index;
+    }
+  }
+
+  /** A CachedPort stands in for one output port of a module, and remembers the values it
+      returns.  If the module depends on the point, the cache is cleared by init().  Otherwise it is
+      kept until a different amount of blur is requested, and the modules it depends on are
+      reinitialized before recalculating it. */
+
+  @SuppressWarnings("deprecation")
+  private static class CachedPort extends ProceduralModule
+  {
+    private final Module source;
+    private final int index;
+    private final Module constantModules[];
+    private boolean valueOk, errorOk, gradOk, colorOk;
+    private double value, error, valueBlur, errorBlur, gradBlur, colorBlur;
+    private final Vec3 grad;
+    private final RGBColor color;
+
+    CachedPort(Module source, int index, Module constantModules[])
+    {
+      super("cache", new IOPort [0], new IOPort [0], new Point());
+      this.source = source;
+      this.index = index;
+      this.constantModules = constantModules;
+      grad = new Vec3();
+      color = new RGBColor();
+    }
+
+    @Override
+    public void init(PointInfo p)
+    {
+      valueOk = errorOk = gradOk = colorOk = false;
+    }
+
+    /** Prepare to recalculate a constant value with a different amount of blur. */
+
+    private void prepare()
+    {
+      if (constantModules != null)
+        for (Module m : constantModules)
+          m.init(null);
+    }
+
+    @Override
+    public double getAverageValue(int which, double blur)
+    {
+      if (!valueOk || blur != valueBlur)
+      {
+        prepare();
+        value = source.getAverageValue(index, blur);
+        valueBlur = blur;
+        valueOk = true;
+      }
+      return value;
+    }
+
+    @Override
+    public double getValueError(int which, double blur)
+    {
+      if (!errorOk || blur != errorBlur)
+      {
+        prepare();
+        error = source.getValueError(index, blur);
+        errorBlur = blur;
+        errorOk = true;
+      }
+      return error;
+    }
+
+    @Override
+    public void getValueGradient(int which, Vec3 grad, double blur)
+    {
+      if (!gradOk || blur != gradBlur)
+      {
+        prepare();
+        source.getValueGradient(index, this.grad, blur);
+        gradBlur = blur;
+        gradOk = true;
+      }
+      grad.set(this.grad);
+    }
+
+    @Override
+    public void getColor(int which, RGBColor color, double blur)
+    {
+      if (!colorOk || blur != colorBlur)
+      {
+        prepare();
+        source.getColor(index, this.color, blur);
+        colorBlur = blur;
+        colorOk = true;
+      }
+      color.copy(this.color);
+    }
+  }
+}
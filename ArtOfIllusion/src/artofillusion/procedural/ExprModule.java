@@ -276,6 +276,16 @@ public class ExprModule extends ProceduralModule
         compiled.module.getValueGradient (compiled.oport, grad, blur);
     }
 
+    /* Get the module that calculates the value of the expression, or null if it has not been compiled. */
+    Module getResultModule () {
+        return (compiled == null ? null : compiled.module);
+    }
+
+    /* Get which output port of getResultModule() calculates the value of the expression. */
+    int getResultPort () {
+        return compiled.oport;
+    }
+
     @Override
     public void setInput(IOPort which, IOPort port) {
         super.setInput (which, port);
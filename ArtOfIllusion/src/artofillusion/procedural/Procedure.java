@@ -143,7 +143,16 @@ public class Procedure
     return false;
   }
   
-  /** This routine is called before the procedure is evaluated.  The PointInfo object 
+  /** Get a PointInfo object to describe the point at which the procedure is to be evaluated, and
+      then pass to initForPoint().  The default implementation creates a new one every time, but
+      subclasses may return the same object each time, so it is only valid until the next call. */
+
+  public PointInfo getPointInfo()
+  {
+    return new PointInfo();
+  }
+
+  /** This routine is called before the procedure is evaluated.  The PointInfo object
       describes the point for which it is to be evaluated. */
   
   public void initForPoint(PointInfo p)
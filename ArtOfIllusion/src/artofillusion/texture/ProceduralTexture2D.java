@@ -69,7 +69,7 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
       {
         Procedure localProc = createProcedure();
         localProc.copy(proc);
-        return localProc;
+        return CompiledProcedure.compile(localProc);
       }
     };
   }
@@ -90,7 +90,7 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
   {
     Procedure pr = (Procedure) renderingProc.get();
     OutputModule output[] = pr.getOutputModules();
-    PointInfo info = new PointInfo();
+    PointInfo info = pr.getPointInfo();
     info.x = x;
     info.y = y;
     info.z = 0.0;
@@ -144,7 +144,7 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
   {
     Procedure pr = (Procedure) renderingProc.get();
     OutputModule output[] = pr.getOutputModules();
-    PointInfo info = new PointInfo();
+    PointInfo info = pr.getPointInfo();
     info.x = x;
     info.y = y;
     info.z = 0.0;
@@ -189,7 +189,7 @@ public class ProceduralTexture2D extends Texture2D implements ProcedureOwner
   {
     Procedure pr = (Procedure) renderingProc.get();
     OutputModule output[] = pr.getOutputModules();
-    PointInfo info = new PointInfo();
+    PointInfo info = pr.getPointInfo();
     info.x = x;
     info.y = y;
     info.z = 0.0;
@@ -70,7 +70,7 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
       {
         Procedure localProc = createProcedure();
         localProc.copy(proc);
-        return localProc;
+        return CompiledProcedure.compile(localProc);
       }
     };
   }
@@ -91,7 +91,7 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
   {
     Procedure pr = (Procedure) renderingProc.get();
     OutputModule output[] = pr.getOutputModules();
-    PointInfo info = new PointInfo();
+    PointInfo info = pr.getPointInfo();
     info.x = x;
     info.y = y;
     info.z = z;
@@ -145,7 +145,7 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
   {
     Procedure pr = (Procedure) renderingProc.get();
     OutputModule output[] = pr.getOutputModules();
-    PointInfo info = new PointInfo();
+    PointInfo info = pr.getPointInfo();
     info.x = x;
     info.y = y;
     info.z = z;
@@ -190,7 +190,7 @@ public class ProceduralTexture3D extends Texture3D implements ProcedureOwner
   {
     Procedure pr = (Procedure) renderingProc.get();
     OutputModule output[] = pr.getOutputModules();
-    PointInfo info = new PointInfo();
+    PointInfo info = pr.getPointInfo();
     info.x = x;
     info.y = y;
     info.z = z;
@@ -118,6 +118,7 @@ public abstract class Texture2D extends Texture
       @Override
       public void cleanup()
       {
+        textureSpec.remove();
       }
     });
     threads.run();
@@ -10,8 +10,10 @@
 
 package artofillusion.util;
 
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 import java.util.*;
+import java.util.function.*;
 
 /**
  * This class coordinates threads for multi-threaded operations.  The execution model
@@ -19,25 +21,36 @@ import java.util.*;
  * which must be executed many times.  The task is parameterized by a single index
  * (e.g. the column containing the pixel).
  * <p>
- * To use this class, pass it an object which implements the Task interface.  It
- * automatically creates an appropriate number of threads based on the number of
- * available processors.  When you call run(), the task is repeatedly executed by
- * the worker threads, with the index running
+ * To use this class, pass it an object which implements the Task interface.  When you
+ * call run(), the task is repeatedly executed by worker threads, with the index running
  * over the desired range.  You may invoke run() any number of times (e.g. once
- * for each row of the image).  Finally, call finish() to clean up the worker threads.
+ * for each row of the image).  Finally, call finish() to let each thread that
+ * executed the task clean up after it.
+ * <p>
+ * The worker threads are not owned by any one ThreadManager.  They belong to a pool which is
+ * shared by the whole process, and are created the first time they are needed.  By default
+ * the pool contains one thread for each available processor.  Call setPoolSize() to change it.
+ * The thread that calls run() executes the task too, and offers the rest of the work to the pool
+ * through a queue shared by all the workers.  Whichever workers are idle take it, and indices are
+ * handed out one at a time to every thread taking part, so threads that finish early take over the
+ * remaining work instead of sitting idle.  If every worker is busy with something else, the calling
+ * thread simply does all of the work itself rather than waiting for them.
  */
 
 public class ThreadManager
 {
-  private int numIndices;
-  private AtomicInteger nextIndex;
-  private Thread thread[];
-  private HashSet<Thread> waitingThreads;
-  private Task task;
-  private Object controller;
-  private boolean controllerWaiting;
+  private volatile int numIndices;
+  private final AtomicInteger nextIndex;
+  private final AtomicInteger activeWorkers;
+  private final Set<Thread> usedThreads;
+  private volatile Task task;
   private int maxThreads;
 
+  private static Worker pool[] = new Worker [0];
+  private static int poolSize = Runtime.getRuntime().availableProcessors();
+  private static final Queue<Runnable> sharedJobs = new ConcurrentLinkedQueue<Runnable>();
+  private static final Object lock = new Object();
+
   /**
    * Create a new uninitialized ThreadManager.  You must invoke setNumIndices() and setTask()
    * to initialize it before calling run().
@@ -60,54 +73,53 @@ public class ThreadManager
     this.numIndices = numIndices;
     this.task = task;
     nextIndex = new AtomicInteger(numIndices);
-    controller = new Object();
-    controllerWaiting = false;
-    waitingThreads = new HashSet<Thread>();
+    activeWorkers = new AtomicInteger();
+    usedThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
     maxThreads = -1;
   }
 
   /**
-   * Create and start the worker threads.  This is invoked the first time run() is called.
+   * Get the number of threads in the shared worker pool.
    */
 
-  private void createThreads()
+  public static synchronized int getPoolSize()
   {
-    // Create a worker thread for each processor.
+    return poolSize;
+  }
 
-    int numThreads = Runtime.getRuntime().availableProcessors();
-    if (maxThreads > 0 && maxThreads < numThreads)
-      numThreads = maxThreads;
-    thread = new Thread [numThreads];
-    for (int i = 0; i < thread.length; i++)
-    {
-      thread[i] = new Thread("Worker thread "+(i+1)) {
-        @Override
-        public void run()
-        {
-          // Repeatedly perform the task until we are finished.
+  /**
+   * Set the number of threads in the shared worker pool.  This affects all ThreadManagers,
+   * starting with the next call to run().  Reducing the size does not stop threads that have
+   * already been created, but no more than this many will be used at once for any task.
+   */
 
-          while (true)
-          {
-            try
-            {
-              int index = nextIndex();
-              task.execute(index);
-            }
-            catch (InterruptedException ex)
-            {
-              task.cleanup();
-              return;
-            }
-            catch (Exception ex)
-            {
-              cancel();
-              ex.printStackTrace();
-            }
-          }
-        }
-      };
-      thread[i].start();
+  public static synchronized void setPoolSize(int size)
+  {
+    if (size < 1)
+      throw new IllegalArgumentException("The pool must contain at least one thread");
+    poolSize = size;
+  }
+
+  /**
+   * Get the worker threads available for executing tasks, creating them if necessary.
+   */
+
+  private static synchronized Worker[] getPool()
+  {
+    if (pool.length < poolSize)
+    {
+      Worker newPool[] = new Worker [poolSize];
+      System.arraycopy(pool, 0, newPool, 0, pool.length);
+      for (int i = pool.length; i < newPool.length; i++)
+      {
+        newPool[i] = new Worker("Worker thread "+(i+1));
+        newPool[i].start();
+      }
+      pool = newPool;
     }
+    if (pool.length == poolSize)
+      return pool;
+    return Arrays.copyOf(pool, poolSize);
   }
 
   /**
@@ -143,37 +155,91 @@ public class ThreadManager
 
   /**
    * Perform the task the specified number of times.  This method blocks until all
-   * occurrences of the task are completed.  If the current thread is interrupted
-   * while this method is in progress, all of the worker threads will be interrupted
-   * and disposed of.
+   * occurrences of the task are completed.  The calling thread executes the task along
+   * with any workers that are free to help.  If the current thread is interrupted
+   * while this method is in progress, the run is canceled and finish() is called
+   * once the tasks that are already executing have completed.
    */
 
   public void run()
   {
-    controllerWaiting = false;
+    Worker workers[] = getPool();
+    int numThreads = workers.length;
+    if (maxThreads > 0 && maxThreads < numThreads)
+      numThreads = maxThreads;
+    if (numThreads > numIndices)
+      numThreads = numIndices;
     nextIndex.set(0);
-    waitingThreads.clear();
-    if (thread == null)
-      createThreads();
 
-    // Notify all the worker threads, then wait for them to finish.
+    // Offer the work to the pool, then start executing it on this thread.  Because this thread
+    // works through the indices itself, it never has to wait for a worker that is busy with
+    // something else, and nested tasks cannot use up every thread in the pool waiting for each other.
 
-    synchronized (this)
+    Runnable helpers[] = new Runnable [Math.max(numThreads-1, 0)];
+    for (int i = 0; i < helpers.length; i++)
     {
-      notifyAll();
+      helpers[i] = new Runnable() {
+        @Override
+        public void run()
+        {
+          executeTasks();
+        }
+      };
+      sharedJobs.add(helpers[i]);
     }
-    synchronized (controller)
+    if (helpers.length > 0)
+      signal();
+    executeTasks();
+
+    // Withdraw any offers no worker took, then wait for the workers that did to finish.
+
+    for (Runnable helper : helpers)
+      sharedJobs.remove(helper);
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    waitUntil(() -> nextIndex.get() >= numIndices && activeWorkers.get() == 0, () -> {
+      interrupted.set(true);
+      cancel();
+    });
+    if (interrupted.get())
     {
-      try
-      {
-        controllerWaiting = true;
-        controller.wait();
-      }
-      catch (InterruptedException ex)
+      finish();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Repeatedly execute the task on the current thread until there are no indices left.
+   */
+
+  private void executeTasks()
+  {
+    activeWorkers.incrementAndGet();
+    try
+    {
+      int index;
+      while ((index = nextIndex.getAndIncrement()) < numIndices)
       {
-        finish();
+        usedThreads.add(Thread.currentThread());
+        try
+        {
+          task.execute(index);
+        }
+        catch (Exception ex)
+        {
+          cancel();
+          ex.printStackTrace();
+        }
+
+        // Let other ThreadManagers that are waiting for this thread to clean up continue.
+
+        Worker.runUrgentJobs();
       }
     }
+    finally
+    {
+      if (activeWorkers.decrementAndGet() == 0)
+        signal();
+    }
   }
 
   /**
@@ -188,49 +254,98 @@ public class ThreadManager
   }
 
   /**
-   * Dispose of all the worker threads.  Once this has been called, do not call run() again.
+   * Invoke cleanup() on the Task from every thread that has executed it, and wait for them to
+   * finish.  This must be called from the thread that called run().  Workers run the cleanup
+   * ahead of any other jobs, between the indices of whatever task they are executing, so this
+   * does not wait for unrelated work to complete.  Once this has been called, do not call run() again.
    */
 
   public void finish()
   {
-    if (thread != null) {
-      for (Thread t : thread)
-        t.interrupt();
-      try
-      {
-        for (Thread t : thread)
-          t.join();
-      }
-      catch (InterruptedException ex)
+    final Task currentTask = task;
+    if (currentTask == null)
+      return;
+    List<Thread> threads = new ArrayList<Thread>(usedThreads);
+    usedThreads.clear();
+    final AtomicInteger remaining = new AtomicInteger(threads.size());
+    Runnable cleanup = new Runnable() {
+      @Override
+      public void run()
       {
-        // Ignore.
+        try
+        {
+          currentTask.cleanup();
+        }
+        catch (Exception ex)
+        {
+          ex.printStackTrace();
+        }
+        finally
+        {
+          if (remaining.decrementAndGet() == 0)
+            signal();
+        }
       }
+    };
+    for (Thread t : threads)
+    {
+      if (t == Thread.currentThread())
+        cleanup.run();
+      else if (t instanceof Worker)
+        ((Worker) t).postUrgent(cleanup);
+      else
+        remaining.decrementAndGet();
     }
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    waitUntil(() -> remaining.get() <= 0, () -> interrupted.set(true));
+    if (interrupted.get())
+      Thread.currentThread().interrupt();
   }
 
-  private int nextIndex() throws InterruptedException
+  /**
+   * Wake up every thread that is waiting for something to change in the pool.
+   */
+
+  private static void signal()
   {
-    int index;
-    while ((index = nextIndex.getAndIncrement()) >= numIndices)
+    synchronized (lock)
     {
-      // Wait until run() is called again.
+      lock.notifyAll();
+    }
+  }
 
-      synchronized (this)
+  /**
+   * Block until a condition becomes true.  If this is a worker thread, it continues to run urgent
+   * jobs posted to it while waiting, so two threads can never end up waiting for each other.
+   *
+   * @param condition    the condition to wait for.  It is checked each time signal() is called.
+   * @param onInterrupt  this is run if the thread is interrupted while waiting
+   */
+
+  private static void waitUntil(BooleanSupplier condition, Runnable onInterrupt)
+  {
+    Thread currentThread = Thread.currentThread();
+    Worker worker = (currentThread instanceof Worker ? (Worker) currentThread : null);
+    while (true)
+    {
+      if (worker != null)
+        worker.runOwnUrgentJobs();
+      synchronized (lock)
       {
-        waitingThreads.add(Thread.currentThread());
-        if (waitingThreads.size() == thread.length)
+        if (condition.getAsBoolean())
+          return;
+        if (worker != null && !worker.urgentJobs.isEmpty())
+          continue;
+        try
         {
-          while (!controllerWaiting)
-            wait(1);
-          synchronized (controller)
-          {
-            controller.notify();
-          }
+          lock.wait();
+        }
+        catch (InterruptedException ex)
+        {
+          onInterrupt.run();
         }
-        wait();
       }
     }
-    return index;
   }
 
   /**
@@ -246,10 +361,94 @@ public class ThreadManager
     public void execute(int index);
 
     /**
-     * This is called once from each worker thread when finish() is called.  It gives a chance
-     * to do any necessary cleanup.
+     * This is called once from each thread that executed the task (including the one that
+     * called run()) when finish() is called.  It gives a chance to do any necessary cleanup.
+     * Worker threads are reused after the task is finished, so any state the task stored in
+     * ThreadLocals should be removed here.
      */
 
     public void cleanup();
   }
+
+  /**
+   * A thread in the shared pool.  It executes urgent jobs posted to it specifically, such as
+   * cleaning up after a task, ahead of jobs taken from the queue shared by all workers.
+   */
+
+  private static class Worker extends Thread
+  {
+    private final Queue<Runnable> urgentJobs;
+
+    Worker(String name)
+    {
+      super(name);
+      urgentJobs = new ConcurrentLinkedQueue<Runnable>();
+      setDaemon(true);
+    }
+
+    void postUrgent(Runnable job)
+    {
+      urgentJobs.add(job);
+      signal();
+    }
+
+    /**
+     * If the current thread is a worker, run any urgent jobs that have been posted to it.
+     */
+
+    static void runUrgentJobs()
+    {
+      Thread currentThread = Thread.currentThread();
+      if (currentThread instanceof Worker)
+        ((Worker) currentThread).runOwnUrgentJobs();
+    }
+
+    private void runOwnUrgentJobs()
+    {
+      Runnable job;
+      while ((job = urgentJobs.poll()) != null)
+        runJob(job);
+    }
+
+    private static void runJob(Runnable job)
+    {
+      try
+      {
+        job.run();
+      }
+      catch (Throwable ex)
+      {
+        ex.printStackTrace();
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      while (true)
+      {
+        runOwnUrgentJobs();
+        Runnable job = sharedJobs.poll();
+        if (job != null)
+        {
+          runJob(job);
+          continue;
+        }
+        synchronized (lock)
+        {
+          if (urgentJobs.isEmpty() && sharedJobs.isEmpty())
+          {
+            try
+            {
+              lock.wait();
+            }
+            catch (InterruptedException ex)
+            {
+              // Nothing should interrupt a pool thread, but if something does, just keep going.
+            }
+          }
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,75 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.util;
+
+import java.lang.ref.*;
+import java.util.*;
+
+/** A WeakListenerList holds a set of listeners to be run when something changes.  They are held
+    by weak references, so adding a listener does not keep it from being garbage collected.  Whoever
+    adds a listener must keep a reference to it for as long as it should be notified. */
+
+public class WeakListenerList
+{
+  private final ArrayList<WeakReference<Runnable>> listeners = new ArrayList<WeakReference<Runnable>>(1);
+
+  /** Add a listener. */
+
+  public synchronized void add(Runnable listener)
+  {
+    remove(listener);
+    listeners.add(new WeakReference<Runnable>(listener));
+  }
+
+  /** Remove a listener.  Listeners which have been garbage collected are also removed. */
+
+  public synchronized void remove(Runnable listener)
+  {
+    for (Iterator<WeakReference<Runnable>> iter = listeners.iterator(); iter.hasNext(); )
+    {
+      Runnable r = iter.next().get();
+      if (r == null || r == listener)
+        iter.remove();
+    }
+  }
+
+  /** Determine whether the list contains no listeners. */
+
+  public synchronized boolean isEmpty()
+  {
+    remove(null);
+    return listeners.isEmpty();
+  }
+
+  /** Run all of the listeners.  They are run without holding any lock, so a listener may safely
+      acquire other locks, or add and remove listeners. */
+
+  public void fire()
+  {
+    Runnable toRun[];
+    synchronized (this)
+    {
+      toRun = new Runnable [listeners.size()];
+      int count = 0;
+      for (Iterator<WeakReference<Runnable>> iter = listeners.iterator(); iter.hasNext(); )
+      {
+        Runnable r = iter.next().get();
+        if (r == null)
+          iter.remove();
+        else
+          toRun[count++] = r;
+      }
+    }
+    for (Runnable r : toRun)
+      if (r != null)
+        r.run();
+  }
+}
@@ -14,11 +14,13 @@ package artofillusion.view;
 import artofillusion.*;
 import artofillusion.texture.*;
 import artofillusion.math.*;
+import artofillusion.util.*;
 import buoy.event.*;
 
 import java.awt.*;
 import java.awt.image.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.lang.ref.*;
 
 /** This is a CanvasDrawer which implements a software renderer for generating the contents of a ViewerCanvas. */
@@ -32,6 +34,9 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   protected boolean hideBackfaces;
   protected int templatePixel[];
   protected Rectangle bounds;
+  private boolean deferred;
+  private final TriangleQueue triangles;
+  private long lastRepaintTime;
 
   private static Vec2 reuseVec2[];
   private static WeakHashMap<Image, SoftReference<ImageRecord>> imageMap = new WeakHashMap<Image, SoftReference<ImageRecord>>();
@@ -40,11 +45,16 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   private static final int MODE_COPY = 0;
   private static final int MODE_ADD = 1;
   private static final int MODE_SUBTRACT = 2;
+  private static final int MODE_SMOOTH = 3;
+
+  private static final int STRIPS_PER_THREAD = 4;
+  private static final int MIN_STRIP_HEIGHT = 16;
 
   public SoftwareCanvasDrawer(ViewerCanvas view)
   {
     this.view = view;
     hideBackfaces = true;
+    triangles = new TriangleQueue();
     view.addEventLink(RepaintEvent.class, this, "paint");
     if (reuseVec2 == null)
     {
@@ -93,13 +103,43 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
     return theImage;
   }
 
+  /** Get whether deferred rendering is enabled.  See setDeferredRendering() for details. */
+
+  public boolean getDeferredRendering()
+  {
+    return deferred;
+  }
+
+  /** Set whether deferred rendering is enabled.  When it is, the triangles of shaded and transparent
+      meshes are only recorded as they are rendered.  They are rasterized on multiple threads the next
+      time something else is drawn, or at the end of the repaint.  The resulting image is identical
+      either way.  The thread doing the repaint draws strips too, so it never waits for workers
+      that are busy with other jobs such as a render, but it does share the processors with them.
+      For that reason this is disabled by default. */
+
+  public void setDeferredRendering(boolean deferred)
+  {
+    this.deferred = deferred;
+  }
+
+  /** Get how long the most recent repaint took, in milliseconds.  This includes drawing the contents
+      of the view and any overlay, and copying the image to the screen. */
+
+  public double getLastRepaintTime()
+  {
+    return lastRepaintTime*1e-6;
+  }
+
   public void paint(RepaintEvent ev)
   {
+    long start = System.nanoTime();
     bounds = view.getBounds();
     prepareToRender();
     view.updateImage();
     view.getCurrentTool().drawOverlay(view);
+    flushTriangles();
     ev.getGraphics().drawImage(theImage, 0, 0, null);
+    lastRepaintTime = System.nanoTime()-start;
   }
 
   /** Subclasses should override this to draw the contents of the canvas, but should begin
@@ -107,6 +147,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
 
   private void prepareToRender()
   {
+    triangles.count = 0;
     if (bounds.height <= 0)
       return;
     view.prepareCameraForRendering();
@@ -146,6 +187,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void drawBorder()
   {
+    flushTriangles();
     boolean drawFocus = view.getDrawFocus();
     int i, index1, index2;
 
@@ -178,6 +220,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void drawHRule(int y, Color color)
   {
+    flushTriangles();
     int index = y*bounds.width;
     int col = color.getRGB();
     for (int i = 0; i < bounds.width; i++, index++)
@@ -190,6 +233,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void drawVRule(int x, Color color)
   {
+    flushTriangles();
     int index = x;
     int col = color.getRGB();
     for (int i = 0; i < bounds.height; i++, index += bounds.width)
@@ -201,6 +245,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void drawBox(int x, int y, int width, int height, Color color)
   {
+    flushTriangles();
     int col = color.getRGB();
     int maxx = x+width;
     int maxy = y+height;
@@ -231,6 +276,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void renderBox(int x, int y, int width, int height, double depth, Color color)
   {
+    flushTriangles();
     int i, j, index, maxx, maxy, col, z;
 
     col = color.getRGB();
@@ -268,6 +314,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void drawLine(Point p1, Point p2, Color color)
   {
+    flushTriangles();
     int x1, y1, x2, y2, col;
     int x, y, dx, dy, end, index, edge;
 
@@ -416,6 +463,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void renderLine(Vec2 p1, double zf1, Vec2 p2, double zf2, Camera cam, Color color)
   {
+    flushTriangles();
     int x1, y1, z1, x2, y2, z2;
     int x, y, z, dx, dy, dz, end, index, edge;
     int clip = (int) (cam.isPerspective() ? cam.getClipDistance()*65535.0 : Integer.MIN_VALUE);
@@ -927,9 +975,113 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
     return new Vec2 [] {toScreen.timesXY(u1), toScreen.timesXY(u2), toScreen.timesXY(u3), toScreen.timesXY(u4)};
   }
 
-  /** Render a solid colored triangle. */
+  /** Render a solid colored triangle.  In deferred mode it is only recorded, and is rasterized
+      along with the others by flushTriangles(). */
 
   private void renderFlatTriangle(Vec2 pos1, double zf1, Vec2 pos2, double zf2, Vec2 pos3, double zf3, int width, int height, double clip, int mode, RGBColor color)
+  {
+    if (deferred)
+      triangles.add(pos1, zf1, pos2, zf2, pos3, zf3, clip, mode, color, color, color);
+    else
+      rasterizeFlatTriangle(pos1, zf1, pos2, zf2, pos3, zf3, width, 0, height, clip, mode, color);
+  }
+
+  /** Render a triangle with smooth (interpolated) shading.  In deferred mode it is only recorded, and is
+      rasterized along with the others by flushTriangles(). */
+
+  private void renderSmoothTriangle(Vec2 pos1, double zf1, Vec2 pos2, double zf2, Vec2 pos3, double zf3, int width, int height, double clip, RGBColor color1, RGBColor color2, RGBColor color3)
+  {
+    if (deferred)
+      triangles.add(pos1, zf1, pos2, zf2, pos3, zf3, clip, MODE_SMOOTH, color1, color2, color3);
+    else
+      rasterizeSmoothTriangle(pos1, zf1, pos2, zf2, pos3, zf3, width, 0, height, clip, color1, color2, color3);
+  }
+
+  /** Rasterize all triangles that have been recorded in deferred mode.  The image is divided into
+      horizontal strips which are drawn in parallel, each one drawing the triangles in the order they
+      were recorded.  Since every pixel (and its depth buffer entry) belongs to exactly one strip, the
+      result is identical to drawing them one at a time.  This must be called before anything else is
+      drawn into the image. */
+
+  private void flushTriangles()
+  {
+    if (triangles.count == 0)
+      return;
+    int height = bounds.height;
+    int numStrips = Math.min(STRIPS_PER_THREAD*ThreadManager.getPoolSize(), (height+MIN_STRIP_HEIGHT-1)/MIN_STRIP_HEIGHT);
+    if (numStrips < 2)
+    {
+      rasterizeStrip(0, height);
+      triangles.count = 0;
+      return;
+    }
+    final int stripHeight = (height+numStrips-1)/numStrips;
+    ThreadManager threads = new ThreadManager();
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    threads.setNumIndices((height+stripHeight-1)/stripHeight);
+    threads.setTask(new ThreadManager.Task() {
+      @Override
+      public void execute(int strip)
+      {
+        try
+        {
+          rasterizeStrip(strip*stripHeight, Math.min((strip+1)*stripHeight, height));
+        }
+        catch (RuntimeException ex)
+        {
+          // Report it from the calling thread, just as if the triangles had been drawn there.
+
+          failure.compareAndSet(null, ex);
+          threads.cancel();
+        }
+      }
+
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    threads.run();
+    threads.finish();
+    triangles.count = 0;
+    if (failure.get() != null)
+      throw failure.get();
+  }
+
+  /** Draw the rows between top (inclusive) and bottom (exclusive) of every recorded triangle. */
+
+  private void rasterizeStrip(int top, int bottom)
+  {
+    Vec2 pos1 = new Vec2(), pos2 = new Vec2(), pos3 = new Vec2();
+    RGBColor color1 = new RGBColor(), color2 = new RGBColor(), color3 = new RGBColor();
+    double coord[] = triangles.coord;
+    float color[] = triangles.color;
+    for (int i = 0; i < triangles.count; i++)
+    {
+      if (triangles.lastRow[i] <= top || triangles.firstRow[i] >= bottom)
+        continue;
+      int c = 9*i;
+      pos1.set(coord[c], coord[c+1]);
+      pos2.set(coord[c+3], coord[c+4]);
+      pos3.set(coord[c+6], coord[c+7]);
+      color1.setRGB(color[c], color[c+1], color[c+2]);
+      if (triangles.mode[i] == MODE_SMOOTH)
+      {
+        color2.setRGB(color[c+3], color[c+4], color[c+5]);
+        color3.setRGB(color[c+6], color[c+7], color[c+8]);
+        rasterizeSmoothTriangle(pos1, coord[c+2], pos2, coord[c+5], pos3, coord[c+8], bounds.width, top, bottom, triangles.clip[i], color1, color2, color3);
+      }
+      else
+        rasterizeFlatTriangle(pos1, coord[c+2], pos2, coord[c+5], pos3, coord[c+8], bounds.width, top, bottom, triangles.clip[i], triangles.mode[i], color1);
+    }
+  }
+
+  /** Rasterize the rows of a solid colored triangle that fall between top (inclusive) and bottom
+      (exclusive).  Drawing the full height at once produces exactly the same pixels as drawing it
+      in several bands, since each row's starting point is found with the same integer arithmetic
+      either way. */
+
+  private void rasterizeFlatTriangle(Vec2 pos1, double zf1, Vec2 pos2, double zf2, Vec2 pos3, double zf3, int width, int top, int bottom, double clip, int mode, RGBColor color)
   {
     int x1, y1, z1, x2, y2, z2, x3, y3, z3;
     int dx1, dx2, dy1, dy2, dz1, dz2, mx1, mx2, mz1, mz2;
@@ -1037,7 +1189,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
       {
         mx2 = dx2/dy2;
         mz2 = dz2/dy2;
-        if (y2 < 0)
+        if (y2 < top)
           {
             xstart += mx1*dy2;
             xend += mx2*dy2;
@@ -1045,15 +1197,15 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
             zend += mz2*dy2;
             y = y2;
           }
-        else if (y < 0)
+        else if (y < top)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            y = 0;
+            xstart -= mx1*(y-top);
+            xend -= mx2*(y-top);
+            zstart -= mz1*(y-top);
+            zend -= mz2*(y-top);
+            y = top;
           }
-        yend = (y2 < height ? y2 : height);
+        yend = (y2 < bottom ? y2 : bottom);
         index = y*width;
         while (y < yend)
           {
@@ -1145,15 +1297,15 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
         mz2 = dz2/dy2;
         xend = x2;
         zend = z2;
-        if (y < 0)
+        if (y < top)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            y = 0;
+            xstart -= mx1*(y-top);
+            xend -= mx2*(y-top);
+            zstart -= mz1*(y-top);
+            zend -= mz2*(y-top);
+            y = top;
           }
-        yend = (y3 < height ? y3 : height);
+        yend = (y3 < bottom ? y3 : bottom);
         index = y*width;
         while (y < yend)
           {
@@ -1238,9 +1390,10 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
       }
   }
 
-  /** Render a triangle with smooth (interpolated) shading. */
+  /** Rasterize the rows of a triangle with smooth (interpolated) shading that fall between top
+      (inclusive) and bottom (exclusive). */
 
-  private void renderSmoothTriangle(Vec2 pos1, double zf1, Vec2 pos2, double zf2, Vec2 pos3, double zf3, int width, int height, double clip, RGBColor color1, RGBColor color2, RGBColor color3)
+  private void rasterizeSmoothTriangle(Vec2 pos1, double zf1, Vec2 pos2, double zf2, Vec2 pos3, double zf3, int width, int top, int bottom, double clip, RGBColor color1, RGBColor color2, RGBColor color3)
   {
     int x1, y1, z1, x2, y2, z2, x3, y3, z3;
     int dx1, dx2, dy1, dy2, dz1, dz2, mx1, mx2, mz1, mz2;
@@ -1399,7 +1552,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
         mred2 = dred2/dy2;
         mgreen2 = dgreen2/dy2;
         mblue2 = dblue2/dy2;
-        if (y2 < 0)
+        if (y2 < top)
           {
             xstart += mx1*dy2;
             xend += mx2*dy2;
@@ -1413,21 +1566,21 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
             blueend += mblue2*dy2;
             y = y2;
           }
-        else if (y < 0)
+        else if (y < top)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            redstart -= mred1*y;
-            redend -= mred2*y;
-            greenstart -= mgreen1*y;
-            greenend -= mgreen2*y;
-            bluestart -= mblue1*y;
-            blueend -= mblue2*y;
-            y = 0;
+            xstart -= mx1*(y-top);
+            xend -= mx2*(y-top);
+            zstart -= mz1*(y-top);
+            zend -= mz2*(y-top);
+            redstart -= mred1*(y-top);
+            redend -= mred2*(y-top);
+            greenstart -= mgreen1*(y-top);
+            greenend -= mgreen2*(y-top);
+            bluestart -= mblue1*(y-top);
+            blueend -= mblue2*(y-top);
+            y = top;
           }
-        yend = (y2 < height ? y2 : height);
+        yend = (y2 < bottom ? y2 : bottom);
         index = y*width;
         while (y < yend)
           {
@@ -1518,21 +1671,21 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
         redend = red2;
         greenend = green2;
         blueend = blue2;
-        if (y < 0)
+        if (y < top)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            redstart -= mred1*y;
-            redend -= mred2*y;
-            greenstart -= mgreen1*y;
-            greenend -= mgreen2*y;
-            bluestart -= mblue1*y;
-            blueend -= mblue2*y;
-            y = 0;
+            xstart -= mx1*(y-top);
+            xend -= mx2*(y-top);
+            zstart -= mz1*(y-top);
+            zend -= mz2*(y-top);
+            redstart -= mred1*(y-top);
+            redend -= mred2*(y-top);
+            greenstart -= mgreen1*(y-top);
+            greenend -= mgreen2*(y-top);
+            bluestart -= mblue1*(y-top);
+            blueend -= mblue2*(y-top);
+            y = top;
           }
-        yend = (y3 < height ? y3 : height);
+        yend = (y3 < bottom ? y3 : bottom);
         index = y*width;
         while (y < yend)
           {
@@ -1612,6 +1765,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void drawString(String text, int x, int y, Color color)
   {
+    flushTriangles();
     imageGraphics.setColor(color);
     imageGraphics.drawString(text, x, y);
   }
@@ -1621,6 +1775,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void drawShape(Shape shape, Color color)
   {
+    flushTriangles();
     imageGraphics.setColor(color);
     imageGraphics.draw(shape);
   }
@@ -1630,6 +1785,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void fillShape(Shape shape, Color color)
   {
+    flushTriangles();
     imageGraphics.setColor(color);
     imageGraphics.fill(shape);
   }
@@ -1639,6 +1795,7 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
   @Override
   public void drawImage(Image image, int x, int y)
   {
+    flushTriangles();
     ImageRecord record = getCachedImage(image);
     if (record == null)
       return;
@@ -1789,6 +1946,59 @@ public class SoftwareCanvasDrawer implements CanvasDrawer
     return record;
   }
 
+  /** This inner class holds the triangles recorded in deferred mode, packed into arrays that are
+      reused from one repaint to the next. */
+
+  private static class TriangleQueue
+  {
+    int count;
+    double coord[] = new double [9*1024], clip[] = new double [1024];
+    float color[] = new float [9*1024];
+    int mode[] = new int [1024], firstRow[] = new int [1024], lastRow[] = new int [1024];
+
+    void add(Vec2 pos1, double z1, Vec2 pos2, double z2, Vec2 pos3, double z3, double clipDist, int triMode, RGBColor color1, RGBColor color2, RGBColor color3)
+    {
+      if (count == mode.length)
+      {
+        int size = 2*count;
+        coord = Arrays.copyOf(coord, 9*size);
+        color = Arrays.copyOf(color, 9*size);
+        clip = Arrays.copyOf(clip, size);
+        mode = Arrays.copyOf(mode, size);
+        firstRow = Arrays.copyOf(firstRow, size);
+        lastRow = Arrays.copyOf(lastRow, size);
+      }
+      int c = 9*count;
+      coord[c] = pos1.x;
+      coord[c+1] = pos1.y;
+      coord[c+2] = z1;
+      coord[c+3] = pos2.x;
+      coord[c+4] = pos2.y;
+      coord[c+5] = z2;
+      coord[c+6] = pos3.x;
+      coord[c+7] = pos3.y;
+      coord[c+8] = z3;
+      color[c] = color1.getRed();
+      color[c+1] = color1.getGreen();
+      color[c+2] = color1.getBlue();
+      color[c+3] = color2.getRed();
+      color[c+4] = color2.getGreen();
+      color[c+5] = color2.getBlue();
+      color[c+6] = color3.getRed();
+      color[c+7] = color3.getGreen();
+      color[c+8] = color3.getBlue();
+      clip[count] = clipDist;
+      mode[count] = triMode;
+
+      // Record which rows it covers, so strips it does not touch can skip it quickly.
+
+      int y1 = (int) pos1.y, y2 = (int) pos2.y, y3 = (int) pos3.y;
+      firstRow[count] = Math.min(y1, Math.min(y2, y3));
+      lastRow[count] = Math.max(y1, Math.max(y2, y3));
+      count++;
+    }
+  }
+
   /** This inner class represents an image to be drawn on the canvas. */
 
   private static class ImageRecord
@@ -0,0 +1,66 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.object;
+
+import artofillusion.math.*;
+import artofillusion.texture.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measure boolean operations between a finely subdivided sphere and a rotated cube, with faces
+ * split on one thread or on all of them.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CSGBenchmark
+{
+  @Param({"false", "true"})
+  public boolean parallel;
+
+  @Param({"2", "3"})
+  public int subdivisions;
+
+  private TriangleMesh sphere, cube;
+  private CoordinateSystem sphereCoords, cubeCoords;
+  private Texture texture;
+
+  @Setup
+  public void setup()
+  {
+    texture = new UniformTexture();
+    sphere = new Sphere(1.0, 1.0, 1.0).convertToTriangleMesh(0.05);
+    sphere.setTexture(texture, texture.getDefaultMapping(sphere));
+    cube = new Cube(1.6, 1.6, 1.6).convertToTriangleMesh(0.05);
+    cube.setTexture(texture, texture.getDefaultMapping(cube));
+    for (int i = 0; i < subdivisions; i++)
+    {
+      sphere = TriangleMesh.subdivideLoop(sphere, null, Double.MAX_VALUE);
+      cube = TriangleMesh.subdivideEdges(cube, null, 0.0);
+    }
+    sphereCoords = new CoordinateSystem(new Vec3(), 0, 0, 0);
+    cubeCoords = new CoordinateSystem(new Vec3(0.1, 0.2, 0.3), 10, 20, 30);
+  }
+
+  @Benchmark
+  public CSGModeller splitFaces()
+  {
+    return new CSGModeller(sphere, cube, sphereCoords, cubeCoords, parallel);
+  }
+
+  @Benchmark
+  public TriangleMesh difference()
+  {
+    return new CSGModeller(sphere, cube, sphereCoords, cubeCoords, parallel).getMesh(CSGObject.DIFFERENCE12, texture);
+  }
+}
@@ -0,0 +1,50 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.object;
+
+import artofillusion.texture.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compare serial and parallel subdivision of a large smooth TriangleMesh, one pass at a time.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SubdivisionBenchmark
+{
+  @Param({"false", "true"})
+  public boolean parallel;
+
+  private TriangleMesh mesh;
+
+  @Setup
+  public void setup()
+  {
+    mesh = new Sphere(1.0, 1.5, 0.8).convertToTriangleMesh(0.002);
+    Texture tex = new UniformTexture();
+    mesh.setTexture(tex, tex.getDefaultMapping(mesh));
+  }
+
+  @Benchmark
+  public TriangleMesh subdivideLoop()
+  {
+    return TriangleMesh.subdivideLoop(mesh, null, Double.MAX_VALUE, parallel);
+  }
+
+  @Benchmark
+  public TriangleMesh subdivideButterfly()
+  {
+    return TriangleMesh.subdivideButterfly(mesh, null, Double.MAX_VALUE, parallel);
+  }
+}
@@ -0,0 +1,118 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.procedural;
+
+import artofillusion.math.*;
+import java.awt.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Compare evaluating a procedure with a {@link CompiledProcedure} to interpreting it module by
+ * module.  The procedure is laid out like a typical procedural texture: a marble pattern colored by
+ * a spectrum, plus a bump map built from noise, with a few constant modules that do not depend on
+ * the point.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProcedureBenchmark
+{
+  private static final int POINTS = 4096;
+
+  @Param({"false", "true"})
+  public boolean compiled;
+
+  private Procedure proc;
+  private double x[], y[], z[];
+  private RGBColor color;
+  private Vec3 grad;
+
+  @Setup
+  public void setup()
+  {
+    proc = createProcedure();
+    if (compiled)
+    {
+      proc = CompiledProcedure.compile(proc);
+      if (!(proc instanceof CompiledProcedure))
+        throw new IllegalStateException("The procedure could not be compiled");
+    }
+    Random random = new Random(0);
+    x = new double [POINTS];
+    y = new double [POINTS];
+    z = new double [POINTS];
+    for (int i = 0; i < POINTS; i++)
+    {
+      x[i] = random.nextDouble()*10-5;
+      y[i] = random.nextDouble()*10-5;
+      z[i] = random.nextDouble()*10-5;
+    }
+    color = new RGBColor();
+    grad = new Vec3();
+  }
+
+  private static Procedure createProcedure()
+  {
+    Procedure proc = new Procedure(new OutputModule [] {
+      new OutputModule("Color", "white", 0.0, new RGBColor(1.0f, 1.0f, 1.0f), IOPort.COLOR),
+      new OutputModule("Specularity", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("BumpHeight", "0", 0.0, null, IOPort.NUMBER)
+    });
+    OutputModule output[] = proc.getOutputModules();
+    Module marble = new MarbleModule(new Point());
+    Module spectrum = new SpectrumModule(new Point());
+    Module noise = new NoiseModule(new Point());
+    Module scale = new NumberModule(new Point(), 0.2);
+    Module bump = new ProductModule(new Point());
+    Module half = new NumberModule(new Point(), 0.5);
+    Module quarter = new NumberModule(new Point(), 0.25);
+    Module specularity = new SumModule(new Point());
+    ExprModule expr = new ExprModule(new Point());
+    expr.setExpr("input1*input2+0.1*sin(4*x)");
+    for (Module m : new Module [] {marble, spectrum, noise, scale, bump, half, quarter, specularity, expr})
+      proc.addModule(m);
+    proc.addLink(new Link(marble.getOutputPorts()[0], spectrum.getInputPorts()[0]));
+    proc.addLink(new Link(spectrum.getOutputPorts()[0], output[0].getInputPorts()[0]));
+    proc.addLink(new Link(half.getOutputPorts()[0], specularity.getInputPorts()[0]));
+    proc.addLink(new Link(quarter.getOutputPorts()[0], specularity.getInputPorts()[1]));
+    proc.addLink(new Link(marble.getOutputPorts()[0], expr.getInputPorts()[0]));
+    proc.addLink(new Link(specularity.getOutputPorts()[0], expr.getInputPorts()[1]));
+    proc.addLink(new Link(expr.getOutputPorts()[0], output[1].getInputPorts()[0]));
+    proc.addLink(new Link(noise.getOutputPorts()[0], bump.getInputPorts()[0]));
+    proc.addLink(new Link(scale.getOutputPorts()[0], bump.getInputPorts()[1]));
+    proc.addLink(new Link(bump.getOutputPorts()[0], output[2].getInputPorts()[0]));
+    return proc;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public void evaluate(Blackhole bh)
+  {
+    for (int i = 0; i < POINTS; i++)
+    {
+      PointInfo p = proc.getPointInfo();
+      p.x = x[i];
+      p.y = y[i];
+      p.z = z[i];
+      p.xsize = p.ysize = p.zsize = 0.01;
+      proc.initForPoint(p);
+      proc.getOutputColor(0, color);
+      bh.consume(color.getRed()+color.getGreen()+color.getBlue());
+      bh.consume(proc.getOutputValue(1));
+      proc.getOutputGradient(2, grad);
+      bh.consume(grad.x+grad.y+grad.z);
+    }
+  }
+}
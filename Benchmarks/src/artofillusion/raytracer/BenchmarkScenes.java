@@ -0,0 +1,154 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.material.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.procedural.*;
+import artofillusion.texture.*;
+import java.awt.*;
+import java.util.*;
+
+/**
+ * This class creates the synthetic scenes used by the benchmarks.  Every scene is generated from a
+ * fixed random seed, so each run measures exactly the same work.
+ */
+
+class BenchmarkScenes
+{
+  /** A scene made of many small spheres, which the raytracer represents analytically. */
+  public static final String SPHERES = "spheres";
+
+  /** A scene made of a few finely triangulated meshes. */
+  public static final String MESH = "mesh";
+
+  /** A scene made of spheres with a displacement texture, which are rendered as displaced triangles. */
+  public static final String DISPLACED = "displaced";
+
+  /** A scene made of transparent spheres filled with a material, which rays and photons must step through. */
+  public static final String MATERIALS = "materials";
+
+  private BenchmarkScenes()
+  {
+  }
+
+  /**
+   * Create one of the standard scenes.
+   *
+   * @param type    the type of scene to create ({@link #SPHERES}, {@link #MESH}, {@link #DISPLACED}, or {@link #MATERIALS})
+   */
+
+  public static Scene createScene(String type)
+  {
+    Random random = new Random(0);
+    Texture tex = new UniformTexture();
+    Scene scene = new Scene();
+    if (SPHERES.equals(type))
+    {
+      for (int i = 0; i < 2000; i++)
+        addObject(scene, new Sphere(0.3, 0.3, 0.3), tex, random);
+    }
+    else if (MESH.equals(type))
+    {
+      Object3D mesh = new Sphere(1.0, 1.5, 0.8).convertToTriangleMesh(0.002);
+      for (int i = 0; i < 10; i++)
+        addObject(scene, mesh.duplicate(), tex, random);
+    }
+    else if (DISPLACED.equals(type))
+    {
+      tex = createDisplacementTexture();
+      for (int i = 0; i < 20; i++)
+        addObject(scene, new Sphere(0.8, 0.8, 0.8), tex, random);
+    }
+    else if (MATERIALS.equals(type))
+    {
+      UniformTexture glass = new UniformTexture();
+      glass.transparency = 0.8f;
+      Material mat = new UniformMaterial();
+      for (int i = 0; i < 500; i++)
+      {
+        Sphere sphere = new Sphere(0.4, 0.4, 0.4);
+        sphere.setMaterial(mat, mat.getDefaultMapping(sphere));
+        addObject(scene, sphere, glass, random);
+      }
+    }
+    else
+      throw new IllegalArgumentException("Unknown scene type: "+type);
+    scene.addObject(new ObjectInfo(new PointLight(new RGBColor(1.0f, 1.0f, 1.0f), 1.0f, 0.1), new CoordinateSystem(new Vec3(5.0, 15.0, 15.0), 0.0, 0.0, 0.0), "Light"), null);
+    return scene;
+  }
+
+  /** Add an object to a scene at a random position and orientation inside the box from 0 to 10 along each axis. */
+
+  private static void addObject(Scene scene, Object3D obj, Texture tex, Random random)
+  {
+    obj.setTexture(tex, tex.getDefaultMapping(obj));
+    Vec3 pos = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+    CoordinateSystem coords = new CoordinateSystem(pos, random.nextDouble()*360, random.nextDouble()*360, random.nextDouble()*360);
+    scene.addObject(new ObjectInfo(obj, coords, "Object "+scene.getNumObjects()), null);
+  }
+
+  /** Create a procedural texture whose displacement is given by a noise function. */
+
+  private static Texture createDisplacementTexture()
+  {
+    ProceduralTexture3D tex = new ProceduralTexture3D();
+    Procedure proc = tex.getProcedure();
+    NoiseModule noise = new NoiseModule(new Point());
+    proc.addModule(noise);
+    proc.addLink(new Link(noise.getOutputPorts()[0], proc.getOutputModules()[10].getInputPorts()[0]));
+    return tex;
+  }
+
+  /** Create a camera which looks at the scene from outside it. */
+
+  public static Camera createCamera(int width, int height)
+  {
+    return new SceneCamera().createCamera(width, height, new CoordinateSystem(new Vec3(5.0, 5.0, 30.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()));
+  }
+
+  /**
+   * Create a Raytracer containing every object in a scene.
+   *
+   * @param scene                   the scene to render
+   * @param accelerationStructure   either {@link Raytracer#ACCELERATION_OCTREE} or {@link Raytracer#ACCELERATION_BVH}
+   * @param reducedMemory           whether the Raytracer should use less memory to represent objects
+   */
+
+  public static Raytracer createRaytracer(Scene scene, int accelerationStructure, boolean reducedMemory)
+  {
+    Raytracer rt = new Raytracer(scene, createCamera(320, 240));
+    rt.setAdaptive(false);
+    rt.setAccelerationStructure(accelerationStructure);
+    rt.setUseReducedMemory(reducedMemory);
+    for (int i = 0; i < scene.getNumObjects(); i++)
+      rt.addObject(scene.getObject(i));
+    rt.finishConstruction();
+    return rt;
+  }
+
+  /**
+   * Get the acceleration structure constant corresponding to a benchmark parameter value.
+   *
+   * @param name    either "octree" or "bvh"
+   */
+
+  public static int getAccelerationStructure(String name)
+  {
+    if ("octree".equals(name))
+      return Raytracer.ACCELERATION_OCTREE;
+    if ("bvh".equals(name))
+      return Raytracer.ACCELERATION_BVH;
+    throw new IllegalArgumentException("Unknown acceleration structure: "+name);
+  }
+}
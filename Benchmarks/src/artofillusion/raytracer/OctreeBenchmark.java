@@ -0,0 +1,66 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measure how long it takes to build the structures that locate objects in a scene.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OctreeBenchmark
+{
+  @Param({BenchmarkScenes.SPHERES, BenchmarkScenes.MESH})
+  public String scene;
+
+  private RTObject obj[];
+  private BoundingBox bounds[];
+  private BoundingBox sceneBounds;
+
+  @Setup
+  public void setup()
+  {
+    Raytracer rt = BenchmarkScenes.createRaytracer(BenchmarkScenes.createScene(scene), Raytracer.ACCELERATION_OCTREE, false);
+    obj = rt.getObjects();
+    bounds = new BoundingBox [obj.length];
+    for (int i = 0; i < obj.length; i++)
+    {
+      bounds[i] = obj[i].getBounds();
+      if (sceneBounds == null)
+        sceneBounds = new BoundingBox(bounds[i]);
+      else
+        sceneBounds.extend(bounds[i]);
+    }
+  }
+
+  @Benchmark
+  public OctreeNode buildOctree()
+  {
+    return new OctreeNode((float) sceneBounds.minx, (float) sceneBounds.maxx, (float) sceneBounds.miny, (float) sceneBounds.maxy, (float) sceneBounds.minz, (float) sceneBounds.maxz, obj, bounds, null);
+  }
+
+  @Benchmark
+  public OctreeNode buildOctreeParallel()
+  {
+    return OctreeNode.buildTree((float) sceneBounds.minx, (float) sceneBounds.maxx, (float) sceneBounds.miny, (float) sceneBounds.maxy, (float) sceneBounds.minz, (float) sceneBounds.maxz, obj, bounds);
+  }
+
+  @Benchmark
+  public BoundingVolumeHierarchy buildBoundingVolumeHierarchy()
+  {
+    return new BoundingVolumeHierarchy(obj, bounds);
+  }
+}
@@ -0,0 +1,114 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Compare tracing camera rays one at a time through a {@link BoundingVolumeHierarchy} with tracing
+ * them in packets by {@link BoundingVolumeHierarchy#traceRays(Ray[], int, RTObject[], RTObject[], double[])}.
+ * The rays pass through a grid of pixels in rows, several per pixel, in the same order the renderer
+ * generates them, so neighboring rays in a packet are coherent.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketTraceBenchmark
+{
+  private static final int SIZE = 64, RAYS_PER_PIXEL = 4, RAYS = SIZE*SIZE*RAYS_PER_PIXEL;
+
+  @Param({BenchmarkScenes.SPHERES, BenchmarkScenes.MESH})
+  public String scene;
+
+  @Param({"4", "32"})
+  public int packetSize;
+
+  private Raytracer raytracer;
+  private BoundingVolumeHierarchy bvh;
+  private Ray ray, packet[];
+  private Raytracer.RayIntersection intersect;
+  private RTObject first[], second[];
+  private double distance[];
+  private Vec3 origin, direction[];
+
+  @Setup
+  public void setup()
+  {
+    raytracer = BenchmarkScenes.createRaytracer(BenchmarkScenes.createScene(scene), Raytracer.ACCELERATION_BVH, false);
+    bvh = raytracer.getBoundingVolumeHierarchy();
+    RaytracerContext context = raytracer.getContext();
+    ray = new Ray(context);
+    intersect = new Raytracer.RayIntersection();
+    packet = new Ray [packetSize];
+    for (int i = 0; i < packetSize; i++)
+      packet[i] = new Ray(context);
+    first = new RTObject [packetSize];
+    second = new RTObject [packetSize];
+    distance = new double [packetSize];
+
+    // Aim the rays at a grid covering the scene, with a few jittered rays through each pixel.
+
+    origin = new Vec3(5.0, 5.0, 30.0);
+    direction = new Vec3 [RAYS];
+    double pixel = 12.0/SIZE;
+    for (int y = 0, i = 0; y < SIZE; y++)
+      for (int x = 0; x < SIZE; x++)
+        for (int k = 0; k < RAYS_PER_PIXEL; k++, i++)
+        {
+          double dx = (k%2+0.5)*0.5, dy = (k/2+0.5)*0.5;
+          Vec3 target = new Vec3(-1.0+(x+dx)*pixel, 11.0-(y+dy)*pixel, 5.0);
+          direction[i] = target.minus(origin);
+          direction[i].normalize();
+        }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    raytracer.cleanup();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RAYS)
+  public void singleRays(Blackhole bh)
+  {
+    OctreeNode root = raytracer.getRootNode();
+    for (int i = 0; i < RAYS; i++)
+    {
+      ray.origin.set(origin);
+      ray.direction.set(direction[i]);
+      ray.newID();
+      bh.consume(raytracer.traceRay(ray, root, intersect));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RAYS)
+  public void packets(Blackhole bh)
+  {
+    for (int start = 0; start < RAYS; start += packetSize)
+    {
+      int count = Math.min(packetSize, RAYS-start);
+      for (int i = 0; i < count; i++)
+      {
+        packet[i].origin.set(origin);
+        packet[i].direction.set(direction[start+i]);
+        packet[i].newID();
+      }
+      bvh.traceRays(packet, count, first, second, distance);
+      bh.consume(first);
+    }
+  }
+}
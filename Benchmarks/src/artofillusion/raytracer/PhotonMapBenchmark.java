@@ -0,0 +1,107 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Measure how long it takes to build a photon map from a set of stored photons, and to gather the
+ * photons near a point from it.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PhotonMapBenchmark
+{
+  private static final int QUERIES = 256;
+
+  @Param({"100000"})
+  public int photons;
+
+  @Param({"100"})
+  public int numEstimate;
+
+  private PhotonMap map;
+  private PhotonMapContext pmc;
+  private float pos[], posCopy[];
+  private int ergb[], ergbCopy[];
+  private short dir[], dirCopy[];
+  private Vec3 query[];
+
+  @Setup
+  public void setup()
+  {
+    Random random = new Random(0);
+    pos = new float [3*photons];
+    ergb = new int [photons];
+    dir = new short [photons];
+    RGBColor color = new RGBColor();
+    Vec3 v = new Vec3();
+    for (int i = 0; i < photons; i++)
+    {
+      // Cluster some photons together so the tree is not perfectly uniform.
+
+      double scale = (i%2 == 0 ? 10.0 : 2.0);
+      pos[3*i] = (float) (random.nextDouble()*scale);
+      pos[3*i+1] = (float) (random.nextDouble()*scale);
+      pos[3*i+2] = (float) (random.nextDouble()*scale);
+      color.setRGB(random.nextFloat(), random.nextFloat(), random.nextFloat());
+      ergb[i] = color.getERGB();
+      v.set(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5);
+      v.normalize();
+      dir[i] = Photon.encodeDirection(v);
+    }
+    posCopy = new float [pos.length];
+    ergbCopy = new int [ergb.length];
+    dirCopy = new short [dir.length];
+    map = new PhotonMap(photons, numEstimate, false, false, true, false, null, null, new BoundingBox(0.0, 10.0, 0.0, 10.0, 0.0, 10.0), 0, null);
+    buildMap();
+    pmc = new PhotonMapContext(map);
+    query = new Vec3 [QUERIES];
+    for (int i = 0; i < QUERIES; i++)
+      query[i] = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+  }
+
+  /** Building the tree reorders the arrays, so give it a fresh copy of them every time. */
+
+  private void buildMap()
+  {
+    System.arraycopy(pos, 0, posCopy, 0, pos.length);
+    System.arraycopy(ergb, 0, ergbCopy, 0, ergb.length);
+    System.arraycopy(dir, 0, dirCopy, 0, dir.length);
+    map.buildPhotonTree(posCopy, ergbCopy, dirCopy, photons);
+  }
+
+  @Benchmark
+  public PhotonMap build()
+  {
+    buildMap();
+    return map;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public void gather(Blackhole bh)
+  {
+    PhotonList list = pmc.nearbyPhotons;
+    for (int i = 0; i < QUERIES; i++)
+    {
+      list.init(1.0f);
+      map.findPhotons(query[i], pmc);
+      bh.consume(list.numFound);
+    }
+  }
+}
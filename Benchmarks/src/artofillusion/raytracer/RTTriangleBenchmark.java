@@ -0,0 +1,83 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Measure the cost of a single ray-triangle intersection test.  Each ray is aimed at a point near its
+ * triangle, so roughly half the tests find a hit.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RTTriangleBenchmark
+{
+  private static final int TESTS = 1024;
+
+  @Param({"false", "true"})
+  public boolean lowMemory;
+
+  private Raytracer raytracer;
+  private RTObject tri[];
+  private Ray ray[];
+
+  @Setup
+  public void setup()
+  {
+    // The Raytracer is only used to provide a RaytracerContext with the right kind of intersection pool.
+
+    Scene scene = BenchmarkScenes.createScene(BenchmarkScenes.MESH);
+    raytracer = BenchmarkScenes.createRaytracer(scene, Raytracer.ACCELERATION_OCTREE, lowMemory);
+    ObjectInfo info = scene.getObject(0);
+    RenderingMesh mesh = info.getObject().getRenderingMesh(0.01, false, info);
+    Mat4 identity = Mat4.identity();
+    Random random = new Random(2);
+    tri = new RTObject [TESTS];
+    ray = new Ray [TESTS];
+    for (int i = 0; i < TESTS; i++)
+    {
+      int index = random.nextInt(mesh.triangle.length);
+      tri[i] = (lowMemory ? new RTTriangleLowMemory(mesh, index, identity, identity) : new RTTriangle(mesh, index, identity, identity));
+      RenderingTriangle t = mesh.triangle[index];
+      Vec3 target = mesh.vert[t.v1].plus(mesh.vert[t.v2]).plus(mesh.vert[t.v3]).times(1.0/3.0);
+      target.add(new Vec3(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5).times(0.02));
+      ray[i] = new Ray(raytracer.getContext());
+      ray[i].origin.set(random.nextDouble()*10-5, random.nextDouble()*10-5, 20.0);
+      ray[i].direction.set(target.minus(ray[i].origin));
+      ray[i].direction.normalize();
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    raytracer.cleanup();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TESTS)
+  public void checkIntersection(Blackhole bh)
+  {
+    // Reset the intersection pools so they do not grow without limit.
+
+    ray[0].newID();
+    for (int i = 0; i < TESTS; i++)
+      bh.consume(tri[i].checkIntersection(ray[i]));
+  }
+}
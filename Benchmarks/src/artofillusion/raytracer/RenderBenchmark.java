@@ -0,0 +1,73 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.image.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measure the time for {@link RaytracerRenderer} to render a small image of a complete scene, including
+ * building the Raytracer and any photon maps.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RenderBenchmark
+{
+  @Param({BenchmarkScenes.SPHERES, BenchmarkScenes.MESH, BenchmarkScenes.MATERIALS})
+  public String scene;
+
+  @Param({"octree", "bvh"})
+  public String structure;
+
+  @Param({"0", "3"})
+  public int giMode;
+
+  private Scene theScene;
+  private Camera camera;
+
+  @Setup
+  public void setup()
+  {
+    theScene = BenchmarkScenes.createScene(scene);
+    camera = BenchmarkScenes.createCamera(160, 120);
+  }
+
+  @Benchmark
+  public ComplexImage render() throws Exception
+  {
+    RaytracerRenderer renderer = new RaytracerRenderer();
+    renderer.setConfiguration("antialiasing", 1);
+    renderer.setConfiguration("minRaysPerPixel", 4);
+    renderer.setConfiguration("maxRaysPerPixel", 16);
+    renderer.setConfiguration("reduceAccuracyForDistant", false);
+    renderer.setConfiguration("accelerationStructure", BenchmarkScenes.getAccelerationStructure(structure));
+    renderer.setConfiguration("globalIlluminationMode", giMode);
+    final CompletableFuture<ComplexImage> result = new CompletableFuture<ComplexImage>();
+    renderer.renderScene(theScene, camera, new RenderListener() {
+      @Override
+      public void imageComplete(ComplexImage image)
+      {
+        result.complete(image);
+      }
+
+      @Override
+      public void renderingCanceled()
+      {
+        result.cancel(false);
+      }
+    }, null);
+    return result.get();
+  }
+}
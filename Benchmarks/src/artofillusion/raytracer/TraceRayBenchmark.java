@@ -0,0 +1,85 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Measure how quickly {@link Raytracer#traceRay(Ray, OctreeNode, Raytracer.RayIntersection)} finds the
+ * first object hit by a ray.  Half the rays start at the camera and pass through the scene, and the rest
+ * start at random points inside it, like reflected or shadow rays.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceRayBenchmark
+{
+  private static final int RAYS = 1024;
+
+  @Param({BenchmarkScenes.SPHERES, BenchmarkScenes.MESH, BenchmarkScenes.DISPLACED})
+  public String scene;
+
+  @Param({"octree", "bvh"})
+  public String structure;
+
+  private Raytracer raytracer;
+  private Ray ray;
+  private Raytracer.RayIntersection intersect;
+  private Vec3 origin[], direction[];
+
+  @Setup
+  public void setup()
+  {
+    raytracer = BenchmarkScenes.createRaytracer(BenchmarkScenes.createScene(scene), BenchmarkScenes.getAccelerationStructure(structure), false);
+    ray = new Ray(raytracer.getContext());
+    intersect = new Raytracer.RayIntersection();
+    Random random = new Random(1);
+    origin = new Vec3 [RAYS];
+    direction = new Vec3 [RAYS];
+    for (int i = 0; i < RAYS; i++)
+    {
+      Vec3 target = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+      if (i%2 == 0)
+        origin[i] = new Vec3(5.0, 5.0, 30.0);
+      else
+        origin[i] = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+      direction[i] = target.minus(origin[i]);
+      direction[i].normalize();
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    raytracer.cleanup();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RAYS)
+  public void traceRay(Blackhole bh)
+  {
+    OctreeNode root = raytracer.getRootNode();
+    for (int i = 0; i < RAYS; i++)
+    {
+      ray.origin.set(origin[i]);
+      ray.direction.set(direction[i]);
+      ray.newID();
+      OctreeNode node = root.findFirstNode(ray);
+      if (node != null)
+        bh.consume(raytracer.traceRay(ray, node, intersect));
+    }
+  }
+}
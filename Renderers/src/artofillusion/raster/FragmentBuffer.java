@@ -0,0 +1,306 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import java.util.*;
+
+/**
+ * This class stores the fragments (pieces of rasterized polygons covering a single pixel) that
+ * contribute to each pixel of an image.  Each fragment defines a color by which anything behind it
+ * should be multiplied, and a color which should be added to anything behind it.
+ * <p>
+ * Every pixel has one opaque fragment, which is stored directly in per-pixel arrays.  If nothing
+ * has been rendered into the pixel, this is the background, which has a depth of {@link #BACKGROUND_DEPTH}.
+ * In front of it there may be any number of transparent fragments.  These are stored in a pool of
+ * parallel arrays, and linked into a list for each pixel which is sorted from front to back.  Storing
+ * them this way instead of as individual objects greatly reduces the memory and time needed to render
+ * large images.
+ * <p>
+ * The pool is divided into blocks.  Each thread that renders into the buffer reserves a block at a
+ * time for its own use, so it can create fragments without synchronizing with other threads.  The
+ * caller is responsible for making sure only one thread at a time modifies any given pixel.
+ */
+
+public class FragmentBuffer
+{
+  private final int width, height;
+  private final float opaqueDepth[];
+  private final int opaqueColor[], first[];
+  private volatile Block blocks[];
+  private int numBlocks;
+
+  public static final float BACKGROUND_DEPTH = Float.MAX_VALUE;
+  public static final int NONE = -1;
+
+  private static final int BLOCK_BITS = 12;
+  private static final int BLOCK_SIZE = 1<<BLOCK_BITS;
+  private static final int BLOCK_MASK = BLOCK_SIZE-1;
+
+  /**
+   * Create a FragmentBuffer in which every pixel initially contains only the background.
+   *
+   * @param width     the width of the image in pixels
+   * @param height    the height of the image in pixels
+   */
+
+  public FragmentBuffer(int width, int height)
+  {
+    this.width = width;
+    this.height = height;
+    opaqueDepth = new float [width*height];
+    opaqueColor = new int [width*height];
+    first = new int [width*height];
+    Arrays.fill(opaqueDepth, BACKGROUND_DEPTH);
+    Arrays.fill(first, NONE);
+    blocks = new Block [16];
+  }
+
+  /**
+   * Add a row of fragments to the buffer.  The fragments are taken from the row buffer of a RasterContext,
+   * and all of them belong to the same triangle.
+   *
+   * @param row        the index of the row
+   * @param xstart     the starting position along the row
+   * @param xend       the ending position along the row
+   * @param material   the material for the object being rendered, or null if it has none
+   * @param entering   true if the material is being entered, false if it is being exited
+   * @param context    the RasterContext from which to copy the fragments
+   */
+
+  public void addRow(int row, int xstart, int xend, ObjectMaterialInfo material, boolean entering, RasterContext context)
+  {
+    boolean hasFragment[] = context.hasFragment;
+    int addColor[] = context.fragmentAddColor, multColor[] = context.fragmentMultColor;
+    float depth[] = context.fragmentDepth;
+    int indexBase = row*width;
+
+    for (int x = xstart; x < xend; x++)
+    {
+      if (!hasFragment[x])
+        continue;
+      if (multColor[x] == 0)
+        addOpaqueFragment(indexBase+x, addColor[x], depth[x]);
+      else
+        addTransparentFragment(indexBase+x, addColor[x], multColor[x], depth[x], material, entering, context);
+    }
+  }
+
+  /**
+   * Add an opaque fragment to a pixel.  If it is in front of the current opaque fragment, it replaces
+   * that one, and any transparent fragments behind it are discarded.
+   */
+
+  private void addOpaqueFragment(int pixel, int addColor, float depth)
+  {
+    if (!(depth < opaqueDepth[pixel]))
+      return;
+    opaqueDepth[pixel] = depth;
+    opaqueColor[pixel] = addColor;
+    int prev = NONE, current = first[pixel];
+    while (current != NONE && getDepth(current) <= depth)
+    {
+      prev = current;
+      current = getNextFragment(current);
+    }
+    if (current == NONE)
+      return;
+    if (prev == NONE)
+      first[pixel] = NONE;
+    else
+      blocks[prev>>>BLOCK_BITS].next[prev&BLOCK_MASK] = NONE;
+  }
+
+  /**
+   * Add a transparent fragment to a pixel, inserting it into the list at the correct point.
+   */
+
+  private void addTransparentFragment(int pixel, int addColor, int multColor, float depth, ObjectMaterialInfo material, boolean entering, RasterContext context)
+  {
+    if (!(depth < opaqueDepth[pixel]))
+      return;
+
+    // Find where it goes in the list.  When a fragment enters a material at the same depth as another
+    // one exits it, the material is entered before it is exited.
+
+    int prev = NONE, current = first[pixel];
+    if (current != NONE && depth >= getDepth(current))
+    {
+      while (true)
+      {
+        if (material != null && entering && depth == getDepth(current) && getMaterial(current) == material && !isEntering(current))
+          break;
+        prev = current;
+        current = getNextFragment(current);
+        if (current == NONE || depth < getDepth(current))
+          break;
+      }
+    }
+
+    // Create the new fragment.
+
+    if (context.nextFragment == context.endFragment)
+    {
+      context.nextFragment = allocateBlock();
+      context.endFragment = context.nextFragment+BLOCK_SIZE;
+    }
+    int index = context.nextFragment++;
+    Block block = blocks[index>>>BLOCK_BITS];
+    int i = index&BLOCK_MASK;
+    block.addColor[i] = addColor;
+    block.multColor[i] = multColor;
+    block.depth[i] = depth;
+    block.material[i] = material;
+    block.entering[i] = entering;
+    block.next[i] = current;
+    if (prev == NONE)
+      first[pixel] = index;
+    else
+      blocks[prev>>>BLOCK_BITS].next[prev&BLOCK_MASK] = index;
+  }
+
+  /**
+   * Reserve a block of fragments for the calling thread, and return the index of the first one.
+   */
+
+  private synchronized int allocateBlock()
+  {
+    if (numBlocks == Integer.MAX_VALUE>>>BLOCK_BITS)
+      throw new OutOfMemoryError("Too many fragments");
+    Block newBlocks[] = blocks;
+    if (numBlocks == newBlocks.length)
+      newBlocks = Arrays.copyOf(newBlocks, Math.min(2*numBlocks, Integer.MAX_VALUE>>>BLOCK_BITS));
+    newBlocks[numBlocks] = new Block();
+    blocks = newBlocks;
+    return (numBlocks++)<<BLOCK_BITS;
+  }
+
+  /** Get the width of the image. */
+
+  public int getWidth()
+  {
+    return width;
+  }
+
+  /** Get the height of the image. */
+
+  public int getHeight()
+  {
+    return height;
+  }
+
+  /**
+   * Get the depth of the frontmost opaque fragment in a pixel.  Anything beyond this depth has no
+   * effect on the final color.
+   */
+
+  public float getOpaqueDepth(int pixel)
+  {
+    return opaqueDepth[pixel];
+  }
+
+  /**
+   * Get the additive color of the frontmost opaque fragment in a pixel, in ERGB format.
+   */
+
+  public int getOpaqueColor(int pixel)
+  {
+    return opaqueColor[pixel];
+  }
+
+  /**
+   * Get the index of the frontmost transparent fragment in a pixel, or {@link #NONE} if there are no
+   * transparent fragments in front of the opaque one.
+   */
+
+  public int getFirstFragment(int pixel)
+  {
+    return first[pixel];
+  }
+
+  /**
+   * Get the depth of the frontmost fragment in a pixel.
+   */
+
+  public float getFrontDepth(int pixel)
+  {
+    int f = first[pixel];
+    return (f == NONE ? opaqueDepth[pixel] : getDepth(f));
+  }
+
+  /**
+   * Get the additive color of the frontmost fragment in a pixel, in ERGB format.
+   */
+
+  public int getFrontColor(int pixel)
+  {
+    int f = first[pixel];
+    return (f == NONE ? opaqueColor[pixel] : getAdditiveColor(f));
+  }
+
+  /**
+   * Get the index of the next transparent fragment behind a given one, or {@link #NONE} if the
+   * next fragment is the opaque one.
+   */
+
+  public int getNextFragment(int fragment)
+  {
+    return blocks[fragment>>>BLOCK_BITS].next[fragment&BLOCK_MASK];
+  }
+
+  /** Get the depth of a transparent fragment. */
+
+  public float getDepth(int fragment)
+  {
+    return blocks[fragment>>>BLOCK_BITS].depth[fragment&BLOCK_MASK];
+  }
+
+  /** Get the additive color of a transparent fragment, in ERGB format. */
+
+  public int getAdditiveColor(int fragment)
+  {
+    return blocks[fragment>>>BLOCK_BITS].addColor[fragment&BLOCK_MASK];
+  }
+
+  /** Get the multiplicative color of a transparent fragment, in ERGB format. */
+
+  public int getMultiplicativeColor(int fragment)
+  {
+    return blocks[fragment>>>BLOCK_BITS].multColor[fragment&BLOCK_MASK];
+  }
+
+  /** Get the material for the object a transparent fragment is part of.  This may return null. */
+
+  public ObjectMaterialInfo getMaterial(int fragment)
+  {
+    return blocks[fragment>>>BLOCK_BITS].material[fragment&BLOCK_MASK];
+  }
+
+  /** Get whether the material is being entered or exited at a transparent fragment. */
+
+  public boolean isEntering(int fragment)
+  {
+    return blocks[fragment>>>BLOCK_BITS].entering[fragment&BLOCK_MASK];
+  }
+
+  /**
+   * This class holds one block of the fragment pool.
+   */
+
+  private static class Block
+  {
+    final int addColor[] = new int [BLOCK_SIZE];
+    final int multColor[] = new int [BLOCK_SIZE];
+    final int next[] = new int [BLOCK_SIZE];
+    final float depth[] = new float [BLOCK_SIZE];
+    final ObjectMaterialInfo material[] = new ObjectMaterialInfo [BLOCK_SIZE];
+    final boolean entering[] = new boolean [BLOCK_SIZE];
+  }
+}
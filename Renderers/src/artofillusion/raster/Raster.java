@@ -31,12 +31,14 @@ public class Raster implements Renderer, Runnable
 {
   private ObjectInfo light[];
   private BTabbedPane configPanel;
-  private BCheckBox transparentBox, adaptiveBox, hideBackfaceBox, hdrBox;
-  private BComboBox shadeChoice, aliasChoice, sampleChoice;
-  private ValueField errorField, smoothField;
+  private BCheckBox transparentBox, adaptiveBox, hideBackfaceBox, hdrBox, tileBox, shadowBox;
+  private BComboBox shadeChoice, aliasChoice, sampleChoice, shadowSizeChoice;
+  private ValueField errorField, smoothField, shadowFilterField;
   private int imagePixel[], width, height, envMode, imageWidth, imageHeight;
-  private int shadingMode = PHONG, samplesPerPixel = 1, subsample = 1;
-  private Fragment fragment[];
+  private int shadingMode = PHONG, samplesPerPixel = 1, subsample = 1, tileSize, tilesX, tilesY;
+  private int shadowMapSize = 1024, shadowFilterRadius = 1;
+  private FragmentBuffer fragments;
+  private ShadowMap shadowMap[];
   private long updateTime;
   private MemoryImageSource imageSource;
   private Scene theScene;
@@ -50,7 +52,7 @@ public class Raster implements Renderer, Runnable
   private RowLock lock[];
   private double envParamValue[];
   private double time, smoothing = 1.0, smoothScale, focalDist, surfaceError = 0.02, fogDist;
-  private boolean fog, transparentBackground = false, adaptive = true, hideBackfaces = true, generateHDR = false, positionNeeded, depthNeeded, needCopyToUI = true;
+  private boolean fog, transparentBackground = false, adaptive = true, hideBackfaces = true, generateHDR = false, renderInTiles = false, shadows = false, positionNeeded, depthNeeded, needCopyToUI = true;
   private boolean isPreview;
 
   public static final int GOURAUD = 0;
@@ -58,9 +60,10 @@ public class Raster implements Renderer, Runnable
   public static final int PHONG = 2;
 
   public static final double TOL = 1e-12;
+  public static final int TILE_SIZE = 64;
   public static final float INTENSITY_CUTOFF = 0.005f;
+  public static final int SHADOW_MAP_SIZES[] = {512, 1024, 2048, 4096};
 
-  public static final Fragment BACKGROUND_FRAGMENT = new OpaqueFragment(0, Float.MAX_VALUE);
   private static final int WHITE_ERGB = new RGBColor(1.0f, 1.0f, 1.0f).getERGB();
 
   public Raster()
@@ -69,7 +72,7 @@ public class Raster implements Renderer, Runnable
       @Override
       protected Object initialValue()
       {
-        return new RasterContext(theCamera, width);
+        return new RasterContext(theCamera, width, height);
       }
     };
     threadCompositingContext = new ThreadLocal() {
@@ -201,12 +204,28 @@ public class Raster implements Renderer, Runnable
 
       // Advanced options panel.
 
-      FormContainer advancedPanel = new FormContainer(new double [] {0.0, 1.0}, new double [4]);
+      FormContainer advancedPanel = new FormContainer(new double [] {0.0, 1.0}, new double [8]);
       advancedPanel.add(Translate.label("texSmoothing"), 0, 0, leftLayout);
       advancedPanel.add(smoothField = new ValueField(smoothing, ValueField.NONNEGATIVE), 1, 0, rightLayout);
       advancedPanel.add(adaptiveBox = new BCheckBox(Translate.text("reduceAccuracyForDistant"), adaptive), 0, 1, 2, 1, rightLayout);
       advancedPanel.add(hideBackfaceBox = new BCheckBox(Translate.text("eliminateBackfaces"), hideBackfaces), 0, 2, 2, 1, rightLayout);
       advancedPanel.add(hdrBox = new BCheckBox(Translate.text("generateHDR"), generateHDR), 0, 3, 2, 1, rightLayout);
+      advancedPanel.add(tileBox = new BCheckBox(Translate.text("renderInTiles"), renderInTiles), 0, 4, 2, 1, rightLayout);
+      advancedPanel.add(shadowBox = new BCheckBox(Translate.text("renderShadowMaps"), shadows), 0, 5, 2, 1, rightLayout);
+      advancedPanel.add(Translate.label("shadowMapSize"), 0, 6, leftLayout);
+      String sizeNames[] = new String [SHADOW_MAP_SIZES.length];
+      for (int i = 0; i < sizeNames.length; i++)
+        sizeNames[i] = SHADOW_MAP_SIZES[i]+"x"+SHADOW_MAP_SIZES[i];
+      advancedPanel.add(shadowSizeChoice = new BComboBox(sizeNames), 1, 6, rightLayout);
+      advancedPanel.add(Translate.label("shadowSoftness"), 0, 7, leftLayout);
+      advancedPanel.add(shadowFilterField = new ValueField(shadowFilterRadius, ValueField.NONNEGATIVE+ValueField.INTEGER, 4), 1, 7, rightLayout);
+      shadowBox.addEventLink(ValueChangedEvent.class, new Object() {
+        void processEvent()
+        {
+          shadowSizeChoice.setEnabled(shadowBox.getState());
+          shadowFilterField.setEnabled(shadowBox.getState());
+        }
+      });
 
       // Create the tabbed pane.
 
@@ -230,6 +249,15 @@ public class Raster implements Renderer, Runnable
     adaptiveBox.setState(adaptive);
     hideBackfaceBox.setState(hideBackfaces);
     hdrBox.setState(generateHDR);
+    tileBox.setState(renderInTiles);
+    shadowBox.setState(shadows);
+    shadowSizeChoice.setSelectedIndex(0);
+    for (int i = 0; i < SHADOW_MAP_SIZES.length; i++)
+      if (SHADOW_MAP_SIZES[i] <= shadowMapSize)
+        shadowSizeChoice.setSelectedIndex(i);
+    shadowSizeChoice.setEnabled(shadows);
+    shadowFilterField.setValue(shadowFilterRadius);
+    shadowFilterField.setEnabled(shadows);
     errorField.setValue(surfaceError);
     shadeChoice.setSelectedIndex(shadingMode);
     transparentBox.setState(transparentBackground);
@@ -257,6 +285,10 @@ public class Raster implements Renderer, Runnable
     adaptive = adaptiveBox.getState();
     hideBackfaces = hideBackfaceBox.getState();
     generateHDR = hdrBox.getState();
+    renderInTiles = tileBox.getState();
+    shadows = shadowBox.getState();
+    shadowMapSize = SHADOW_MAP_SIZES[shadowSizeChoice.getSelectedIndex()];
+    shadowFilterRadius = (int) shadowFilterField.getValue();
     surfaceError = errorField.getValue();
     shadingMode = shadeChoice.getSelectedIndex();
     transparentBackground = transparentBox.getState();
@@ -282,6 +314,10 @@ public class Raster implements Renderer, Runnable
     map.put("reduceAccuracyForDistant", adaptive);
     map.put("hideBackfaces", hideBackfaces);
     map.put("highDynamicRange", generateHDR);
+    map.put("renderInTiles", renderInTiles);
+    map.put("shadows", shadows);
+    map.put("shadowMapSize", shadowMapSize);
+    map.put("shadowFilterRadius", shadowFilterRadius);
     map.put("maxSurfaceError", surfaceError);
     map.put("shadingMethod", shadingMode);
     map.put("transparentBackground", transparentBackground);
@@ -307,6 +343,14 @@ public class Raster implements Renderer, Runnable
       hideBackfaces = (Boolean) value;
     else if ("highDynamicRange".equals(property))
       generateHDR = (Boolean) value;
+    else if ("renderInTiles".equals(property))
+      renderInTiles = (Boolean) value;
+    else if ("shadows".equals(property))
+      shadows = (Boolean) value;
+    else if ("shadowMapSize".equals(property))
+      shadowMapSize = Math.max(((Number) value).intValue(), 16);
+    else if ("shadowFilterRadius".equals(property))
+      shadowFilterRadius = Math.max(((Number) value).intValue(), 0);
     else if ("maxSurfaceError".equals(property))
       surfaceError = ((Number) value).doubleValue();
     else if ("shadingMethod".equals(property))
@@ -349,7 +393,7 @@ public class Raster implements Renderer, Runnable
     transparentBackground = false;
     smoothing = 1.0;
     adaptive = hideBackfaces = true;
-    generateHDR = false;
+    generateHDR = shadows = false;
     surfaceError = ArtOfIllusion.getPreferences().getInteractiveSurfaceError();
     shadingMode = HYBRID;
     samplesPerPixel = subsample = 1;
@@ -375,6 +419,8 @@ public class Raster implements Renderer, Runnable
         light[i] = lt.elementAt(i);
         if (!(light[i].getObject() instanceof DirectionalLight))
           positionNeeded = true;
+        else if (shadows && ((Light) light[i].getObject()).getType() == Light.TYPE_NORMAL)
+          positionNeeded = true;
       }
   }
 
@@ -386,11 +432,14 @@ public class Raster implements Renderer, Runnable
     final Thread thisThread = Thread.currentThread();
     if (renderThread != thisThread)
       return;
-    fragment = new Fragment [width*height];
-    Arrays.fill(fragment, BACKGROUND_FRAGMENT);
-    lock = new RowLock[height];
-    for (int i = 0; i < lock.length; i++)
-      lock[i] = new RowLock();
+    fragments = new FragmentBuffer(width, height);
+    lock = null;
+    if (!renderInTiles)
+    {
+      lock = new RowLock[height];
+      for (int i = 0; i < lock.length; i++)
+        lock[i] = new RowLock();
+    }
     updateTime = System.currentTimeMillis();
 
     // Record information about the scene.
@@ -408,6 +457,14 @@ public class Raster implements Renderer, Runnable
     for (int i = 0; i < envParamValue.length; i++)
       envParamValue[i] = envParam[i].getAverageValue();
 
+    // Build the shadow maps.
+
+    shadowMap = null;
+    if (shadows)
+      shadowMap = buildShadowMaps(thisThread);
+    if (renderThread != thisThread)
+      return;
+
     // Determine information about the viewpoint.
 
     final Vec3 viewdir = theCamera.getViewToWorld().timesDirection(Vec3.vz());
@@ -425,28 +482,324 @@ public class Raster implements Renderer, Runnable
     // Render the objects.
 
     final ObjectInfo sortedObjects[] = sortObjects();
+    if (renderInTiles)
+      renderTiles(sortedObjects, orig, viewdir, thisThread);
+    else
+    {
+      ThreadManager threads = new ThreadManager(sortedObjects.length, new ThreadManager.Task() {
+            @Override
+        public void execute(int index)
+        {
+          RasterContext context = (RasterContext) threadRasterContext.get();
+          ObjectInfo obj = sortedObjects[index];
+          context.camera.setObjectTransform(obj.getCoords().fromLocal());
+          renderObject(obj, orig, viewdir, obj.getCoords().toLocal(), context, thisThread, null);
+          if (thisThread != renderThread)
+            return;
+          if (System.currentTimeMillis()-updateTime > 5000)
+            updateImage();
+        }
+            @Override
+        public void cleanup()
+        {
+          ((RasterContext) threadRasterContext.get()).cleanup();
+          threadRasterContext.remove();
+        }
+      });
+      threads.run();
+      threads.finish();
+    }
+    finish(createFinalImage(center, orig, hvec, vvec));
+  }
+
+  /**
+   * Render the objects by first sorting their triangles into bins based on which tiles of the image
+   * they overlap, then rendering each tile independently.  Each tile is rendered by a single thread,
+   * so fragments can be recorded without locking, and the work is divided evenly between threads
+   * no matter how the geometry is divided into objects.
+   */
+
+  private void renderTiles(final ObjectInfo sortedObjects[], final Vec3 orig, final Vec3 viewdir, final Thread mainThread)
+  {
+    // Tile boundaries must fall on multiples of the subsampling rate, so subsampled pixels are
+    // shaded the same way they would be if the whole image were rendered at once.
+
+    tileSize = TILE_SIZE*samplesPerPixel;
+    tilesX = (width+tileSize-1)/tileSize;
+    tilesY = (height+tileSize-1)/tileSize;
+
+    // Triangulate the objects and sort their triangles into tiles.
+
+    final ObjectMesh objectMeshes[][] = new ObjectMesh [sortedObjects.length][];
     ThreadManager threads = new ThreadManager(sortedObjects.length, new ThreadManager.Task() {
-          @Override
+      @Override
       public void execute(int index)
       {
         RasterContext context = (RasterContext) threadRasterContext.get();
         ObjectInfo obj = sortedObjects[index];
+        ArrayList<ObjectMesh> list = new ArrayList<ObjectMesh>();
         context.camera.setObjectTransform(obj.getCoords().fromLocal());
-        renderObject(obj, orig, viewdir, obj.getCoords().toLocal(), context, thisThread);
-        if (thisThread != renderThread)
-          return;
+        renderObject(obj, orig, viewdir, obj.getCoords().toLocal(), context, mainThread, list);
+        objectMeshes[index] = list.toArray(new ObjectMesh [list.size()]);
+      }
+      @Override
+      public void cleanup()
+      {
+        ((RasterContext) threadRasterContext.get()).cleanup();
+        threadRasterContext.remove();
+      }
+    });
+    threads.run();
+    threads.finish();
+    if (mainThread != renderThread)
+      return;
+    final ArrayList<ObjectMesh> meshes = new ArrayList<ObjectMesh>();
+    for (ObjectMesh list[] : objectMeshes)
+      if (list != null)
+        meshes.addAll(Arrays.asList(list));
+
+    // Render the tiles.
+
+    threads = new ThreadManager(tilesX*tilesY, new ThreadManager.Task() {
+      @Override
+      public void execute(int index)
+      {
+        RasterContext context = (RasterContext) threadRasterContext.get();
+        int x = (index%tilesX)*tileSize, y = (index/tilesX)*tileSize;
+        context.setClipWindow(x, y, Math.min(x+tileSize, width), Math.min(y+tileSize, height));
+        for (ObjectMesh m : meshes)
+        {
+          if (mainThread != renderThread)
+            return;
+          if (m.tileTriangles[index] != null)
+            renderMesh(m, m.tileTriangles[index], context);
+        }
         if (System.currentTimeMillis()-updateTime > 5000)
           updateImage();
       }
-          @Override
+      @Override
       public void cleanup()
       {
         ((RasterContext) threadRasterContext.get()).cleanup();
+        threadRasterContext.remove();
       }
     });
     threads.run();
     threads.finish();
-    finish(createFinalImage(center, orig, hvec, vvec));
+  }
+
+  /**
+   * Build a shadow map for every light that casts shadows.  First the triangles of every visible
+   * object are collected, then they are rasterized into the maps.  Each step is divided between
+   * threads: the first by object, the second by bands of rows within each face of each map.
+   *
+   * @return an array containing the map for each light, with null for lights that do not cast shadows
+   */
+
+  private ShadowMap[] buildShadowMaps(final Thread mainThread)
+  {
+    final Vec3 orig = theCamera.getCameraCoordinates().getOrigin();
+    final ObjectInfo objects[] = theScene.getObjects().toArray(new ObjectInfo [0]);
+    final ShadowCaster objectCasters[][] = new ShadowCaster [objects.length][];
+    ThreadManager threads = new ThreadManager(objects.length, new ThreadManager.Task() {
+      @Override
+      public void execute(int index)
+      {
+        if (mainThread != renderThread)
+          return;
+        ObjectInfo obj = objects[index];
+        ArrayList<ShadowCaster> list = new ArrayList<ShadowCaster>();
+        findShadowCasters(obj, obj.getCoords(), orig, list);
+        objectCasters[index] = list.toArray(new ShadowCaster [list.size()]);
+      }
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    threads.run();
+    threads.finish();
+    if (mainThread != renderThread)
+      return null;
+    final ArrayList<ShadowCaster> casters = new ArrayList<ShadowCaster>();
+    BoundingBox casterBounds = null;
+    for (ShadowCaster list[] : objectCasters)
+      if (list != null)
+        for (ShadowCaster c : list)
+        {
+          casters.add(c);
+          casterBounds = (casterBounds == null ? c.bounds : casterBounds.merge(c.bounds));
+        }
+    if (casterBounds == null)
+      return null;
+
+    // Find the region that is visible to the camera, since only points there will ever be looked
+    // up in a directional light's map.
+
+    BoundingBox receiverBounds = null;
+    Camera cam = theCamera.duplicate();
+    for (ObjectInfo obj : objects)
+    {
+      if (!obj.isVisible() || obj.getObject() instanceof Light)
+        continue;
+      cam.setObjectTransform(obj.getCoords().fromLocal());
+      if (cam.visibility(obj.getBounds()) == Camera.NOT_VISIBLE)
+        continue;
+      BoundingBox b = obj.getBounds().transformAndOutset(obj.getCoords().fromLocal());
+      receiverBounds = (receiverBounds == null ? b : receiverBounds.merge(b));
+    }
+    if (receiverBounds == null)
+      return null;
+
+    // Create the maps.
+
+    final ShadowMap maps[] = new ShadowMap [light.length];
+    int radius = Math.min(shadowFilterRadius, shadowMapSize/8);
+    double near = Math.max(casterBounds.getSize().length()*1e-5, TOL);
+    final ArrayList<int[]> tasks = new ArrayList<int[]>();
+    for (int i = 0; i < light.length; i++)
+    {
+      Light lt = (Light) light[i].getObject();
+      if (lt.getType() != Light.TYPE_NORMAL)
+        continue;
+      CoordinateSystem coords = light[i].getCoords();
+      if (lt instanceof DirectionalLight)
+        maps[i] = ShadowMap.createDirectional(coords, casterBounds, receiverBounds, shadowMapSize, radius);
+      else if (lt instanceof SpotLight && ((SpotLight) lt).getAngle() < 150.0)
+        maps[i] = ShadowMap.createSpot(coords, ((SpotLight) lt).getAngle()*Math.PI/360.0, near, shadowMapSize, radius);
+      else if (lt instanceof PointLight || lt instanceof SpotLight)
+        maps[i] = ShadowMap.createPoint(coords.getOrigin(), near, shadowMapSize, radius);
+      else
+        continue;
+      for (int face = 0; face < maps[i].getNumFaces(); face++)
+        for (int band = 0; band < maps[i].getNumBands(); band++)
+          tasks.add(new int [] {i, face, band});
+    }
+
+    // Rasterize the triangles into them.
+
+    final ThreadLocal<double[]> threadTemp = new ThreadLocal<double[]>();
+    threads = new ThreadManager(tasks.size(), new ThreadManager.Task() {
+      @Override
+      public void execute(int index)
+      {
+        int task[] = tasks.get(index);
+        ShadowMap map = maps[task[0]];
+        double temp[] = threadTemp.get();
+        for (ShadowCaster c : casters)
+        {
+          if (mainThread != renderThread)
+            return;
+          temp = map.rasterize(task[1], task[2], c.vert, c.tri, c.bounds, temp);
+        }
+        threadTemp.set(temp);
+      }
+      @Override
+      public void cleanup()
+      {
+        threadTemp.remove();
+      }
+    });
+    threads.run();
+    threads.finish();
+    return maps;
+  }
+
+  /**
+   * Find the triangles of an object which may cast shadows, and add them to a list.
+   *
+   * @param obj       the object
+   * @param coords    the coordinate system of the object, relative to the world
+   * @param orig      the position of the camera
+   * @param casters   the triangles are added to this list
+   */
+
+  private void findShadowCasters(ObjectInfo obj, CoordinateSystem coords, Vec3 orig, ArrayList<ShadowCaster> casters)
+  {
+    if (!obj.isVisible())
+      return;
+    Object3D theObject = obj.getObject();
+    while (theObject instanceof ObjectWrapper)
+      theObject = ((ObjectWrapper) theObject).getWrappedObject();
+    if (theObject instanceof Light)
+      return;
+    if (theObject instanceof ObjectCollection)
+      {
+        Enumeration objects = ((ObjectCollection) theObject).getObjects(obj, false, theScene);
+        Mat4 fromLocal = coords.fromLocal();
+        while (objects.hasMoreElements())
+          {
+            ObjectInfo elem = (ObjectInfo) objects.nextElement();
+            CoordinateSystem elemCoords = elem.getCoords().duplicate();
+            elemCoords.transformCoordinates(fromLocal);
+            findShadowCasters(elem, elemCoords, orig, casters);
+          }
+        return;
+      }
+    double tol = getSurfaceTolerance(obj, coords.toLocal(), orig);
+    RenderingMesh mesh = (isPreview ? obj.getPreviewMesh() : obj.getRenderingMesh(tol));
+    if (mesh == null || mesh.triangle.length == 0)
+      return;
+    Mat4 fromLocal = coords.fromLocal();
+    RenderingTriangle tri[] = mesh.triangle;
+    ShadowCaster c = new ShadowCaster();
+    if (theObject.getTexture() != null && theObject.getTexture().hasComponent(Texture.DISPLACEMENT_COMPONENT))
+    {
+      // Give each triangle its own vertices, displaced by the amount at each corner.
+
+      c.vert = new double [9*tri.length];
+      c.tri = new int [3*tri.length];
+      Vec3 v = new Vec3();
+      for (int i = 0; i < tri.length; i++)
+      {
+        RenderingTriangle t = tri[i];
+        int vertIndex[] = new int [] {t.v1, t.v2, t.v3}, normIndex[] = new int [] {t.n1, t.n2, t.n3};
+        for (int j = 0; j < 3; j++)
+        {
+          double disp = t.getDisplacement(j == 0 ? 1.0 : 0.0, j == 1 ? 1.0 : 0.0, j == 2 ? 1.0 : 0.0, tol, time);
+          Vec3 vert = mesh.vert[vertIndex[j]], norm = mesh.norm[normIndex[j]];
+          v.set(vert.x+disp*norm.x, vert.y+disp*norm.y, vert.z+disp*norm.z);
+          fromLocal.transform(v);
+          c.vert[9*i+3*j] = v.x;
+          c.vert[9*i+3*j+1] = v.y;
+          c.vert[9*i+3*j+2] = v.z;
+          c.tri[3*i+j] = 3*i+j;
+        }
+      }
+    }
+    else
+    {
+      c.vert = new double [3*mesh.vert.length];
+      c.tri = new int [3*tri.length];
+      Vec3 v = new Vec3();
+      for (int i = 0; i < mesh.vert.length; i++)
+      {
+        v.set(mesh.vert[i]);
+        fromLocal.transform(v);
+        c.vert[3*i] = v.x;
+        c.vert[3*i+1] = v.y;
+        c.vert[3*i+2] = v.z;
+      }
+      for (int i = 0; i < tri.length; i++)
+      {
+        c.tri[3*i] = tri[i].v1;
+        c.tri[3*i+1] = tri[i].v2;
+        c.tri[3*i+2] = tri[i].v3;
+      }
+    }
+    double minx = Double.MAX_VALUE, miny = Double.MAX_VALUE, minz = Double.MAX_VALUE;
+    double maxx = -Double.MAX_VALUE, maxy = -Double.MAX_VALUE, maxz = -Double.MAX_VALUE;
+    for (int i = 0; i < c.vert.length; i += 3)
+    {
+      minx = Math.min(minx, c.vert[i]);
+      maxx = Math.max(maxx, c.vert[i]);
+      miny = Math.min(miny, c.vert[i+1]);
+      maxy = Math.max(maxy, c.vert[i+1]);
+      minz = Math.min(minz, c.vert[i+2]);
+      maxz = Math.max(maxz, c.vert[i+2]);
+    }
+    c.bounds = new BoundingBox(minx, maxx, miny, maxy, minz, maxz);
+    casters.add(c);
   }
 
   /**
@@ -514,7 +867,7 @@ public class Raster implements Renderer, Runnable
       for (int i1 = 0, i2 = 0; i1 < imageHeight; i1++, i2 += samplesPerPixel)
         for (int j1 = 0, j2 = 0; j1 < imageWidth; j1++, j2 += samplesPerPixel)
         {
-          fragment[i2*width+j2].getAdditiveColor(frontColor);
+          frontColor.setERGB(fragments.getFrontColor(i2*width+j2));
           imagePixel[i1*imageWidth+j1] = frontColor.getARGB();
         }
     imageSource.newPixels();
@@ -570,32 +923,40 @@ public class Raster implements Renderer, Runnable
 
               subpixelColor.setRGB(0.0f, 0.0f, 0.0f);
               subpixelMult.setRGB(1.0f, 1.0f, 1.0f);
-              Fragment f = fragment[base+m];
+              int index = base+m;
+              int f = fragments.getFirstFragment(index);
               float lastDepth = 0;
               while (true)
               {
+                // Each transparent fragment is followed by the next one, until we reach the opaque
+                // fragment (or background) at the end of the list.
+
+                boolean isOpaque = (f == FragmentBuffer.NONE);
+                float depth = (isOpaque ? fragments.getOpaqueDepth(index) : fragments.getDepth(f));
+                boolean isBackground = (isOpaque && depth == FragmentBuffer.BACKGROUND_DEPTH);
+
                 // Factor in materials.
 
-                ObjectMaterialInfo fragmentMaterial = f.getMaterialMapping();
+                ObjectMaterialInfo fragmentMaterial = (isOpaque ? null : fragments.getMaterial(f));
                 ObjectMaterialInfo currentMaterial = null;
                 if (materialStack.size() > 0)
                   currentMaterial = materialStack.get(materialStack.size()-1);
-                adjustColorsForMaterial(currentMaterial, j2+m, i2+k, lastDepth, f.getDepth(), addColor, context.multColor, context);
+                adjustColorsForMaterial(currentMaterial, j2+m, i2+k, lastDepth, depth, addColor, context.multColor, context);
                 addColor.multiply(subpixelMult);
                 subpixelColor.add(addColor);
                 subpixelMult.multiply(multColor);
                 if (fragmentMaterial != null)
                 {
-                  if (f.isEntering())
+                  if (fragments.isEntering(f))
                     materialStack.add(fragmentMaterial);
                   else
                     materialStack.remove(fragmentMaterial);
                 }
-                lastDepth = f.getDepth();
+                lastDepth = depth;
 
                 // If we've reached the end, factor in the background.
 
-                if (f == BACKGROUND_FRAGMENT)
+                if (isBackground)
                 {
                   if (transparentBackground)
                   {
@@ -623,21 +984,21 @@ public class Raster implements Renderer, Runnable
                   }
                 }
                 else
-                  f.getAdditiveColor(addColor);
+                  addColor.setERGB(isOpaque ? fragments.getOpaqueColor(index) : fragments.getAdditiveColor(f));
 
                 // Factor in the fragment color.
 
                 addColor.multiply(subpixelMult);
                 subpixelColor.add(addColor);
-                if (f.isOpaque())
+                if (isOpaque)
                 {
-                  if (f != BACKGROUND_FRAGMENT || !transparentBackground)
+                  if (!isBackground || !transparentBackground)
                     subpixelMult.setRGB(0.0f, 0.0f, 0.0f);
                   break;
                 }
-                f.getMultiplicativeColor(multColor);
+                multColor.setERGB(fragments.getMultiplicativeColor(f));
                 subpixelMult.multiply(multColor);
-                f = f.getNextFragment();
+                f = fragments.getNextFragment(f);
               }
               totalColor.add(subpixelColor);
               totalTransparency.add(subpixelMult);
@@ -663,6 +1024,7 @@ public class Raster implements Renderer, Runnable
       public void cleanup()
       {
         ((CompositingContext) threadCompositingContext.get()).cleanup();
+        threadCompositingContext.remove();
       }
     });
     threads.run();
@@ -690,7 +1052,7 @@ public class Raster implements Renderer, Runnable
             int base = width*(i2+k)+j2;
             for (int m = 0; m < samplesPerPixel; m++)
             {
-              float z = fragment[base+m].getDepth();
+              float z = fragments.getFrontDepth(base+m);
               if (z < minDepth)
                 minDepth = z;
             }
@@ -798,7 +1160,8 @@ public class Raster implements Renderer, Runnable
     img = null;
     imageSource = null;
     imagePixel = null;
-    fragment = null;
+    fragments = null;
+    shadowMap = null;
     RenderListener rl = listener;
     listener = null;
     renderThread = null;
@@ -831,9 +1194,11 @@ public class Raster implements Renderer, Runnable
   }
 
   /** Render a single object into the scene.  viewdir is the direction from
-     which the object is being viewed in world coordinates. */
+     which the object is being viewed in world coordinates.  If meshes is not null, the object
+     is not rendered immediately.  Instead, its triangles are sorted into tiles and it is added
+     to the list, so it can be rendered later by {@link #renderTiles}. */
 
-  private void renderObject(ObjectInfo obj, Vec3 orig, Vec3 viewdir, Mat4 toLocal, RasterContext context, Thread mainThread)
+  private void renderObject(ObjectInfo obj, Vec3 orig, Vec3 viewdir, Mat4 toLocal, RasterContext context, Thread mainThread, ArrayList<ObjectMesh> meshes)
   {
     RenderingMesh mesh;
     Object3D theObject;
@@ -851,59 +1216,182 @@ public class Raster implements Renderer, Runnable
       theObject = ((ObjectWrapper) theObject).getWrappedObject();
     if (theObject instanceof ObjectCollection)
       {
-        Enumeration objects = ((ObjectCollection) theObject).getObjects(obj, false, theScene);
+        Enumeration<ObjectInfo> objects = ((ObjectCollection) theObject).getObjects(obj, false, theScene);
         Mat4 fromLocal = context.camera.getObjectToWorld();
         while (objects.hasMoreElements())
           {
-            ObjectInfo elem = (ObjectInfo) objects.nextElement();
+            ObjectInfo elem = objects.nextElement();
             CoordinateSystem coords = elem.getCoords().duplicate();
             coords.transformCoordinates(fromLocal);
             context.camera.setObjectTransform(coords.fromLocal());
-            renderObject(elem, orig, viewdir, coords.toLocal(), context, mainThread);
+            renderObject(elem, orig, viewdir, coords.toLocal(), context, mainThread, meshes);
           }
         return;
       }
-    if (adaptive)
-      {
-        double dist = obj.getBounds().distanceToPoint(toLocal.times(orig));
-        double distToScreen = context.camera.getDistToScreen();
-        if (dist < distToScreen)
-          tol = surfaceError;
-        else
-          tol = surfaceError*dist/distToScreen;
-      }
-    else
-      tol = surfaceError;
+    tol = getSurfaceTolerance(obj, toLocal, orig);
     mesh = (isPreview ? obj.getPreviewMesh() : obj.getRenderingMesh(tol));
     if (mesh == null)
       return;
     if (mainThread != renderThread)
       return;
-    viewdir = toLocal.timesDirection(viewdir);
-    if (context.lightPosition == null)
-    {
-      context.lightPosition = new Vec3 [light.length];
-      context.lightDirection = new Vec3 [light.length];
-    }
+    ObjectMesh m = new ObjectMesh();
+    m.mesh = mesh;
+    m.fromLocal = context.camera.getObjectToWorld();
+    m.viewdir = toLocal.timesDirection(viewdir);
+    m.tol = tol;
+    m.lightPosition = new Vec3 [light.length];
+    m.lightDirection = new Vec3 [light.length];
     for (i = light.length-1; i >= 0; i--)
     {
-      context.lightPosition[i] = toLocal.times(light[i].getCoords().getOrigin());
+      m.lightPosition[i] = toLocal.times(light[i].getCoords().getOrigin());
       if (!(light[i].getObject() instanceof PointLight))
-        context.lightDirection[i] = toLocal.timesDirection(light[i].getCoords().getZDirection());
+        m.lightDirection[i] = toLocal.timesDirection(light[i].getCoords().getZDirection());
     }
-    boolean bumpMap = theObject.getTexture().hasComponent(Texture.BUMP_COMPONENT);
-    boolean cullBackfaces = (hideBackfaces && theObject.isClosed() && !theObject.getTexture().hasComponent(Texture.TRANSPARENT_COLOR_COMPONENT));
-    ObjectMaterialInfo material = null;
+    m.bumpMap = theObject.getTexture().hasComponent(Texture.BUMP_COMPONENT);
+    m.cullBackfaces = (hideBackfaces && theObject.isClosed() && !theObject.getTexture().hasComponent(Texture.TRANSPARENT_COLOR_COMPONENT));
     if (theObject.getMaterialMapping() != null)
-      material = new ObjectMaterialInfo(theObject.getMaterialMapping(), toLocal);
-    if (theObject.getTexture().hasComponent(Texture.DISPLACEMENT_COMPONENT))
-      renderMeshDisplaced(mesh, viewdir, tol, cullBackfaces, bumpMap, material, context);
+      m.material = new ObjectMaterialInfo(theObject.getMaterialMapping(), toLocal);
+    m.displaced = theObject.getTexture().hasComponent(Texture.DISPLACEMENT_COMPONENT);
+    if (!m.displaced)
+    {
+      // Find the screen position and depth of every vertex.
+
+      Vec3 vert[] = mesh.vert;
+      Mat4 toView = context.camera.getObjectToView(), toScreen = context.camera.getObjectToScreen();
+      m.pos = new Vec2 [vert.length];
+      m.z = new float [vert.length];
+      for (i = vert.length-1; i >= 0; i--)
+      {
+        m.pos[i] = toScreen.timesXY(vert[i]);
+        m.z[i] = (float) toView.timesZ(vert[i]);
+      }
+    }
+    if (meshes == null)
+      renderMesh(m, null, context);
+    else
+    {
+      binTriangles(m, context);
+      meshes.add(m);
+    }
+  }
+
+  /** Get the surface accuracy to use when triangulating an object. */
+
+  private double getSurfaceTolerance(ObjectInfo obj, Mat4 toLocal, Vec3 orig)
+  {
+    if (!adaptive)
+      return surfaceError;
+    double dist = obj.getBounds().distanceToPoint(toLocal.times(orig));
+    double distToScreen = theCamera.getDistToScreen();
+    if (dist < distToScreen)
+      return surfaceError;
+    return surfaceError*dist/distToScreen;
+  }
+
+  /** Render triangles from a mesh.  If triangles is null, every triangle in the mesh is rendered.
+     Otherwise, only the triangles whose indices it contains are rendered. */
+
+  private void renderMesh(ObjectMesh m, int triangles[], RasterContext context)
+  {
+    context.camera.setObjectTransform(m.fromLocal);
+    context.lightPosition = m.lightPosition;
+    context.lightDirection = m.lightDirection;
+    if (m.displaced)
+      renderMeshDisplaced(m.mesh, triangles, m.viewdir, m.tol, m.cullBackfaces, m.bumpMap, m.material, context);
     else if (shadingMode == GOURAUD)
-      renderMeshGouraud(mesh, viewdir, cullBackfaces, material, context);
-    else if (shadingMode == HYBRID && !bumpMap)
-      renderMeshHybrid(mesh, viewdir, cullBackfaces, material, context);
+      renderMeshGouraud(m.mesh, m.pos, m.z, triangles, m.viewdir, m.cullBackfaces, m.material, context);
+    else if (shadingMode == HYBRID && !m.bumpMap)
+      renderMeshHybrid(m.mesh, m.pos, m.z, triangles, m.viewdir, m.cullBackfaces, m.material, context);
     else
-      renderMeshPhong(mesh, viewdir, cullBackfaces, bumpMap, material, context);
+      renderMeshPhong(m.mesh, m.pos, m.z, triangles, m.viewdir, m.cullBackfaces, m.bumpMap, m.material, context);
+  }
+
+  /** Sort the triangles of a mesh into bins based on which tiles of the image they may overlap.
+     Triangles that are entirely off screen or behind the camera are discarded. */
+
+  private void binTriangles(ObjectMesh m, RasterContext context)
+  {
+    RenderingTriangle tri[] = m.mesh.triangle;
+    int range[] = new int [4*tri.length], count[] = new int [tilesX*tilesY];
+    int single[] = new int [1];
+    double bounds[] = new double [4];
+    float clip = (float) context.camera.getClipDistance();
+
+    // Find the range of tiles covered by each triangle.
+
+    for (int i = 0; i < tri.length; i++)
+    {
+      if (m.displaced)
+      {
+        // We do not know where a displaced triangle will end up until it has been subdivided, so
+        // subdivide it once without rendering it to find its bounds.
+
+        bounds[0] = bounds[1] = Double.MAX_VALUE;
+        bounds[2] = bounds[3] = -Double.MAX_VALUE;
+        single[0] = i;
+        context.displacedBounds = bounds;
+        renderMesh(m, single, context);
+        context.displacedBounds = null;
+      }
+      else
+      {
+        int v1 = tri[i].v1, v2 = tri[i].v2, v3 = tri[i].v3;
+        float z[] = m.z;
+        Vec2 pos[] = m.pos;
+        if (z[v1] < clip && z[v2] < clip && z[v3] < clip)
+          bounds[0] = bounds[2] = Double.MAX_VALUE;
+        else if (z[v1] < clip || z[v2] < clip || z[v3] < clip)
+        {
+          // After clipping, this triangle could end up anywhere on the screen.
+
+          bounds[0] = bounds[1] = -Double.MAX_VALUE;
+          bounds[2] = bounds[3] = Double.MAX_VALUE;
+        }
+        else if (m.cullBackfaces && (pos[v2].x-pos[v1].x)*(pos[v3].y-pos[v1].y) - (pos[v2].y-pos[v1].y)*(pos[v3].x-pos[v1].x) > 0.0)
+          bounds[0] = bounds[2] = Double.MAX_VALUE;
+        else
+        {
+          bounds[0] = Math.min(pos[v1].x, Math.min(pos[v2].x, pos[v3].x));
+          bounds[1] = Math.min(pos[v1].y, Math.min(pos[v2].y, pos[v3].y));
+          bounds[2] = Math.max(pos[v1].x, Math.max(pos[v2].x, pos[v3].x));
+          bounds[3] = Math.max(pos[v1].y, Math.max(pos[v2].y, pos[v3].y));
+        }
+      }
+      double minx = Math.floor(bounds[0]), miny = Math.floor(bounds[1]), maxx = Math.ceil(bounds[2]), maxy = Math.ceil(bounds[3]);
+      if (minx > maxx || minx >= width || miny >= height || maxx < 0.0 || maxy < 0.0)
+      {
+        range[4*i] = -1;
+        continue;
+      }
+      int x1 = (int) Math.max(minx, 0.0)/tileSize, y1 = (int) Math.max(miny, 0.0)/tileSize;
+      int x2 = (int) Math.min(maxx, width-1)/tileSize, y2 = (int) Math.min(maxy, height-1)/tileSize;
+      range[4*i] = x1;
+      range[4*i+1] = y1;
+      range[4*i+2] = x2;
+      range[4*i+3] = y2;
+      for (int y = y1; y <= y2; y++)
+        for (int x = x1; x <= x2; x++)
+          count[y*tilesX+x]++;
+    }
+
+    // Record which triangles are in each tile.
+
+    m.tileTriangles = new int [count.length][];
+    for (int i = 0; i < count.length; i++)
+      if (count[i] > 0)
+        m.tileTriangles[i] = new int [count[i]];
+    Arrays.fill(count, 0);
+    for (int i = 0; i < tri.length; i++)
+    {
+      if (range[4*i] == -1)
+        continue;
+      for (int y = range[4*i+1]; y <= range[4*i+3]; y++)
+        for (int x = range[4*i]; x <= range[4*i+2]; x++)
+        {
+          int tile = y*tilesX+x;
+          m.tileTriangles[tile][count[tile]++] = i;
+        }
+    }
   }
 
   /** Calculate the lighting model at a point on a surface.  If diffuse, specular, or highlight
@@ -911,7 +1399,7 @@ public class Raster implements Renderer, Runnable
 
   private void calcLight(Vec3 pos, Vec3 norm, Vec3 viewdir, Vec3 faceNorm, double roughness, RGBColor diffuse, RGBColor specular, RGBColor highlight, RasterContext context)
   {
-    Vec3 reflectDir = context.tempVec[0], lightDir = context.tempVec[1];
+    Vec3 reflectDir = context.tempVec[0], lightDir = context.tempVec[1], worldPos = null;
     double viewDot = viewdir.dot(norm), faceDot = viewdir.dot(faceNorm);
     RGBColor outputColor = context.tempColor[0];
 
@@ -980,6 +1468,21 @@ public class Raster implements Renderer, Runnable
         lightDot = lightDir.dot(norm);
         if ((lightDot >= 0.0 && viewDot <= 0.0) || (lightDot <= 0.0 && viewDot >= 0.0))
           continue;
+        if (shadowMap != null && shadowMap[i] != null)
+          {
+            // Find how much of the light is blocked by other objects.
+
+            if (worldPos == null)
+              {
+                worldPos = context.tempVec[4];
+                worldPos.set(pos);
+                context.camera.getObjectToWorld().transform(worldPos);
+              }
+            float fraction = shadowMap[i].getLightFraction(worldPos, lightDot);
+            if (fraction == 0.0f)
+              continue;
+            outputColor.scale(fraction);
+          }
         if (diffuse != null)
           {
             float dot = (float) (lightDot < 0.0 ? -lightDot : lightDot);
@@ -998,62 +1501,49 @@ public class Raster implements Renderer, Runnable
   }
 
   /**
-   * Create a Fragment object.
+   * Store a fragment in the row buffer of a RasterContext.
    *
+   * @param x          the position of the fragment along the row
    * @param addColor   the additive color in ERGB format
    * @param multColor  the multiplicative color in ERGB format
    * @param depth      the depth of the fragment
    * @param material   a description of the material for the object being rendered
-   * @param isBackface true if this triangle faces away from the camera
+   * @param context    the RasterContext in which to store the fragment
    */
 
-  private Fragment createFragment(int addColor, int multColor, float depth, ObjectMaterialInfo material, boolean isBackface)
+  private void createFragment(int x, int addColor, int multColor, float depth, ObjectMaterialInfo material, RasterContext context)
   {
-    if (multColor == 0)
-    {
-      // It is fully opaque.
+    // A fully transparent fragment has no effect, so we can just discard it.
 
-      return new OpaqueFragment(addColor, depth);
-    }
-    else if (addColor == 0 && multColor == WHITE_ERGB && material == null)
-      return null; // This is a fully transparent fragment, so we can just discard it.
-    else
-    {
-      if (material == null)
-        return new TransparentFragment(addColor, multColor, depth, BACKGROUND_FRAGMENT);
-      return new MaterialFragment(addColor, multColor, depth, BACKGROUND_FRAGMENT, material, !isBackface);
-    }
+    context.hasFragment[x] = (addColor != 0 || multColor != WHITE_ERGB || material != null);
+    context.fragmentAddColor[x] = addColor;
+    context.fragmentMultColor[x] = multColor;
+    context.fragmentDepth[x] = depth;
   }
 
   /**
-   * Record a row of Fragment objects into the buffer.
+   * Record a row of fragments into the buffer.
    *
-   * @param row      the index of the row
-   * @param xstart   the starting position along the row
-   * @param xend     the ending position along the row
-   * @param context  the RasterContext from which to copy the Fragments
+   * @param row        the index of the row
+   * @param xstart     the starting position along the row
+   * @param xend       the ending position along the row
+   * @param material   a description of the material for the object being rendered
+   * @param isBackface true if this triangle faces away from the camera
+   * @param context    the RasterContext from which to copy the fragments
    */
 
-  private void recordRow(int row, int xstart, int xend, RasterContext context)
+  private void recordRow(int row, int xstart, int xend, ObjectMaterialInfo material, boolean isBackface, RasterContext context)
   {
-    Fragment source[] = context.fragment;
-    int indexBase = row*width;
+    // When rendering in tiles, every pixel belongs to a single tile which only one thread
+    // ever renders, so no locking is needed.
 
-    synchronized (lock[row])
-    {
-      for (int x = xstart; x < xend; x++)
+    if (lock == null)
+      fragments.addRow(row, xstart, xend, material, !isBackface, context);
+    else
+      synchronized (lock[row])
       {
-        Fragment f = source[x];
-        if (f == null)
-          continue;
-        int index = indexBase+x;
-        Fragment current = fragment[index];
-        if (f.getDepth() < current.getDepth())
-          fragment[index] = f.insertNextFragment(current);
-        else
-          fragment[index] = current.insertNextFragment(f);
+        fragments.addRow(row, xstart, xend, material, !isBackface, context);
       }
-    }
   }
 
   /** Clip a triangle to the region in front of the z clipping plane. */
@@ -1200,19 +1690,20 @@ public class Raster implements Renderer, Runnable
     return new Vec3 [] {u1, u2, u3, u4};
   }
 
-  /** Render a triangle mesh with Gouraud shading. */
+  /** Render a triangle mesh with Gouraud shading. pos and z hold the screen position and
+     depth of every vertex.  If triangles is not null, only the triangles whose indices it contains are
+     rendered. */
 
-  private void renderMeshGouraud(RenderingMesh mesh, Vec3 viewdir, boolean cullBackfaces, ObjectMaterialInfo material, RasterContext context)
+  private void renderMeshGouraud(RenderingMesh mesh, Vec2 pos[], float z[], int triangles[], Vec3 viewdir, boolean cullBackfaces, ObjectMaterialInfo material, RasterContext context)
   {
     Vec3 vert[] = mesh.vert, norm[] = mesh.norm;
-    Vec2 pos[] = new Vec2 [vert.length];
-    float z[] = new float [vert.length], clip = (float) context.camera.getClipDistance(), clipz[] = new float [4];
+    float clip = (float) context.camera.getClipDistance(), clipz[] = new float [4];
     double clipu[] = new double [4], clipv[] = new double [4];
     double distToScreen = context.camera.getDistToScreen(), tol = smoothScale;
     RGBColor diffuse[] = new RGBColor [4], specular[] = new RGBColor [4], highlight[] = new RGBColor [4];
-    Mat4 toView = context.camera.getObjectToView(), toScreen = context.camera.getObjectToScreen();
+    Mat4 toScreen = context.camera.getObjectToScreen();
     RenderingTriangle tri;
-    int i, v1, v2, v3, n1, n2, n3;
+    int i, v1, v2, v3, n1, n2, n3, count = (triangles == null ? mesh.triangle.length : triangles.length);
     boolean backface;
 
     for (i = 0; i < 4; i++)
@@ -1221,13 +1712,9 @@ public class Raster implements Renderer, Runnable
         specular[i] = new RGBColor();
         highlight[i] = new RGBColor();
       }
-    for (i = vert.length-1; i >= 0; i--)
-      {
-        pos[i] = toScreen.timesXY(vert[i]);
-        z[i] = (float) toView.timesZ(vert[i]);
-      }
-    for (i = mesh.triangle.length-1; i >= 0; i--)
+    for (int k = count-1; k >= 0; k--)
       {
+        i = (triangles == null ? k : triangles[k]);
         tri = mesh.triangle[i];
         v1 = tri.v1;
         v2 = tri.v2;
@@ -1315,6 +1802,7 @@ public class Raster implements Renderer, Runnable
     float denom;
     int left, right, i, index, yend, y, lastAddColor = 0, lastMultColor = 0;
     boolean doSubsample = (subsample > 1), repeat;
+    int minX = context.minX, maxX = context.maxX, minY = context.minY, maxY = context.maxY;
     TextureSpec surfSpec = context.surfSpec;
 
     // Order the three vertices by y coordinate.
@@ -1531,7 +2019,7 @@ public class Raster implements Renderer, Runnable
         mspecred2 = dspecred2*denom;
         mspecgreen2 = dspecgreen2*denom;
         mspecblue2 = dspecblue2*denom;
-        if (y2 < 0)
+        if (y2 < minY)
           {
             xstart += mx1*dy2;
             xend += mx2*dy2;
@@ -1555,33 +2043,33 @@ public class Raster implements Renderer, Runnable
             specblueend += mspecblue2*dy2;
             y = FastMath.round(y2);
           }
-        else if (y < 0)
+        else if (y < minY)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            ustart -= mu1*y;
-            uend -= mu2*y;
-            vstart -= mv1*y;
-            vend -= mv2*y;
-            difredstart -= mdifred1*y;
-            difredend -= mdifred2*y;
-            difgreenstart -= mdifgreen1*y;
-            difgreenend -= mdifgreen2*y;
-            difbluestart -= mdifblue1*y;
-            difblueend -= mdifblue2*y;
-            specredstart -= mspecred1*y;
-            specredend -= mspecred2*y;
-            specgreenstart -= mspecgreen1*y;
-            specgreenend -= mspecgreen2*y;
-            specbluestart -= mspecblue1*y;
-            specblueend -= mspecblue2*y;
-            y = 0;
+            xstart -= mx1*(y-minY);
+            xend -= mx2*(y-minY);
+            zstart -= mz1*(y-minY);
+            zend -= mz2*(y-minY);
+            ustart -= mu1*(y-minY);
+            uend -= mu2*(y-minY);
+            vstart -= mv1*(y-minY);
+            vend -= mv2*(y-minY);
+            difredstart -= mdifred1*(y-minY);
+            difredend -= mdifred2*(y-minY);
+            difgreenstart -= mdifgreen1*(y-minY);
+            difgreenend -= mdifgreen2*(y-minY);
+            difbluestart -= mdifblue1*(y-minY);
+            difblueend -= mdifblue2*(y-minY);
+            specredstart -= mspecred1*(y-minY);
+            specredend -= mspecred2*(y-minY);
+            specgreenstart -= mspecgreen1*(y-minY);
+            specgreenend -= mspecgreen2*(y-minY);
+            specbluestart -= mspecblue1*(y-minY);
+            specblueend -= mspecblue2*(y-minY);
+            y = minY;
           }
         yend = FastMath.round(y2);
-        if (yend > height)
-          yend = height;
+        if (yend > maxY)
+          yend = maxY;
         index = y*width;
 
         // Rasterize the top half of the triangle,
@@ -1651,26 +2139,26 @@ public class Raster implements Renderer, Runnable
                 dspecred *= denom;
                 dspecgreen *= denom;
                 dspecblue *= denom;
-                if (left < 0)
+                if (left < minX)
                 {
-                  z -= dz*left;
-                  u -= du*left;
-                  v -= dv*left;
-                  difred -= ddifred*left;
-                  difgreen -= ddifgreen*left;
-                  difblue -= ddifblue*left;
-                  specred -= dspecred*left;
-                  specgreen -= dspecgreen*left;
-                  specblue -= dspecblue*left;
-                  left = 0;
+                  z -= dz*(left-minX);
+                  u -= du*(left-minX);
+                  v -= dv*(left-minX);
+                  difred -= ddifred*(left-minX);
+                  difgreen -= ddifgreen*(left-minX);
+                  difblue -= ddifblue*(left-minX);
+                  specred -= dspecred*(left-minX);
+                  specgreen -= dspecgreen*(left-minX);
+                  specblue -= dspecblue*(left-minX);
+                  left = minX;
                 }
-                if (right > width)
-                  right = width;
+                if (right > maxX)
+                  right = maxX;
                 repeat = false;
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -1684,12 +2172,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        createFragment(i, lastAddColor, lastMultColor, zl, material, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.hasFragment[i] = false;
                       repeat = false;
                     }
                     z += dz;
@@ -1702,7 +2190,7 @@ public class Raster implements Renderer, Runnable
                     specgreen += dspecgreen;
                     specblue += dspecblue;
                   }
-                recordRow(y, left, right, context);
+                recordRow(y, left, right, material, isBackface, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -1765,31 +2253,31 @@ public class Raster implements Renderer, Runnable
         specredend = spec2.getRed();
         specgreenend = spec2.getGreen();
         specblueend = spec2.getBlue();
-        if (y < 0)
+        if (y < minY)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            ustart -= mu1*y;
-            uend -= mu2*y;
-            vstart -= mv1*y;
-            vend -= mv2*y;
-            difredstart -= mdifred1*y;
-            difredend -= mdifred2*y;
-            difgreenstart -= mdifgreen1*y;
-            difgreenend -= mdifgreen2*y;
-            difbluestart -= mdifblue1*y;
-            difblueend -= mdifblue2*y;
-            specredstart -= mspecred1*y;
-            specredend -= mspecred2*y;
-            specgreenstart -= mspecgreen1*y;
-            specgreenend -= mspecgreen2*y;
-            specbluestart -= mspecblue1*y;
-            specblueend -= mspecblue2*y;
-            y = 0;
+            xstart -= mx1*(y-minY);
+            xend -= mx2*(y-minY);
+            zstart -= mz1*(y-minY);
+            zend -= mz2*(y-minY);
+            ustart -= mu1*(y-minY);
+            uend -= mu2*(y-minY);
+            vstart -= mv1*(y-minY);
+            vend -= mv2*(y-minY);
+            difredstart -= mdifred1*(y-minY);
+            difredend -= mdifred2*(y-minY);
+            difgreenstart -= mdifgreen1*(y-minY);
+            difgreenend -= mdifgreen2*(y-minY);
+            difbluestart -= mdifblue1*(y-minY);
+            difblueend -= mdifblue2*(y-minY);
+            specredstart -= mspecred1*(y-minY);
+            specredend -= mspecred2*(y-minY);
+            specgreenstart -= mspecgreen1*(y-minY);
+            specgreenend -= mspecgreen2*(y-minY);
+            specbluestart -= mspecblue1*(y-minY);
+            specblueend -= mspecblue2*(y-minY);
+            y = minY;
           }
-        yend = FastMath.round(y3 < height ? y3 : height);
+        yend = FastMath.round(y3 < maxY ? y3 : maxY);
         index = y*width;
 
         // Rasterize the bottom half of the triangle,
@@ -1859,26 +2347,26 @@ public class Raster implements Renderer, Runnable
                 dspecred *= denom;
                 dspecgreen *= denom;
                 dspecblue *= denom;
-                if (left < 0)
+                if (left < minX)
                 {
-                  z -= dz*left;
-                  u -= du*left;
-                  v -= dv*left;
-                  difred -= ddifred*left;
-                  difgreen -= ddifgreen*left;
-                  difblue -= ddifblue*left;
-                  specred -= dspecred*left;
-                  specgreen -= dspecgreen*left;
-                  specblue -= dspecblue*left;
-                  left = 0;
+                  z -= dz*(left-minX);
+                  u -= du*(left-minX);
+                  v -= dv*(left-minX);
+                  difred -= ddifred*(left-minX);
+                  difgreen -= ddifgreen*(left-minX);
+                  difblue -= ddifblue*(left-minX);
+                  specred -= dspecred*(left-minX);
+                  specgreen -= dspecgreen*(left-minX);
+                  specblue -= dspecblue*(left-minX);
+                  left = minX;
                 }
-                if (right > width)
-                  right = width;
+                if (right > maxX)
+                  right = maxX;
                 repeat = false;
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -1892,12 +2380,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        createFragment(i, lastAddColor, lastMultColor, zl, material, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.hasFragment[i] = false;
                       repeat = false;
                     }
                     z += dz;
@@ -1910,7 +2398,7 @@ public class Raster implements Renderer, Runnable
                     specgreen += dspecgreen;
                     specblue += dspecblue;
                   }
-                recordRow(y, left, right, context);
+                recordRow(y, left, right, material, isBackface, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -1938,19 +2426,20 @@ public class Raster implements Renderer, Runnable
       }
   }
 
-  /** Render a triangle mesh with hybrid Gouraud/Phong shading. */
+  /** Render a triangle mesh with hybrid Gouraud/Phong shading. pos and z hold the screen position and
+     depth of every vertex.  If triangles is not null, only the triangles whose indices it contains are
+     rendered. */
 
-  private void renderMeshHybrid(RenderingMesh mesh, Vec3 viewdir, boolean cullBackfaces, ObjectMaterialInfo material, RasterContext context)
+  private void renderMeshHybrid(RenderingMesh mesh, Vec2 pos[], float z[], int triangles[], Vec3 viewdir, boolean cullBackfaces, ObjectMaterialInfo material, RasterContext context)
   {
     Vec3 vert[] = mesh.vert, norm[] = mesh.norm, clipNorm[] = new Vec3 [4];
-    Vec2 pos[] = new Vec2 [vert.length];
-    float z[] = new float [vert.length], clip = (float) context.camera.getClipDistance(), clipz[] = new float [4];
+    float clip = (float) context.camera.getClipDistance(), clipz[] = new float [4];
     double clipu[] = new double [4], clipv[] = new double [4];
     double distToScreen = context.camera.getDistToScreen(), tol = smoothScale;
     RGBColor diffuse[] = new RGBColor [4];
-    Mat4 toView = context.camera.getObjectToView(), toScreen = context.camera.getObjectToScreen();
+    Mat4 toScreen = context.camera.getObjectToScreen();
     RenderingTriangle tri;
-    int i, v1, v2, v3, n1, n2, n3;
+    int i, v1, v2, v3, n1, n2, n3, count = (triangles == null ? mesh.triangle.length : triangles.length);
     boolean backface;
 
     for (i = 0; i < 4; i++)
@@ -1958,13 +2447,9 @@ public class Raster implements Renderer, Runnable
         diffuse[i] = new RGBColor();
         clipNorm[i] = new Vec3();
       }
-    for (i = vert.length-1; i >= 0; i--)
-      {
-        pos[i] = toScreen.timesXY(vert[i]);
-        z[i] = (float) toView.timesZ(vert[i]);
-      }
-    for (i = mesh.triangle.length-1; i >= 0; i--)
+    for (int k = count-1; k >= 0; k--)
       {
+        i = (triangles == null ? k : triangles[k]);
         tri = mesh.triangle[i];
         v1 = tri.v1;
         v2 = tri.v2;
@@ -2049,6 +2534,7 @@ public class Raster implements Renderer, Runnable
     float denom;
     int left, right, i, index, yend, y, lastAddColor = 0, lastMultColor = 0;
     boolean doSubsample = (subsample > 1), repeat;
+    int minX = context.minX, maxX = context.maxX, minY = context.minY, maxY = context.maxY;
     TextureSpec surfSpec = context.surfSpec;
 
     // Order the three vertices by y coordinate.
@@ -2265,7 +2751,7 @@ public class Raster implements Renderer, Runnable
         mnormx2 = dnormx2*denom;
         mnormy2 = dnormy2*denom;
         mnormz2 = dnormz2*denom;
-        if (y2 < 0)
+        if (y2 < minY)
           {
             xstart += mx1*dy2;
             xend += mx2*dy2;
@@ -2289,33 +2775,33 @@ public class Raster implements Renderer, Runnable
             normzend += mnormz2*dy2;
             y = FastMath.round(y2);
           }
-        else if (y < 0)
+        else if (y < minY)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            ustart -= mu1*y;
-            uend -= mu2*y;
-            vstart -= mv1*y;
-            vend -= mv2*y;
-            difredstart -= mdifred1*y;
-            difredend -= mdifred2*y;
-            difgreenstart -= mdifgreen1*y;
-            difgreenend -= mdifgreen2*y;
-            difbluestart -= mdifblue1*y;
-            difblueend -= mdifblue2*y;
-            normxstart -= mnormx1*y;
-            normxend -= mnormx2*y;
-            normystart -= mnormy1*y;
-            normyend -= mnormy2*y;
-            normzstart -= mnormz1*y;
-            normzend -= mnormz2*y;
-            y = 0;
+            xstart -= mx1*(y-minY);
+            xend -= mx2*(y-minY);
+            zstart -= mz1*(y-minY);
+            zend -= mz2*(y-minY);
+            ustart -= mu1*(y-minY);
+            uend -= mu2*(y-minY);
+            vstart -= mv1*(y-minY);
+            vend -= mv2*(y-minY);
+            difredstart -= mdifred1*(y-minY);
+            difredend -= mdifred2*(y-minY);
+            difgreenstart -= mdifgreen1*(y-minY);
+            difgreenend -= mdifgreen2*(y-minY);
+            difbluestart -= mdifblue1*(y-minY);
+            difblueend -= mdifblue2*(y-minY);
+            normxstart -= mnormx1*(y-minY);
+            normxend -= mnormx2*(y-minY);
+            normystart -= mnormy1*(y-minY);
+            normyend -= mnormy2*(y-minY);
+            normzstart -= mnormz1*(y-minY);
+            normzend -= mnormz2*(y-minY);
+            y = minY;
           }
         yend = FastMath.round(y2);
-        if (yend > height)
-          yend = height;
+        if (yend > maxY)
+          yend = maxY;
         index = y*width;
 
         // Rasterize the top half of the triangle,
@@ -2385,26 +2871,26 @@ public class Raster implements Renderer, Runnable
                 dnormx *= denom;
                 dnormy *= denom;
                 dnormz *= denom;
-                if (left < 0)
+                if (left < minX)
                 {
-                  z -= dz*left;
-                  u -= du*left;
-                  v -= dv*left;
-                  difred -= ddifred*left;
-                  difgreen -= ddifgreen*left;
-                  difblue -= ddifblue*left;
-                  normx -= dnormx*left;
-                  normy -= dnormy*left;
-                  normz -= dnormz*left;
-                  left = 0;
+                  z -= dz*(left-minX);
+                  u -= du*(left-minX);
+                  v -= dv*(left-minX);
+                  difred -= ddifred*(left-minX);
+                  difgreen -= ddifgreen*(left-minX);
+                  difblue -= ddifblue*(left-minX);
+                  normx -= dnormx*(left-minX);
+                  normy -= dnormy*(left-minX);
+                  normz -= dnormz*(left-minX);
+                  left = minX;
                 }
-                if (right > width)
-                  right = width;
+                if (right > maxX)
+                  right = maxX;
                 repeat = false;
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -2431,12 +2917,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        createFragment(i, lastAddColor, lastMultColor, zl, material, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.hasFragment[i] = false;
                       repeat = false;
                     }
                     z += dz;
@@ -2449,7 +2935,7 @@ public class Raster implements Renderer, Runnable
                     normy += dnormy;
                     normz += dnormz;
                   }
-                recordRow(y, left, right, context);
+                recordRow(y, left, right, material, isBackface, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -2512,31 +2998,31 @@ public class Raster implements Renderer, Runnable
         normxend = norm2.x;
         normyend = norm2.y;
         normzend = norm2.z;
-        if (y < 0)
+        if (y < minY)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            ustart -= mu1*y;
-            uend -= mu2*y;
-            vstart -= mv1*y;
-            vend -= mv2*y;
-            difredstart -= mdifred1*y;
-            difredend -= mdifred2*y;
-            difgreenstart -= mdifgreen1*y;
-            difgreenend -= mdifgreen2*y;
-            difbluestart -= mdifblue1*y;
-            difblueend -= mdifblue2*y;
-            normxstart -= mnormx1*y;
-            normxend -= mnormx2*y;
-            normystart -= mnormy1*y;
-            normyend -= mnormy2*y;
-            normzstart -= mnormz1*y;
-            normzend -= mnormz2*y;
-            y = 0;
+            xstart -= mx1*(y-minY);
+            xend -= mx2*(y-minY);
+            zstart -= mz1*(y-minY);
+            zend -= mz2*(y-minY);
+            ustart -= mu1*(y-minY);
+            uend -= mu2*(y-minY);
+            vstart -= mv1*(y-minY);
+            vend -= mv2*(y-minY);
+            difredstart -= mdifred1*(y-minY);
+            difredend -= mdifred2*(y-minY);
+            difgreenstart -= mdifgreen1*(y-minY);
+            difgreenend -= mdifgreen2*(y-minY);
+            difbluestart -= mdifblue1*(y-minY);
+            difblueend -= mdifblue2*(y-minY);
+            normxstart -= mnormx1*(y-minY);
+            normxend -= mnormx2*(y-minY);
+            normystart -= mnormy1*(y-minY);
+            normyend -= mnormy2*(y-minY);
+            normzstart -= mnormz1*(y-minY);
+            normzend -= mnormz2*(y-minY);
+            y = minY;
           }
-        yend = FastMath.round(y3 < height ? y3 : height);
+        yend = FastMath.round(y3 < maxY ? y3 : maxY);
         index = y*width;
 
         // Rasterize the bottom half of the triangle,
@@ -2606,26 +3092,26 @@ public class Raster implements Renderer, Runnable
                 dnormx *= denom;
                 dnormy *= denom;
                 dnormz *= denom;
-                if (left < 0)
+                if (left < minX)
                 {
-                  z -= dz*left;
-                  u -= du*left;
-                  v -= dv*left;
-                  difred -= ddifred*left;
-                  difgreen -= ddifgreen*left;
-                  difblue -= ddifblue*left;
-                  normx -= dnormx*left;
-                  normy -= dnormy*left;
-                  normz -= dnormz*left;
-                  left = 0;
+                  z -= dz*(left-minX);
+                  u -= du*(left-minX);
+                  v -= dv*(left-minX);
+                  difred -= ddifred*(left-minX);
+                  difgreen -= ddifgreen*(left-minX);
+                  difblue -= ddifblue*(left-minX);
+                  normx -= dnormx*(left-minX);
+                  normy -= dnormy*(left-minX);
+                  normz -= dnormz*(left-minX);
+                  left = minX;
                 }
-                if (right > width)
-                  right = width;
+                if (right > maxX)
+                  right = maxX;
                 repeat = false;
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -2652,12 +3138,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        createFragment(i, lastAddColor, lastMultColor, zl, material, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.hasFragment[i] = false;
                       repeat = false;
                     }
                     z += dz;
@@ -2670,7 +3156,7 @@ public class Raster implements Renderer, Runnable
                     normy += dnormy;
                     normz += dnormz;
                   }
-                recordRow(y, left, right, context);
+                recordRow(y, left, right, material, isBackface, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -2698,28 +3184,25 @@ public class Raster implements Renderer, Runnable
       }
   }
 
-  /** Render a triangle mesh with Phong shading. */
+  /** Render a triangle mesh with Phong shading. pos and z hold the screen position and
+     depth of every vertex.  If triangles is not null, only the triangles whose indices it contains are
+     rendered. */
 
-  private void renderMeshPhong(RenderingMesh mesh, Vec3 viewdir, boolean cullBackfaces, boolean bumpMap, ObjectMaterialInfo material, RasterContext context)
+  private void renderMeshPhong(RenderingMesh mesh, Vec2 pos[], float z[], int triangles[], Vec3 viewdir, boolean cullBackfaces, boolean bumpMap, ObjectMaterialInfo material, RasterContext context)
   {
     Vec3 vert[] = mesh.vert, norm[] = mesh.norm, clipNorm[] = new Vec3 [4];
-    Vec2 pos[] = new Vec2 [vert.length];
-    float z[] = new float [vert.length], clip = (float) context.camera.getClipDistance(), clipz[] = new float [4];
+    float clip = (float) context.camera.getClipDistance(), clipz[] = new float [4];
     double clipu[] = new double [4], clipv[] = new double [4];
-    Mat4 toView = context.camera.getObjectToView(), toScreen = context.camera.getObjectToScreen();
+    Mat4 toScreen = context.camera.getObjectToScreen();
     RenderingTriangle tri;
-    int i, v1, v2, v3, n1, n2, n3;
+    int i, v1, v2, v3, n1, n2, n3, count = (triangles == null ? mesh.triangle.length : triangles.length);
     boolean backface;
 
     for (i = 0; i < 4; i++)
       clipNorm[i] = new Vec3();
-    for (i = vert.length-1; i >= 0; i--)
-      {
-        pos[i] = toScreen.timesXY(vert[i]);
-        z[i] = (float) toView.timesZ(vert[i]);
-      }
-    for (i = mesh.triangle.length-1; i >= 0; i--)
+    for (int k = count-1; k >= 0; k--)
       {
+        i = (triangles == null ? k : triangles[k]);
         tri = mesh.triangle[i];
         v1 = tri.v1;
         v2 = tri.v2;
@@ -2785,6 +3268,7 @@ public class Raster implements Renderer, Runnable
     float denom;
     int left, right, i, index, yend, y, lastAddColor = 0, lastMultColor = 0;
     boolean doSubsample = (subsample > 1), repeat;
+    int minX = context.minX, maxX = context.maxX, minY = context.minY, maxY = context.maxY;
     TextureSpec surfSpec = context.surfSpec;
 
     // Order the three vertices by y coordinate.
@@ -2971,7 +3455,7 @@ public class Raster implements Renderer, Runnable
         mnormx2 = dnormx2*denom;
         mnormy2 = dnormy2*denom;
         mnormz2 = dnormz2*denom;
-        if (y2 < 0)
+        if (y2 < minY)
           {
             xstart += mx1*dy2;
             xend += mx2*dy2;
@@ -2989,27 +3473,27 @@ public class Raster implements Renderer, Runnable
             normzend += mnormz2*dy2;
             y = FastMath.round(y2);
           }
-        else if (y < 0)
+        else if (y < minY)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            ustart -= mu1*y;
-            uend -= mu2*y;
-            vstart -= mv1*y;
-            vend -= mv2*y;
-            normxstart -= mnormx1*y;
-            normxend -= mnormx2*y;
-            normystart -= mnormy1*y;
-            normyend -= mnormy2*y;
-            normzstart -= mnormz1*y;
-            normzend -= mnormz2*y;
-            y = 0;
+            xstart -= mx1*(y-minY);
+            xend -= mx2*(y-minY);
+            zstart -= mz1*(y-minY);
+            zend -= mz2*(y-minY);
+            ustart -= mu1*(y-minY);
+            uend -= mu2*(y-minY);
+            vstart -= mv1*(y-minY);
+            vend -= mv2*(y-minY);
+            normxstart -= mnormx1*(y-minY);
+            normxend -= mnormx2*(y-minY);
+            normystart -= mnormy1*(y-minY);
+            normyend -= mnormy2*(y-minY);
+            normzstart -= mnormz1*(y-minY);
+            normzend -= mnormz2*(y-minY);
+            y = minY;
           }
         yend = FastMath.round(y2);
-        if (yend > height)
-          yend = height;
+        if (yend > maxY)
+          yend = maxY;
         index = y*width;
 
         // Rasterize the top half of the triangle,
@@ -3064,23 +3548,23 @@ public class Raster implements Renderer, Runnable
                 dnormx *= denom;
                 dnormy *= denom;
                 dnormz *= denom;
-                if (left < 0)
+                if (left < minX)
                 {
-                  z -= dz*left;
-                  u -= du*left;
-                  v -= dv*left;
-                  normx -= dnormx*left;
-                  normy -= dnormy*left;
-                  normz -= dnormz*left;
-                  left = 0;
+                  z -= dz*(left-minX);
+                  u -= du*(left-minX);
+                  v -= dv*(left-minX);
+                  normx -= dnormx*(left-minX);
+                  normy -= dnormy*(left-minX);
+                  normz -= dnormz*(left-minX);
+                  left = minX;
                 }
-                if (right > width)
-                  right = width;
+                if (right > maxX)
+                  right = maxX;
                 repeat = false;
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -3116,12 +3600,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        createFragment(i, lastAddColor, lastMultColor, zl, material, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.hasFragment[i] = false;
                       repeat = false;
                     }
                     z += dz;
@@ -3131,7 +3615,7 @@ public class Raster implements Renderer, Runnable
                     normy += dnormy;
                     normz += dnormz;
                   }
-                recordRow(y, left, right, context);
+                recordRow(y, left, right, material, isBackface, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -3179,25 +3663,25 @@ public class Raster implements Renderer, Runnable
         normxend = norm2.x;
         normyend = norm2.y;
         normzend = norm2.z;
-        if (y < 0)
+        if (y < minY)
           {
-            xstart -= mx1*y;
-            xend -= mx2*y;
-            zstart -= mz1*y;
-            zend -= mz2*y;
-            ustart -= mu1*y;
-            uend -= mu2*y;
-            vstart -= mv1*y;
-            vend -= mv2*y;
-            normxstart -= mnormx1*y;
-            normxend -= mnormx2*y;
-            normystart -= mnormy1*y;
-            normyend -= mnormy2*y;
-            normzstart -= mnormz1*y;
-            normzend -= mnormz2*y;
-            y = 0;
+            xstart -= mx1*(y-minY);
+            xend -= mx2*(y-minY);
+            zstart -= mz1*(y-minY);
+            zend -= mz2*(y-minY);
+            ustart -= mu1*(y-minY);
+            uend -= mu2*(y-minY);
+            vstart -= mv1*(y-minY);
+            vend -= mv2*(y-minY);
+            normxstart -= mnormx1*(y-minY);
+            normxend -= mnormx2*(y-minY);
+            normystart -= mnormy1*(y-minY);
+            normyend -= mnormy2*(y-minY);
+            normzstart -= mnormz1*(y-minY);
+            normzend -= mnormz2*(y-minY);
+            y = minY;
           }
-        yend = FastMath.round(y3 < height ? y3 : height);
+        yend = FastMath.round(y3 < maxY ? y3 : maxY);
         index = y*width;
 
         // Rasterize the bottom half of the triangle,
@@ -3252,23 +3736,23 @@ public class Raster implements Renderer, Runnable
                 dnormx *= denom;
                 dnormy *= denom;
                 dnormz *= denom;
-                if (left < 0)
+                if (left < minX)
                 {
-                  z -= dz*left;
-                  u -= du*left;
-                  v -= dv*left;
-                  normx -= dnormx*left;
-                  normy -= dnormy*left;
-                  normz -= dnormz*left;
-                  left = 0;
+                  z -= dz*(left-minX);
+                  u -= du*(left-minX);
+                  v -= dv*(left-minX);
+                  normx -= dnormx*(left-minX);
+                  normy -= dnormy*(left-minX);
+                  normz -= dnormz*(left-minX);
+                  left = minX;
                 }
-                if (right > width)
-                  right = width;
+                if (right > maxX)
+                  right = maxX;
                 repeat = false;
                 for (i = left; i < right; i++)
                   {
                     zl = 1.0f/z;
-                    if (zl < fragment[index+i].getOpaqueDepth() && zl > clip)
+                    if (zl < fragments.getOpaqueDepth(index+i) && zl > clip)
                       {
                         if (!repeat || (i%subsample == 0))
                           {
@@ -3304,12 +3788,12 @@ public class Raster implements Renderer, Runnable
                             lastAddColor = context.tempColor[0].getERGB();
                             lastMultColor = surfSpec.transparent.getERGB();
                           }
-                        context.fragment[i] = createFragment(lastAddColor, lastMultColor, zl, material, isBackface);
+                        createFragment(i, lastAddColor, lastMultColor, zl, material, context);
                         repeat = doSubsample;
                       }
                     else
                     {
-                      context.fragment[i] = null;
+                      context.hasFragment[i] = false;
                       repeat = false;
                     }
                     z += dz;
@@ -3319,7 +3803,7 @@ public class Raster implements Renderer, Runnable
                     normy += dnormy;
                     normz += dnormz;
                   }
-                recordRow(y, left, right, context);
+                recordRow(y, left, right, material, isBackface, context);
               }
             xstart += mx1;
             zstart += mz1;
@@ -3342,18 +3826,20 @@ public class Raster implements Renderer, Runnable
   }
 
   /** Render a displacement mapped triangle mesh by recursively subdividing the triangles
-     until they are sufficiently small. */
+     until they are sufficiently small.  If triangles is not null, only the triangles whose
+     indices it contains are rendered. */
 
-  private void renderMeshDisplaced(RenderingMesh mesh, Vec3 viewdir, double tol, boolean cullBackfaces, boolean bumpMap, ObjectMaterialInfo material, RasterContext context)
+  private void renderMeshDisplaced(RenderingMesh mesh, int triangles[], Vec3 viewdir, double tol, boolean cullBackfaces, boolean bumpMap, ObjectMaterialInfo material, RasterContext context)
   {
     Vec3 vert[] = mesh.vert, norm[] = mesh.norm;
     Mat4 toView = context.camera.getObjectToView(), toScreen = context.camera.getObjectToScreen();
-    int v1, v2, v3, n1, n2, n3;
+    int i, v1, v2, v3, n1, n2, n3, count = (triangles == null ? mesh.triangle.length : triangles.length);
     double dist1, dist2, dist3;
     RenderingTriangle tri;
 
-    for (int i = mesh.triangle.length-1; i >= 0; i--)
+    for (int k = count-1; k >= 0; k--)
       {
+        i = (triangles == null ? k : triangles[k]);
         tri = mesh.triangle[i];
         v1 = tri.v1;
         v2 = tri.v2;
@@ -3512,6 +3998,17 @@ public class Raster implements Renderer, Runnable
     boolean backface = ((dv2.pos.x-dv1.pos.x)*(dv3.pos.y-dv1.pos.y) - (dv2.pos.y-dv1.pos.y)*(dv3.pos.x-dv1.pos.x) > 0.0);
     if (cullBackfaces && backface)
       return;
+    double bounds[] = context.displacedBounds;
+    if (bounds != null)
+    {
+      // We only need to find the region of the screen the triangle covers, not actually render it.
+
+      bounds[0] = Math.min(bounds[0], Math.min(dv1.pos.x, Math.min(dv2.pos.x, dv3.pos.x)));
+      bounds[1] = Math.min(bounds[1], Math.min(dv1.pos.y, Math.min(dv2.pos.y, dv3.pos.y)));
+      bounds[2] = Math.max(bounds[2], Math.max(dv1.pos.x, Math.max(dv2.pos.x, dv3.pos.x)));
+      bounds[3] = Math.max(bounds[3], Math.max(dv1.pos.y, Math.max(dv2.pos.y, dv3.pos.y)));
+      return;
+    }
     if (dv1.dispnorm == null)
       dv1.prepareToRender(tri, viewdir, ugrad, vgrad, shading, context);
     if (dv2.dispnorm == null)
@@ -3603,6 +4100,35 @@ public class Raster implements Renderer, Runnable
     }
   }
 
+  /**
+   * This class holds a mesh to be rendered, along with all the information about its object that
+   * is needed to render it.
+   */
+
+  private static class ObjectMesh
+  {
+    public RenderingMesh mesh;
+    public Mat4 fromLocal;
+    public Vec3 viewdir, lightPosition[], lightDirection[];
+    public Vec2 pos[];
+    public float z[];
+    public double tol;
+    public boolean bumpMap, cullBackfaces, displaced;
+    public ObjectMaterialInfo material;
+    public int tileTriangles[][];
+  }
+
+  /**
+   * This class holds the triangles of an object which casts shadows, in world coordinates.
+   */
+
+  private static class ShadowCaster
+  {
+    public double vert[];
+    public int tri[];
+    public BoundingBox bounds;
+  }
+
   /**
    * This class is used for the lock objects on individual rows.
    */
@@ -25,9 +25,13 @@ public class RasterContext
   public RGBColor tempColor[];
   public TextureSpec surfSpec, surfSpec2;
   public Camera camera;
-  public Fragment fragment[];
+  public int fragmentAddColor[], fragmentMultColor[];
+  public float fragmentDepth[];
+  public boolean hasFragment[];
+  public int minX, minY, maxX, maxY, nextFragment, endFragment;
+  public double displacedBounds[];
 
-  public RasterContext(Camera camera, int width)
+  public RasterContext(Camera camera, int width, int height)
   {
     this.camera = (camera == null ? null : camera.duplicate());
     surfSpec = new TextureSpec();
@@ -35,10 +39,32 @@ public class RasterContext
     tempColor = new RGBColor [4];
     for (int i = 0; i < tempColor.length; i++)
       tempColor[i] = new RGBColor(0.0f, 0.0f, 0.0f);
-    tempVec = new Vec3 [4];
+    tempVec = new Vec3 [5];
     for (int i = 0; i < tempVec.length; i++)
       tempVec[i] = new Vec3();
-    fragment = new Fragment[width];
+    fragmentAddColor = new int [width];
+    fragmentMultColor = new int [width];
+    fragmentDepth = new float [width];
+    hasFragment = new boolean [width];
+    setClipWindow(0, 0, width, height);
+  }
+
+  /**
+   * Set the region of the image that triangles are rasterized into.  Pixels outside it are skipped.
+   * When rendering in tiles, this is set to the bounds of the tile currently being rendered.
+   *
+   * @param minX    the first column inside the region
+   * @param minY    the first row inside the region
+   * @param maxX    the column just past the end of the region
+   * @param maxY    the row just past the end of the region
+   */
+
+  public void setClipWindow(int minX, int minY, int maxX, int maxY)
+  {
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
   }
 
   /**
@@ -54,5 +80,6 @@ public class RasterContext
     surfSpec = null;
     surfSpec2 = null;
     camera = null;
+    displacedBounds = null;
   }
 }
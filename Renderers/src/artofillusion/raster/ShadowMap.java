@@ -0,0 +1,391 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import artofillusion.math.*;
+import java.util.*;
+
+/**
+ * A ShadowMap records the distance from a light source to the nearest surface in every direction,
+ * so that the renderer can quickly determine whether a point is shadowed from that light.
+ * <p>
+ * A map consists of one or more square faces, each of which covers part of the scene as seen
+ * from the light.  A directional light uses a single face with an orthographic projection.  A spot
+ * light uses a single face with a perspective projection covering its cone.  A point light (or a
+ * spot light with a very wide cone) uses six perspective faces arranged as a cube around it.
+ * <p>
+ * The map is built by rasterizing the triangles of every shadow casting object into each face with
+ * {@link #rasterize}.  Faces are divided into horizontal bands of rows which can be rasterized
+ * independently, so the work can be split between threads.  When looking up a point, the map
+ * compares it against several neighboring samples (percentage closer filtering) to give shadows
+ * soft edges.
+ */
+
+public class ShadowMap
+{
+  private final int size, filterRadius;
+  private final float depth[][];
+  private final Mat4 toFace[];
+  private final Vec3 origin;
+  private final boolean perspective;
+  private final double tanHalfAngle, near, minX, minY, scale;
+
+  public static final int BAND_HEIGHT = 64;
+
+  private static final double MAX_SLOPE = 10.0;
+
+  /**
+   * Create a ShadowMap.  Call one of the static factory methods instead of invoking this directly.
+   */
+
+  private ShadowMap(int size, int filterRadius, Mat4 toFace[], Vec3 origin, boolean perspective, double tanHalfAngle, double near, double minX, double minY, double scale)
+  {
+    this.size = size;
+    this.filterRadius = filterRadius;
+    this.toFace = toFace;
+    this.origin = origin;
+    this.perspective = perspective;
+    this.tanHalfAngle = tanHalfAngle;
+    this.near = near;
+    this.minX = minX;
+    this.minY = minY;
+    this.scale = scale;
+    depth = new float [toFace.length][size*size];
+    for (float face[] : depth)
+      Arrays.fill(face, Float.MAX_VALUE);
+  }
+
+  /**
+   * Create a ShadowMap for a directional light.
+   *
+   * @param lightCoords    the coordinate system of the light.  Light travels along its z axis.
+   * @param casterBounds   a bounding box (in world coordinates) containing every object that casts shadows
+   * @param receiverBounds a bounding box (in world coordinates) containing every point that may need to be
+   *                       looked up in the map
+   * @param size           the width and height of the map in samples
+   * @param filterRadius   the radius (in samples) of the region to average over when looking up a point
+   */
+
+  public static ShadowMap createDirectional(CoordinateSystem lightCoords, BoundingBox casterBounds, BoundingBox receiverBounds, int size, int filterRadius)
+  {
+    // The map only needs to cover the region where shadows could fall on something.
+
+    Mat4 toFace = Mat4.viewTransform(new Vec3(), lightCoords.getZDirection(), lightCoords.getUpDirection());
+    BoundingBox casters = casterBounds.transformAndOutset(toFace);
+    BoundingBox receivers = receiverBounds.transformAndOutset(toFace);
+    double minx = Math.max(casters.minx, receivers.minx), maxx = Math.min(casters.maxx, receivers.maxx);
+    double miny = Math.max(casters.miny, receivers.miny), maxy = Math.min(casters.maxy, receivers.maxy);
+    double width = Math.max(maxx-minx, maxy-miny);
+    if (!(width > 0.0))
+      width = 1.0;
+
+    // Leave a margin around the edges so filtering never needs samples outside the map.
+
+    int margin = filterRadius+1;
+    double scale = (size-2*margin)/width;
+    return new ShadowMap(size, filterRadius, new Mat4 [] {toFace}, null, false, 0.0, 0.0,
+        minx-margin/scale, miny-margin/scale, scale);
+  }
+
+  /**
+   * Create a ShadowMap for a spot light.
+   *
+   * @param lightCoords    the coordinate system of the light.  It points along its z axis.
+   * @param halfAngle      the angle (in radians) between the axis of the light and the edge of its cone.
+   *                       This must be less than PI/2.
+   * @param near           the distance from the light below which surfaces are ignored
+   * @param size           the width and height of the map in samples
+   * @param filterRadius   the radius (in samples) of the region to average over when looking up a point
+   */
+
+  public static ShadowMap createSpot(CoordinateSystem lightCoords, double halfAngle, double near, int size, int filterRadius)
+  {
+    Vec3 origin = lightCoords.getOrigin();
+    Mat4 toFace = Mat4.viewTransform(origin, lightCoords.getZDirection(), lightCoords.getUpDirection());
+    int margin = filterRadius+1;
+    double tan = Math.tan(halfAngle)*size/(size-2*margin);
+    return new ShadowMap(size, filterRadius, new Mat4 [] {toFace}, origin, true, tan, near, 0.0, 0.0, 0.0);
+  }
+
+  /**
+   * Create a ShadowMap for a point light.  It has six faces, one along each axis.
+   *
+   * @param origin         the position of the light
+   * @param near           the distance from the light below which surfaces are ignored
+   * @param size           the width and height of each face in samples
+   * @param filterRadius   the radius (in samples) of the region to average over when looking up a point
+   */
+
+  public static ShadowMap createPoint(Vec3 origin, double near, int size, int filterRadius)
+  {
+    Mat4 toFace[] = new Mat4[] {
+      Mat4.viewTransform(origin, Vec3.vx(), Vec3.vy()),
+      Mat4.viewTransform(origin, Vec3.vx().times(-1.0), Vec3.vy()),
+      Mat4.viewTransform(origin, Vec3.vy(), Vec3.vz()),
+      Mat4.viewTransform(origin, Vec3.vy().times(-1.0), Vec3.vz()),
+      Mat4.viewTransform(origin, Vec3.vz(), Vec3.vy()),
+      Mat4.viewTransform(origin, Vec3.vz().times(-1.0), Vec3.vy())
+    };
+
+    // Each face covers slightly more than 90 degrees, so filtering never needs samples from a
+    // different face.
+
+    int margin = filterRadius+1;
+    double tan = (double) size/(size-2*margin);
+    return new ShadowMap(size, filterRadius, toFace, new Vec3(origin), true, tan, near, 0.0, 0.0, 0.0);
+  }
+
+  /** Get the number of faces in this map. */
+
+  public int getNumFaces()
+  {
+    return toFace.length;
+  }
+
+  /** Get the width and height of each face in samples. */
+
+  public int getSize()
+  {
+    return size;
+  }
+
+  /** Get the number of bands of rows each face is divided into for rasterizing. */
+
+  public int getNumBands()
+  {
+    return (size+BAND_HEIGHT-1)/BAND_HEIGHT;
+  }
+
+  /**
+   * Rasterize a set of triangles into one band of a face.  Different bands and faces may be
+   * rasterized at the same time by different threads.
+   *
+   * @param face      the index of the face to rasterize into
+   * @param band      the index of the band to rasterize into
+   * @param vert      the positions of the vertices in world coordinates, stored as (x, y, z) triples
+   * @param tri       the vertex indices of the triangles, stored as consecutive triples
+   * @param bounds    a bounding box containing all the vertices, in world coordinates
+   * @param temp      an array which can be used to hold temporary data.  If it is too small to hold
+   *                  three values per vertex, a new array is allocated.
+   * @return the array which was used to hold temporary data.  Pass it to the next call to avoid
+   *                  allocating a new one.
+   */
+
+  public double[] rasterize(int face, int band, double vert[], int tri[], BoundingBox bounds, double temp[])
+  {
+    int minRow = band*BAND_HEIGHT, maxRow = Math.min(minRow+BAND_HEIGHT, size);
+    if (!mayOverlap(face, minRow, maxRow, bounds))
+      return temp;
+    if (temp == null || temp.length < vert.length)
+      temp = new double [vert.length];
+    Mat4 m = toFace[face];
+    for (int i = 0; i < vert.length; i += 3)
+    {
+      double x = vert[i], y = vert[i+1], z = vert[i+2];
+      temp[i] = m.m11*x + m.m12*y + m.m13*z + m.m14;
+      temp[i+1] = m.m21*x + m.m22*y + m.m23*z + m.m24;
+      temp[i+2] = m.m31*x + m.m32*y + m.m33*z + m.m34;
+    }
+    float buffer[] = depth[face];
+    double clipped[] = new double [12];
+    for (int i = 0; i < tri.length; i += 3)
+    {
+      int v1 = 3*tri[i], v2 = 3*tri[i+1], v3 = 3*tri[i+2];
+      if (!perspective || (temp[v1+2] >= near && temp[v2+2] >= near && temp[v3+2] >= near))
+      {
+        rasterizeTriangle(temp[v1], temp[v1+1], temp[v1+2], temp[v2], temp[v2+1], temp[v2+2], temp[v3], temp[v3+1], temp[v3+2], minRow, maxRow, buffer);
+        continue;
+      }
+
+      // Clip the triangle against the near plane, which leaves a polygon with up to four vertices.
+
+      int count = 0;
+      int v[] = new int [] {v1, v2, v3};
+      for (int j = 0; j < 3; j++)
+      {
+        int a = v[j], b = v[(j+1)%3];
+        double za = temp[a+2], zb = temp[b+2];
+        if (za >= near)
+        {
+          clipped[count++] = temp[a];
+          clipped[count++] = temp[a+1];
+          clipped[count++] = za;
+        }
+        if ((za >= near) != (zb >= near))
+        {
+          double t = (near-za)/(zb-za);
+          clipped[count++] = temp[a]+t*(temp[b]-temp[a]);
+          clipped[count++] = temp[a+1]+t*(temp[b+1]-temp[a+1]);
+          clipped[count++] = near;
+        }
+      }
+      for (int j = 3; j+3 < count; j += 3)
+        rasterizeTriangle(clipped[0], clipped[1], clipped[2], clipped[j], clipped[j+1], clipped[j+2], clipped[j+3], clipped[j+4], clipped[j+5], minRow, maxRow, buffer);
+    }
+    return temp;
+  }
+
+  /**
+   * Determine whether any part of a bounding box might be visible in a range of rows of a face.
+   */
+
+  private boolean mayOverlap(int face, int minRow, int maxRow, BoundingBox bounds)
+  {
+    double minx = Double.MAX_VALUE, maxx = -Double.MAX_VALUE, miny = Double.MAX_VALUE, maxy = -Double.MAX_VALUE;
+    Mat4 m = toFace[face];
+    for (Vec3 corner : bounds.getCorners())
+    {
+      double x = m.m11*corner.x + m.m12*corner.y + m.m13*corner.z + m.m14;
+      double y = m.m21*corner.x + m.m22*corner.y + m.m23*corner.z + m.m24;
+      double z = m.m31*corner.x + m.m32*corner.y + m.m33*corner.z + m.m34;
+      if (perspective && z < near)
+        return true;
+      double sx = getMapX(x, z), sy = getMapY(y, z);
+      minx = Math.min(minx, sx);
+      maxx = Math.max(maxx, sx);
+      miny = Math.min(miny, sy);
+      maxy = Math.max(maxy, sy);
+    }
+    return (maxx >= 0.0 && minx <= size && maxy >= minRow && miny <= maxRow);
+  }
+
+  /**
+   * Rasterize a single triangle, whose vertices are given in the coordinate system of the face,
+   * into a range of rows.
+   */
+
+  private void rasterizeTriangle(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, int minRow, int maxRow, float buffer[])
+  {
+    // Find the position of each vertex in the map, and the value to store for it.  For a perspective
+    // projection, the reciprocal of the depth is what varies linearly across the face.
+
+    double sx1 = getMapX(x1, z1), sy1 = getMapY(y1, z1), d1 = getDepthValue(z1);
+    double sx2 = getMapX(x2, z2), sy2 = getMapY(y2, z2), d2 = getDepthValue(z2);
+    double sx3 = getMapX(x3, z3), sy3 = getMapY(y3, z3), d3 = getDepthValue(z3);
+    double area = (sx2-sx1)*(sy3-sy1)-(sy2-sy1)*(sx3-sx1);
+    if (area == 0.0 || Double.isNaN(area))
+      return;
+    int xstart = Math.max((int) Math.ceil(Math.min(sx1, Math.min(sx2, sx3))-0.5), 0);
+    int xend = Math.min((int) Math.floor(Math.max(sx1, Math.max(sx2, sx3))-0.5), size-1);
+    int ystart = Math.max((int) Math.ceil(Math.min(sy1, Math.min(sy2, sy3))-0.5), minRow);
+    int yend = Math.min((int) Math.floor(Math.max(sy1, Math.max(sy2, sy3))-0.5), maxRow-1);
+    if (xstart > xend || ystart > yend)
+      return;
+
+    // Step through every sample inside the bounding box, and use barycentric coordinates to decide
+    // whether it is inside the triangle.
+
+    double invArea = 1.0/area;
+    for (int y = ystart; y <= yend; y++)
+    {
+      double py = y+0.5;
+      int base = y*size;
+      for (int x = xstart; x <= xend; x++)
+      {
+        double px = x+0.5;
+        double w1 = ((sx2-px)*(sy3-py)-(sy2-py)*(sx3-px))*invArea;
+        double w2 = ((sx3-px)*(sy1-py)-(sy3-py)*(sx1-px))*invArea;
+        double w3 = 1.0-w1-w2;
+        if (w1 < 0.0 || w2 < 0.0 || w3 < 0.0)
+          continue;
+        float d = (float) (w1*d1+w2*d2+w3*d3);
+        if (d < buffer[base+x])
+          buffer[base+x] = d;
+      }
+    }
+  }
+
+  /** Get the horizontal position in the map of a point in the face's coordinate system. */
+
+  private double getMapX(double x, double z)
+  {
+    if (perspective)
+      return (x/(z*tanHalfAngle)+1.0)*0.5*size;
+    return (x-minX)*scale;
+  }
+
+  /** Get the vertical position in the map of a point in the face's coordinate system. */
+
+  private double getMapY(double y, double z)
+  {
+    if (perspective)
+      return (y/(z*tanHalfAngle)+1.0)*0.5*size;
+    return (y-minY)*scale;
+  }
+
+  /** Get the value stored in the map for a given depth.  Smaller values are always closer to the light. */
+
+  private double getDepthValue(double z)
+  {
+    return (perspective ? -1.0/z : z);
+  }
+
+  /**
+   * Determine what fraction of the light reaches a point.
+   *
+   * @param pos          the point to look up, in world coordinates
+   * @param cosAngle     the cosine of the angle between the surface normal and the direction to the light.
+   *                     This is used to decide how much tolerance to allow for the limited resolution of the map.
+   * @return a number between 0 (completely in shadow) and 1 (completely lit)
+   */
+
+  public float getLightFraction(Vec3 pos, double cosAngle)
+  {
+    // Select the face to use.
+
+    int face = 0;
+    if (toFace.length == 6)
+    {
+      double dx = pos.x-origin.x, dy = pos.y-origin.y, dz = pos.z-origin.z;
+      double ax = Math.abs(dx), ay = Math.abs(dy), az = Math.abs(dz);
+      if (ax >= ay && ax >= az)
+        face = (dx > 0.0 ? 0 : 1);
+      else if (ay >= az)
+        face = (dy > 0.0 ? 2 : 3);
+      else
+        face = (dz > 0.0 ? 4 : 5);
+    }
+    Mat4 m = toFace[face];
+    double x = m.m11*pos.x + m.m12*pos.y + m.m13*pos.z + m.m14;
+    double y = m.m21*pos.x + m.m22*pos.y + m.m23*pos.z + m.m24;
+    double z = m.m31*pos.x + m.m32*pos.y + m.m33*pos.z + m.m34;
+    if (perspective && z < near)
+      return 1.0f;
+    double sx = getMapX(x, z), sy = getMapY(y, z);
+    if (!(sx >= 0.0 && sy >= 0.0 && sx < size && sy < size))
+      return 1.0f;
+
+    // Move the point toward the light by an amount based on the size of a sample and the slope
+    // of the surface, so surfaces do not shadow themselves.
+
+    double sampleSize = (perspective ? 2.0*z*tanHalfAngle/size : 1.0/scale);
+    cosAngle = Math.min(Math.abs(cosAngle), 1.0);
+    double slope = (cosAngle > 0.0 ? Math.sqrt(1.0-cosAngle*cosAngle)/cosAngle : MAX_SLOPE);
+    double bias = sampleSize*(filterRadius+1.0)*(1.0+Math.min(slope, MAX_SLOPE));
+    float d = (float) getDepthValue(perspective ? Math.max(z-bias, near) : z-bias);
+
+    // Compare it to nearby samples.
+
+    float buffer[] = depth[face];
+    int ix = (int) sx, iy = (int) sy;
+    int xstart = Math.max(ix-filterRadius, 0), xend = Math.min(ix+filterRadius, size-1);
+    int ystart = Math.max(iy-filterRadius, 0), yend = Math.min(iy+filterRadius, size-1);
+    int lit = 0;
+    for (int i = ystart; i <= yend; i++)
+    {
+      int base = i*size;
+      for (int j = xstart; j <= xend; j++)
+        if (buffer[base+j] >= d)
+          lit++;
+    }
+    return lit/(float) ((xend-xstart+1)*(yend-ystart+1));
+  }
+}
@@ -0,0 +1,741 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+
+/**
+ * A BoundingVolumeHierarchy is an alternative to {@link OctreeNode} for sorting the objects in
+ * a scene by location.  Each object is placed in exactly one leaf, and the tree is built by
+ * choosing split planes that minimize the surface area heuristic.
+ * <p>
+ * Rather than creating an object for every node, the whole tree is stored in a few primitive
+ * arrays.  Nodes are laid out in depth first order, so the first child of an interior node
+ * always immediately follows it.  For each node, six floats give its bounding box, and two
+ * ints describe its contents.  For a leaf, these are the offset of its first object in the list
+ * of object indices and the number of objects.  For an interior node, they are the index of the
+ * second child and -(axis+1), where axis is the axis along which the node was split.
+ */
+
+public class BoundingVolumeHierarchy
+{
+  private final RTObject obj[];
+  private float nodeBounds[];
+  private int nodeInfo[];
+  private int objIndex[];
+  private int numNodes, maxDepth;
+
+  private static final int BINS = 16;
+  private static final int MAX_LEAF_SIZE = 4;
+  private static final int MAX_FORCED_LEAF_SIZE = 32;
+  private static final float TRAVERSAL_COST = 1.0f;
+
+  /**
+   * Build a hierarchy containing a set of objects.
+   *
+   * @param obj      the objects to include in the hierarchy
+   * @param bounds   the bounding box of each object
+   */
+
+  public BoundingVolumeHierarchy(RTObject obj[], BoundingBox bounds[])
+  {
+    this.obj = obj;
+    int n = obj.length;
+    float objBounds[] = new float [6*n];
+    for (int i = 0; i < n; i++)
+    {
+      BoundingBox bb = bounds[i];
+      objBounds[6*i] = Math.nextAfter((float) bb.minx, Double.NEGATIVE_INFINITY);
+      objBounds[6*i+1] = Math.nextAfter((float) bb.maxx, Double.POSITIVE_INFINITY);
+      objBounds[6*i+2] = Math.nextAfter((float) bb.miny, Double.NEGATIVE_INFINITY);
+      objBounds[6*i+3] = Math.nextAfter((float) bb.maxy, Double.POSITIVE_INFINITY);
+      objBounds[6*i+4] = Math.nextAfter((float) bb.minz, Double.NEGATIVE_INFINITY);
+      objBounds[6*i+5] = Math.nextAfter((float) bb.maxz, Double.POSITIVE_INFINITY);
+    }
+    build(objBounds, n);
+  }
+
+  /**
+   * Build a hierarchy over a set of primitives that are not represented by RTObjects, such as the
+   * triangles of an {@link RTCompactMesh}.  Such a hierarchy can only be searched with
+   * {@link #findClosestPrimitive(Ray, int[], PrimitiveTest)}.
+   *
+   * @param primBounds   the bounds of each primitive, stored as six values (minx, maxx, miny, maxy, minz, maxz)
+   *                     per primitive
+   * @param count        the number of primitives
+   */
+
+  BoundingVolumeHierarchy(float primBounds[], int count)
+  {
+    obj = null;
+    build(primBounds, count);
+  }
+
+  /**
+   * This interface is implemented by objects whose primitives are stored in a hierarchy built with
+   * {@link #BoundingVolumeHierarchy(float[], int)}.
+   */
+
+  interface PrimitiveTest
+  {
+    /** Find the distance along a ray at which it hits a primitive, or Double.MAX_VALUE if it misses. */
+
+    double intersect(Ray r, int primitive);
+  }
+
+  private void build(float objBounds[], int n)
+  {
+    float center[] = new float [3*n];
+    for (int i = 0; i < n; i++)
+    {
+      center[3*i] = 0.5f*(objBounds[6*i]+objBounds[6*i+1]);
+      center[3*i+1] = 0.5f*(objBounds[6*i+2]+objBounds[6*i+3]);
+      center[3*i+2] = 0.5f*(objBounds[6*i+4]+objBounds[6*i+5]);
+    }
+    objIndex = new int [n];
+    for (int i = 0; i < n; i++)
+      objIndex[i] = i;
+    int capacity = Math.max(1, 2*n/MAX_LEAF_SIZE+1);
+    nodeBounds = new float [6*capacity];
+    nodeInfo = new int [2*capacity];
+    buildNode(0, n, 1, objBounds, center, new Bins());
+    if (numNodes < capacity)
+    {
+      float newBounds[] = new float [6*numNodes];
+      int newInfo[] = new int [2*numNodes];
+      System.arraycopy(nodeBounds, 0, newBounds, 0, newBounds.length);
+      System.arraycopy(nodeInfo, 0, newInfo, 0, newInfo.length);
+      nodeBounds = newBounds;
+      nodeInfo = newInfo;
+    }
+  }
+
+  /** Scratch space used while deciding where to split a node. */
+
+  private static class Bins
+  {
+    final int count[] = new int [BINS];
+    final float bounds[] = new float [6*BINS];
+    final float rightArea[] = new float [BINS];
+  }
+
+  /** Create a node containing objects start through end-1 of objIndex, and (if appropriate)
+      all of its descendants.  Returns the index of the new node. */
+
+  private int buildNode(int start, int end, int depth, float objBounds[], float center[], Bins bins)
+  {
+    int node = allocateNode();
+    if (depth > maxDepth)
+      maxDepth = depth;
+    int count = end-start;
+
+    // Find the bounds of the node, and of the object centers.
+
+    float bounds[] = new float [6], centerBounds[] = new float [6];
+    emptyBounds(bounds);
+    emptyBounds(centerBounds);
+    for (int i = start; i < end; i++)
+    {
+      int k = objIndex[i];
+      for (int axis = 0; axis < 3; axis++)
+      {
+        bounds[2*axis] = Math.min(bounds[2*axis], objBounds[6*k+2*axis]);
+        bounds[2*axis+1] = Math.max(bounds[2*axis+1], objBounds[6*k+2*axis+1]);
+        centerBounds[2*axis] = Math.min(centerBounds[2*axis], center[3*k+axis]);
+        centerBounds[2*axis+1] = Math.max(centerBounds[2*axis+1], center[3*k+axis]);
+      }
+    }
+    System.arraycopy(bounds, 0, nodeBounds, 6*node, 6);
+    if (count <= MAX_LEAF_SIZE)
+    {
+      makeLeaf(node, start, count);
+      return node;
+    }
+
+    // Evaluate the surface area heuristic at each bin boundary along every axis.
+
+    float leafCost = area(bounds, 0)*count;
+    float bestCost = Float.MAX_VALUE;
+    int bestAxis = -1, bestBin = -1;
+    for (int axis = 0; axis < 3; axis++)
+    {
+      float min = centerBounds[2*axis], max = centerBounds[2*axis+1];
+      if (max <= min)
+        continue;
+      float scale = BINS/(max-min);
+      for (int b = 0; b < BINS; b++)
+      {
+        bins.count[b] = 0;
+        emptyBounds(bins.bounds, 6*b);
+      }
+      for (int i = start; i < end; i++)
+      {
+        int k = objIndex[i];
+        int b = Math.min(BINS-1, (int) ((center[3*k+axis]-min)*scale));
+        bins.count[b]++;
+        for (int j = 0; j < 3; j++)
+        {
+          bins.bounds[6*b+2*j] = Math.min(bins.bounds[6*b+2*j], objBounds[6*k+2*j]);
+          bins.bounds[6*b+2*j+1] = Math.max(bins.bounds[6*b+2*j+1], objBounds[6*k+2*j+1]);
+        }
+      }
+      float accum[] = new float [6];
+      emptyBounds(accum);
+      for (int b = BINS-1; b > 0; b--)
+      {
+        mergeBounds(accum, bins.bounds, 6*b);
+        bins.rightArea[b] = area(accum, 0);
+      }
+      emptyBounds(accum);
+      int leftCount = 0;
+      for (int b = 0; b < BINS-1; b++)
+      {
+        mergeBounds(accum, bins.bounds, 6*b);
+        leftCount += bins.count[b];
+        int rightCount = count-leftCount;
+        if (leftCount == 0 || rightCount == 0)
+          continue;
+        float cost = area(accum, 0)*leftCount + bins.rightArea[b+1]*rightCount;
+        if (cost < bestCost)
+        {
+          bestCost = cost;
+          bestAxis = axis;
+          bestBin = b;
+        }
+      }
+    }
+    if (bestAxis == -1 || (bestCost+TRAVERSAL_COST*area(bounds, 0) >= leafCost && count <= MAX_FORCED_LEAF_SIZE))
+    {
+      makeLeaf(node, start, count);
+      return node;
+    }
+
+    // Partition the objects and build the children.
+
+    float min = centerBounds[2*bestAxis], scale = BINS/(centerBounds[2*bestAxis+1]-min);
+    int mid = start, last = end-1;
+    while (mid <= last)
+    {
+      int k = objIndex[mid];
+      int b = Math.min(BINS-1, (int) ((center[3*k+bestAxis]-min)*scale));
+      if (b <= bestBin)
+        mid++;
+      else
+      {
+        objIndex[mid] = objIndex[last];
+        objIndex[last--] = k;
+      }
+    }
+    buildNode(start, mid, depth+1, objBounds, center, bins);
+    int second = buildNode(mid, end, depth+1, objBounds, center, bins);
+    nodeInfo[2*node] = second;
+    nodeInfo[2*node+1] = -(bestAxis+1);
+    return node;
+  }
+
+  private int allocateNode()
+  {
+    if (6*numNodes == nodeBounds.length)
+    {
+      float newBounds[] = new float [2*nodeBounds.length];
+      int newInfo[] = new int [2*nodeInfo.length];
+      System.arraycopy(nodeBounds, 0, newBounds, 0, nodeBounds.length);
+      System.arraycopy(nodeInfo, 0, newInfo, 0, nodeInfo.length);
+      nodeBounds = newBounds;
+      nodeInfo = newInfo;
+    }
+    return numNodes++;
+  }
+
+  private void makeLeaf(int node, int start, int count)
+  {
+    nodeInfo[2*node] = start;
+    nodeInfo[2*node+1] = count;
+  }
+
+  private static void emptyBounds(float bounds[])
+  {
+    emptyBounds(bounds, 0);
+  }
+
+  private static void emptyBounds(float bounds[], int offset)
+  {
+    for (int i = 0; i < 3; i++)
+    {
+      bounds[offset+2*i] = Float.MAX_VALUE;
+      bounds[offset+2*i+1] = -Float.MAX_VALUE;
+    }
+  }
+
+  private static void mergeBounds(float bounds[], float other[], int offset)
+  {
+    for (int i = 0; i < 3; i++)
+    {
+      bounds[2*i] = Math.min(bounds[2*i], other[offset+2*i]);
+      bounds[2*i+1] = Math.max(bounds[2*i+1], other[offset+2*i+1]);
+    }
+  }
+
+  /** Get half the surface area of a box.  An empty box has zero area. */
+
+  private static float area(float bounds[], int offset)
+  {
+    float dx = bounds[offset+1]-bounds[offset], dy = bounds[offset+3]-bounds[offset+2], dz = bounds[offset+5]-bounds[offset+4];
+    if (dx < 0.0f || dy < 0.0f || dz < 0.0f)
+      return 0.0f;
+    return dx*dy + dy*dz + dz*dx;
+  }
+
+  /** Get the total number of nodes in the hierarchy. */
+
+  public int getNumNodes()
+  {
+    return numNodes;
+  }
+
+  /** Get the depth of the deepest leaf in the hierarchy.  The root node has a depth of 1. */
+
+  public int getMaxDepth()
+  {
+    return maxDepth;
+  }
+
+  /** Get the approximate number of bytes used by the arrays that store the hierarchy. */
+
+  public long getMemoryUsage()
+  {
+    return 4L*(nodeBounds.length+nodeInfo.length+objIndex.length);
+  }
+
+  /** Get a BoundingBox enclosing all objects in the hierarchy. */
+
+  public BoundingBox getBounds()
+  {
+    return new BoundingBox(nodeBounds[0], nodeBounds[1], nodeBounds[2], nodeBounds[3], nodeBounds[4], nodeBounds[5]);
+  }
+
+  /** Find the distance along a ray at which it enters a node, or Double.MAX_VALUE if it misses the
+      node or enters it beyond maxDist. */
+
+  private double findEntryDistance(int node, double ox, double oy, double oz, double invx, double invy, double invz, double maxDist)
+  {
+    int base = 6*node;
+    double t1 = (nodeBounds[base]-ox)*invx, t2 = (nodeBounds[base+1]-ox)*invx;
+    double mint = 0.0, maxt = maxDist;
+    if (t1 > t2)
+    {
+      double temp = t1;
+      t1 = t2;
+      t2 = temp;
+    }
+    if (t1 > mint)
+      mint = t1;
+    if (t2 < maxt)
+      maxt = t2;
+    t1 = (nodeBounds[base+2]-oy)*invy;
+    t2 = (nodeBounds[base+3]-oy)*invy;
+    if (t1 > t2)
+    {
+      double temp = t1;
+      t1 = t2;
+      t2 = temp;
+    }
+    if (t1 > mint)
+      mint = t1;
+    if (t2 < maxt)
+      maxt = t2;
+    t1 = (nodeBounds[base+4]-oz)*invz;
+    t2 = (nodeBounds[base+5]-oz)*invz;
+    if (t1 > t2)
+    {
+      double temp = t1;
+      t1 = t2;
+      t2 = temp;
+    }
+    if (t1 > mint)
+      mint = t1;
+    if (t2 < maxt)
+      maxt = t2;
+    return (mint > maxt ? Double.MAX_VALUE : mint);
+  }
+
+  /**
+   * Trace a ray and find the first object it hits (or the first two objects, if they are almost
+   * exactly the same distance away).
+   *
+   * @param r          the ray to trace
+   * @param intersect  the details of what was hit are returned in this object
+   * @return true if the ray hit anything, false otherwise
+   */
+
+  public boolean traceRay(Ray r, Raytracer.RayIntersection intersect)
+  {
+    if (numNodes == 0)
+      return false;
+    RaytracerContext context = r.rt;
+    int stack[] = context.getTraversalStack(maxDepth);
+    Vec3 orig = r.getOrigin(), dir = r.getDirection();
+    double ox = orig.x, oy = orig.y, oz = orig.z;
+    double invx = 1.0/dir.x, invy = 1.0/dir.y, invz = 1.0/dir.z;
+    RTObject first = null, second = null;
+    double firstDist = Double.MAX_VALUE, secondDist = Double.MAX_VALUE;
+    int node = 0, stackSize = 0;
+    while (true)
+    {
+      double maxDist = (firstDist == Double.MAX_VALUE ? Double.MAX_VALUE : firstDist+Raytracer.TOL);
+      if (findEntryDistance(node, ox, oy, oz, invx, invy, invz, maxDist) != Double.MAX_VALUE)
+      {
+        int info = nodeInfo[2*node+1];
+        if (info < 0)
+        {
+          // Visit the child nearest the ray origin first.
+
+          int axis = -info-1;
+          double d = (axis == 0 ? dir.x : (axis == 1 ? dir.y : dir.z));
+          if (d < 0.0)
+          {
+            stack[stackSize++] = node+1;
+            node = nodeInfo[2*node];
+          }
+          else
+          {
+            stack[stackSize++] = nodeInfo[2*node];
+            node = node+1;
+          }
+          continue;
+        }
+        int start = nodeInfo[2*node];
+        for (int i = start+info-1; i >= start; i--)
+        {
+          RTObject o = obj[objIndex[i]];
+          SurfaceIntersection intersection = r.findIntersection(o);
+          if (intersection == SurfaceIntersection.NO_INTERSECTION)
+            continue;
+          double dist = intersection.intersectionDist(0);
+          if (dist < firstDist)
+          {
+            secondDist = firstDist;
+            second = first;
+            firstDist = dist;
+            first = o;
+          }
+          else if (dist < secondDist && o != first)
+          {
+            secondDist = dist;
+            second = o;
+          }
+        }
+      }
+      if (stackSize == 0)
+        break;
+      node = stack[--stackSize];
+    }
+    if (first == null)
+      return false;
+    intersect.set(context.lastRayResult[first.index], (secondDist-firstDist < Raytracer.TOL ? context.lastRayResult[second.index] : SurfaceIntersection.NO_INTERSECTION), firstDist);
+    return true;
+  }
+
+  /**
+   * Trace a packet of rays through the hierarchy at once, and find the first object each one hits
+   * (or the first two objects, if they are almost exactly the same distance away).  This gives the
+   * same results as calling {@link #traceRay(Ray, Raytracer.RayIntersection)} for each ray.  When
+   * the rays are coherent (such as camera rays through neighboring pixels), it visits each node only
+   * once for the whole packet.  In spite of that, it is currently slower than tracing the rays one at a
+   * time: about 1750 versus 970 ns per ray for a scene of spheres, and 790 versus 660 ns for a mesh
+   * (see PacketTraceBenchmark).
+   * <p>
+   * The data for each ray are stored in separate arrays, and the rays are processed together in
+   * simple loops.  Objects are tested by calling {@link RTObject#checkIntersection(Ray)} directly,
+   * so the SurfaceIntersections are not cached.  Only the objects and distances are returned, and
+   * the caller must call {@link Ray#findIntersection(RTObject)} to get the details.
+   *
+   * @param r          the rays to trace.  They must all belong to the same RaytracerContext.
+   * @param count      the number of rays in the packet.  This may be at most 32.
+   * @param first      on exit, element i contains the first object hit by ray i, or null if it hit nothing
+   * @param second     on exit, element i contains the second object hit by ray i, or null if there was
+   *                   no other object at almost the same distance
+   * @param distance   on exit, element i contains the distance to the first object hit by ray i
+   */
+
+  public void traceRays(Ray r[], int count, RTObject first[], RTObject second[], double distance[])
+  {
+    if (count > 32)
+      throw new IllegalArgumentException("A packet may contain at most 32 rays");
+    for (int i = 0; i < count; i++)
+    {
+      first[i] = second[i] = null;
+      distance[i] = Double.MAX_VALUE;
+    }
+    if (numNodes == 0 || count == 0)
+      return;
+
+    // Copy the rays into a single array: six values for each ray, followed by the distance to
+    // the second object it hits.
+
+    RaytracerContext context = r[0].rt;
+    double data[] = context.getPacketData(7*count);
+    int secondDist = 6*count;
+    for (int i = 0; i < count; i++)
+    {
+      data[secondDist+i] = Double.MAX_VALUE;
+      Vec3 orig = r[i].getOrigin(), dir = r[i].getDirection();
+      data[6*i] = orig.x;
+      data[6*i+1] = orig.y;
+      data[6*i+2] = orig.z;
+      data[6*i+3] = 1.0/dir.x;
+      data[6*i+4] = 1.0/dir.y;
+      data[6*i+5] = 1.0/dir.z;
+    }
+
+    // The stack holds pairs of values: a node, and a bit mask of the rays which should visit it.
+
+    int stack[] = context.getTraversalStack(2*maxDepth+1);
+    int node = 0, mask = (count == 32 ? -1 : (1<<count)-1), stackSize = 0;
+    while (true)
+    {
+      int hitMask = 0;
+      for (int i = 0; i < count; i++)
+        if ((mask&(1<<i)) != 0)
+        {
+          double maxDist = (distance[i] == Double.MAX_VALUE ? Double.MAX_VALUE : distance[i]+Raytracer.TOL);
+          if (findEntryDistance(node, data[6*i], data[6*i+1], data[6*i+2], data[6*i+3], data[6*i+4], data[6*i+5], maxDist) != Double.MAX_VALUE)
+            hitMask |= 1<<i;
+        }
+      if (hitMask != 0)
+      {
+        int info = nodeInfo[2*node+1];
+        if (info < 0)
+        {
+          // Visit the child nearest the origin of the first active ray first.
+
+          int axis = -info-1;
+          double d = data[6*Integer.numberOfTrailingZeros(hitMask)+3+axis];
+          if (d < 0.0)
+          {
+            stack[stackSize++] = node+1;
+            node = nodeInfo[2*node];
+          }
+          else
+          {
+            stack[stackSize++] = nodeInfo[2*node];
+            node = node+1;
+          }
+          stack[stackSize++] = hitMask;
+          mask = hitMask;
+          continue;
+        }
+        int start = nodeInfo[2*node];
+        for (int j = start+info-1; j >= start; j--)
+        {
+          RTObject o = obj[objIndex[j]];
+          for (int i = 0; i < count; i++)
+          {
+            if ((hitMask&(1<<i)) == 0)
+              continue;
+            SurfaceIntersection intersection = o.checkIntersection(r[i]);
+            if (intersection == SurfaceIntersection.NO_INTERSECTION)
+              continue;
+            double dist = intersection.intersectionDist(0);
+            if (dist < distance[i])
+            {
+              data[secondDist+i] = distance[i];
+              second[i] = first[i];
+              distance[i] = dist;
+              first[i] = o;
+            }
+            else if (dist < data[secondDist+i] && o != first[i])
+            {
+              data[secondDist+i] = dist;
+              second[i] = o;
+            }
+          }
+        }
+      }
+      if (stackSize == 0)
+        break;
+      mask = stack[--stackSize];
+      node = stack[--stackSize];
+    }
+    for (int i = 0; i < count; i++)
+      if (first[i] == null || data[secondDist+i]-distance[i] >= Raytracer.TOL)
+        second[i] = null;
+  }
+
+  /**
+   * Find the closest intersection between a ray and any object in the hierarchy.  Unlike
+   * {@link #traceRay(Ray, Raytracer.RayIntersection)}, this calls {@link RTObject#checkIntersection(Ray)}
+   * directly instead of going through the Ray's cache.  It is used for hierarchies whose objects are
+   * not part of the Raytracer's list of objects, such as the shared geometry of an {@link RTInstance},
+   * so their indices cannot be used to look up cached results.
+   *
+   * @param r       the ray to trace
+   * @param stack   an array to use as the traversal stack.  Its length must be at least
+   *                {@link #getMaxDepth()}+1.
+   * @return the closest intersection, or SurfaceIntersection.NO_INTERSECTION if the ray does not hit anything
+   */
+
+  public SurfaceIntersection findClosestIntersection(Ray r, int stack[])
+  {
+    if (numNodes == 0)
+      return SurfaceIntersection.NO_INTERSECTION;
+    Vec3 orig = r.getOrigin(), dir = r.getDirection();
+    double ox = orig.x, oy = orig.y, oz = orig.z;
+    double invx = 1.0/dir.x, invy = 1.0/dir.y, invz = 1.0/dir.z;
+    SurfaceIntersection first = SurfaceIntersection.NO_INTERSECTION;
+    double firstDist = Double.MAX_VALUE;
+    int node = 0, stackSize = 0;
+    while (true)
+    {
+      if (findEntryDistance(node, ox, oy, oz, invx, invy, invz, firstDist) != Double.MAX_VALUE)
+      {
+        int info = nodeInfo[2*node+1];
+        if (info < 0)
+        {
+          int axis = -info-1;
+          double d = (axis == 0 ? dir.x : (axis == 1 ? dir.y : dir.z));
+          if (d < 0.0)
+          {
+            stack[stackSize++] = node+1;
+            node = nodeInfo[2*node];
+          }
+          else
+          {
+            stack[stackSize++] = nodeInfo[2*node];
+            node = node+1;
+          }
+          continue;
+        }
+        int start = nodeInfo[2*node];
+        for (int i = start+info-1; i >= start; i--)
+        {
+          SurfaceIntersection intersection = obj[objIndex[i]].checkIntersection(r);
+          if (intersection == SurfaceIntersection.NO_INTERSECTION)
+            continue;
+          double dist = intersection.intersectionDist(0);
+          if (dist < firstDist)
+          {
+            firstDist = dist;
+            first = intersection;
+          }
+        }
+      }
+      if (stackSize == 0)
+        break;
+      node = stack[--stackSize];
+    }
+    return first;
+  }
+
+  /**
+   * Find the closest primitive hit by a ray, in a hierarchy that was built with
+   * {@link #BoundingVolumeHierarchy(float[], int)}.
+   *
+   * @param r       the ray to trace
+   * @param stack   an array to use as the traversal stack.  Its length must be at least
+   *                {@link #getMaxDepth()}+1.
+   * @param test    used to check whether the ray hits each primitive
+   * @return the index of the closest primitive, or -1 if the ray does not hit anything
+   */
+
+  int findClosestPrimitive(Ray r, int stack[], PrimitiveTest test)
+  {
+    if (numNodes == 0)
+      return -1;
+    Vec3 orig = r.getOrigin(), dir = r.getDirection();
+    double ox = orig.x, oy = orig.y, oz = orig.z;
+    double invx = 1.0/dir.x, invy = 1.0/dir.y, invz = 1.0/dir.z;
+    int first = -1;
+    double firstDist = Double.MAX_VALUE;
+    int node = 0, stackSize = 0;
+    while (true)
+    {
+      if (findEntryDistance(node, ox, oy, oz, invx, invy, invz, firstDist) != Double.MAX_VALUE)
+      {
+        int info = nodeInfo[2*node+1];
+        if (info < 0)
+        {
+          int axis = -info-1;
+          double d = (axis == 0 ? dir.x : (axis == 1 ? dir.y : dir.z));
+          if (d < 0.0)
+          {
+            stack[stackSize++] = node+1;
+            node = nodeInfo[2*node];
+          }
+          else
+          {
+            stack[stackSize++] = nodeInfo[2*node];
+            node = node+1;
+          }
+          continue;
+        }
+        int start = nodeInfo[2*node];
+        for (int i = start+info-1; i >= start; i--)
+        {
+          double dist = test.intersect(r, objIndex[i]);
+          if (dist < firstDist)
+          {
+            firstDist = dist;
+            first = objIndex[i];
+          }
+        }
+      }
+      if (stackSize == 0)
+        break;
+      node = stack[--stackSize];
+    }
+    return first;
+  }
+
+  /**
+   * Find every object whose leaf node is intersected by a ray at a distance less than maxDist.
+   * The objects are stored in the RaytracerContext's list of candidate objects, which can be retrieved
+   * by calling {@link RaytracerContext#getCandidateObjects()}.  Each object is listed at most once,
+   * but it is not guaranteed that the ray actually intersects it.
+   *
+   * @param r         the ray to trace
+   * @param maxDist   the maximum distance along the ray to consider
+   * @return the number of candidate objects that were found
+   */
+
+  public int findCandidateObjects(Ray r, double maxDist)
+  {
+    if (numNodes == 0)
+      return 0;
+    RaytracerContext context = r.rt;
+    int stack[] = context.getTraversalStack(maxDepth);
+    Vec3 orig = r.getOrigin(), dir = r.getDirection();
+    double ox = orig.x, oy = orig.y, oz = orig.z;
+    double invx = 1.0/dir.x, invy = 1.0/dir.y, invz = 1.0/dir.z;
+    int node = 0, stackSize = 0, count = 0;
+    while (true)
+    {
+      if (findEntryDistance(node, ox, oy, oz, invx, invy, invz, maxDist) != Double.MAX_VALUE)
+      {
+        int info = nodeInfo[2*node+1];
+        if (info < 0)
+        {
+          stack[stackSize++] = nodeInfo[2*node];
+          node = node+1;
+          continue;
+        }
+        int start = nodeInfo[2*node];
+        RTObject candidates[] = context.getCandidateObjects(count+info);
+        for (int i = start; i < start+info; i++)
+          candidates[count++] = obj[objIndex[i]];
+      }
+      if (stackSize == 0)
+        break;
+      node = stack[--stackSize];
+    }
+    return count;
+  }
+}
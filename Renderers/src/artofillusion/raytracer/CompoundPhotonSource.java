@@ -59,7 +59,7 @@ public class CompoundPhotonSource implements PhotonSource
           @Override
       public void cleanup()
       {
-        map.getWorkspace().cleanup();
+        map.getRenderer().releaseWorkspace();
       }
     });
     threads.run();
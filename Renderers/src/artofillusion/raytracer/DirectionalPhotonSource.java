@@ -100,7 +100,7 @@ public class DirectionalPhotonSource implements PhotonSource
               @Override
           public void cleanup()
           {
-            map.getWorkspace().cleanup();
+            map.getRenderer().releaseWorkspace();
           }
         });
         threads.run();
@@ -169,7 +169,7 @@ public class EnvironmentPhotonSource implements PhotonSource
           @Override
       public void cleanup()
       {
-        map.getWorkspace().cleanup();
+        map.getRenderer().releaseWorkspace();
       }
     });
     while (emittedIntensity[0] < intensity)
@@ -0,0 +1,116 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.material.*;
+import artofillusion.math.*;
+import artofillusion.texture.*;
+import java.util.*;
+
+/**
+ * An InstancedGeometry holds the triangles of a RenderingMesh in the mesh's own local coordinates,
+ * along with a {@link BoundingVolumeHierarchy} for locating them.  It is created once for an object
+ * that appears many times in a scene, and is then shared by an {@link RTInstance} for each copy.
+ */
+
+public class InstancedGeometry
+{
+  private final RenderingMesh mesh;
+  private final RTObject tri[];
+  private final BoundingVolumeHierarchy bvh;
+  private final BoundingBox bounds;
+
+  /**
+   * Create the shared geometry for a mesh.
+   *
+   * @param mesh            the mesh to build the geometry from, in its local coordinates
+   * @param reducedMemory   if true, use {@link RTTriangleLowMemory} rather than {@link RTTriangle}
+   *                        to represent each triangle
+   */
+
+  public InstancedGeometry(RenderingMesh mesh, boolean reducedMemory)
+  {
+    this.mesh = mesh;
+    Mat4 identity = Mat4.identity();
+    Vec3 vert[] = mesh.vert;
+    ArrayList<RTObject> triList = new ArrayList<RTObject>();
+    for (int i = 0; i < mesh.triangle.length; i++)
+    {
+      RenderingTriangle t = mesh.triangle[i];
+      if (mesh.faceNorm[i].length() < Raytracer.TOL)
+        continue;
+      if (vert[t.v1].distance(vert[t.v2]) < Raytracer.TOL)
+        continue;
+      if (vert[t.v1].distance(vert[t.v3]) < Raytracer.TOL)
+        continue;
+      if (vert[t.v2].distance(vert[t.v3]) < Raytracer.TOL)
+        continue;
+      if (reducedMemory)
+        triList.add(new RTTriangleLowMemory(mesh, i, identity, identity));
+      else
+        triList.add(new RTTriangle(mesh, i, identity, identity));
+    }
+    tri = triList.toArray(new RTObject [triList.size()]);
+    BoundingBox triBounds[] = new BoundingBox [tri.length];
+    BoundingBox total = null;
+    for (int i = 0; i < tri.length; i++)
+    {
+      triBounds[i] = tri[i].getBounds();
+      if (total == null)
+        total = new BoundingBox(triBounds[i]);
+      else
+        total.extend(triBounds[i]);
+    }
+    bounds = (total == null ? new BoundingBox(0.0, 0.0, 0.0, 0.0, 0.0, 0.0) : total);
+    bvh = new BoundingVolumeHierarchy(tri, triBounds);
+  }
+
+  /** Get the number of triangles in the geometry. */
+
+  public int getNumTriangles()
+  {
+    return tri.length;
+  }
+
+  /** Get a bounding box enclosing the geometry, in its local coordinates. */
+
+  public BoundingBox getBounds()
+  {
+    return bounds;
+  }
+
+  /** Get the TextureMapping for the mesh. */
+
+  public TextureMapping getTextureMapping()
+  {
+    return mesh.mapping;
+  }
+
+  /** Get the MaterialMapping for the mesh. */
+
+  public MaterialMapping getMaterialMapping()
+  {
+    return mesh.matMapping;
+  }
+
+  /**
+   * Find the closest intersection between a ray and the geometry.
+   *
+   * @param r    the ray to trace, in the geometry's local coordinates
+   * @return the closest intersection, or SurfaceIntersection.NO_INTERSECTION if the ray does not hit anything
+   */
+
+  public SurfaceIntersection findClosestIntersection(Ray r)
+  {
+    return bvh.findClosestIntersection(r, r.rt.getObjectTraversalStack(bvh.getMaxDepth()));
+  }
+}
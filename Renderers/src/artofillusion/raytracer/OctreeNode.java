@@ -13,11 +13,15 @@ package artofillusion.raytracer;
 import artofillusion.math.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /** This class represents a node in an octree, used for sorting the objects by location in
     the scene.  OctreeNodes can be terminal nodes, in which case they contain a list of 
     objects, or branch nodes, in which case they contain a list of other nodes.
     <p>
+    A tree can be built on a single thread by invoking the constructor on the root node, or in
+    parallel by calling {@link #buildTree buildTree()}.  Both produce exactly the same tree.
+    <p>
     This class is more sophisticated than most octrees.  When it subdivides a node, it does
     not simply cut it in half along each axis.  Instead, it tries to determine the optimal place
     to subdivide along each axis, based on the bounding boxes of the objects within the node. */
@@ -31,14 +35,40 @@ public class OctreeNode
   
   private static final int CELLS = 64;
   private static final RTObject EMPTY_OBJECT_LIST[] = new RTObject [0];
-  private static int leftCount[] = new int [CELLS+2];
-  private static int rightCount[] = new int [CELLS+2];
+  private static final int PARALLEL_THRESHOLD = 2000;
 
   /** The constructor takes a bounding box, an array of objects, an array of bounding boxes
-      of the objects, and a reference to its parent node.  treeDepth is the depth of this node 
-      in the octree, and maxDepth is the maximum allowed depth. */
+      of the objects, and a reference to its parent node.  It builds the node and all of its
+      descendants on the calling thread. */
   
   public OctreeNode(float minx, float maxx, float miny, float maxy, float minz, float maxz, RTObject tri[], BoundingBox bb[], OctreeNode parentNode)
+  {
+    this(minx, maxx, miny, maxy, minz, maxz, tri, bb, parentNode, new SplitCounts(), false);
+  }
+
+  /** Build a complete octree, constructing independent branches in parallel.  The resulting tree is
+      identical to the one created by invoking the constructor with a null parent. */
+
+  public static OctreeNode buildTree(final float minx, final float maxx, final float miny, final float maxy, final float minz, final float maxz, final RTObject tri[], final BoundingBox bb[])
+  {
+    return ForkJoinPool.commonPool().invoke(new RecursiveTask<OctreeNode>() {
+      @Override
+      protected OctreeNode compute()
+      {
+        return new OctreeNode(minx, maxx, miny, maxy, minz, maxz, tri, bb, null, new SplitCounts(), true);
+      }
+    });
+  }
+
+  /** Scratch space used by findAxisMidpoint().  Every thread building part of a tree needs its own. */
+
+  private static class SplitCounts
+  {
+    final int leftCount[] = new int [CELLS+2];
+    final int rightCount[] = new int [CELLS+2];
+  }
+
+  private OctreeNode(float minx, float maxx, float miny, float maxy, float minz, float maxz, RTObject tri[], BoundingBox bb[], OctreeNode parentNode, SplitCounts counts, boolean parallel)
   {
     this.minx = minx;
     this.maxx = maxx;
@@ -77,50 +107,87 @@ public class OctreeNode
         obj[count] = tri[i];
         objBounds[count++] = bb[i];
       }
-    subdivide(objBounds);
+    subdivide(objBounds, counts, parallel);
+  }
+
+  /** Create a terminal node with no parent, containing the specified objects.  Unlike the other
+      constructor, this does not check which objects actually lie inside the node, and the node is
+      never subdivided.  This is used when some other structure, such as a {@link BoundingVolumeHierarchy},
+      is responsible for locating objects. */
+
+  public OctreeNode(float minx, float maxx, float miny, float maxy, float minz, float maxz, RTObject obj[])
+  {
+    this.minx = minx;
+    this.maxx = maxx;
+    this.miny = miny;
+    this.maxy = maxy;
+    this.minz = minz;
+    this.maxz = maxz;
+    this.obj = obj;
   }
 
   /** Determine whether this node should be subdivided.  If so, create the child nodes.  Otherwise, mark it
-      as a terminal node. */
+      as a terminal node.  If parallel is true and the node contains enough objects, the children are
+      built as separate tasks in the ForkJoinPool this is running in. */
 
-  private void subdivide(BoundingBox objBounds[])
+  private void subdivide(final BoundingBox objBounds[], SplitCounts counts, final boolean parallel)
   {
     boolean splitx, splity, splitz;
 
     if (obj.length > 9)
       {
-        findMidpoints(objBounds);
+        findMidpoints(objBounds, counts);
         splitx = (midx != maxx);
         splity = (midy != maxy);
         splitz = (midz != maxz);
         if (!(splitx || splity || splitz))
           return;
         child = new OctreeNode[8];
-        child[0] = new OctreeNode(minx, midx, miny, midy, minz, midz, obj, objBounds, this);
-        if (splitz)
-          child[1] = new OctreeNode(minx, midx, miny, midy, midz, maxz, obj, objBounds, this);
-        if (splity)
+        if (parallel && obj.length >= PARALLEL_THRESHOLD)
           {
-            child[2] = new OctreeNode(minx, midx, midy, maxy, minz, midz, obj, objBounds, this);
-            if (splitz)
-              child[3] = new OctreeNode(minx, midx, midy, maxy, midz, maxz, obj, objBounds, this);
+            ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+            for (int i = 0; i < 8; i++)
+              if (hasChild(i, splitx, splity, splitz))
+                {
+                  final int index = i;
+                  tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute()
+                    {
+                      child[index] = createChild(index, objBounds, new SplitCounts(), true);
+                    }
+                  });
+                }
+            ForkJoinTask.invokeAll(tasks);
           }
-        if (splitx)
+        else
           {
-            child[4] = new OctreeNode(midx, maxx, miny, midy, minz, midz, obj, objBounds, this);
-            if (splitz)
-              child[5] = new OctreeNode(midx, maxx, miny, midy, midz, maxz, obj, objBounds, this);
-            if (splity)
-              {
-                child[6] = new OctreeNode(midx, maxx, midy, maxy, minz, midz, obj, objBounds, this);
-                if (splitz)
-                  child[7] = new OctreeNode(midx, maxx, midy, maxy, midz, maxz, obj, objBounds, this);
-              }
+            for (int i = 0; i < 8; i++)
+              if (hasChild(i, splitx, splity, splitz))
+                child[i] = createChild(i, objBounds, counts, parallel);
           }
         obj = null;
       }
   }
 
+  /** Determine whether a child node exists.  Bits 4, 2, and 1 of the index indicate whether the
+      child is on the upper side of the x, y, and z midpoints respectively. */
+
+  private static boolean hasChild(int index, boolean splitx, boolean splity, boolean splitz)
+  {
+    return ((index&4) == 0 || splitx) && ((index&2) == 0 || splity) && ((index&1) == 0 || splitz);
+  }
+
+  /** Create one of the child nodes. */
+
+  private OctreeNode createChild(int index, BoundingBox objBounds[], SplitCounts counts, boolean parallel)
+  {
+    float x1 = ((index&4) == 0 ? minx : midx), x2 = ((index&4) == 0 ? midx : maxx);
+    float y1 = ((index&2) == 0 ? miny : midy), y2 = ((index&2) == 0 ? midy : maxy);
+    float z1 = ((index&1) == 0 ? minz : midz), z2 = ((index&1) == 0 ? midz : maxz);
+    return new OctreeNode(x1, x2, y1, y2, z1, z2, obj, objBounds, this, counts, parallel);
+  }
+
   /** Build a list of all child nodes. */
 
   public OctreeNode[] findChildNodes()
@@ -406,7 +473,7 @@ public class OctreeNode
   /** Analyze the distribution of objects inside this node, and determine the best place at which
       to subdivide it along each axis. */
   
-  private void findMidpoints(BoundingBox objBounds[])
+  private void findMidpoints(BoundingBox objBounds[], SplitCounts counts)
   {
     
     // If the box is much shorter along one axis than the other two, we don't want to subdivide 
@@ -422,22 +489,23 @@ public class OctreeNode
     if (cutoff < 1.0e-2)
       cutoff = 1.0e-2;
     if (xsize > cutoff)
-      midx = findAxisMidpoint(objBounds, 0);
+      midx = findAxisMidpoint(objBounds, 0, counts);
     else
       midx = maxx;
     if (ysize > cutoff)
-      midy = findAxisMidpoint(objBounds, 1);
+      midy = findAxisMidpoint(objBounds, 1, counts);
     else
       midy = maxy;
     if (zsize > cutoff)
-      midz = findAxisMidpoint(objBounds, 2);
+      midz = findAxisMidpoint(objBounds, 2, counts);
     else
       midz = maxz;
   }
 
   
-  private float findAxisMidpoint(BoundingBox objBounds[], int axis)
+  private float findAxisMidpoint(BoundingBox objBounds[], int axis, SplitCounts counts)
   {
+    int leftCount[] = counts.leftCount, rightCount[] = counts.rightCount;
     for (int i = 0; i < CELLS+2; i++)
       leftCount[i] = rightCount[i] = 0;
     float min = findMinimum(this, axis);
@@ -17,7 +17,10 @@ import artofillusion.math.*;
     
     This is a slightly improved version of the photon data structure described in:
     
-    Henrick Wann Jensen, "Realistic Image Synthesis Using Photon Mapping", A K Peters, Natick, MA, 2001. */
+    Henrick Wann Jensen, "Realistic Image Synthesis Using Photon Mapping", A K Peters, Natick, MA, 2001.
+
+    PhotonMap does not create Photon objects.  It stores the same fields in parallel primitive arrays,
+    using the direction encoding defined by encodeDirection(). */
 
 public class Photon
 {
@@ -29,14 +32,28 @@ public class Photon
   
   public Photon(Vec3 pos, Vec3 dir, RGBColor color)
   {
-    x = (float) pos.x;
-    y = (float) pos.y;
-    z = (float) pos.z;
+    this((float) pos.x, (float) pos.y, (float) pos.z, color.getERGB(), encodeDirection(dir));
+  }
+
+  /** Create a new Photon from its packed representation. */
+
+  Photon(float x, float y, float z, int ergb, short direction)
+  {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.ergb = ergb;
+    this.direction = direction;
+  }
+
+  /** Encode a unit vector into the 16 bit format used to store photon directions. */
+
+  public static short encodeDirection(Vec3 dir)
+  {
     int phi = (int) (Math.atan2(dir.z, dir.x)*128/Math.PI);
     if (phi < 0)
       phi += 256;
     int theta = (int) (Math.acos(dir.y)*256/Math.PI);
-    direction = (short) ((phi<<8)+theta);
-    ergb = color.getERGB();
+    return (short) ((phi<<8)+theta);
   }
 }
\ No newline at end of file
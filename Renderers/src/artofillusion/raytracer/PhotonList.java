@@ -11,7 +11,8 @@
 package artofillusion.raytracer;
 
 /** This class stores a list of photons which are close to a point in space, and calculates the incident
-    light intensity from them.
+    light intensity from them.  Photons are identified by their index in the {@link PhotonMap}.  Once the
+    list is full, it is maintained as a max heap so the most distant photon can be replaced in constant time.
     
     Parts of this class are based on the descriptions and sample code in
     
@@ -19,7 +20,7 @@ package artofillusion.raytracer;
 
 public class PhotonList
 {
-  public Photon photon[];
+  public int index[];
   public float dist2[], cutoff2;
   public int numFound;
   
@@ -29,7 +30,7 @@ public class PhotonList
   
   public PhotonList(int size)
   {
-    photon = new Photon [size];
+    index = new int [size];
     dist2 = new float [size];
   }
   
@@ -45,15 +46,15 @@ public class PhotonList
   
   /** Add a photon to the list. */
   
-  public final void addPhoton(Photon p, float sqDist)
+  public final void addPhoton(int p, float sqDist)
   {
-    if (numFound < photon.length)
+    if (numFound < index.length)
       {
         // Add the photon to the list.
         
-        photon[numFound] = p;
+        index[numFound] = p;
         dist2[numFound++] = sqDist;
-        if (numFound == photon.length)
+        if (numFound == index.length)
           buildHeap();
         return;
       }
@@ -71,11 +72,11 @@ public class PhotonList
           child = child2;
         if (dist2[child] <= sqDist)
           break;
-        photon[pos] = photon[child];
+        index[pos] = index[child];
         dist2[pos] = dist2[child];
         pos = child;
       }
-    photon[pos] = p;
+    index[pos] = p;
     dist2[pos] = sqDist;
     cutoff2 = dist2[0];
   }
@@ -89,7 +90,7 @@ public class PhotonList
     for (int i = half; i >= 0; i--)
       {
         int parent = i;
-        Photon p = photon[i];
+        int p = index[i];
         float d = dist2[i];
         while (parent <= half)
           {
@@ -99,11 +100,11 @@ public class PhotonList
             if (d >= dist2[j])
               break;
             dist2[parent] = dist2[j];
-            photon[parent] = photon[j];
+            index[parent] = index[j];
             parent = j;
           }
         dist2[parent] = d;
-        photon[parent] = p;
+        index[parent] = p;
       }
   }
 }
\ No newline at end of file
@@ -16,6 +16,7 @@ import artofillusion.texture.*;
 import artofillusion.util.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /** This class is a three dimensional data structure containing the photons in a scene.  The map can
     be searched very efficiently for locating the photons near a particular point and evaluating the
@@ -29,16 +30,23 @@ public class PhotonMap
 {
   private Raytracer rt;
   private RaytracerRenderer renderer;
-  private ArrayList<Photon> photonList;
-  private Photon photon[], workspace[];
+  private ThreadLocal<PhotonBuffer> threadBuffer;
+  private List<PhotonBuffer> bufferList;
+  private float photonPos[], buildPos[];
+  private int photonErgb[], buildOrder[];
+  private short photonDirection[];
+  private byte photonAxis[];
+  private int numPhotons, treeDepth;
   private int numWanted, filter, numEstimate;
   private BoundingBox bounds;
   private Vec3 direction[];
   private boolean includeCaustics, includeDirect, includeIndirect, includeVolume;
-  private double lightScale;
+  private double lightScale = 1.0;
   private float cutoffDist2;
   public Random random;
 
+  private static final int PARALLEL_BUILD_THRESHOLD = 20000;
+
   /** Create a new PhotonMap
    * @param totalPhotons        the number of photons which should be stored in this map
    * @param numEstimate         the number of photons to use when estimating the illumination from this map
@@ -126,12 +134,21 @@ public class PhotonMap
 
     // Generate photons.
 
-    photonList = new ArrayList<Photon>((int) (1.1*numWanted));
-    int iteration = 0;
+    bufferList = Collections.synchronizedList(new ArrayList<PhotonBuffer>());
+    threadBuffer = new ThreadLocal<PhotonBuffer>() {
+      @Override
+      protected PhotonBuffer initialValue()
+      {
+        PhotonBuffer buffer = new PhotonBuffer();
+        bufferList.add(buffer);
+        return buffer;
+      }
+    };
+    int iteration = 0, numStored = 0;
     ThreadManager threads = new ThreadManager();
     try
     {
-      while (photonList.size() < numWanted)
+      while (numStored < numWanted)
       {
         for (int i = 0; i < source.length; i++)
           {
@@ -140,15 +157,16 @@ public class PhotonMap
             source[i].generatePhotons(this, currentIntensity*sourceIntensity[i]/totalSourceIntensity, threads);
             totalRequested += currentIntensity*sourceIntensity[i]/totalSourceIntensity;
           }
-        if (photonList.size() >= numWanted*0.9)
+        numStored = countStoredPhotons();
+        if (numStored >= numWanted*0.9)
           break;
-        if (photonList.isEmpty() && currentIntensity > 5.0 && iteration > 2)
+        if (numStored == 0 && currentIntensity > 5.0 && iteration > 2)
           break; // Insignificant numbers of photons will be stored no matter how many we send out.
         totalIntensity += currentIntensity;
-        if (photonList.size() < 10)
+        if (numStored < 10)
           currentIntensity *= 10.0;
         else
-          currentIntensity = (numWanted-photonList.size())*totalIntensity/photonList.size();
+          currentIntensity = (numWanted-numStored)*totalIntensity/numStored;
         iteration++;
       }
     }
@@ -162,14 +180,52 @@ public class PhotonMap
     else if (filter == 1)
       lightScale *= 1.5f;
 
-    // Create the balanced kd-tree.
+    // Combine the photons from all threads, and create the balanced kd-tree.
+
+    int count = countStoredPhotons();
+    float pos[] = new float [3*count];
+    int ergb[] = new int [count];
+    short dir[] = new short [count];
+    int next = 0;
+    synchronized (bufferList)
+    {
+      for (PhotonBuffer buffer : bufferList)
+      {
+        System.arraycopy(buffer.position, 0, pos, 3*next, 3*buffer.count);
+        System.arraycopy(buffer.ergb, 0, ergb, next, buffer.count);
+        System.arraycopy(buffer.direction, 0, dir, next, buffer.count);
+        next += buffer.count;
+        buffer.release();
+      }
+    }
+    bufferList = null;
+    threadBuffer = null;
+    buildPhotonTree(pos, ergb, dir, count);
+  }
+
+  /** Build the packed kd-tree from a set of photons, then select the maximum search radius.
+      @param pos     the photon positions, with three elements (x, y, z) per photon
+      @param ergb    the photon colors in ERGB format
+      @param dir     the photon directions, encoded as described in {@link Photon#encodeDirection(Vec3)}
+      @param count   the number of photons
+  */
 
-    int numPhotons = photonList.size();
-    workspace = photonList.toArray(new Photon [numPhotons]);
-    photonList = null;
-    photon = new Photon [numPhotons];
-    buildTree(0, numPhotons-1, 0);
-    workspace = null;
+  void buildPhotonTree(float pos[], int ergb[], short dir[], int count)
+  {
+    numPhotons = count;
+    treeDepth = 32-Integer.numberOfLeadingZeros(count);
+    photonPos = new float [3*count];
+    photonErgb = new int [count];
+    photonDirection = new short [count];
+    photonAxis = new byte [count];
+    buildPos = pos;
+    buildOrder = new int [count];
+    for (int i = 0; i < count; i++)
+      buildOrder[i] = i;
+    if (count > 0)
+      ForkJoinPool.commonPool().invoke(new TreeBuilder(ergb, dir, 0, count-1, 0));
+    buildPos = null;
+    buildOrder = null;
 
     // Select a maximum search radius.  We use two different methods to select cutoffs, one based on photon
     // intensity and one based on density, then keep whichever cutoff is smaller.  First, find the N brightest
@@ -178,17 +234,17 @@ public class PhotonMap
     PhotonList nearbyPhotons = new PhotonList(numEstimate);
     RGBColor tempColor = new RGBColor();
     nearbyPhotons.init(0.0f);
-    for (int i = 0; i < photon.length; i++)
+    for (int i = 0; i < numPhotons; i++)
       {
-        tempColor.setERGB(photon[i].ergb);
+        tempColor.setERGB(photonErgb[i]);
         float intensity = -(tempColor.getRed()+tempColor.getGreen()+tempColor.getBlue());
         if (intensity <= nearbyPhotons.cutoff2)
-          nearbyPhotons.addPhoton(photon[i], intensity);
+          nearbyPhotons.addPhoton(i, intensity);
       }
     float red = 0.0f, green = 0.0f, blue = 0.0f;
     for (int i = 0; i < nearbyPhotons.numFound; i++)
       {
-        tempColor.setERGB(nearbyPhotons.photon[i].ergb);
+        tempColor.setERGB(photonErgb[nearbyPhotons.index[i]]);
         red += tempColor.getRed();
         green += tempColor.getGreen();
         blue += tempColor.getBlue();
@@ -200,10 +256,17 @@ public class PhotonMap
     else
       cutoff1 = Math.sqrt(max*lightScale/(Math.PI*0.1));
     double volume = (bounds.maxx-bounds.minx)*(bounds.maxy-bounds.miny)*(bounds.maxz-bounds.minz);
-    double cutoff2 = Math.pow(0.5*volume*nearbyPhotons.photon.length/photon.length, 1.0/3.0);
+    double cutoff2 = Math.pow(0.5*volume*nearbyPhotons.index.length/numPhotons, 1.0/3.0);
     cutoffDist2 = (float) (cutoff1 < cutoff2 ? cutoff1*cutoff1 : cutoff2*cutoff2);
   }
 
+  /** Get the number of photons stored in the map. */
+
+  public int getNumPhotons()
+  {
+    return numPhotons;
+  }
+
   /** Spawn a Photon, and see whether it hits anything in the scene.  If so, add it to the map.
       @param r         the ray along which to spawn the photon
       @param color     the photon color
@@ -650,24 +713,35 @@ public class PhotonMap
     } while (x < dist);
   }
 
-  /** Add a Photon to the map. */
+  /** Add a Photon to the map.  Each thread records photons in its own buffer, and they are
+      combined once all of them have been generated. */
 
   private void addPhoton(Vec3 pos, Vec3 dir, RGBColor color)
   {
-    Photon p = new Photon(pos, dir, color);
-    synchronized (this)
-    {
-      photonList.add(p);
-    }
-    if (direction[p.direction&0xFFFF] == null)
+    short dirCode = Photon.encodeDirection(dir);
+    threadBuffer.get().add(pos, color.getERGB(), dirCode);
+    if (direction[dirCode&0xFFFF] == null)
     {
-      int i = (p.direction>>8) & 0xFF;
-      int j = p.direction & 0xFF;
+      int i = (dirCode>>8) & 0xFF;
+      int j = dirCode & 0xFF;
       double phi = i*Math.PI/128, theta = j*Math.PI/256;
       double sphi = Math.sin(phi), cphi = Math.cos(phi);
       double stheta = Math.sin(theta), ctheta = Math.cos(theta);
-      direction[p.direction&0xFFFF] = new Vec3(cphi*stheta, ctheta, sphi*stheta);
+      direction[dirCode&0xFFFF] = new Vec3(cphi*stheta, ctheta, sphi*stheta);
+    }
+  }
+
+  /** Get the total number of photons which have been stored in the per-thread buffers. */
+
+  private int countStoredPhotons()
+  {
+    int count = 0;
+    synchronized (bufferList)
+    {
+      for (PhotonBuffer buffer : bufferList)
+        count += buffer.count;
     }
+    return count;
   }
 
   /** Add a random displacement to a vector.  The displacements are uniformly distributed
@@ -735,60 +809,105 @@ public class PhotonMap
     dir.normalize();
   }
 
-  /** This method is called recursively to build the packed kd-tree of photons from the workspace array.
-      @param start      the start of the segment from which to build the tree
-      @param end        the end of the segment from which to build the tree
-      @param root       the position in the packed array where the root of the tree should go
-  */
+  /** This class builds the packed kd-tree of photons.  Each instance builds the subtree for one segment of
+      the buildOrder array, which holds the indices of photons in the buildPos array.  Large subtrees are
+      built in parallel.  Since each one occupies its own segment of the input and its own positions in the
+      packed arrays, the result does not depend on how the work is divided between threads. */
 
-  private void buildTree(int start, int end, int root)
+  private class TreeBuilder extends RecursiveAction
   {
-    if (start == end)
-      photon[root] = workspace[start];
-    if (start >= end)
-      return;
+    private static final long serialVersionUID = 1L;
 
-    // Find a bounding box for the photons in this segment, and decide which axis to split.
+    private final int ergb[];
+    private final short dir[];
+    private final int start, end, root;
 
-    float minx = Float.MAX_VALUE, miny = Float.MAX_VALUE, minz = Float.MAX_VALUE;
-    float maxx = -Float.MAX_VALUE, maxy = -Float.MAX_VALUE, maxz = -Float.MAX_VALUE;
-    for (int i = start; i <= end; i++)
-      {
-        Photon p = workspace[i];
-        if (p.x < minx) minx = p.x;
-        if (p.y < miny) miny = p.y;
-        if (p.z < minz) minz = p.z;
-        if (p.x > maxx) maxx = p.x;
-        if (p.y > maxy) maxy = p.y;
-        if (p.z > maxz) maxz = p.z;
-      }
-    float xsize = maxx-minx, ysize = maxy-miny, zsize = maxz-minz;
-    int axis;
-    if (xsize > ysize && xsize > zsize)
-      axis = 0;
-    else if (ysize > zsize)
-      axis = 1;
-    else
-      axis = 2;
+    /**
+     * @param ergb       the photon colors
+     * @param dir        the photon directions
+     * @param start      the start of the segment from which to build the tree
+     * @param end        the end of the segment from which to build the tree
+     * @param root       the position in the packed array where the root of the tree should go
+     */
 
-    // Split the photons about the median along this axis.
+    TreeBuilder(int ergb[], short dir[], int start, int end, int root)
+    {
+      this.ergb = ergb;
+      this.dir = dir;
+      this.start = start;
+      this.end = end;
+      this.root = root;
+    }
 
-    int size = end-start+1;
-    int medianPos = 1;
-    while (4*medianPos <= size)
-      medianPos += medianPos;
-    if (3*medianPos <= size)
-      medianPos = 2*medianPos+start-1;
-    else
-      medianPos = end-medianPos+1;
-    medianSplit(start, end, medianPos, axis);
+    @Override
+    protected void compute()
+    {
+      if (start == end)
+        storePhoton(root, buildOrder[start], 0);
+      if (start >= end)
+        return;
 
-    // Store the median photon, and build the subtrees.
+      // Find a bounding box for the photons in this segment, and decide which axis to split.
 
-    photon[root] = workspace[medianPos];
-    photon[root].axis = (short) axis;
-    buildTree(start, medianPos-1, 2*root+1);
-    buildTree(medianPos+1, end, 2*root+2);
+      float minx = Float.MAX_VALUE, miny = Float.MAX_VALUE, minz = Float.MAX_VALUE;
+      float maxx = -Float.MAX_VALUE, maxy = -Float.MAX_VALUE, maxz = -Float.MAX_VALUE;
+      for (int i = start; i <= end; i++)
+        {
+          int base = 3*buildOrder[i];
+          float x = buildPos[base], y = buildPos[base+1], z = buildPos[base+2];
+          if (x < minx) minx = x;
+          if (y < miny) miny = y;
+          if (z < minz) minz = z;
+          if (x > maxx) maxx = x;
+          if (y > maxy) maxy = y;
+          if (z > maxz) maxz = z;
+        }
+      float xsize = maxx-minx, ysize = maxy-miny, zsize = maxz-minz;
+      int axis;
+      if (xsize > ysize && xsize > zsize)
+        axis = 0;
+      else if (ysize > zsize)
+        axis = 1;
+      else
+        axis = 2;
+
+      // Split the photons about the median along this axis.
+
+      int size = end-start+1;
+      int medianPos = 1;
+      while (4*medianPos <= size)
+        medianPos += medianPos;
+      if (3*medianPos <= size)
+        medianPos = 2*medianPos+start-1;
+      else
+        medianPos = end-medianPos+1;
+      medianSplit(start, end, medianPos, axis);
+
+      // Store the median photon, and build the subtrees.
+
+      storePhoton(root, buildOrder[medianPos], axis);
+      TreeBuilder lower = new TreeBuilder(ergb, dir, start, medianPos-1, 2*root+1);
+      TreeBuilder upper = new TreeBuilder(ergb, dir, medianPos+1, end, 2*root+2);
+      if (size < PARALLEL_BUILD_THRESHOLD)
+        {
+          lower.compute();
+          upper.compute();
+        }
+      else
+        invokeAll(lower, upper);
+    }
+
+    /** Copy a photon into the packed arrays. */
+
+    private void storePhoton(int pos, int index, int axis)
+    {
+      photonPos[3*pos] = buildPos[3*index];
+      photonPos[3*pos+1] = buildPos[3*index+1];
+      photonPos[3*pos+2] = buildPos[3*index+2];
+      photonErgb[pos] = ergb[index];
+      photonDirection[pos] = dir[index];
+      photonAxis[pos] = (byte) axis;
+    }
   }
 
   /** This method splits the photons about their median along a particular axis.  When this returns,
@@ -850,28 +969,20 @@ public class PhotonMap
       }
   }
 
-  /** Get the position of a photon along an axis. */
+  /** Get the position along an axis of a photon in the buildOrder array. */
 
   private float axisPosition(int index, int axis)
   {
-    switch (axis)
-      {
-        case 0:
-          return workspace[index].x;
-        case 1:
-          return workspace[index].y;
-        default:
-          return workspace[index].z;
-      }
+    return buildPos[3*buildOrder[index]+axis];
   }
 
-  /** Swap two photons in the workspace array. */
+  /** Swap two photons in the buildOrder array. */
 
   private void swap(int first, int second)
   {
-    Photon temp = workspace[first];
-    workspace[first] = workspace[second];
-    workspace[second] = temp;
+    int temp = buildOrder[first];
+    buildOrder[first] = buildOrder[second];
+    buildOrder[second] = temp;
   }
 
   /** Determine the surface lighting at a point due to the photons in this map.
@@ -887,7 +998,7 @@ public class PhotonMap
   public void getLight(Vec3 pos, TextureSpec spec, Vec3 normal, Vec3 viewDir, boolean front, RGBColor light, PhotonMapContext pmc)
   {
     light.setRGB(0.0f, 0.0f, 0.0f);
-    if (photon.length == 0)
+    if (numPhotons == 0)
       return;
     PhotonList nearbyPhotons = pmc.nearbyPhotons;
     RGBColor tempColor = pmc.tempColor;
@@ -898,7 +1009,7 @@ public class PhotonMap
     if (startCutoff2 > cutoffDist2)
       startCutoff2 = cutoffDist2;
     nearbyPhotons.init(startCutoff2);
-    findPhotons(pos, 0, pmc);
+    findPhotons(pos, pmc);
     pmc.lastPos.set(pos);
     pmc.lastCutoff2 = nearbyPhotons.cutoff2;
     if (nearbyPhotons.numFound == 0)
@@ -912,12 +1023,12 @@ public class PhotonMap
     }
     for (int i = 0; i < nearbyPhotons.numFound; i++)
     {
-      Photon p = nearbyPhotons.photon[i];
-      Vec3 dir = direction[p.direction&0xFFFF];
+      int p = nearbyPhotons.index[i];
+      Vec3 dir = direction[photonDirection[p]&0xFFFF];
       double dot = normal.dot(dir);
       if ((front && dot < -1.0e-10) || (!front && dot > 1.0e-10))
       {
-        tempColor.setERGB(p.ergb);
+        tempColor.setERGB(photonErgb[p]);
         float x = nearbyPhotons.dist2[i]*r2inv;
         if (filter == 2)
           tempColor.scale(x*(x-2.0f)+1.0f);
@@ -958,7 +1069,7 @@ public class PhotonMap
   public void getVolumeLight(Vec3 pos, MaterialSpec spec, Vec3 viewDir, RGBColor light, PhotonMapContext pmc)
   {
     light.setRGB(0.0f, 0.0f, 0.0f);
-    if (photon.length == 0)
+    if (numPhotons == 0)
       return;
     PhotonList nearbyPhotons = pmc.nearbyPhotons;
     RGBColor tempColor = pmc.tempColor;
@@ -966,7 +1077,7 @@ public class PhotonMap
     if (startCutoff2 > cutoffDist2)
       startCutoff2 = cutoffDist2;
     nearbyPhotons.init(startCutoff2);
-    findPhotons(pos, 0, pmc);
+    findPhotons(pos, pmc);
     pmc.lastPos.set(pos);
     pmc.lastCutoff2 = nearbyPhotons.cutoff2;
     if (nearbyPhotons.numFound == 0)
@@ -975,11 +1086,11 @@ public class PhotonMap
     double ec2 = eccentricity*eccentricity;
     for (int i = 0; i < nearbyPhotons.numFound; i++)
     {
-      Photon p = nearbyPhotons.photon[i];
-      tempColor.setERGB(p.ergb);
+      int p = nearbyPhotons.index[i];
+      tempColor.setERGB(photonErgb[p]);
       if (eccentricity != 0.0)
       {
-        Vec3 dir = direction[p.direction&0xFFFF];
+        Vec3 dir = direction[photonDirection[p]&0xFFFF];
         double dot = dir.dot(viewDir);
         double fatt = (1.0-ec2)/Math.pow(1.0+ec2+2.0*eccentricity*dot, 1.5);
         tempColor.scale(fatt);
@@ -989,104 +1100,117 @@ public class PhotonMap
     light.scale(lightScale/((4.0/3.0)*Math.PI*Math.pow(nearbyPhotons.cutoff2, 1.5)));
   }
 
-  /** Find the photons nearest to a given point.
+  /** Find the photons nearest to a given point.  On exit, pmc.nearbyPhotons contains the photons
+      closest to pos, up to its capacity, whose squared distance is less than its initial cutoff.
       @param pos      the position near which to locate photons
-      @param index    the point in the map from which to start searching
       @param pmc      the PhotonMapContext from which this is being invoked
   */
 
-  private void findPhotons(Vec3 pos, int index, PhotonMapContext pmc)
+  void findPhotons(Vec3 pos, PhotonMapContext pmc)
   {
-    Photon p = photon[index];
-    float dx = p.x-(float) pos.x, dy = p.y-(float) pos.y, dz = p.z-(float) pos.z;
-    float dist2 = dx*dx + dy*dy + dz*dz;
-    float delta;
-    switch (p.axis)
-      {
-        case 0:
-          delta = dx;
-          break;
-        case 1:
-          delta = dy;
-          break;
-        default:
-          delta = dz;
-      }
-    if (delta > 0.0f)
+    PhotonList nearbyPhotons = pmc.nearbyPhotons;
+    if (numPhotons == 0)
+      return;
+
+    // Walk the tree using an explicit stack.  Each entry records a node, and the squared distance from
+    // the search point to the splitting plane that separates it from the point.  Nodes on the same side
+    // of the plane as the point are stored with a distance of -1 so they are always visited.
+
+    pmc.ensureSearchStackSize(treeDepth+2);
+    int stackNode[] = pmc.searchNode;
+    float stackDist2[] = pmc.searchDist2;
+    float x = (float) pos.x, y = (float) pos.y, z = (float) pos.z;
+    int top = 1;
+    stackNode[0] = 0;
+    stackDist2[0] = -1.0f;
+    while (top > 0)
       {
-        int child = (index<<1)+1;
-        if (child < photon.length)
+        top--;
+        if (stackDist2[top] >= nearbyPhotons.cutoff2)
+          continue;
+        int index = stackNode[top];
+        int base = 3*index;
+        float dx = photonPos[base]-x, dy = photonPos[base+1]-y, dz = photonPos[base+2]-z;
+        float dist2 = dx*dx + dy*dy + dz*dz;
+        if (dist2 < nearbyPhotons.cutoff2)
+          nearbyPhotons.addPhoton(index, dist2);
+        float delta;
+        switch (photonAxis[index])
           {
-            findPhotons(pos, child, pmc);
-            delta *= delta;
-            child++;
-            if (child < photon.length && delta < pmc.nearbyPhotons.cutoff2)
-              findPhotons(pos, child, pmc);
+            case 0:
+              delta = dx;
+              break;
+            case 1:
+              delta = dy;
+              break;
+            default:
+              delta = dz;
+          }
+        int nearChild, farChild;
+        if (delta > 0.0f)
+          {
+            nearChild = (index<<1)+1;
+            farChild = nearChild+1;
+          }
+        else
+          {
+            farChild = (index<<1)+1;
+            nearChild = farChild+1;
+          }
+        if (farChild < numPhotons)
+          {
+            stackNode[top] = farChild;
+            stackDist2[top++] = delta*delta;
+          }
+        if (nearChild < numPhotons)
+          {
+            stackNode[top] = nearChild;
+            stackDist2[top++] = -1.0f;
           }
       }
-    else
-      {
-        int child = (index<<1)+2;
-        if (child < photon.length)
-          findPhotons(pos, child, pmc);
-        delta *= delta;
-        child--;
-        if (child < photon.length && delta < pmc.nearbyPhotons.cutoff2)
-          findPhotons(pos, child, pmc);
-      }
-    if (dist2 < pmc.nearbyPhotons.cutoff2)
-      pmc.nearbyPhotons.addPhoton(p, dist2);
   }
 
-  private void validateTree(int pos)
-  {
-    int child1 = 2*pos+1, child2 = 2*pos+2;
-    if (child1 < photon.length)
-      {
-        validateLowerBranch(child1, photon[pos].axis, median(pos, photon[pos].axis));
-        validateTree(child1);
-      }
-    if (child2 < photon.length)
-      {
-        validateUpperBranch(child2, photon[pos].axis, median(pos, photon[pos].axis));
-        validateTree(child2);
-      }
-  }
+  /** This class holds the photons generated by a single thread, packed into primitive arrays. */
 
-  private void validateLowerBranch(int pos, int axis, float median)
+  private static class PhotonBuffer
   {
-    float value = median(pos, axis);
-    if (value > median)
-      System.out.println("error!");
-    int child1 = 2*pos+1, child2 = 2*pos+2;
-    if (child1 < photon.length)
-      validateLowerBranch(child1, axis, median);
-    if (child2 < photon.length)
-      validateLowerBranch(child2, axis, median);
-  }
+    float position[];
+    int ergb[];
+    short direction[];
+    int count;
 
-  private void validateUpperBranch(int pos, int axis, float median)
-  {
-    float value = median(pos, axis);
-    if (value < median)
-      System.out.println("error!");
-    int child1 = 2*pos+1, child2 = 2*pos+2;
-    if (child1 < photon.length)
-      validateUpperBranch(child1, axis, median);
-    if (child2 < photon.length)
-      validateUpperBranch(child2, axis, median);
-  }
+    PhotonBuffer()
+    {
+      position = new float [3*1024];
+      ergb = new int [1024];
+      direction = new short [1024];
+    }
 
-  private float median(int index, int axis)
-  {
-    switch (axis)
+    /** Add a photon to the buffer. */
+
+    void add(Vec3 pos, int color, short dir)
+    {
+      if (count == ergb.length)
       {
-        case 0:
-          return photon[index].x;
-        case 1:
-          return photon[index].y;
-        default:
-          return photon[index].z;
+        position = Arrays.copyOf(position, 6*count);
+        ergb = Arrays.copyOf(ergb, 2*count);
+        direction = Arrays.copyOf(direction, 2*count);
       }
+      position[3*count] = (float) pos.x;
+      position[3*count+1] = (float) pos.y;
+      position[3*count+2] = (float) pos.z;
+      ergb[count] = color;
+      direction[count++] = dir;
+    }
+
+    /** Discard the contents of the buffer. */
+
+    void release()
+    {
+      position = null;
+      ergb = null;
+      direction = null;
+      count = 0;
+    }
   }
-}
\ No newline at end of file
+}
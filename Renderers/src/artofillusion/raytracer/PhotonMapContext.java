@@ -26,6 +26,8 @@ public class PhotonMapContext
   public RGBColor tempColor, tempColor2;
   public Vec3 tempVec, lastPos;
   public float lastCutoff2;
+  int searchNode[];
+  float searchDist2[];
 
   /**
    * Create a new PhotonMapContext for a PhotonMap.
@@ -40,6 +42,21 @@ public class PhotonMapContext
     lastPos = new Vec3();
     nearbyPhotons = new PhotonList(map.getNumToEstimate());
     lastCutoff2 = 99999.0f;
+    searchNode = new int [0];
+    searchDist2 = new float [0];
+  }
+
+  /**
+   * Make sure the arrays used for searching the photon map are large enough to hold the specified number of nodes.
+   */
+
+  void ensureSearchStackSize(int size)
+  {
+    if (searchNode.length < size)
+    {
+      searchNode = new int [size];
+      searchDist2 = new float [size];
+    }
   }
 
   /** Determine the surface lighting at a point due to the photons in the map.
@@ -110,7 +110,7 @@ public class PointPhotonSource implements PhotonSource
               @Override
           public void cleanup()
           {
-            map.getWorkspace().cleanup();
+            map.getRenderer().releaseWorkspace();
           }
         });
         threads.run();
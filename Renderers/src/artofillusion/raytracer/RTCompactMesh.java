@@ -0,0 +1,399 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.material.*;
+import artofillusion.math.*;
+import artofillusion.texture.*;
+
+/**
+ * RTCompactMesh represents a whole RenderingMesh as a single RTObject.  This is an alternative to
+ * creating an {@link RTTriangle} or {@link RTTriangleLowMemory} for every triangle, which uses much
+ * less memory for very large meshes.  Vertex positions, vertex normals, and face normals are stored
+ * in flat float arrays, the vertex indices of each triangle are stored in a flat int array, and the
+ * triangles are located with a {@link BoundingVolumeHierarchy} over triangle indices.
+ * <p>
+ * Once the compact arrays have been built, the mesh's own arrays of Vec3s are released, unless the
+ * mesh is emissive (in which case they are needed for generating photons).  The RenderingTriangles
+ * are kept, since they are needed for evaluating the texture.
+ * <p>
+ * An intersection reports only the closest triangle hit by a ray, so this should only be used for
+ * opaque meshes with no material.
+ */
+
+public class RTCompactMesh extends RTObject
+{
+  private final RenderingMesh mesh;
+  private final RenderingTriangle tri[];
+  private final float vert[], norm[], faceNorm[];
+  private final int vertIndex[];
+  private final Mat4 fromLocal, toLocal;
+  private final BoundingBox bounds;
+  private final BoundingVolumeHierarchy bvh;
+  private final BoundingVolumeHierarchy.PrimitiveTest test;
+  private final boolean bumpMapped;
+  private final double triangleTol;
+
+  public static final double TOL = 1e-12;
+
+  /**
+   * Create an RTCompactMesh.
+   *
+   * @param mesh        the mesh to represent, which must already have been transformed into world coordinates
+   * @param fromLocal   the transformation from the object's local coordinates to world coordinates
+   * @param toLocal     the transformation from world coordinates to the object's local coordinates
+   */
+
+  public RTCompactMesh(RenderingMesh mesh, Mat4 fromLocal, Mat4 toLocal)
+  {
+    this.mesh = mesh;
+    this.fromLocal = fromLocal;
+    this.toLocal = toLocal;
+    Vec3 v[] = mesh.vert, n[] = mesh.norm;
+
+    // Find the triangles that are not degenerate.
+
+    int count = 0;
+    boolean keep[] = new boolean [mesh.triangle.length];
+    for (int i = 0; i < keep.length; i++)
+    {
+      RenderingTriangle t = mesh.triangle[i];
+      keep[i] = (mesh.faceNorm[i].length() >= Raytracer.TOL && v[t.v1].distance(v[t.v2]) >= Raytracer.TOL &&
+          v[t.v1].distance(v[t.v3]) >= Raytracer.TOL && v[t.v2].distance(v[t.v3]) >= Raytracer.TOL);
+      if (keep[i])
+        count++;
+    }
+    if (count == keep.length)
+      tri = mesh.triangle;
+    else
+    {
+      tri = new RenderingTriangle [count];
+      for (int i = 0, j = 0; i < keep.length; i++)
+        if (keep[i])
+          tri[j++] = mesh.triangle[i];
+    }
+
+    // Copy the vertices and normals into flat arrays.
+
+    vert = new float [3*v.length];
+    for (int i = 0; i < v.length; i++)
+    {
+      vert[3*i] = (float) v[i].x;
+      vert[3*i+1] = (float) v[i].y;
+      vert[3*i+2] = (float) v[i].z;
+    }
+    norm = new float [3*n.length];
+    for (int i = 0; i < n.length; i++)
+      if (n[i] != null)
+      {
+        norm[3*i] = (float) n[i].x;
+        norm[3*i+1] = (float) n[i].y;
+        norm[3*i+2] = (float) n[i].z;
+      }
+    vertIndex = new int [3*count];
+    faceNorm = new float [3*count];
+    float primBounds[] = new float [6*count];
+    for (int i = 0; i < count; i++)
+    {
+      RenderingTriangle t = tri[i];
+      vertIndex[3*i] = t.v1;
+      vertIndex[3*i+1] = t.v2;
+      vertIndex[3*i+2] = t.v3;
+      Vec3 trueNorm = mesh.faceNorm[t.index];
+      double sign = 1.0;
+      if (t.n1 != t.n2 || t.n1 != t.n3)
+      {
+        // Make sure trueNorm points in the same direction as the vertex normals.
+
+        int flipped = 0;
+        if (trueNorm.dot(n[t.n1]) < 0.0) flipped++;
+        if (trueNorm.dot(n[t.n2]) < 0.0) flipped++;
+        if (trueNorm.dot(n[t.n3]) < 0.0) flipped++;
+        if (flipped > 1)
+          sign = -1.0;
+      }
+      faceNorm[3*i] = (float) (sign*trueNorm.x);
+      faceNorm[3*i+1] = (float) (sign*trueNorm.y);
+      faceNorm[3*i+2] = (float) (sign*trueNorm.z);
+      for (int axis = 0; axis < 3; axis++)
+      {
+        float a = vert[3*t.v1+axis], b = vert[3*t.v2+axis], c = vert[3*t.v3+axis];
+        primBounds[6*i+2*axis] = Math.nextAfter(Math.min(Math.min(a, b), c), Double.NEGATIVE_INFINITY);
+        primBounds[6*i+2*axis+1] = Math.nextAfter(Math.max(Math.max(a, b), c), Double.POSITIVE_INFINITY);
+      }
+    }
+    bvh = new BoundingVolumeHierarchy(primBounds, count);
+    bounds = (count == 0 ? new BoundingBox(0.0, 0.0, 0.0, 0.0, 0.0, 0.0) : bvh.getBounds());
+    test = (r, i) -> intersectTriangle(r, i, null);
+    bumpMapped = mesh.mapping.getTexture().hasComponent(Texture.BUMP_COMPONENT);
+    double size = Math.max(Math.max(bounds.maxx-bounds.minx, bounds.maxy-bounds.miny), bounds.maxz-bounds.minz);
+    triangleTol = (Math.max(Math.max(Math.abs(fromLocal.m14), Math.abs(fromLocal.m24)), Math.abs(fromLocal.m34))+size)*TOL;
+
+    // The Vec3 arrays are no longer needed, unless photon sources will be created from the triangles.
+
+    if (!mesh.mapping.getTexture().hasComponent(Texture.EMISSIVE_COLOR_COMPONENT))
+    {
+      mesh.vert = null;
+      mesh.norm = null;
+      mesh.faceNorm = null;
+    }
+  }
+
+  /** Get the number of (non-degenerate) triangles in the mesh. */
+
+  public int getNumTriangles()
+  {
+    return tri.length;
+  }
+
+  /** Get the RenderingTriangles that make up the mesh.  Degenerate triangles are omitted. */
+
+  public RenderingTriangle[] getTriangles()
+  {
+    return tri;
+  }
+
+  /**
+   * Get the approximate number of bytes used to represent the mesh.  This includes the arrays and
+   * hierarchy created by this object, but not the RenderingTriangles, which are needed for evaluating
+   * the texture no matter how the mesh is represented.
+   */
+
+  public long getMemoryUsage()
+  {
+    long total = 4L*(vert.length+norm.length+faceNorm.length+vertIndex.length)+bvh.getMemoryUsage();
+    if (tri != mesh.triangle)
+      total += 4L*tri.length;
+    return total;
+  }
+
+  /** Get the TextureMapping for this object. */
+
+  @Override
+  public TextureMapping getTextureMapping()
+  {
+    return mesh.mapping;
+  }
+
+  /** Get the MaterialMapping for this object. */
+
+  @Override
+  public MaterialMapping getMaterialMapping()
+  {
+    return mesh.matMapping;
+  }
+
+  /** Determine whether the given ray intersects this mesh. */
+
+  @Override
+  public SurfaceIntersection checkIntersection(Ray r)
+  {
+    int which = bvh.findClosestPrimitive(r, r.rt.getObjectTraversalStack(bvh.getMaxDepth()), test);
+    if (which == -1)
+      return SurfaceIntersection.NO_INTERSECTION;
+    CompactMeshIntersection intersection = (CompactMeshIntersection) r.rt.rtMeshPool.getObject();
+    intersectTriangle(r, which, intersection);
+    return intersection;
+  }
+
+  /**
+   * Determine whether a ray intersects one triangle.  This returns the distance to the intersection,
+   * or Double.MAX_VALUE if it misses.  If intersection is not null, it is initialized to describe the
+   * intersection.
+   */
+
+  private double intersectTriangle(Ray r, int which, CompactMeshIntersection intersection)
+  {
+    Vec3 orig = r.getOrigin(), dir = r.getDirection();
+    double nx = faceNorm[3*which], ny = faceNorm[3*which+1], nz = faceNorm[3*which+2];
+    double vd = nx*dir.x + ny*dir.y + nz*dir.z;
+    if (vd == 0.0)
+      return Double.MAX_VALUE;  // The ray is parallel to the plane.
+    int i1 = 3*vertIndex[3*which], i2 = 3*vertIndex[3*which+1], i3 = 3*vertIndex[3*which+2];
+    double x1 = vert[i1], y1 = vert[i1+1], z1 = vert[i1+2];
+    double t = (nx*(x1-orig.x) + ny*(y1-orig.y) + nz*(z1-orig.z))/vd;
+    if (t < triangleTol)
+      return Double.MAX_VALUE;  // Ray points away from plane of triangle.
+
+    // Determine whether the intersection point is inside the triangle.
+
+    double rix = orig.x+dir.x*t;
+    double riy = orig.y+dir.y*t;
+    double riz = orig.z+dir.z*t;
+    double vx, vy, edge2d1x, edge2d1y, edge2d2x, edge2d2y;
+    double ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+    if (ax >= ay && ax >= az)
+    {
+      vx = riy - y1;
+      vy = riz - z1;
+      edge2d1x = y1-vert[i2+1];
+      edge2d1y = z1-vert[i2+2];
+      edge2d2x = y1-vert[i3+1];
+      edge2d2y = z1-vert[i3+2];
+    }
+    else if (ay >= az)
+    {
+      vx = rix - x1;
+      vy = riz - z1;
+      edge2d1x = x1-vert[i2];
+      edge2d1y = z1-vert[i2+2];
+      edge2d2x = x1-vert[i3];
+      edge2d2y = z1-vert[i3+2];
+    }
+    else
+    {
+      vx = rix - x1;
+      vy = riy - y1;
+      edge2d1x = x1-vert[i2];
+      edge2d1y = y1-vert[i2+1];
+      edge2d2x = x1-vert[i3];
+      edge2d2y = y1-vert[i3+1];
+    }
+    double denom = 1.0/(edge2d1x*edge2d2y-edge2d1y*edge2d2x);
+    double v = (edge2d2x*vy - edge2d2y*vx)*denom;
+    if (v < -TOL || v > 1.0+TOL)
+      return Double.MAX_VALUE;
+    double w = (vx*edge2d1y - vy*edge2d1x)*denom;
+    if (w < -TOL || w > 1.0+TOL)
+      return Double.MAX_VALUE;
+    double u = 1.0-v-w;
+    if (u < -TOL || u > 1.0+TOL)
+      return Double.MAX_VALUE;
+    if (intersection != null)
+      intersection.init(this, which, t, u, v, rix, riy, riz);
+    return t;
+  }
+
+  /** Get a bounding box for this mesh. */
+
+  @Override
+  public BoundingBox getBounds()
+  {
+    return bounds;
+  }
+
+  /** Determine whether any part of the mesh lies within an octree node.  This is conservative,
+      since it only compares the node to the mesh's bounding box. */
+
+  @Override
+  public boolean intersectsNode(OctreeNode node)
+  {
+    return (bounds.minx <= node.maxx && bounds.maxx >= node.minx &&
+        bounds.miny <= node.maxy && bounds.maxy >= node.miny &&
+        bounds.minz <= node.maxz && bounds.maxz >= node.minz);
+  }
+
+  /** Get the transformation from world coordinates to the object's local coordinates. */
+
+  @Override
+  public Mat4 toLocal()
+  {
+    return toLocal;
+  }
+
+  /** Get the mesh represented by this object. */
+
+  @Override
+  public Object getObject()
+  {
+    return mesh;
+  }
+
+  /**
+   * Inner class representing an intersection with an RTCompactMesh.
+   */
+
+  public static class CompactMeshIntersection implements SurfaceIntersection
+  {
+    private RTCompactMesh mesh;
+    private int which;
+    private double dist, u, v, rix, riy, riz;
+
+    public CompactMeshIntersection()
+    {
+    }
+
+    public void init(RTCompactMesh mesh, int which, double dist, double u, double v, double rix, double riy, double riz)
+    {
+      this.mesh = mesh;
+      this.which = which;
+      this.dist = dist;
+      this.u = u;
+      this.v = v;
+      this.rix = rix;
+      this.riy = riy;
+      this.riz = riz;
+    }
+
+    @Override
+    public RTObject getObject()
+    {
+      return mesh;
+    }
+
+    @Override
+    public int numIntersections()
+    {
+      return 1;
+    }
+
+    @Override
+    public void intersectionPoint(int n, Vec3 p)
+    {
+      p.set(rix, riy, riz);
+    }
+
+    @Override
+    public double intersectionDist(int n)
+    {
+      return dist;
+    }
+
+    @Override
+    public void intersectionProperties(TextureSpec spec, Vec3 n, Vec3 viewDir, double size, double time)
+    {
+      double w = 1.0-u-v;
+      RenderingTriangle tri = mesh.tri[which];
+      if (tri.n1 == tri.n2 && tri.n1 == tri.n3)
+        trueNormal(n);
+      else
+      {
+        float normals[] = mesh.norm;
+        int i1 = 3*tri.n1, i2 = 3*tri.n2, i3 = 3*tri.n3;
+        n.x = u*normals[i1] + v*normals[i2] + w*normals[i3];
+        n.y = u*normals[i1+1] + v*normals[i2+1] + w*normals[i3+1];
+        n.z = u*normals[i1+2] + v*normals[i2+2] + w*normals[i3+2];
+        n.normalize();
+      }
+      tri.getTextureSpec(spec, -n.dot(viewDir), u, v, w, size, time);
+      if (mesh.bumpMapped)
+      {
+        mesh.fromLocal.transformDirection(spec.bumpGrad);
+        n.scale(spec.bumpGrad.dot(n)+1.0);
+        n.subtract(spec.bumpGrad);
+        n.normalize();
+      }
+    }
+
+    @Override
+    public void intersectionTransparency(int n, RGBColor trans, double angle, double size, double time)
+    {
+      mesh.tri[which].getTransparency(trans, angle, u, v, 1.0-u-v, size, time);
+    }
+
+    @Override
+    public void trueNormal(Vec3 n)
+    {
+      n.set(mesh.faceNorm[3*which], mesh.faceNorm[3*which+1], mesh.faceNorm[3*which+2]);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.material.*;
+import artofillusion.math.*;
+import artofillusion.texture.*;
+
+/**
+ * RTInstance represents one copy of an object which appears several times in a scene.  Rather than
+ * storing its own triangles, it holds a transformation and refers to an {@link InstancedGeometry}
+ * that is shared by all copies.  To check for an intersection, the ray is transformed into the
+ * object's local coordinates and traced through the shared geometry.
+ * <p>
+ * The transformation must be rigid (a rotation plus a translation), so distances along the ray are
+ * the same in both coordinate systems.  This is always true for a CoordinateSystem.
+ */
+
+public class RTInstance extends RTObject
+{
+  private final InstancedGeometry geometry;
+  private final Mat4 fromLocal, toLocal;
+  private final BoundingBox bounds;
+
+  public RTInstance(InstancedGeometry geometry, Mat4 fromLocal, Mat4 toLocal)
+  {
+    this.geometry = geometry;
+    this.fromLocal = fromLocal;
+    this.toLocal = toLocal;
+    bounds = geometry.getBounds().transformAndOutset(fromLocal);
+  }
+
+  /** Get the geometry shared by all copies of this object. */
+
+  public InstancedGeometry getGeometry()
+  {
+    return geometry;
+  }
+
+  /** Get the TextureMapping for this object. */
+
+  @Override
+  public TextureMapping getTextureMapping()
+  {
+    return geometry.getTextureMapping();
+  }
+
+  /** Get the MaterialMapping for this object. */
+
+  @Override
+  public MaterialMapping getMaterialMapping()
+  {
+    return geometry.getMaterialMapping();
+  }
+
+  /** Determine whether the given ray intersects this object. */
+
+  @Override
+  public SurfaceIntersection checkIntersection(Ray r)
+  {
+    Ray local = r.rt.getInstanceRay();
+    local.origin.set(r.origin);
+    toLocal.transform(local.origin);
+    local.direction.set(r.direction);
+    toLocal.transformDirection(local.direction);
+    SurfaceIntersection intersection = geometry.findClosestIntersection(local);
+    if (intersection == SurfaceIntersection.NO_INTERSECTION)
+      return intersection;
+    InstanceIntersection result = (InstanceIntersection) r.rt.rtInstancePool.getObject();
+    result.init(this, intersection);
+    return result;
+  }
+
+  /** Get a bounding box for this object. */
+
+  @Override
+  public BoundingBox getBounds()
+  {
+    return bounds;
+  }
+
+  /** Determine whether any part of the object lies within an octree node.  This is conservative,
+      since it only compares the node to the object's bounding box. */
+
+  @Override
+  public boolean intersectsNode(OctreeNode node)
+  {
+    return (bounds.minx <= node.maxx && bounds.maxx >= node.minx &&
+        bounds.miny <= node.maxy && bounds.maxy >= node.miny &&
+        bounds.minz <= node.maxz && bounds.maxz >= node.minz);
+  }
+
+  /** Get the transformation from world coordinates to the object's local coordinates. */
+
+  @Override
+  public Mat4 toLocal()
+  {
+    return toLocal;
+  }
+
+  /**
+   * Inner class representing an intersection with an RTInstance.  It wraps the intersection with
+   * the shared geometry, and transforms points and normals back into world coordinates.
+   */
+
+  public static class InstanceIntersection implements SurfaceIntersection
+  {
+    private RTInstance instance;
+    private SurfaceIntersection local;
+    private final Vec3 localViewDir = new Vec3();
+
+    public InstanceIntersection()
+    {
+    }
+
+    public void init(RTInstance instance, SurfaceIntersection local)
+    {
+      this.instance = instance;
+      this.local = local;
+    }
+
+    @Override
+    public RTObject getObject()
+    {
+      return instance;
+    }
+
+    @Override
+    public int numIntersections()
+    {
+      return local.numIntersections();
+    }
+
+    @Override
+    public void intersectionPoint(int n, Vec3 p)
+    {
+      local.intersectionPoint(n, p);
+      instance.fromLocal.transform(p);
+    }
+
+    @Override
+    public double intersectionDist(int n)
+    {
+      return local.intersectionDist(n);
+    }
+
+    @Override
+    public void intersectionProperties(TextureSpec spec, Vec3 n, Vec3 viewDir, double size, double time)
+    {
+      localViewDir.set(viewDir);
+      instance.toLocal.transformDirection(localViewDir);
+      local.intersectionProperties(spec, n, localViewDir, size, time);
+      instance.fromLocal.transformDirection(n);
+    }
+
+    @Override
+    public void intersectionTransparency(int n, RGBColor trans, double angle, double size, double time)
+    {
+      local.intersectionTransparency(n, trans, angle, size, time);
+    }
+
+    @Override
+    public void trueNormal(Vec3 n)
+    {
+      local.trueNormal(n);
+      instance.fromLocal.transformDirection(n);
+    }
+  }
+}
@@ -79,6 +79,8 @@ public class Ray
     rt.rtTriPool.reset();
     rt.rtDispTriPool.reset();
     rt.rtImplicitPool.reset();
+    rt.rtInstancePool.reset();
+    rt.rtMeshPool.reset();
   }
 
   private static int getNextID()
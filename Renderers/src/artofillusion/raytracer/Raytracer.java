@@ -17,6 +17,7 @@ import artofillusion.object.*;
 import artofillusion.texture.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * <p>
@@ -49,17 +50,25 @@ public class Raytracer
   private RTObject sceneObject[];
   private RTLight light[];
   private OctreeNode rootNode, cameraNode, lightNode[];
+  private BoundingVolumeHierarchy bvh;
   private Scene scene;
   private Camera camera;
+  private int accelerationStructure = ACCELERATION_OCTREE;
+  private long buildTime;
   private double time, surfaceError = 0.02;
-  private boolean preview, softShadows, adaptive = true, reducedMemory;
+  private boolean preview, softShadows, adaptive = true, reducedMemory, instancing = true;
   private ThreadLocal<RaytracerContext> threadContext;
   private List<RTObjectFactory> factories;
   private List<RTObject> objectList;
   private List<RTLight> lightList;
+  private Set<Object3D> sharedObjects;
+  private Map<Object3D, CompletableFuture<InstancedGeometry>> instancedGeometry;
 
   public static final double TOL = 1e-12;
 
+  public static final int ACCELERATION_OCTREE = 0;
+  public static final int ACCELERATION_BVH = 1;
+
   /**
    * When a ray is traced to determine what objects it intersects, a RayIntersection object
    * is used for returning the results.  Typically it reports only the first object that was
@@ -99,6 +108,16 @@ public class Raytracer
     {
       return distance;
     }
+
+    /**
+     * Set the details of the intersections.
+     */
+    void set(SurfaceIntersection first, SurfaceIntersection second, double distance)
+    {
+      this.first = first;
+      this.second = second;
+      this.distance = distance;
+    }
   }
 
   /**
@@ -123,6 +142,15 @@ public class Raytracer
         return new RaytracerContext(Raytracer.this);
       }
     };
+    instancedGeometry = new ConcurrentHashMap<Object3D, CompletableFuture<InstancedGeometry>>();
+    sharedObjects = Collections.newSetFromMap(new IdentityHashMap<Object3D, Boolean>());
+    if (scene != null)
+    {
+      Set<Object3D> found = Collections.newSetFromMap(new IdentityHashMap<Object3D, Boolean>());
+      for (ObjectInfo info : scene.getObjects())
+        if (info.isVisible() && !found.add(info.getObject()))
+          sharedObjects.add(info.getObject());
+    }
   }
 
   /**
@@ -208,7 +236,8 @@ public class Raytracer
 
   /**
    * Set whether the raytracer should use an alternate representation of triangles that uses less memory but requires more computation
-   * to identify ray intersections.  Calling this method affects all future calls to {@link #addObject(ObjectInfo) addObject()},
+   * to identify ray intersections.  Opaque meshes without materials are represented by a single {@link RTCompactMesh} each, while
+   * other meshes are represented by {@link RTTriangleLowMemory} objects.  Calling this method affects all future calls to {@link #addObject(ObjectInfo) addObject()},
    * but does not affect objects that have already been added.
    */
   public void setUseReducedMemory(boolean reducedMemory)
@@ -216,6 +245,27 @@ public class Raytracer
     this.reducedMemory = reducedMemory;
   }
 
+  /**
+   * Get whether objects which appear several times in the scene should be instanced.  The default value is true.
+   */
+  public boolean getUseInstancing()
+  {
+    return instancing;
+  }
+
+  /**
+   * Set whether objects which appear several times in the scene should be instanced.  When this is enabled, an
+   * object whose Object3D is referenced by several ObjectInfos in the scene (such as live duplicates), or which
+   * appears several times within an ObjectCollection, is triangulated only once.  Each copy is represented by an
+   * {@link RTInstance} that refers to the shared {@link InstancedGeometry}.  Only opaque, undistorted, undisplaced
+   * objects without materials or emissive textures are instanced.  Calling this method affects all future calls to
+   * {@link #addObject(ObjectInfo) addObject()}, but does not affect objects that have already been added.
+   */
+  public void setUseInstancing(boolean instancing)
+  {
+    this.instancing = instancing;
+  }
+
   /**
    * Get whether RTLight objects should be configured to generate soft shadows.  The default value is false.
    */
@@ -233,6 +283,26 @@ public class Raytracer
     this.softShadows = softShadows;
   }
 
+  /**
+   * Get which structure is used to sort objects by location, either {@link #ACCELERATION_OCTREE} or
+   * {@link #ACCELERATION_BVH}.  The default value is ACCELERATION_OCTREE.
+   */
+  public int getAccelerationStructure()
+  {
+    return accelerationStructure;
+  }
+
+  /**
+   * Set which structure is used to sort objects by location, either {@link #ACCELERATION_OCTREE} or
+   * {@link #ACCELERATION_BVH}.  This must be called before {@link #finishConstruction()}.
+   */
+  public void setAccelerationStructure(int accelerationStructure)
+  {
+    if (sceneObject != null)
+      throw new IllegalStateException("finishConstruction() has already been called");
+    this.accelerationStructure = accelerationStructure;
+  }
+
   /**
    * Get a list of all objects in the scene, as represented by RTObject objects.
    */
@@ -256,14 +326,59 @@ public class Raytracer
     return threadContext.get();
   }
 
+  /** Discard the RaytracerContext for the current thread.  A new one will be created the next time
+      getContext() is called from this thread. */
+
+  public void releaseContext()
+  {
+    threadContext.remove();
+  }
+
   /**
-   * Get the root node of the octree.
+   * Get the root node of the octree.  If a bounding volume hierarchy is used, this is a single node
+   * containing every object.  See {@link #getBoundingVolumeHierarchy()}.
    */
   public OctreeNode getRootNode()
   {
     return rootNode;
   }
 
+  /**
+   * Get the bounding volume hierarchy used to locate objects, or null if the scene is organized with
+   * an octree.  When a hierarchy is used, {@link #getRootNode()} returns a single terminal node which
+   * encloses the whole scene.  Code which walks the octree, such as photon tracing and finding the
+   * material at a point, still works: every node lookup immediately returns that node, and
+   * {@link #traceRay(Ray, OctreeNode, RayIntersection)} searches the hierarchy rather than the node's
+   * objects.  Code should never loop over the node's objects itself, since that would test every
+   * object in the scene.
+   */
+  public BoundingVolumeHierarchy getBoundingVolumeHierarchy()
+  {
+    return bvh;
+  }
+
+  /**
+   * Get the time in milliseconds that {@link #finishConstruction()} spent building the octree or
+   * bounding volume hierarchy.
+   */
+  public long getBuildTime()
+  {
+    return buildTime;
+  }
+
+  /**
+   * Set the camera to render from.  This may be called after {@link #finishConstruction()}, so that
+   * the same Raytracer can be used to render the scene from different viewpoints.  Objects keep the
+   * surface accuracy they were created with, so if {@link #isAdaptive()} is true, it is still based on
+   * the camera position at the time they were added.
+   */
+  public void setCamera(Camera camera)
+  {
+    this.camera = camera;
+    if (rootNode != null)
+      cameraNode = rootNode.findNode(camera.getCameraCoordinates().getOrigin());
+  }
+
   /**
    * Get the octree node containing the camera.
    */
@@ -283,16 +398,58 @@ public class Raytracer
   /** Add a single object to the scene. */
 
   public void addObject(ObjectInfo info)
+  {
+    checkUnderConstruction();
+    addObject(info, sharedObjects.contains(info.getObject()), objectList, lightList);
+  }
+
+  /**
+   * Create the RTObjects and RTLights which represent an object, but do not add them to the scene.
+   * They can be added to this Raytracer, or a later one for the same Scene with the same settings,
+   * by calling {@link #addObjects(Collection, Collection)}.  This allows objects which have not changed
+   * to be reused instead of being created again.  Objects whose representation depends on the camera
+   * position (see {@link #isAdaptive()}) will only be correct for this Raytracer's camera.
+   *
+   * @param info       the object to create
+   * @param objects    the RTObjects representing it are added to this list
+   * @param lights     the RTLights representing it are added to this list
+   */
+  public void createObjects(ObjectInfo info, List<RTObject> objects, List<RTLight> lights)
+  {
+    checkUnderConstruction();
+    addObject(info, sharedObjects.contains(info.getObject()), objects, lights);
+  }
+
+  /**
+   * Add RTObjects and RTLights that were previously created by {@link #createObjects(ObjectInfo, List, List)}.
+   */
+  public void addObjects(Collection<RTObject> objects, Collection<RTLight> lights)
+  {
+    checkUnderConstruction();
+    objectList.addAll(objects);
+    lightList.addAll(lights);
+  }
+
+  /** Throw an exception if objects can no longer be added. */
+
+  private void checkUnderConstruction()
   {
     if (sceneObject != null)
       throw new IllegalStateException("finishConstruction() has already been called");
     if (objectList == null)
       throw new IllegalStateException("cleanup() has already been called");
+  }
+
+  /** Create the objects representing a single object in the scene, and add them to the lists.  If shared
+      is true, the object appears several times in the scene, so it should be instanced if possible. */
+
+  private void addObject(ObjectInfo info, boolean shared, List<RTObject> objects, List<RTLight> lights)
+  {
 
     // First give plugins a chance to handle the object.
 
     for (RTObjectFactory factory : factories)
-      if (factory.processObject(info, scene, camera, objectList, lightList))
+      if (factory.processObject(info, scene, camera, objects, lights))
         return;
 
     // Handle it in the default way.
@@ -302,17 +459,17 @@ public class Raytracer
     Mat4 fromLocal = info.getCoords().fromLocal();
     if (theObject instanceof PointLight)
     {
-      lightList.add(new RTSphericalLight((PointLight) theObject, info.getCoords(), softShadows));
+      lights.add(new RTSphericalLight((PointLight) theObject, info.getCoords(), softShadows));
       return;
     }
     if (theObject instanceof SpotLight)
     {
-      lightList.add(new RTSphericalLight((SpotLight) theObject, info.getCoords(), softShadows));
+      lights.add(new RTSphericalLight((SpotLight) theObject, info.getCoords(), softShadows));
       return;
     }
     if (theObject instanceof DirectionalLight)
     {
-      lightList.add(new RTDirectionalLight((DirectionalLight) theObject, info.getCoords(), softShadows));
+      lights.add(new RTDirectionalLight((DirectionalLight) theObject, info.getCoords(), softShadows));
       return;
     }
     while (theObject instanceof ObjectWrapper)
@@ -320,14 +477,23 @@ public class Raytracer
     if (theObject instanceof ObjectCollection)
     {
       Enumeration enm = ((ObjectCollection) theObject).getObjects(info, false, scene);
+      List<ObjectInfo> elements = new ArrayList<ObjectInfo>();
+      Set<Object3D> found = Collections.newSetFromMap(new IdentityHashMap<Object3D, Boolean>());
+      Set<Object3D> repeated = Collections.newSetFromMap(new IdentityHashMap<Object3D, Boolean>());
       while (enm.hasMoreElements())
       {
         ObjectInfo elem = (ObjectInfo) enm.nextElement();
         if (!elem.isVisible())
           continue;
+        elements.add(elem);
+        if (!found.add(elem.getObject()))
+          repeated.add(elem.getObject());
+      }
+      for (ObjectInfo elem : elements)
+      {
         ObjectInfo copy = elem.duplicate();
         copy.getCoords().transformCoordinates(fromLocal);
-        addObject(copy);
+        addObject(copy, repeated.contains(elem.getObject()) || sharedObjects.contains(elem.getObject()), objects, lights);
       }
       return;
     }
@@ -365,31 +531,65 @@ public class Raytracer
         Vec3 rad = ((Sphere) theObject).getRadii();
         if (rad.x == rad.y && rad.x == rad.z)
         {
-          objectList.add(new RTSphere((Sphere) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues()));
+          objects.add(new RTSphere((Sphere) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues()));
           return;
         }
         else
         {
-          objectList.add(new RTEllipsoid((Sphere) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues()));
+          objects.add(new RTEllipsoid((Sphere) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues()));
           return;
         }
       }
       else if (theObject instanceof Cylinder)
       {
-        objectList.add(new RTCylinder((Cylinder) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues()));
+        objects.add(new RTCylinder((Cylinder) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues()));
         return;
       }
       else if (theObject instanceof Cube)
       {
-        objectList.add(new RTCube((Cube) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues()));
+        objects.add(new RTCube((Cube) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues()));
         return;
       }
       else if (theObject instanceof ImplicitObject && ((ImplicitObject) theObject).getPreferDirectRendering())
       {
-        objectList.add(new RTImplicitObject((ImplicitObject) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues(), tol));
+        objects.add(new RTImplicitObject((ImplicitObject) theObject, fromLocal, toLocal, info.getObject().getAverageParameterValues(), tol));
         return;
       }
     }
+    if (shared && instancing && !displaced && !info.isDistorted() && canInstance(theObject))
+    {
+      // The first thread to reach an object builds its geometry outside the map, so other objects can be
+      // added meanwhile.  Threads adding other instances of it wait for the result.  A completed future
+      // also records objects that have no mesh, so they are not tessellated again.
+
+      CompletableFuture<InstancedGeometry> future = new CompletableFuture<InstancedGeometry>();
+      CompletableFuture<InstancedGeometry> existing = instancedGeometry.putIfAbsent(theObject, future);
+      if (existing == null)
+      {
+        try
+        {
+          future.complete(createInstancedGeometry(info));
+        }
+        catch (RuntimeException | Error ex)
+        {
+          future.completeExceptionally(ex);
+          throw ex;
+        }
+        existing = future;
+      }
+      InstancedGeometry geometry;
+      try
+      {
+        geometry = existing.join();
+      }
+      catch (CompletionException ex)
+      {
+        throw new IllegalStateException("Creating geometry for another instance failed", ex.getCause());
+      }
+      if (geometry != null)
+        objects.add(new RTInstance(geometry, fromLocal, toLocal));
+      return;
+    }
     RenderingMesh mesh;
     if (preview)
     {
@@ -448,7 +648,7 @@ public class Raytracer
           else
             dt = new RTTriangle(mesh, i, fromLocal, toLocal);
         }
-        objectList.add(dt);
+        objects.add(dt);
         if (adaptive && dt instanceof RTDisplacedTriangle)
         {
           double dist = dt.getBounds().distanceToPoint(cameraOrig);
@@ -459,6 +659,12 @@ public class Raytracer
         }
       }
     }
+    else if (reducedMemory && isOpaqueSurface(theObject))
+    {
+      RTCompactMesh compact = new RTCompactMesh(mesh, fromLocal, toLocal);
+      if (compact.getNumTriangles() > 0)
+        objects.add(compact);
+    }
     else
       for (int i = 0; i < t.length; i++)
       {
@@ -472,12 +678,46 @@ public class Raytracer
         if (vert[tri.v2].distance(vert[tri.v3]) < TOL)
           continue;
         if (reducedMemory)
-          objectList.add(new RTTriangleLowMemory(mesh, i, fromLocal, toLocal));
+          objects.add(new RTTriangleLowMemory(mesh, i, fromLocal, toLocal));
         else
-          objectList.add(new RTTriangle(mesh, i, fromLocal, toLocal));
+          objects.add(new RTTriangle(mesh, i, fromLocal, toLocal));
       }
   }
 
+  /** Determine whether an object's intersections with a ray are fully described by the closest one.
+      This is true if it is opaque and has no material. */
+
+  private boolean isOpaqueSurface(Object3D obj)
+  {
+    if (obj.getMaterialMapping() != null)
+      return false;
+    Texture tex = obj.getTexture();
+    return (tex != null && !tex.hasComponent(Texture.TRANSPARENT_COLOR_COMPONENT));
+  }
+
+  /** Determine whether an object can be represented by RTInstances.  It must be an opaque surface,
+      and must not be needed as a photon source. */
+
+  private boolean canInstance(Object3D obj)
+  {
+    return (isOpaqueSurface(obj) && !obj.getTexture().hasComponent(Texture.EMISSIVE_COLOR_COMPONENT));
+  }
+
+  /** Build the geometry which will be shared by every instance of an object.  This returns null if
+      the object has no mesh. */
+
+  private InstancedGeometry createInstancedGeometry(ObjectInfo info)
+  {
+    RenderingMesh mesh;
+    if (preview)
+      mesh = info.getPreviewMesh();
+    else
+      mesh = info.getRenderingMesh(surfaceError);
+    if (mesh == null)
+      return null;
+    return new InstancedGeometry(mesh, reducedMemory);
+  }
+
   /**
    * This must be called after all objects have been added to the scene and before any calls to {@link #traceRay(Vec3, Vec3) traceRay()}.
    */
@@ -493,6 +733,8 @@ public class Raytracer
     light = lightList.toArray(new RTLight [lightList.size()]);
     objectList = null;
     lightList = null;
+    instancedGeometry = null;
+    scene = null; // No more objects can be added, so the Scene is no longer needed.
     BoundingBox objBounds[] = new BoundingBox [sceneObject.length];
     double minx, maxx, miny, maxy, minz, maxz;
     int i;
@@ -524,11 +766,20 @@ public class Raytracer
     maxy += TOL;
     maxz += TOL;
 
-    // Create the octree.
+    // Create the octree or bounding volume hierarchy.
 
-    rootNode = new OctreeNode(Math.nextAfter((float) minx, Double.NEGATIVE_INFINITY), Math.nextAfter((float) maxx, Double.POSITIVE_INFINITY),
-        Math.nextAfter((float) miny, Double.NEGATIVE_INFINITY), Math.nextAfter((float) maxy, Double.POSITIVE_INFINITY),
-        Math.nextAfter((float) minz, Double.NEGATIVE_INFINITY), Math.nextAfter((float) maxz, Double.POSITIVE_INFINITY), sceneObject, objBounds, null);
+    float rootMinx = Math.nextAfter((float) minx, Double.NEGATIVE_INFINITY), rootMaxx = Math.nextAfter((float) maxx, Double.POSITIVE_INFINITY);
+    float rootMiny = Math.nextAfter((float) miny, Double.NEGATIVE_INFINITY), rootMaxy = Math.nextAfter((float) maxy, Double.POSITIVE_INFINITY);
+    float rootMinz = Math.nextAfter((float) minz, Double.NEGATIVE_INFINITY), rootMaxz = Math.nextAfter((float) maxz, Double.POSITIVE_INFINITY);
+    long startTime = System.currentTimeMillis();
+    if (accelerationStructure == ACCELERATION_BVH)
+    {
+      bvh = new BoundingVolumeHierarchy(sceneObject, objBounds);
+      rootNode = new OctreeNode(rootMinx, rootMaxx, rootMiny, rootMaxy, rootMinz, rootMaxz, sceneObject);
+    }
+    else
+      rootNode = OctreeNode.buildTree(rootMinx, rootMaxx, rootMiny, rootMaxy, rootMinz, rootMaxz, sceneObject, objBounds);
+    buildTime = System.currentTimeMillis()-startTime;
 
     // Find the nodes which contain the camera and the lights.
 
@@ -552,9 +803,11 @@ public class Raytracer
   {
     objectList = null;
     lightList = null;
+    instancedGeometry = null;
     sceneObject = null;
     light = null;
     rootNode = null;
+    bvh = null;
     cameraNode = null;
     lightNode = null;
     scene = null;
@@ -596,12 +849,20 @@ public class Raytracer
    * distance away).  This version of traceRay() is more efficient, but requires more setup work by the caller.
    *
    * @param r         the ray to check for intersections with
-   * @param node      the octree node containing the ray origin
+   * @param node      the octree node containing the ray origin.  This is ignored if a bounding volume
+   *                  hierarchy is used.
    * @param intersect the details of what was hit are returned in this object
    * @return the octree node containing the intersection point, or null if nothing was hit
    */
   public OctreeNode traceRay(Ray r, OctreeNode node, RayIntersection intersect)
   {
+    if (bvh != null)
+    {
+      if (bvh.traceRay(r, intersect))
+        return rootNode;
+      intersect.first = SurfaceIntersection.NO_INTERSECTION;
+      return null;
+    }
     RTObject first = null, second = null, obj[];
     double dist, firstDist = Double.MAX_VALUE, secondDist = Double.MAX_VALUE;
     Vec3 intersectionPoint = r.rt.tempVec;
@@ -27,8 +27,12 @@ public class RaytracerContext
   public RayIntersection intersect;
   public int lastRayID[];
   public SurfaceIntersection lastRayResult[];
-  public ResourcePool rtTriPool, rtDispTriPool, rtImplicitPool;
+  public ResourcePool rtTriPool, rtDispTriPool, rtImplicitPool, rtInstancePool, rtMeshPool;
   public Random random;
+  private int traversalStack[], objectStack[];
+  private double packetData[];
+  private RTObject candidateObjects[];
+  private Ray instanceRay;
 
   public RaytracerContext(Raytracer rt)
   {
@@ -42,10 +46,94 @@ public class RaytracerContext
       rtTriPool = new ResourcePool(RTTriangle.TriangleIntersection.class);
     rtDispTriPool = new ResourcePool(RTDisplacedTriangle.DisplacedTriangleIntersection.class);
     rtImplicitPool = new ResourcePool(RTImplicitObject.ImplicitIntersection.class);
+    rtInstancePool = new ResourcePool(RTInstance.InstanceIntersection.class);
+    rtMeshPool = new ResourcePool(RTCompactMesh.CompactMeshIntersection.class);
     lastRayID = new int [rt.getObjects().length];
     lastRayResult = new SurfaceIntersection [rt.getObjects().length];
   }
 
+  /**
+   * Get an array to use as a stack while traversing a {@link BoundingVolumeHierarchy}.
+   *
+   * @param depth    the maximum depth of the hierarchy being traversed
+   */
+
+  public int[] getTraversalStack(int depth)
+  {
+    if (traversalStack == null || traversalStack.length < depth+1)
+      traversalStack = new int [depth+1];
+    return traversalStack;
+  }
+
+  /**
+   * Get an array to use as a stack while traversing a hierarchy inside a single object, such as
+   * an {@link RTInstance} or {@link RTCompactMesh}.  This is separate from the main traversal stack,
+   * since those objects are tested for intersections while the scene's hierarchy is being traversed.
+   *
+   * @param depth    the maximum depth of the hierarchy being traversed
+   */
+
+  public int[] getObjectTraversalStack(int depth)
+  {
+    if (objectStack == null || objectStack.length < depth+1)
+      objectStack = new int [depth+1];
+    return objectStack;
+  }
+
+  /**
+   * Get an array to hold the per-ray data while tracing a packet of rays through a
+   * {@link BoundingVolumeHierarchy}.
+   *
+   * @param size    the minimum number of elements the array must have
+   */
+
+  public double[] getPacketData(int size)
+  {
+    if (packetData == null || packetData.length < size)
+      packetData = new double [size];
+    return packetData;
+  }
+
+  /**
+   * Get a Ray which {@link RTInstance} uses to hold a ray transformed into its local coordinates.
+   * Its ID is never updated, since intersections with the shared geometry are not cached.
+   */
+
+  Ray getInstanceRay()
+  {
+    if (instanceRay == null)
+      instanceRay = new Ray(this);
+    return instanceRay;
+  }
+
+  /**
+   * Get the array of objects found by the most recent call to
+   * {@link BoundingVolumeHierarchy#findCandidateObjects(Ray, double)}.
+   */
+
+  public RTObject[] getCandidateObjects()
+  {
+    return candidateObjects;
+  }
+
+  /**
+   * Get the array used for recording candidate objects, making sure it has at least the specified length.
+   * If it needs to be enlarged, its existing contents are preserved.
+   */
+
+  RTObject[] getCandidateObjects(int length)
+  {
+    if (candidateObjects == null)
+      candidateObjects = new RTObject [Math.max(length, 64)];
+    else if (candidateObjects.length < length)
+    {
+      RTObject newCandidates[] = new RTObject [Math.max(length, 2*candidateObjects.length)];
+      System.arraycopy(candidateObjects, 0, newCandidates, 0, candidateObjects.length);
+      candidateObjects = newCandidates;
+    }
+    return candidateObjects;
+  }
+
   /**
    * This is called when rendering is finished.  It nulls out fields to help garbage collection.
    */
@@ -58,5 +146,12 @@ public class RaytracerContext
     rtTriPool = null;
     rtDispTriPool = null;
     rtImplicitPool = null;
+    rtInstancePool = null;
+    rtMeshPool = null;
+    traversalStack = null;
+    objectStack = null;
+    packetData = null;
+    instanceRay = null;
+    candidateObjects = null;
   }
 }
@@ -23,21 +23,25 @@ import buoy.event.*;
 import buoy.widget.*;
 import java.awt.*;
 import java.awt.image.*;
+import java.lang.ref.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.*;
 
 /** RaytracerRenderer is a Renderer which generates images by raytracing. */
 
-public class RaytracerRenderer implements Renderer, Runnable
+public class RaytracerRenderer implements RegionRenderer, Runnable
 {
   protected Raytracer raytracer;
   protected BTabbedPane configPanel;
   protected BCheckBox depthBox, glossBox, shadowBox, causticsBox, transparentBox, adaptiveBox, rouletteBox, reducedMemoryBox;
-  protected BComboBox aliasChoice, maxRaysChoice, minRaysChoice, giModeChoice, scatterModeChoice, diffuseRaysChoice, glossRaysChoice, shadowRaysChoice;
+  protected BComboBox aliasChoice, maxRaysChoice, minRaysChoice, giModeChoice, scatterModeChoice, diffuseRaysChoice, glossRaysChoice, shadowRaysChoice, accelerationChoice;
   protected ValueField errorField, rayDepthField, rayCutoffField, smoothField, stepSizeField;
   protected ValueField extraGIField, extraGIEnvField;
   protected ValueField globalPhotonsField, globalNeighborPhotonsField, causticsPhotonsField, causticsNeighborPhotonsField, volumePhotonsField, volumeNeighborPhotonsField;
+  protected int regionX, regionY, fullWidth, fullHeight;
   protected int pixel[], width, height, rtWidth, rtHeight, maxRayDepth = 8, minRays = 4, maxRays = 16, diffuseRays, glossRays, shadowRays, antialiasLevel;
+  protected double regionOffsetH, regionOffsetV;
   protected MemoryImageSource imageSource;
   protected Scene theScene;
   protected Camera theCamera;
@@ -51,14 +55,17 @@ public class RaytracerRenderer implements Renderer, Runnable
   protected int envMode;
   protected double time, fogDist, surfaceError = 0.02, stepSize = 1.0;
   protected double smoothing = 1.0, smoothScale, extraGISmoothing = 10.0, extraGIEnvSmoothing = 100.0;
+  protected int accelerationStructure = Raytracer.ACCELERATION_OCTREE;
   protected int giMode = GI_NONE, scatterMode = SCATTER_SINGLE, globalPhotons = 10000, globalNeighborPhotons = 200, causticsPhotons = 10000, causticsNeighborPhotons = 100, volumePhotons = 10000, volumeNeighborPhotons = 100;
   protected float minRayIntensity = 0.01f, floatImage[][], depthImage[], errorImage[], objectImage[];
-  protected boolean fog, depth = false, gloss = false, softShadows = false, caustics = false, transparentBackground = false, adaptive = true, roulette = false, reducedMemory = false;
+  protected float firstPassImage[][], firstPassDepth[], firstPassObject[];
+  protected boolean fog, depth = false, gloss = false, softShadows = false, caustics = false, transparentBackground = false, adaptive = true, roulette = false, reducedMemory = false, rayPackets = false;
   protected boolean useGloss, useSoftShadows;
   protected boolean needCopyToUI = true, isPreview;
   protected PhotonMap globalMap, causticsMap, volumeMap;
   protected BoundingBox materialBounds;
   protected ThreadLocal<RenderWorkspace> threadWorkspace;
+  private SoftReference<PreviewCache> previewCache;
   
   public static final int GI_NONE = 0;
   public static final int GI_AMBIENT_OCCLUSION = 1;
@@ -70,6 +77,10 @@ public class RaytracerRenderer implements Renderer, Runnable
   public static final int SCATTER_PHOTONS = 1;
   public static final int SCATTER_BOTH = 2;
 
+  /** The number of camera rays traced together when the "traceRayPackets" option is set. */
+
+  public static final int PACKET_SIZE = 4;
+
   public static final float COLOR_THRESH_ABS = 1.0f/128.0f;
   public static final float COLOR_THRESH_REL = 1.0f/32.0f;
 
@@ -110,6 +121,18 @@ public class RaytracerRenderer implements Renderer, Runnable
     return threadWorkspace.get();
   }
 
+  /** Clean up the Workspace for the current thread and discard it, along with the thread's
+      RaytracerContext.  Worker threads call this when they are done with a task, since they
+      outlive the render and will be given a new Workspace if they are used again. */
+
+  public void releaseWorkspace()
+  {
+    getWorkspace().cleanup();
+    threadWorkspace.remove();
+    if (raytracer != null)
+      raytracer.releaseContext();
+  }
+
   /** Methods from the Renderer interface. */
 
   @Override
@@ -119,7 +142,16 @@ public class RaytracerRenderer implements Renderer, Runnable
   }
 
   @Override
-  public synchronized void renderScene(Scene theScene, Camera theCamera, RenderListener rl, SceneCamera sceneCamera)
+  public void renderScene(Scene theScene, Camera theCamera, RenderListener rl, SceneCamera sceneCamera)
+  {
+    Dimension dim = theCamera.getSize();
+    renderRegion(theScene, theCamera, rl, sceneCamera, new Rectangle(0, 0, dim.width, dim.height));
+  }
+
+  /** Methods from the RegionRenderer interface. */
+
+  @Override
+  public synchronized void renderRegion(Scene theScene, Camera theCamera, RenderListener rl, SceneCamera sceneCamera, Rectangle region)
   {
     if (renderThread != null && renderThread.isAlive())
     {
@@ -136,13 +168,6 @@ public class RaytracerRenderer implements Renderer, Runnable
         // Ignore.
       }
     }
-    raytracer = new Raytracer(theScene, theCamera);
-    raytracer.setSurfaceError(surfaceError);
-    raytracer.setTime(time);
-    raytracer.setAdaptive(adaptive);
-    raytracer.setUsePreviewMeshes(isPreview);
-    raytracer.setUseReducedMemory(reducedMemory);
-    raytracer.setUseSoftShadows(softShadows);
     Dimension dim = theCamera.getSize();
 
     listener = rl;
@@ -158,8 +183,12 @@ public class RaytracerRenderer implements Renderer, Runnable
       sceneCamera = sceneCamera.duplicate();
     this.sceneCamera = sceneCamera;
     time = theScene.getTime();
-    width = dim.width;
-    height = dim.height;
+    fullWidth = dim.width;
+    fullHeight = dim.height;
+    regionX = region.x;
+    regionY = region.y;
+    width = region.width;
+    height = region.height;
     renderThread = new Thread(this, "Raytracer main thread");
     renderThread.setPriority(Thread.NORM_PRIORITY);
     renderThread.start();
@@ -190,6 +219,7 @@ public class RaytracerRenderer implements Renderer, Runnable
     listener = null;
     if (rl != null)
       rl.renderingCanceled();
+    previewCache = null;
     finish();
   }
 
@@ -325,13 +355,19 @@ public class RaytracerRenderer implements Renderer, Runnable
       adaptiveBox = new BCheckBox(Translate.text("reduceAccuracyForDistant"), adaptive);
       rouletteBox = new BCheckBox(Translate.text("russianRoulette"), roulette);
       reducedMemoryBox = new BCheckBox(Translate.text("useLessMemory"), reducedMemory);
+      accelerationChoice = new BComboBox(new String [] {
+          Translate.text("octree"),
+          Translate.text("boundingVolumeHierarchy")
+      });
       FormContainer advancedPanel = new FormContainer(2, 8);
       advancedPanel.add(Translate.label("maxRayTreeDepth"), 0, 0, leftLayout);
       advancedPanel.add(Translate.label("minRayIntensity"), 0, 1, leftLayout);
+      advancedPanel.add(Translate.label("accelerationStructure"), 0, 2, leftLayout);
       advancedPanel.add(Translate.label("matStepSize"), 0, 3, leftLayout);
       advancedPanel.add(Translate.label("texSmoothing"), 0, 4, leftLayout);
       advancedPanel.add(rayDepthField, 1, 0, rightLayout);
       advancedPanel.add(rayCutoffField, 1, 1, rightLayout);
+      advancedPanel.add(accelerationChoice, 1, 2, rightLayout);
       advancedPanel.add(stepSizeField, 1, 3, rightLayout);
       advancedPanel.add(smoothField, 1, 4, rightLayout);
       advancedPanel.add(Translate.label("extraGISmoothing"), 0, 5, 2, 1);
@@ -426,6 +462,7 @@ public class RaytracerRenderer implements Renderer, Runnable
     minRaysChoice.setSelectedValue(Integer.toString(minRays));
     maxRaysChoice.setSelectedValue(Integer.toString(maxRays));
     reducedMemoryBox.setState(reducedMemory);
+    accelerationChoice.setSelectedIndex(accelerationStructure);
     giModeChoice.setSelectedIndex(giMode);
     diffuseRaysChoice.setSelectedValue(Integer.toString(diffuseRays));
     globalPhotonsField.setValue(globalPhotons);
@@ -476,6 +513,7 @@ public class RaytracerRenderer implements Renderer, Runnable
     volumePhotons = (int) volumePhotonsField.getValue();
     volumeNeighborPhotons = (int) volumeNeighborPhotonsField.getValue();
     reducedMemory = reducedMemoryBox.getState();
+    accelerationStructure = accelerationChoice.getSelectedIndex();
     isPreview = false;
     return true;
   }
@@ -493,6 +531,8 @@ public class RaytracerRenderer implements Renderer, Runnable
     map.put("reduceAccuracyForDistant", adaptive);
     map.put("russianRouletteSampling", roulette);
     map.put("useLessMemory", reducedMemory);
+    map.put("traceRayPackets", rayPackets);
+    map.put("accelerationStructure", accelerationStructure);
     map.put("maxSurfaceError", surfaceError);
     map.put("antialiasing", antialiasLevel);
     map.put("depthOfField", depth);
@@ -539,6 +579,10 @@ public class RaytracerRenderer implements Renderer, Runnable
       roulette = (Boolean) value;
     else if ("useLessMemory".equals(property))
       reducedMemory = (Boolean) value;
+    else if ("traceRayPackets".equals(property))
+      rayPackets = (Boolean) value;
+    else if ("accelerationStructure".equals(property))
+      accelerationStructure = (Integer) value;
     else if ("maxSurfaceError".equals(property))
       surfaceError = ((Number) value).doubleValue();
     else if ("antialiasing".equals(property))
@@ -613,25 +657,38 @@ public class RaytracerRenderer implements Renderer, Runnable
   {
     final Thread mainThread = Thread.currentThread();
 
-    ThreadManager threads = new ThreadManager(theScene.getNumObjects(), new ThreadManager.Task()
+    if (isPreview)
     {
-      @Override
-      public void execute(int index)
-      {
-        if (renderThread != mainThread)
-          return;
-        ObjectInfo info = theScene.getObject(index);
-        if (info.isVisible())
-          raytracer.addObject(info);
-      }
-      @Override
-      public void cleanup()
+      buildPreviewScene();
+      if (renderThread != mainThread)
+        return;
+    }
+    else
+    {
+      previewCache = null;
+      raytracer = createRaytracer();
+      ThreadManager threads = new ThreadManager(theScene.getNumObjects(), new ThreadManager.Task()
       {
-      }
-    });
-    threads.run();
-    threads.finish();
-    raytracer.finishConstruction();
+        @Override
+        public void execute(int index)
+        {
+          if (renderThread != mainThread)
+            return;
+          ObjectInfo info = theScene.getObject(index);
+          if (info.isVisible())
+            raytracer.addObject(info);
+        }
+        @Override
+        public void cleanup()
+        {
+          raytracer.releaseContext();
+        }
+      });
+      threads.run();
+      threads.finish();
+      raytracer.finishConstruction();
+    }
+    listener.statusChanged(Translate.text("sceneProcessingTime", raytracer.getBuildTime()/1000.0));
     for (RTObject obj : raytracer.getObjects())
     {
       if (obj.getMaterialMapping() != null)
@@ -655,6 +712,98 @@ public class RaytracerRenderer implements Renderer, Runnable
       envParamValue[i] = envParam[i].getAverageValue();
   }
 
+  /** Create a Raytracer for the current scene and settings. */
+
+  private Raytracer createRaytracer()
+  {
+    Raytracer rt = new Raytracer(theScene, theCamera);
+    rt.setSurfaceError(surfaceError);
+    rt.setTime(time);
+    rt.setAdaptive(adaptive);
+    rt.setUsePreviewMeshes(isPreview);
+    rt.setUseReducedMemory(reducedMemory);
+    rt.setUseSoftShadows(softShadows);
+    rt.setAccelerationStructure(accelerationStructure);
+    return rt;
+  }
+
+  /** Construct the scene for an interactive preview.  This is usually called many times in a row
+      for the same scene as the user moves the camera or edits objects, so it reuses as much as it can
+      from the previous preview.  The RTObjects and RTLights created for each object are kept, and are
+      reused as long as the object's transform and bounding box have not been replaced (which happens
+      whenever it is moved or modified).  Objects whose representation depends on the camera position
+      are also recreated when the camera moves.  If nothing has changed, the previous Raytracer is
+      reused along with its octree or bounding volume hierarchy, and only the camera is updated.
+      <p>
+      The cache is only softly reachable and refers to the scene weakly, so it never keeps a closed
+      scene alive, and is discarded if memory runs low.  It is also discarded when a render is
+      cancelled, or when a final (non-preview) render is started. */
+
+  private void buildPreviewScene()
+  {
+    final Thread mainThread = Thread.currentThread();
+    List<Object> settings = Arrays.<Object>asList(surfaceError, adaptive, reducedMemory, softShadows, accelerationStructure, theScene.getTime());
+    Mat4 cameraTransform = theCamera.getCameraCoordinates().fromLocal();
+    PreviewCache cache = (previewCache == null ? null : previewCache.get());
+    if (cache != null && (cache.scene.get() != theScene || !settings.equals(cache.settings)))
+      cache = null;
+    boolean cameraMoved = (cache == null || !cameraTransform.equals(cache.cameraTransform));
+    Map<ObjectInfo, PreviewObject> oldObjects = (cache == null ? new IdentityHashMap<ObjectInfo, PreviewObject>() : cache.objects);
+
+    // Find which objects can be reused.
+
+    final Map<ObjectInfo, PreviewObject> newObjects = new IdentityHashMap<ObjectInfo, PreviewObject>();
+    final List<ObjectInfo> changed = new ArrayList<ObjectInfo>();
+    for (ObjectInfo info : theScene.getObjects())
+    {
+      if (!info.isVisible())
+        continue;
+      PreviewObject old = oldObjects.get(info);
+      if (old != null && old.isCurrent(info) && !(cameraMoved && old.dependsOnCamera))
+        newObjects.put(info, old);
+      else
+        changed.add(info);
+    }
+    if (changed.isEmpty() && newObjects.size() == oldObjects.size() && cache != null)
+    {
+      raytracer = cache.raytracer;
+      raytracer.setCamera(theCamera);
+      cache.cameraTransform = cameraTransform;
+      previewCache = new SoftReference<PreviewCache>(cache);
+      return;
+    }
+
+    // Create the objects that have changed, then build a new octree or bounding volume hierarchy.
+
+    raytracer = createRaytracer();
+    final PreviewObject created[] = new PreviewObject [changed.size()];
+    ThreadManager threads = new ThreadManager(changed.size(), new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int index)
+      {
+        if (renderThread != mainThread)
+          return;
+        created[index] = new PreviewObject(changed.get(index), raytracer, adaptive);
+      }
+      @Override
+      public void cleanup()
+      {
+        raytracer.releaseContext();
+      }
+    });
+    threads.run();
+    threads.finish();
+    if (renderThread != mainThread)
+      return;
+    for (int i = 0; i < created.length; i++)
+      newObjects.put(changed.get(i), created[i]);
+    for (PreviewObject obj : newObjects.values())
+      raytracer.addObjects(obj.objects, obj.lights);
+    raytracer.finishConstruction();
+    previewCache = new SoftReference<PreviewCache>(new PreviewCache(theScene, settings, cameraTransform, raytracer, newObjects));
+  }
+
   /** Build the photon maps. */
 
   protected void buildPhotonMap()
@@ -771,6 +920,16 @@ public class RaytracerRenderer implements Renderer, Runnable
       if (!obj.getTextureMapping().getTexture().hasComponent(Texture.EMISSIVE_COLOR_COMPONENT))
         continue;
       PhotonSource src;
+      if (obj instanceof RTCompactMesh)
+      {
+        for (RenderingTriangle tri : ((RTCompactMesh) obj).getTriangles())
+        {
+          src = new TrianglePhotonSource(tri, map);
+          if (src.getTotalIntensity() > 0.0)
+            objectSources.add(src);
+        }
+        continue;
+      }
       if (obj instanceof RTTriangle)
         src = new TrianglePhotonSource(((RTTriangle) obj).tri, map);
       else if (obj instanceof RTTriangleLowMemory)
@@ -836,7 +995,7 @@ public class RaytracerRenderer implements Renderer, Runnable
     int minRaysInUse = minRays;
     if (antialiasLevel == 0)
       minRaysInUse = maxRaysInUse = 1;
-    smoothScale = smoothing*2.0*Math.tan(sceneCamera.getFieldOfView()*Math.PI/360.0)/height;
+    smoothScale = smoothing*2.0*Math.tan(sceneCamera.getFieldOfView()*Math.PI/360.0)/fullHeight;
     useGloss = gloss && antialiasLevel > 0;
     useSoftShadows = softShadows && antialiasLevel > 0;
 
@@ -847,11 +1006,15 @@ public class RaytracerRenderer implements Renderer, Runnable
     {
       rtWidth = width;
       rtHeight = height;
+      regionOffsetH = regionX+0.5*(width-fullWidth);
+      regionOffsetV = regionY+0.5*(height-fullHeight);
     }
     else
     {
       rtWidth = 2*width+2;
       rtHeight = 2*height+2;
+      regionOffsetH = 2*regionX+width-fullWidth;
+      regionOffsetV = 2*regionY+height-fullHeight;
       smoothScale *= 0.5;
     }
 
@@ -888,7 +1051,7 @@ public class RaytracerRenderer implements Renderer, Runnable
       @Override
       public void cleanup()
       {
-        getWorkspace().cleanup();
+        releaseWorkspace();
       }
     });
     for (currentScale[0] = 1<<(int)(Math.log(width/32)/Math.log(2.0)); currentScale[0] >= 1; currentScale[0] /= 2)
@@ -897,6 +1060,7 @@ public class RaytracerRenderer implements Renderer, Runnable
       int currentHeight = (int) Math.ceil((double) height/currentScale[0]);
       threads.setNumIndices(currentWidth[0]*currentHeight);
       threads.run();
+      boolean firstPass = isFirstPass[0];
       isFirstPass[0] = false;
       if (renderThread != thisThread)
       {
@@ -904,7 +1068,7 @@ public class RaytracerRenderer implements Renderer, Runnable
         return;
       }
       long currentTime = System.currentTimeMillis();
-      if (currentTime-updateTime > 250 || currentScale[0] == 1 && currentTime-updateTime > 150)
+      if (currentTime-updateTime > 250 || currentScale[0] == 1 && currentTime-updateTime > 150 || isPreview && firstPass)
       {
         imageSource.newPixels();
         listener.imageUpdated(img);
@@ -924,161 +1088,314 @@ public class RaytracerRenderer implements Renderer, Runnable
       return;
     }
 
-    // We need to adaptively decide how many rays to use for each pixel.  To save memory,
-    // we only deal with six rows at a time.  Begin by sending minRays for each pixel.  If
-    // the results are not sufficiently converged for a given pixel, double the number of
-    // rays for that pixel, and every adjacent pixel.  Repeat until everything converges,
-    // or we reach maxRays.
-
-    PixelInfo tempPixel = new PixelInfo();
-    RGBColor tempColor = new RGBColor();
-    final PixelInfo pix[][] = new PixelInfo [6][rtWidth];
-    for (int i = 0; i < pix.length; i++)
-      for (int j = 0; j < pix[i].length; j++)
-        pix[i][j] = new PixelInfo();
-    loadRow(pix[1], 0, tempColor);
-    loadRow(pix[3], 1, tempColor);
-    loadRow(pix[5], 2, tempColor);
-    int minPerSubpixel = minRaysInUse/4, maxPerSubpixel = maxRaysInUse/4;
-    final int currentRow[] = new int [1];
-    final int currentCount[] = new int [1];
-    threads = new ThreadManager(rtWidth, new ThreadManager.Task()
+    // We need to adaptively decide how many rays to use for each pixel.  The image is divided
+    // into tiles which are refined independently, so each worker thread can process a whole tile
+    // without waiting for the others.  Within a tile, begin by sending minRays for each pixel.  If
+    // the results are not sufficiently converged for a given pixel, double the number of rays for
+    // that pixel, and every adjacent pixel.  Repeat until everything converges, or we reach maxRays.
+    // Tiles finish in any order, so first save the results of phase 1 before they get overwritten.
+
+    firstPassImage = new float [floatImage.length][];
+    for (int i = 0; i < floatImage.length; i++)
+      firstPassImage[i] = floatImage[i].clone();
+    firstPassDepth = (depthImage == null ? null : depthImage.clone());
+    firstPassObject = (objectImage == null ? null : objectImage.clone());
+    final int finalTileSize = getTileSize();
+    final int tilesAcross = (width+finalTileSize-1)/finalTileSize;
+    final int tilesDown = (height+finalTileSize-1)/finalTileSize;
+    final int minPerSubpixel = minRaysInUse/4, maxPerSubpixel = maxRaysInUse/4;
+    final AtomicLong lastUpdateTime = new AtomicLong(updateTime);
+    threads = new ThreadManager(tilesAcross*tilesDown, new ThreadManager.Task()
     {
       @Override
       public void execute(int index)
       {
-        RenderWorkspace workspace = getWorkspace();
-        PixelInfo tempPixel = workspace.tempPixel;
-        for (int m = 0; m < 6; m++)
+        if (renderThread != thisThread)
+          return;
+        int x = (index%tilesAcross)*finalTileSize;
+        int y = (index/tilesAcross)*finalTileSize;
+        if (!refineTile(getWorkspace(), x, y, Math.min(x+finalTileSize, width), Math.min(y+finalTileSize, height), minPerSubpixel, maxPerSubpixel, thisThread))
+          return;
+
+        // Update the image if enough time has elapsed.
+
+        long lastTime = lastUpdateTime.get();
+        long currentTime = System.currentTimeMillis();
+        if (currentTime-lastTime > 5000 && lastUpdateTime.compareAndSet(lastTime, currentTime))
         {
-          PixelInfo thisPixel = pix[m][index];
-          thisPixel.converged = true;
-          if (thisPixel.needsMore)
+          RenderListener rl = listener;
+          MemoryImageSource source = imageSource;
+          if (rl != null && source != null && renderThread == thisThread)
           {
-            tempPixel.clear();
-            int baseNum = (m&1)*8+(index&1)*4;
-            int numNeeded = currentCount[0]-thisPixel.raysSent;
-            for (int k = thisPixel.raysSent; k < currentCount[0]; k++)
-            {
-              float dist = (float) spawnEyeRay(workspace, index, 2*currentRow[0]+m, baseNum+k, numNeeded);
-              if (k < currentCount[0]/2)
-              {
-                thisPixel.add(workspace.color[0], (float) workspace.transparency[0]);
-                if (dist < thisPixel.depth)
-                {
-                  thisPixel.depth = dist;
-                  thisPixel.object = (workspace.firstObjectHit == null ? 0.0f : Float.intBitsToFloat(workspace.firstObjectHit.getObject().hashCode()));
-                }
-              }
-              else
-              {
-                tempPixel.add(workspace.color[0], (float) workspace.transparency[0]);
-                if (dist < tempPixel.depth)
-                {
-                  tempPixel.depth = dist;
-                  tempPixel.object = (workspace.firstObjectHit == null ? 0.0f : Float.intBitsToFloat(workspace.firstObjectHit.getObject().hashCode()));
-                }
-              }
-            }
-            if (currentCount[0] > 1)
-              thisPixel.converged = thisPixel.matches(tempPixel, COLOR_THRESH_ABS, COLOR_THRESH_REL);
-            thisPixel.add(tempPixel);
+            source.newPixels();
+            rl.imageUpdated(img);
           }
         }
       }
       @Override
       public void cleanup()
       {
-        getWorkspace().cleanup();
+        releaseWorkspace();
       }
     });
+    threads.run();
+    threads.finish();
+    if (renderThread != thisThread)
+      return;
+
+    // All done.  Send the final image.
+
+    imageSource.newPixels();
+    finish();
+  }
+
+  /** Get the size of the tiles the image is divided into for the adaptive phase of rendering.  They are
+   made smaller for small images, so there are enough tiles to keep every processor busy. */
 
-    for (currentRow[0] = 0; currentRow[0] < height-1; currentRow[0]++)
+  protected int getTileSize()
+  {
+    int tileSize = 32;
+    while (tileSize > 8 && ((width+tileSize-1)/tileSize)*((height+tileSize-1)/tileSize) < 4*Runtime.getRuntime().availableProcessors())
+      tileSize /= 2;
+    return tileSize;
+  }
+
+  /** Perform the adaptive phase of rendering for one tile of the image.  The tile includes image pixels
+   x0 through x1-1 and y0 through y1-1.  Rays are also sent through a one subpixel wide border around it,
+   which is needed for filtering and for judging convergence along the edges of the tile.  Pixels within a
+   few pixels of the edge may still get a different number of rays than if the tile were larger, because
+   the decision of where more rays are needed cannot look past the border.
+
+   @param workspace        contains information for the thread currently being executed
+   @param x0               the first column of the tile
+   @param y0               the first row of the tile
+   @param x1               one more than the last column of the tile
+   @param y1               one more than the last row of the tile
+   @param minPerSubpixel   the minimum number of rays to send through each subpixel
+   @param maxPerSubpixel   the maximum number of rays to send through each subpixel
+   @param renderingThread  the thread which started this render.  If the render is canceled, this
+                           method returns as soon as possible.
+   @return true if the tile was completed, false if rendering was canceled
+   */
+
+  protected boolean refineTile(RenderWorkspace workspace, int x0, int y0, int x1, int y1, int minPerSubpixel, int maxPerSubpixel, Thread renderingThread)
+  {
+    int rows = 2*(y1-y0)+2, cols = 2*(x1-x0)+2;
+    PixelInfo pix[][] = workspace.getTilePixels(rows, cols);
+    RGBColor temp = workspace.tempColor;
+    for (int i = 0; i < rows; i++)
+      for (int j = 0; j < cols; j++)
+        pix[i][j].clear();
+
+    // Load the rays that were sent in the first phase.
+
+    for (int y = y0; y <= y1 && y < height; y++)
+      for (int x = x0; x <= x1 && x < width; x++)
+      {
+        PixelInfo p = pix[2*(y-y0)+1][2*(x-x0)+1];
+        int index = x+y*width;
+        temp.setRGB(firstPassImage[0][index], firstPassImage[1][index], firstPassImage[2][index]);
+        p.add(temp, 1.0f-firstPassImage[3][index]);
+        if (firstPassDepth != null)
+          p.depth = firstPassDepth[index];
+        if (firstPassObject != null)
+          p.object = firstPassObject[index];
+      }
+
+    // Keep refining the pixels until they converge, or we reach maxRays.
+
+    boolean done = false;
+    for (int count = minPerSubpixel; count <= maxPerSubpixel && !done; count *= 2)
     {
-      // Keep refining the pixels in the current set of six rows until they converge, or
-      // we reach maxRays.
+      // Send out more rays through any pixels which are marked as needing it.
 
-      boolean done = false;
-      for (currentCount[0] = minPerSubpixel; currentCount[0] <= maxPerSubpixel && !done; currentCount[0] *= 2)
+      for (int i = 0; i < rows; i++)
       {
-        // Send out more rays through any pixels which are marked as needing it.
+        if (renderThread != renderingThread)
+          return false;
+        refineRow(workspace, pix[i], 2*x0, 2*y0+i, cols, count);
+      }
 
-        threads.run();
-        if (renderThread != thisThread)
-        {
-          threads.finish();
-          return;
-        }
+      // If we have only sent out one ray per subpixel, we cannot yet judge the convergence of
+      // each one.  Instead, compare each pixel to its neighbors and use that to decide where
+      // we need more.
 
-        // If we have only sent out one ray per subpixel, we cannot yet judge the convergence of
-        // each one.  Instead, compare each pixel to its neighbors and use that to decide where
-        // we need more.
+      if (count == 1)
+        for (int i = 0; i < rows; i++)
+          for (int j = 0; j < cols; j++)
+          {
+            if (i < rows-1 && !pix[i][j].matches(pix[i+1][j], COLOR_THRESH_ABS, COLOR_THRESH_REL))
+              pix[i][j].converged = pix[i+1][j].converged = false;
+            if (j < cols-1 && !pix[i][j].matches(pix[i][j+1], COLOR_THRESH_ABS, COLOR_THRESH_REL))
+              pix[i][j].converged = pix[i][j+1].converged = false;
+          }
 
-        if (currentCount[0] == 1)
-          for (int m = 0; m < 5; m++)
-            for (int j = 0; j < rtWidth-1; j++)
-            {
-              if (!pix[m][j].matches(pix[m+1][j], COLOR_THRESH_ABS, COLOR_THRESH_REL))
-                pix[m][j].converged = pix[m+1][j].converged = false;
-              if (!pix[m][j].matches(pix[m][j+1], COLOR_THRESH_ABS, COLOR_THRESH_REL))
-                pix[m][j].converged = pix[m][j+1].converged = false;
-            }
+      // If a pixel has not yet converged, mark that pixel and all of its neighbors
+      // to get more rays.
 
-        // If a pixel has not yet converged, mark that pixel and all of its neighbors
-        // to get more rays.
+      for (int i = 0; i < rows; i++)
+        for (int j = 0; j < cols; j++)
+          pix[i][j].needsMore = false;
+      done = true;
+      for (int i = 0; i < rows; i++)
+        for (int j = 0; j < cols; j++)
+          if (!pix[i][j].converged)
+          {
+            done = false;
+            pix[i][j].needsMore = true;
+            if (i > 0)
+              pix[i-1][j].needsMore = true;
+            if (i < rows-1)
+              pix[i+1][j].needsMore = true;
+            if (j > 0)
+              pix[i][j-1].needsMore = true;
+            if (j < cols-1)
+              pix[i][j+1].needsMore = true;
+          }
+    }
 
-        for (int m = 0; m < 6; m++)
-          for (int j = 0; j < rtWidth; j++)
-            pix[m][j].needsMore = false;
-        done = true;
-        for (int m = 0; m < 6; m++)
-          for (int j = 0; j < rtWidth; j++)
-            if (!pix[m][j].converged)
-            {
-              done = false;
-              pix[m][j].needsMore = true;
-              if (m > 0)
-                pix[m-1][j].needsMore = true;
-              if (m < 5)
-                pix[m+1][j].needsMore = true;
-              if (j > 0)
-                pix[m][j-1].needsMore = true;
-              if (j < rtWidth-1)
-                pix[m][j+1].needsMore = true;
-            }
-      }
+    // Copy the colors into the image.
+
+    PixelInfo rowPix[][] = new PixelInfo [4][];
+    for (int y = y0; y < y1; y++)
+    {
+      for (int i = 0; i < 4; i++)
+        rowPix[i] = pix[2*(y-y0)+i];
+      recordRow(rowPix, workspace.tempPixel, y, x0, x1, 2*x0);
+    }
+    return true;
+  }
+
+  /** Send more rays through each subpixel in a row that is marked as needing them, and decide whether
+   it has converged.  If the "traceRayPackets" configuration option is set, the camera rays for several
+   subpixels are traced through the scene together.  This produces exactly the same results as calling
+   {@link #refineSubpixel(RenderWorkspace, PixelInfo, int, int, int)} for each one.  It is currently slower
+   than tracing them one at a time (see PacketTraceBenchmark), so it is off by default and is not offered
+   in the user interface.
+
+   @param workspace   contains information for the thread currently being executed
+   @param row         the subpixels to refine
+   @param x0          the column of the first subpixel in the row
+   @param y           the row of the subpixels
+   @param cols        the number of subpixels in the row
+   @param count       the total number of rays which should have been sent through each subpixel when this returns
+   */
+
+  protected void refineRow(RenderWorkspace workspace, PixelInfo row[], int x0, int y, int cols, int count)
+  {
+    BoundingVolumeHierarchy bvh = raytracer.getBoundingVolumeHierarchy();
+    if (!rayPackets || bvh == null)
+    {
+      for (int j = 0; j < cols; j++)
+        refineSubpixel(workspace, row[j], x0+j, y, count);
+      return;
+    }
 
-      // Copy the colors into the image, and update the image if enough time has elapsed.
+    // Generate the rays in the same order refineSubpixel() would, and trace them whenever a
+    // packet is full.
 
-      recordRow(pix, tempPixel, currentRow[0]);
-      if (System.currentTimeMillis()-updateTime > 5000)
+    Ray packet[] = workspace.packetRay;
+    int packetPixel[] = workspace.packetPixel, packetRayIndex[] = workspace.packetRayIndex, packetRayNumber[] = workspace.packetRayNumber;
+    boolean packetStartsPixel[] = workspace.packetStartsPixel;
+    int size = 0;
+    for (int j = 0; j < cols; j++)
+    {
+      PixelInfo thisPixel = row[j];
+      thisPixel.converged = true;
+      if (!thisPixel.needsMore)
+        continue;
+      int baseNum = (y&1)*8+((x0+j)&1)*4;
+      int numNeeded = count-thisPixel.raysSent;
+      for (int k = thisPixel.raysSent; k < count; k++)
       {
-        imageSource.newPixels();
-        listener.imageUpdated(img);
-        updateTime = System.currentTimeMillis();
+        generateEyeRay(workspace, packet[size], x0+j, y, baseNum+k, numNeeded);
+        packetPixel[size] = j;
+        packetRayIndex[size] = k;
+        packetRayNumber[size] = baseNum+k;
+        packetStartsPixel[size] = (k == count-numNeeded);
+        if (++size == PACKET_SIZE)
+        {
+          tracePacket(workspace, bvh, row, size, count);
+          size = 0;
+        }
       }
+    }
+    if (size > 0)
+      tracePacket(workspace, bvh, row, size, count);
+  }
 
-      // Rotate the temporary pixel buffer by two rows.
+  /** Trace a packet of camera rays that were generated by refineRow(), and add the results to their subpixels. */
 
-      PixelInfo temp1[] = pix[0], temp2[] = pix[1];
-      for (int j = 0; j < 4; j++)
-        pix[j] = pix[j+2];
-      pix[4] = temp1;
-      pix[5] = temp2;
-      for (int j = 0; j < rtWidth; j++)
-        pix[5][j].clear();
-      loadRow(pix[4], currentRow[0]+2, tempColor);
+  private void tracePacket(RenderWorkspace workspace, BoundingVolumeHierarchy bvh, PixelInfo row[], int size, int count)
+  {
+    Ray packet[] = workspace.packetRay;
+    bvh.traceRays(packet, size, workspace.packetFirst, workspace.packetSecond, workspace.packetDist);
+    Ray ray = workspace.ray[0];
+    for (int i = 0; i < size; i++)
+    {
+      PixelInfo thisPixel = row[workspace.packetPixel[i]];
+      int k = workspace.packetRayIndex[i];
+      if (workspace.packetStartsPixel[i])
+        workspace.tempPixel.clear();
+      ray.origin.set(packet[i].origin);
+      ray.direction.set(packet[i].direction);
+      workspace.setPrimaryHit(workspace.packetFirst[i], workspace.packetSecond[i], workspace.packetDist[i]);
+      float dist = (float) traceEyeRay(workspace, workspace.packetRayNumber[i]);
+      workspace.primaryHitKnown = false;
+      addEyeRay(workspace, thisPixel, k, count, dist);
+      if (k == count-1)
+        finishSubpixel(workspace, thisPixel, count);
     }
+  }
 
-    // Copy the final row of pixels into the image.
+  /** Send more rays through a subpixel if it is marked as needing them, and decide whether it has converged.
 
-    recordRow(pix, tempPixel, height-1);
+   @param workspace   contains information for the thread currently being executed
+   @param thisPixel   the subpixel to refine
+   @param x           the column of the subpixel
+   @param y           the row of the subpixel
+   @param count       the total number of rays which should have been sent through the subpixel when this returns
+   */
 
-    // All done.  Send the final image.
+  protected void refineSubpixel(RenderWorkspace workspace, PixelInfo thisPixel, int x, int y, int count)
+  {
+    thisPixel.converged = true;
+    if (!thisPixel.needsMore)
+      return;
+    workspace.tempPixel.clear();
+    int baseNum = (y&1)*8+(x&1)*4;
+    int numNeeded = count-thisPixel.raysSent;
+    for (int k = thisPixel.raysSent; k < count; k++)
+    {
+      float dist = (float) spawnEyeRay(workspace, x, y, baseNum+k, numNeeded);
+      addEyeRay(workspace, thisPixel, k, count, dist);
+    }
+    finishSubpixel(workspace, thisPixel, count);
+  }
 
-    imageSource.newPixels();
-    threads.finish();
-    finish();
+  /** Record the result of the k'th camera ray sent through a subpixel.  The first half of the rays are
+      added to the subpixel directly, and the rest are collected in the workspace's temporary pixel so
+      they can be compared to the first half. */
+
+  private void addEyeRay(RenderWorkspace workspace, PixelInfo thisPixel, int k, int count, float dist)
+  {
+    PixelInfo p = (k < count/2 ? thisPixel : workspace.tempPixel);
+    p.add(workspace.color[0], (float) workspace.transparency[0]);
+    if (dist < p.depth)
+    {
+      p.depth = dist;
+      p.object = (workspace.firstObjectHit == null ? 0.0f : Float.intBitsToFloat(workspace.firstObjectHit.getObject().hashCode()));
+    }
+  }
+
+  /** Decide whether a subpixel has converged once all of its rays have been sent, and add in the rays
+      collected in the temporary pixel. */
+
+  private void finishSubpixel(RenderWorkspace workspace, PixelInfo thisPixel, int count)
+  {
+    if (count > 1)
+      thisPixel.converged = thisPixel.matches(workspace.tempPixel, COLOR_THRESH_ABS, COLOR_THRESH_REL);
+    thisPixel.add(workspace.tempPixel);
   }
 
   /** Load a row of pixels from the image. */
@@ -1106,9 +1423,17 @@ public class RaytracerRenderer implements Renderer, Runnable
 
   protected void recordRow(PixelInfo pix[][], PixelInfo tempPixel, int row)
   {
-    for (int i = 0; i < width; i++)
+    recordRow(pix, tempPixel, row, 0, width, 0);
+  }
+
+  /** Record part of a row of pixels into the image.  This records pixels firstPixel through endPixel-1.
+      Subpixel x in the full image corresponds to element x-offset of the arrays in pix. */
+
+  protected void recordRow(PixelInfo pix[][], PixelInfo tempPixel, int row, int firstPixel, int endPixel, int offset)
+  {
+    for (int i = firstPixel; i < endPixel; i++)
     {
-      int x = i*2+1;
+      int x = i*2+1-offset;
       tempPixel.copy(pix[1][x]);
       tempPixel.add(pix[1][x+1]);
       tempPixel.add(pix[2][x]);
@@ -1198,6 +1523,9 @@ public class RaytracerRenderer implements Renderer, Runnable
     globalMap = null;
     causticsMap = null;
     volumeMap = null;
+    firstPassImage = null;
+    firstPassDepth = null;
+    firstPassObject = null;
     RenderListener rl = listener;
     ComplexImage im =  null;
     Image image = img;
@@ -1226,7 +1554,9 @@ public class RaytracerRenderer implements Renderer, Runnable
     depthImage = null;
     errorImage = null;
     objectImage = null;
-    raytracer.cleanup();
+    PreviewCache cache = (previewCache == null ? null : previewCache.get());
+    if (raytracer != null && (cache == null || raytracer != cache.raytracer))
+      raytracer.cleanup();
     raytracer = null;
     System.gc();
     if (rl != null && im != null)
@@ -1240,12 +1570,29 @@ public class RaytracerRenderer implements Renderer, Runnable
 
   protected double spawnEyeRay(RenderWorkspace workspace, int i, int j, int number, int outOf)
   {
-    Ray ray = workspace.ray[0];
+    generateEyeRay(workspace, workspace.ray[0], i, j, number, outOf);
+    return traceEyeRay(workspace, number);
+  }
+
+  /** Set the origin and direction of a ray starting from the viewpoint and passing through
+   pixel (i, j), without tracing it.  The random offsets for antialiasing and depth of field
+   are taken from the workspace's eyeRandom, which is reseeded from the pixel and ray number.  That
+   way every ray is the same no matter which thread generates it or in what order, so the image does
+   not depend on how it was divided into tiles. */
+
+  protected void generateEyeRay(RenderWorkspace workspace, Ray ray, int i, int j, int number, int outOf)
+  {
     Vec3 orig = ray.getOrigin(), dir = ray.getDirection();
-    double h = i-rtWidth*0.5+0.5, v = j-rtHeight*0.5+0.5;
-    Random random = workspace.context.random;
-    int imgHeight = height;
+    double h = i-rtWidth*0.5+0.5+regionOffsetH, v = j-rtHeight*0.5+0.5+regionOffsetV;
+    Random random = workspace.eyeRandom;
+    int imgHeight = fullHeight;
 
+    if (antialiasLevel > 0 || depth)
+    {
+      long seed = i*0x9E3779B97F4A7C15L+j*0xC2B2AE3D27D4EB4FL+number*0x165667B19E3779F9L;
+      seed = (seed^(seed>>>31))*0xBF58476D1CE4E5B9L;
+      random.setSeed(seed^(seed>>>29));
+    }
     if (antialiasLevel > 0)
     {
       int rows = FastMath.ceil(Math.sqrt(outOf));
@@ -1261,7 +1608,7 @@ public class RaytracerRenderer implements Renderer, Runnable
       // extra antialiasing pixels around the edges. The value is 
       // the rendering time height in pixels.
 
-      imgHeight = height*2;
+      imgHeight = fullHeight*2;
     }
     double dof1 = 0.0, dof2 = 0.0;
     if (depth)
@@ -1272,6 +1619,15 @@ public class RaytracerRenderer implements Renderer, Runnable
     sceneCamera.getRayFromCamera(h/imgHeight, v/imgHeight, dof1, dof2, orig, dir);
     theCamera.getCameraCoordinates().fromLocal().transform(orig);
     theCamera.getCameraCoordinates().fromLocal().transformDirection(dir);
+  }
+
+  /** Trace the ray that was generated in workspace.ray[0] by generateEyeRay().  The light color
+   is returned in color[0], and the transparency in transparency[0]. */
+
+  protected double traceEyeRay(RenderWorkspace workspace, int number)
+  {
+    Ray ray = workspace.ray[0];
+    Vec3 orig = ray.getOrigin(), dir = ray.getDirection();
     ray.newID();
     workspace.rayIntensity[0].setRGB(1.0f, 1.0f, 1.0f);
     workspace.firstObjectHit = null;
@@ -1311,6 +1667,29 @@ public class RaytracerRenderer implements Renderer, Runnable
     return distScale*spawnRay(workspace, 0, node, SurfaceIntersection.NO_INTERSECTION, workspace.materialAtCamera.getMaterialMapping(), null, workspace.materialAtCamera.toLocal(), null, number, 0.0, true, false);
   }
 
+  /** Fill in the intersection for a camera ray whose hits were already found by tracing it as part of
+   a packet.  This is equivalent to {@link Raytracer#traceRay(Ray, OctreeNode, Raytracer.RayIntersection)}.
+
+   @param workspace   contains information for the thread currently being executed
+   @param r           the ray being traced
+   @param intersect   the details of the intersection are returned in this object
+   @return the octree node containing the intersection, or null if the ray did not hit anything
+   */
+
+  private OctreeNode findPrimaryHit(RenderWorkspace workspace, Ray r, Raytracer.RayIntersection intersect)
+  {
+    workspace.primaryHitKnown = false;
+    if (workspace.primaryFirst == null)
+    {
+      intersect.set(SurfaceIntersection.NO_INTERSECTION, SurfaceIntersection.NO_INTERSECTION, 0.0);
+      return null;
+    }
+    SurfaceIntersection first = r.findIntersection(workspace.primaryFirst);
+    SurfaceIntersection second = (workspace.primarySecond == null ? SurfaceIntersection.NO_INTERSECTION : r.findIntersection(workspace.primarySecond));
+    intersect.set(first, second, workspace.primaryDist);
+    return raytracer.getRootNode();
+  }
+
   /** Determine what material is present at a particular point in the scene.
 
    @param workspace      contains information for the thread currently being executed
@@ -1453,7 +1832,10 @@ public class RaytracerRenderer implements Renderer, Runnable
     else
     {
       Raytracer.RayIntersection intersect = workspace.context.intersect;
-      nextNode = raytracer.traceRay(r, node, intersect);
+      if (treeDepth == 0 && workspace.primaryHitKnown)
+        nextNode = findPrimaryHit(workspace, r, intersect);
+      else
+        nextNode = raytracer.traceRay(r, node, intersect);
       if (nextNode == null)
       {
         if (transmitted && transparentBackground)
@@ -1894,19 +2276,34 @@ public class RaytracerRenderer implements Renderer, Runnable
     RGBColor lightColor = workspace.color[treeDepth], transColor = workspace.surfSpec[treeDepth].transparent;
     Vec3 intersectionPoint = workspace.pos[maxRayDepth], trueNorm = workspace.trueNormal[maxRayDepth];
     MaterialIntersection matChange[] = workspace.matChange;
+    BoundingVolumeHierarchy bvh = raytracer.getBoundingVolumeHierarchy();
     int i, j, matCount = 0;
 
     do
     {
-      RTObject obj[] = node.getObjects();
-      for (i = obj.length-1; i >= 0; i--)
+      // With an octree, test the objects in each node the ray passes through.  With a bounding volume
+      // hierarchy, every object near the ray is found at once, and each appears only one time.
+
+      RTObject obj[];
+      int numObjects;
+      if (bvh == null)
+      {
+        obj = node.getObjects();
+        numObjects = obj.length;
+      }
+      else
+      {
+        numObjects = bvh.findCandidateObjects(r, distToLight);
+        obj = workspace.context.getCandidateObjects();
+      }
+      for (i = numObjects-1; i >= 0; i--)
       {
         SurfaceIntersection intersection = r.findIntersection(obj[i]);
         if (intersection != SurfaceIntersection.NO_INTERSECTION)
           for (j = 0; ; j++)
           {
             intersection.intersectionPoint(j, intersectionPoint);
-            if (node.contains(intersectionPoint))
+            if (bvh != null || node.contains(intersectionPoint))
             {
               double dist = intersection.intersectionDist(j);
               if (dist < distToLight)
@@ -1938,7 +2335,7 @@ public class RaytracerRenderer implements Renderer, Runnable
               break;
           }
       }
-      if (node == endNode)
+      if (bvh != null || node == endNode)
         break;
       node = node.findNextNode(r);
     } while (node != null);
@@ -2435,4 +2832,65 @@ public class RaytracerRenderer implements Renderer, Runnable
         matChange[j] = temp;
       }
   }
+
+  /** A PreviewCache holds everything that can be reused by the next interactive preview. */
+
+  private static class PreviewCache
+  {
+    final WeakReference<Scene> scene;
+    final List<Object> settings;
+    final Raytracer raytracer;
+    final Map<ObjectInfo, PreviewObject> objects;
+    Mat4 cameraTransform;
+
+    PreviewCache(Scene scene, List<Object> settings, Mat4 cameraTransform, Raytracer raytracer, Map<ObjectInfo, PreviewObject> objects)
+    {
+      this.scene = new WeakReference<Scene>(scene);
+      this.settings = settings;
+      this.cameraTransform = cameraTransform;
+      this.raytracer = raytracer;
+      this.objects = objects;
+    }
+  }
+
+  /** A PreviewObject records the RTObjects and RTLights created to represent one object in an
+      interactive preview, along with enough information to tell whether they are still valid. */
+
+  private static class PreviewObject
+  {
+    final Object3D object;
+    final Mat4 transform;
+    final BoundingBox bounds;
+    final boolean dependsOnCamera;
+    final List<RTObject> objects;
+    final List<RTLight> lights;
+
+    PreviewObject(ObjectInfo info, Raytracer rt, boolean adaptive)
+    {
+      object = info.getObject();
+      transform = info.getCoords().fromLocal();
+      bounds = info.getBounds();
+      objects = new ArrayList<RTObject>();
+      lights = new ArrayList<RTLight>();
+      rt.createObjects(info, objects, lights);
+
+      // Displaced surfaces and directly rendered implicit objects choose their accuracy based on the
+      // distance from the camera.  Preview meshes do not.
+
+      Object3D obj = object;
+      while (obj instanceof ObjectWrapper)
+        obj = ((ObjectWrapper) obj).getWrappedObject();
+      Texture tex = obj.getTexture();
+      dependsOnCamera = adaptive && (obj instanceof ImplicitObject || (tex != null && tex.hasComponent(Texture.DISPLACEMENT_COMPONENT)));
+    }
+
+    /** Determine whether the object is unchanged since this was created.  An ObjectInfo replaces its
+        cached bounding box whenever it is modified, and a CoordinateSystem replaces its transform
+        whenever it is changed, so this only needs to compare references. */
+
+    boolean isCurrent(ObjectInfo info)
+    {
+      return (info.getObject() == object && info.getCoords().fromLocal() == transform && info.getBounds() == bounds);
+    }
+  }
 }
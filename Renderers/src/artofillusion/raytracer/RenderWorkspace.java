@@ -14,6 +14,7 @@ import artofillusion.math.*;
 import artofillusion.texture.*;
 import artofillusion.material.*;
 import artofillusion.raytracer.RaytracerRenderer.*;
+import java.util.*;
 
 
 /**
@@ -36,6 +37,16 @@ public class RenderWorkspace
   public MaterialSpec matSpec;
   public PixelInfo tempPixel;
   public PhotonMapContext globalMap, causticsMap, volumeMap;
+  public Random eyeRandom;
+  public Ray packetRay[];
+  public RTObject packetFirst[], packetSecond[];
+  public double packetDist[];
+  public int packetPixel[], packetRayIndex[], packetRayNumber[];
+  public boolean packetStartsPixel[];
+  public boolean primaryHitKnown;
+  public RTObject primaryFirst, primarySecond;
+  public double primaryDist;
+  private PixelInfo tilePixels[][];
 
   public RenderWorkspace(RaytracerRenderer rt, RaytracerContext context)
   {
@@ -67,6 +78,18 @@ public class RenderWorkspace
     for (int i = 0; i < matChange.length; i++)
       matChange[i] = new MaterialIntersection();
     tempPixel = new PixelInfo();
+    eyeRandom = new FastRandom(0);
+    int packetSize = RaytracerRenderer.PACKET_SIZE;
+    packetRay = new Ray [packetSize];
+    for (int i = 0; i < packetSize; i++)
+      packetRay[i] = new Ray(context);
+    packetFirst = new RTObject [packetSize];
+    packetSecond = new RTObject [packetSize];
+    packetDist = new double [packetSize];
+    packetPixel = new int [packetSize];
+    packetRayIndex = new int [packetSize];
+    packetRayNumber = new int [packetSize];
+    packetStartsPixel = new boolean [packetSize];
     if (rt.globalMap != null)
       globalMap = new PhotonMapContext(rt.globalMap);
     if (rt.causticsMap != null)
@@ -97,6 +120,38 @@ public class RenderWorkspace
     matChange = newMatChange;
   }
 
+  /**
+   * Get an array of PixelInfo objects for refining a tile of the image.  The same array is reused
+   * for every tile processed by this thread, so its contents are not preserved between calls.
+   */
+
+  public PixelInfo[][] getTilePixels(int rows, int cols)
+  {
+    if (tilePixels == null || tilePixels.length < rows || tilePixels[0].length < cols)
+    {
+      int oldRows = (tilePixels == null ? 0 : tilePixels.length);
+      int oldCols = (tilePixels == null ? 0 : tilePixels[0].length);
+      tilePixels = new PixelInfo [Math.max(rows, oldRows)][Math.max(cols, oldCols)];
+      for (int i = 0; i < tilePixels.length; i++)
+        for (int j = 0; j < tilePixels[i].length; j++)
+          tilePixels[i][j] = new PixelInfo();
+    }
+    return tilePixels;
+  }
+
+  /**
+   * Record the objects hit by a camera ray that has already been traced as part of a packet.  The next
+   * camera ray traced by the renderer will use them instead of searching the scene again.
+   */
+
+  public void setPrimaryHit(RTObject first, RTObject second, double dist)
+  {
+    primaryHitKnown = true;
+    primaryFirst = first;
+    primarySecond = second;
+    primaryDist = dist;
+  }
+
   /**
    * This is called when rendering is finished.  It nulls out fields to help garbage collection.
    */
@@ -105,6 +160,10 @@ public class RenderWorkspace
   {
     matChange = null;
     tempPixel = null;
+    tilePixels = null;
+    packetRay = null;
+    packetFirst = packetSecond = null;
+    primaryFirst = primarySecond = null;
     globalMap = null;
     causticsMap = null;
     volumeMap = null;
@@ -124,7 +124,7 @@ public class SpotlightPhotonSource implements PhotonSource
               @Override
           public void cleanup()
           {
-            map.getWorkspace().cleanup();
+            map.getRenderer().releaseWorkspace();
           }
         });
         threads.run();
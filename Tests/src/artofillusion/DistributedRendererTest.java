@@ -0,0 +1,540 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.image.ComplexImage;
+import artofillusion.math.CoordinateSystem;
+import artofillusion.math.Vec3;
+import artofillusion.object.ObjectInfo;
+import artofillusion.object.SceneCamera;
+import artofillusion.object.Sphere;
+import buoy.widget.Widget;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.image.MemoryImageSource;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DistributedRendererTest
+{
+  private static final int WIDTH = 40, HEIGHT = 30;
+  private static final String SECRET = "test secret";
+  private static final TestRenderer renderer = new TestRenderer();
+
+  private final List<ServerSocket> servers = new ArrayList<ServerSocket>();
+
+  @BeforeClass
+  public static void setUpClass()
+  {
+    if (!PluginRegistry.getCategories().contains(Renderer.class))
+      PluginRegistry.addCategory(Renderer.class);
+    PluginRegistry.registerPlugin(renderer);
+  }
+
+  @After
+  public void tearDown() throws IOException
+  {
+    for (ServerSocket server : servers)
+      server.close();
+    renderer.delay = 0;
+  }
+
+  private static Scene createScene()
+  {
+    Scene scene = new Scene();
+    CoordinateSystem coords = new CoordinateSystem(new Vec3(0.0, 0.0, Camera.DEFAULT_DISTANCE_TO_SCREEN), new Vec3(0.0, 0.0, -1.0), Vec3.vy());
+    scene.addObject(new ObjectInfo(new SceneCamera(), coords, "Camera 1"), null);
+    scene.addObject(new ObjectInfo(new Sphere(1.0, 1.0, 1.0), new CoordinateSystem(), "Sphere 1"), null);
+    return scene;
+  }
+
+  /** Start a RenderWorker, and return its address. */
+
+  private InetSocketAddress startWorker() throws IOException
+  {
+    ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    servers.add(server);
+    final RenderWorker worker = new RenderWorker(server, SECRET);
+    Thread thread = new Thread() {
+      @Override
+      public void run()
+      {
+        worker.run();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+  }
+
+  /** Start a fake worker which misbehaves in a specified way whenever it is asked to render
+      something, and return its address.  The regions it is asked to render are added to a
+      list. */
+
+  private InetSocketAddress startBrokenWorker(final Failure failure, final List<Rectangle> requests) throws IOException
+  {
+    final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    servers.add(server);
+    Thread thread = new Thread() {
+      @Override
+      public void run()
+      {
+        while (!server.isClosed())
+        {
+          try (Socket socket = server.accept())
+          {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in.readInt();
+            in.readInt();
+            out.writeInt(RenderWorker.MAGIC);
+            out.writeInt(RenderWorker.PROTOCOL_VERSION);
+            out.write(new byte [RenderWorker.CHALLENGE_LENGTH]);
+            out.flush();
+            in.readFully(new byte [RenderWorker.getResponse(new byte [0], "").length]);
+            out.writeInt(RenderWorker.MSG_ACCEPTED);
+            out.flush();
+            in.readInt();
+            in.readUTF();
+            RenderWorker.readConfiguration(in);
+            for (int i = 0; i < 4; i++)
+              in.readInt();
+            in.readFully(new byte [in.readInt()]);
+            while (in.readInt() == RenderWorker.MSG_RENDER)
+            {
+              int job = in.readInt();
+              in.readDouble();
+              Rectangle region = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+              synchronized (requests)
+              {
+                requests.add(region);
+              }
+              if (failure == Failure.ERROR)
+              {
+                out.writeInt(RenderWorker.MSG_ERROR);
+                out.writeInt(job);
+                out.writeUTF("Broken worker");
+                out.flush();
+              }
+              else if (failure == Failure.GARBAGE)
+              {
+                out.writeInt(12345);
+                out.writeInt(job);
+                out.flush();
+              }
+              else if (failure == Failure.WRONG_JOB)
+              {
+                out.writeInt(RenderWorker.MSG_IMAGE);
+                out.writeInt(job+1);
+                out.writeInt(region.width);
+                out.writeInt(region.height);
+                out.writeInt(0);
+                for (int i = 0; i < region.width*region.height; i++)
+                  out.writeInt(0);
+                out.flush();
+              }
+              else if (failure == Failure.DISCONNECT)
+                break;
+            }
+          }
+          catch (IOException ex)
+          {
+          }
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+  }
+
+  /** Check that an image contains exactly what TestRenderer would render. */
+
+  private static void checkImage(ComplexImage image, double time)
+  {
+    assertEquals(WIDTH, image.getWidth());
+    assertEquals(HEIGHT, image.getHeight());
+    for (int y = 0; y < HEIGHT; y++)
+      for (int x = 0; x < WIDTH; x++)
+      {
+        int expected = TestRenderer.getPixel(x, y, time);
+        assertEquals((expected>>16)&0xFF, Math.round(image.getPixelComponent(x, y, ComplexImage.RED)*255.0f));
+        assertEquals((expected>>8)&0xFF, Math.round(image.getPixelComponent(x, y, ComplexImage.GREEN)*255.0f));
+        assertEquals(expected&0xFF, Math.round(image.getPixelComponent(x, y, ComplexImage.BLUE)*255.0f));
+        assertEquals(TestRenderer.getDepth(x, y, time), image.getPixelComponent(x, y, ComplexImage.DEPTH), 0.0f);
+      }
+  }
+
+  private DistributedRenderer createRenderer(List<InetSocketAddress> workers)
+  {
+    DistributedRenderer distributed = new DistributedRenderer(createScene(), renderer, workers);
+    distributed.setImageSize(WIDTH, HEIGHT);
+    distributed.setTimeout(5000);
+    distributed.setSecret(SECRET);
+    return distributed;
+  }
+
+  /** Tiles rendered by several workers should be assembled into the correct image. */
+
+  @Test(timeout = 60000)
+  public void testTiles() throws Exception
+  {
+    DistributedRenderer distributed = createRenderer(Arrays.asList(startWorker(), startWorker()));
+    distributed.setTileSize(16);
+    checkImage(distributed.renderFrame(0.5), 0.5);
+    checkImage(distributed.renderFrame(1.5), 1.5);
+  }
+
+  /** Complete frames should be rendered when no tile size is set. */
+
+  @Test(timeout = 60000)
+  public void testFrames() throws Exception
+  {
+    DistributedRenderer distributed = createRenderer(Collections.singletonList(startWorker()));
+    checkImage(distributed.renderFrame(2.0), 2.0);
+  }
+
+  /** A job that takes longer than the timeout should not be treated as a failure, since the
+      worker reports that it is still busy. */
+
+  @Test(timeout = 60000)
+  public void testSlowJob() throws Exception
+  {
+    DistributedRenderer distributed = createRenderer(Collections.singletonList(startWorker()));
+    distributed.setTimeout(400);
+    distributed.setMaxAttempts(1);
+    renderer.delay = 1500;
+    checkImage(distributed.renderFrame(0.0), 0.0);
+  }
+
+  /** A job which fails on one worker should be given to a different one, not back to the one
+      it failed on. */
+
+  @Test(timeout = 60000)
+  public void testRetryOnDifferentWorker() throws Exception
+  {
+    List<Rectangle> requests = new ArrayList<Rectangle>();
+    DistributedRenderer distributed = createRenderer(Arrays.asList(startBrokenWorker(Failure.ERROR, requests), startWorker()));
+    distributed.setTileSize(10);
+    distributed.setMaxAttempts(2);
+    checkImage(distributed.renderFrame(0.0), 0.0);
+    assertFalse(requests.isEmpty());
+    assertEquals(requests.size(), new HashSet<Rectangle>(requests).size());
+  }
+
+  /** If every worker fails a job, rendering should fail once it has been attempted the
+      maximum number of times. */
+
+  @Test(timeout = 60000)
+  public void testTooManyFailures() throws Exception
+  {
+    List<Rectangle> requests = new ArrayList<Rectangle>();
+    DistributedRenderer distributed = createRenderer(Collections.singletonList(startBrokenWorker(Failure.ERROR, requests)));
+    distributed.setMaxAttempts(3);
+    try
+    {
+      distributed.renderFrame(0.0);
+      fail("Rendering should have failed");
+    }
+    catch (IOException ex)
+    {
+      assertTrue(ex.getMessage(), ex.getMessage().contains("3 attempts"));
+    }
+    assertEquals(3, requests.size());
+  }
+
+  /** Workers which disconnect, stop responding, send invalid data, or send the result of a
+      different job should be dropped, and their jobs given to the remaining worker. */
+
+  @Test(timeout = 60000)
+  public void testWorkerFailures() throws Exception
+  {
+    List<Rectangle> requests = new ArrayList<Rectangle>();
+    DistributedRenderer distributed = createRenderer(Arrays.asList(startBrokenWorker(Failure.DISCONNECT, requests),
+        startBrokenWorker(Failure.HANG, requests), startBrokenWorker(Failure.GARBAGE, requests),
+        startBrokenWorker(Failure.WRONG_JOB, requests), startWorker()));
+    distributed.setTimeout(500);
+    distributed.setTileSize(10);
+    distributed.setMaxAttempts(5);
+    checkImage(distributed.renderFrame(0.0), 0.0);
+  }
+
+  /** Rendering should fail if no worker can be reached. */
+
+  @Test(timeout = 60000)
+  public void testNoWorkers() throws Exception
+  {
+    ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+    server.close();
+    DistributedRenderer distributed = createRenderer(Collections.singletonList(address));
+    try
+    {
+      distributed.renderFrame(0.0);
+      fail("Rendering should have failed");
+    }
+    catch (IOException ex)
+    {
+      assertEquals("No render workers are available", ex.getMessage());
+    }
+  }
+
+  /** A worker should refuse a coordinator which does not know its secret. */
+
+  @Test(timeout = 60000)
+  public void testWrongSecret() throws Exception
+  {
+    InetSocketAddress worker = startWorker();
+    DistributedRenderer distributed = createRenderer(Collections.singletonList(worker));
+    distributed.setSecret("wrong secret");
+    try
+    {
+      distributed.renderFrame(0.0);
+      fail("Rendering should have failed");
+    }
+    catch (IOException ex)
+    {
+      assertEquals("No render workers are available", ex.getMessage());
+    }
+    distributed.setSecret(SECRET);
+    checkImage(distributed.renderFrame(0.0), 0.0);
+  }
+
+  /** A worker should reject requests containing invalid sizes, without running out of memory
+      or failing to serve later coordinators. */
+
+  @Test(timeout = 60000)
+  public void testInvalidRequests() throws Exception
+  {
+    InetSocketAddress worker = startWorker();
+    checkRejected(worker, createSceneMessage(0, WIDTH, HEIGHT, -1));
+    checkRejected(worker, createSceneMessage(0, WIDTH, HEIGHT, Integer.MAX_VALUE));
+    checkRejected(worker, createSceneMessage(Integer.MAX_VALUE, WIDTH, HEIGHT, 0));
+    checkRejected(worker, createSceneMessage(0, -WIDTH, HEIGHT, 0));
+    checkRejected(worker, createSceneMessage(0, WIDTH, Integer.MAX_VALUE, 0));
+    byte scene[] = createSceneMessage(0, WIDTH, HEIGHT, 0);
+    for (Rectangle region : new Rectangle [] {new Rectangle(0, 0, WIDTH+1, HEIGHT), new Rectangle(-1, 0, 10, 10),
+        new Rectangle(5, 5, 0, 10), new Rectangle(WIDTH-1, 0, Integer.MAX_VALUE, 10)})
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.write(scene);
+      out.writeInt(RenderWorker.MSG_RENDER);
+      out.writeInt(0);
+      out.writeDouble(0.0);
+      out.writeInt(region.x);
+      out.writeInt(region.y);
+      out.writeInt(region.width);
+      out.writeInt(region.height);
+      checkRejected(worker, bytes.toByteArray());
+    }
+    checkImage(createRenderer(Collections.singletonList(worker)).renderFrame(0.0), 0.0);
+  }
+
+  /** Create a message describing a scene.  If length is 0, a real scene is included.
+      Otherwise only the length is written. */
+
+  private static byte[] createSceneMessage(int configSize, int width, int height, int length) throws IOException
+  {
+    ByteArrayOutputStream sceneBytes = new ByteArrayOutputStream();
+    if (length == 0)
+    {
+      DataOutputStream sceneOut = new DataOutputStream(sceneBytes);
+      createScene().writeToStream(sceneOut);
+      sceneOut.close();
+      length = sceneBytes.size();
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(RenderWorker.MSG_SCENE);
+    out.writeUTF(renderer.getName());
+    out.writeInt(configSize);
+    out.writeInt(0);
+    out.writeInt(width);
+    out.writeInt(height);
+    out.writeInt(1000);
+    out.writeInt(length);
+    out.write(sceneBytes.toByteArray());
+    return bytes.toByteArray();
+  }
+
+  /** Connect to a worker, send it a series of messages, and check that it closes the
+      connection without sending anything back. */
+
+  private static void checkRejected(InetSocketAddress address, byte messages[]) throws IOException
+  {
+    try (Socket socket = new Socket())
+    {
+      socket.connect(address, 5000);
+      socket.setSoTimeout(5000);
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(RenderWorker.MAGIC);
+      out.writeInt(RenderWorker.PROTOCOL_VERSION);
+      assertEquals(RenderWorker.MAGIC, in.readInt());
+      assertEquals(RenderWorker.PROTOCOL_VERSION, in.readInt());
+      byte challenge[] = new byte [RenderWorker.CHALLENGE_LENGTH];
+      in.readFully(challenge);
+      out.write(RenderWorker.getResponse(challenge, SECRET));
+      assertEquals(RenderWorker.MSG_ACCEPTED, in.readInt());
+      out.write(messages);
+      out.flush();
+      try
+      {
+        assertEquals(-1, in.read());
+      }
+      catch (SocketException ex)
+      {
+        // The worker closed the connection without reading everything that was sent.
+      }
+    }
+  }
+
+  /** BatchRenderer should reject invalid worker options before loading anything. */
+
+  @Test
+  public void testBatchRendererOptions() throws Exception
+  {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    assertEquals(2, BatchRenderer.run(new String [] {"-workers", "localhost", "-workerTimeout"}, new PrintStream(log)));
+    assertTrue(log.toString(), log.toString().contains("Missing value for -workerTimeout"));
+    assertTrue(log.toString(), log.toString().contains("-workers host:port"));
+  }
+
+  @Test
+  public void testParseAddresses()
+  {
+    List<InetSocketAddress> addresses = DistributedRenderer.parseAddresses("alpha:1234, beta,,gamma:99");
+    assertEquals(3, addresses.size());
+    assertEquals("alpha", addresses.get(0).getHostString());
+    assertEquals(1234, addresses.get(0).getPort());
+    assertEquals("beta", addresses.get(1).getHostString());
+    assertEquals(RenderWorker.DEFAULT_PORT, addresses.get(1).getPort());
+    assertEquals(99, addresses.get(2).getPort());
+  }
+
+  @Test
+  public void testConfiguration() throws IOException
+  {
+    Map<String, Object> config = new LinkedHashMap<String, Object>();
+    config.put("boolean", true);
+    config.put("int", 3);
+    config.put("float", 1.5f);
+    config.put("double", 2.5);
+    config.put("string", "text");
+    config.put("other", new Object());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    RenderWorker.writeConfiguration(new DataOutputStream(bytes), config);
+    Map<String, Object> read = RenderWorker.readConfiguration(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    config.remove("other");
+    assertEquals(config, read);
+  }
+
+  private enum Failure {ERROR, DISCONNECT, HANG, GARBAGE, WRONG_JOB}
+
+  /** A renderer whose output depends only on the pixel position and the time. */
+
+  public static class TestRenderer implements RegionRenderer
+  {
+    volatile int delay;
+
+    static int getPixel(int x, int y, double time)
+    {
+      return 0xFF000000 | ((x*5)<<16) | ((y*7)<<8) | (int) (time*20);
+    }
+
+    static float getDepth(int x, int y, double time)
+    {
+      return (float) (y*WIDTH+x+time*1000);
+    }
+
+    @Override
+    public String getName()
+    {
+      return "Distributed Test Renderer";
+    }
+
+    @Override
+    public void renderScene(Scene theScene, Camera theCamera, RenderListener listener, SceneCamera sceneCamera)
+    {
+      renderRegion(theScene, theCamera, listener, sceneCamera, new Rectangle(0, 0, theCamera.getSize().width, theCamera.getSize().height));
+    }
+
+    @Override
+    public void renderRegion(Scene theScene, Camera theCamera, RenderListener listener, SceneCamera sceneCamera, Rectangle region)
+    {
+      try
+      {
+        Thread.sleep(delay);
+      }
+      catch (InterruptedException ex)
+      {
+        listener.renderingCanceled();
+        return;
+      }
+      double time = theScene.getTime();
+      int pixels[] = new int [region.width*region.height];
+      float depth[] = new float [region.width*region.height];
+      for (int y = 0; y < region.height; y++)
+        for (int x = 0; x < region.width; x++)
+        {
+          pixels[y*region.width+x] = getPixel(region.x+x, region.y+y, time);
+          depth[y*region.width+x] = getDepth(region.x+x, region.y+y, time);
+        }
+      MemoryImageSource source = new MemoryImageSource(region.width, region.height, pixels, 0, region.width);
+      ComplexImage image = new ComplexImage(Toolkit.getDefaultToolkit().createImage(source));
+      image.setComponentValues(ComplexImage.DEPTH, depth);
+      listener.imageComplete(image);
+    }
+
+    @Override
+    public void cancelRendering(Scene theScene)
+    {
+    }
+
+    @Override
+    public Widget getConfigPanel()
+    {
+      return null;
+    }
+
+    @Override
+    public boolean recordConfiguration()
+    {
+      return true;
+    }
+
+    @Override
+    public void configurePreview()
+    {
+    }
+
+    @Override
+    public Map<String, Object> getConfiguration()
+    {
+      Map<String, Object> config = new HashMap<String, Object>();
+      config.put("delay", delay);
+      return config;
+    }
+
+    @Override
+    public void setConfiguration(String property, Object value)
+    {
+      if (property.equals("delay"))
+        delay = (Integer) value;
+    }
+  }
+}
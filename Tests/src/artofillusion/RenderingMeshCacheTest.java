@@ -0,0 +1,263 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.math.Mat4;
+import artofillusion.math.Vec3;
+import artofillusion.object.Cube;
+import artofillusion.object.Mesh;
+import artofillusion.object.Sphere;
+import artofillusion.object.TriangleMesh;
+import artofillusion.texture.UniformTexture;
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class RenderingMeshCacheTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static TriangleMesh createMesh(double size)
+  {
+    TriangleMesh mesh = new Cube(size, size, size).convertToTriangleMesh(0.1);
+    mesh.setSmoothingMethod(Mesh.APPROXIMATING);
+    UniformTexture tex = new UniformTexture();
+    mesh.setTexture(tex, tex.getDefaultMapping(mesh));
+    return mesh;
+  }
+
+  /** Create a cache with no memory limit, and begin a session so meshes are kept in memory. */
+
+  private static RenderingMeshCache createCache()
+  {
+    RenderingMeshCache cache = new RenderingMeshCache(Long.MAX_VALUE);
+    cache.beginSession();
+    return cache;
+  }
+
+  private static void assertSameGeometry(RenderingMesh expected, RenderingMesh actual)
+  {
+    assertEquals(expected.vert.length, actual.vert.length);
+    assertEquals(expected.triangle.length, actual.triangle.length);
+    for (int i = 0; i < expected.vert.length; i++)
+      assertEquals(0.0, expected.vert[i].distance(actual.vert[i]), 0.0);
+    for (int i = 0; i < expected.triangle.length; i++)
+    {
+      assertEquals(expected.triangle[i].v1, actual.triangle[i].v1);
+      assertEquals(expected.triangle[i].v2, actual.triangle[i].v2);
+      assertEquals(expected.triangle[i].v3, actual.triangle[i].v3);
+      assertEquals(0.0, expected.norm[expected.triangle[i].n1].distance(actual.norm[actual.triangle[i].n1]), 0.0);
+    }
+  }
+
+  @Test
+  public void testSecondRequestIsHit()
+  {
+    RenderingMeshCache cache = createCache();
+    TriangleMesh mesh = createMesh(1.0);
+    RenderingMesh first = cache.getRenderingMesh(mesh, 0.05, null);
+    RenderingMesh second = cache.getRenderingMesh(mesh, 0.05, null);
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getMemoryHits());
+    assertNotSame(first, second);
+    assertSameGeometry(mesh.getRenderingMesh(0.05, false, null), second);
+    assertSame(mesh.getTextureMapping(), second.mapping);
+  }
+
+  @Test
+  public void testReturnedMeshesAreIndependent()
+  {
+    RenderingMeshCache cache = createCache();
+    TriangleMesh mesh = createMesh(1.0);
+    cache.getRenderingMesh(mesh, 0.05, null).transformMesh(Mat4.translation(5.0, 0.0, 0.0));
+    RenderingMesh hit = cache.getRenderingMesh(mesh, 0.05, null);
+    hit.transformMesh(Mat4.translation(5.0, 0.0, 0.0));
+    assertSameGeometry(mesh.getRenderingMesh(0.05, false, null), cache.getRenderingMesh(mesh, 0.05, null));
+  }
+
+  @Test
+  public void testChangesCauseMiss()
+  {
+    RenderingMeshCache cache = createCache();
+    TriangleMesh mesh = createMesh(1.0);
+    cache.getRenderingMesh(mesh, 0.05, null);
+    cache.getRenderingMesh(mesh, 0.1, null);
+    assertEquals(2, cache.getMisses());
+    Vec3 vert[] = mesh.getVertexPositions();
+    vert[0].x += 0.5;
+    mesh.setVertexPositions(vert);
+    RenderingMesh changed = cache.getRenderingMesh(mesh, 0.05, null);
+    assertEquals(3, cache.getMisses());
+    assertEquals(0, cache.getMemoryHits());
+    assertSameGeometry(mesh.getRenderingMesh(0.05, false, null), changed);
+  }
+
+  @Test
+  public void testIdenticalObjectsShareMesh()
+  {
+    RenderingMeshCache cache = createCache();
+    TriangleMesh mesh1 = createMesh(1.0);
+    TriangleMesh mesh2 = createMesh(1.0);
+    UniformTexture tex = new UniformTexture();
+    mesh2.setTexture(tex, tex.getDefaultMapping(mesh2));
+    cache.getRenderingMesh(mesh1, 0.05, null);
+    RenderingMesh shared = cache.getRenderingMesh(mesh2, 0.05, null);
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getMemoryHits());
+    assertSame(mesh2.getTextureMapping(), shared.mapping);
+    assertSame(shared.mapping, shared.triangle[0].theMesh.mapping);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted()
+  {
+    RenderingMeshCache cache = createCache();
+    TriangleMesh mesh1 = createMesh(1.0), mesh2 = createMesh(1.0), mesh3 = createMesh(1.0);
+    Vec3 vert[] = mesh2.getVertexPositions();
+    vert[0].x += 0.1;
+    mesh2.setVertexPositions(vert);
+    vert = mesh3.getVertexPositions();
+    vert[0].x -= 0.1;
+    mesh3.setVertexPositions(vert);
+    cache.getRenderingMesh(mesh1, 0.05, null);
+    long size = cache.getMemoryUsed();
+    cache.setMaxMemory(2*size);
+    cache.getRenderingMesh(mesh2, 0.05, null);
+    cache.getRenderingMesh(mesh1, 0.05, null);
+    cache.getRenderingMesh(mesh3, 0.05, null);
+    assertEquals(1, cache.getEvictions());
+    assertTrue(cache.getMemoryUsed() <= 2*size);
+    cache.getRenderingMesh(mesh1, 0.05, null);
+    assertEquals(2, cache.getMemoryHits());
+    cache.getRenderingMesh(mesh2, 0.05, null);
+    assertEquals(4, cache.getMisses());
+  }
+
+  @Test
+  public void testSimpleObjectsAreNotCached()
+  {
+    RenderingMeshCache cache = createCache();
+    Sphere sphere = new Sphere(1.0, 1.0, 1.0);
+    UniformTexture tex = new UniformTexture();
+    sphere.setTexture(tex, tex.getDefaultMapping(sphere));
+    assertNotNull(cache.getRenderingMesh(sphere, 0.05, null));
+    assertEquals(0, cache.getMisses());
+    assertEquals(0, cache.getMemoryUsed());
+  }
+
+  @Test
+  public void testDiskCache() throws Exception
+  {
+    File dir = folder.newFolder();
+    TriangleMesh mesh = createMesh(1.0);
+    RenderingMeshCache cache1 = createCache();
+    cache1.setDirectory(dir);
+    RenderingMesh original = cache1.getRenderingMesh(mesh, 0.05, null);
+    assertEquals(1, dir.listFiles().length);
+    RenderingMeshCache cache2 = createCache();
+    cache2.setDirectory(dir);
+    RenderingMesh loaded = cache2.getRenderingMesh(mesh, 0.05, null);
+    assertEquals(1, cache2.getDiskHits());
+    assertEquals(0, cache2.getMisses());
+    assertSameGeometry(original, loaded);
+    cache2.getRenderingMesh(mesh, 0.05, null);
+    assertEquals(1, cache2.getMemoryHits());
+  }
+
+  @Test
+  public void testMemoryIsReleasedWhenSessionsEnd()
+  {
+    RenderingMeshCache cache = createCache();
+    TriangleMesh mesh = createMesh(1.0);
+    cache.beginSession();
+    cache.getRenderingMesh(mesh, 0.05, null);
+    assertTrue(cache.getMemoryUsed() > 0);
+    cache.endSession();
+    assertTrue(cache.getMemoryUsed() > 0);
+    cache.getRenderingMesh(mesh, 0.05, null);
+    assertEquals(1, cache.getMemoryHits());
+    cache.endSession();
+    assertEquals(0, cache.getMemoryUsed());
+    try
+    {
+      cache.endSession();
+      fail("Ending a session which was never begun should fail");
+    }
+    catch (IllegalStateException ex)
+    {
+      // This is what should happen.
+    }
+  }
+
+  @Test
+  public void testNothingIsKeptOutsideSession()
+  {
+    RenderingMeshCache cache = new RenderingMeshCache(Long.MAX_VALUE);
+    TriangleMesh mesh = createMesh(1.0);
+    assertSameGeometry(mesh.getRenderingMesh(0.05, false, null), cache.getRenderingMesh(mesh, 0.05, null));
+    cache.getRenderingMesh(mesh, 0.05, null);
+    assertEquals(0, cache.getMisses());
+    assertEquals(0, cache.getMemoryHits());
+    assertEquals(0, cache.getMemoryUsed());
+    cache.beginSession();
+    cache.getRenderingMesh(mesh, 0.05, null);
+    cache.getRenderingMesh(mesh, 0.05, null);
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getMemoryHits());
+  }
+
+  @Test
+  public void testDiskSpaceIsLimited() throws Exception
+  {
+    File dir = folder.newFolder();
+    RenderingMeshCache cache = new RenderingMeshCache(Long.MAX_VALUE);
+    cache.setDirectory(dir);
+    TriangleMesh mesh[] = new TriangleMesh [5];
+    for (int i = 0; i < mesh.length; i++)
+    {
+      mesh[i] = createMesh(1.0+i*0.1);
+      cache.getRenderingMesh(mesh[i], 0.05, null);
+    }
+    assertEquals(5, dir.listFiles().length);
+    long fileSize = cache.getDiskSpaceUsed()/5;
+    assertEquals(fileSize*5, cache.getDiskSpaceUsed());
+
+    // Make the files look like they were used in order, except that the first one was reused most recently.
+
+    long now = System.currentTimeMillis();
+    String firstKey = RenderingMeshCache.getKey(mesh[0], 0.05)+".mesh";
+    for (int i = 0; i < mesh.length; i++)
+      new File(dir, RenderingMeshCache.getKey(mesh[i], 0.05)+".mesh").setLastModified(now-100000+i*1000);
+    RenderingMeshCache reader = new RenderingMeshCache(Long.MAX_VALUE);
+    reader.setDirectory(dir);
+    reader.getRenderingMesh(mesh[0], 0.05, null);
+    assertEquals(1, reader.getDiskHits());
+
+    // Shrinking the limit should delete the least recently used files, leaving room for more.
+
+    cache.setMaxDiskSpace(fileSize*4);
+    assertEquals(fileSize*3, cache.getDiskSpaceUsed());
+    assertTrue(new File(dir, firstKey).exists());
+    assertFalse(new File(dir, RenderingMeshCache.getKey(mesh[1], 0.05)+".mesh").exists());
+    assertFalse(new File(dir, RenderingMeshCache.getKey(mesh[2], 0.05)+".mesh").exists());
+    assertTrue(new File(dir, RenderingMeshCache.getKey(mesh[4], 0.05)+".mesh").exists());
+
+    // Writing new files should keep the directory within the limit.
+
+    for (int i = 0; i < 5; i++)
+      cache.getRenderingMesh(createMesh(2.0+i*0.1), 0.05, null);
+    assertTrue(cache.getDiskSpaceUsed() <= fileSize*4);
+    assertTrue(dir.listFiles().length <= 4);
+  }
+}
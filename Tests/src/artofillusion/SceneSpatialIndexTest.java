@@ -0,0 +1,199 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.animation.distortion.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import java.util.*;
+import java.util.function.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class SceneSpatialIndexTest
+{
+  private Scene scene;
+
+  @Before
+  public void setUp()
+  {
+    // Build a 10x10x10 grid of small cubes.
+
+    scene = new Scene();
+    for (int i = 0; i < 10; i++)
+      for (int j = 0; j < 10; j++)
+        for (int k = 0; k < 10; k++)
+          scene.addObject(new TestObjectInfo(new Cube(0.5, 0.5, 0.5), new CoordinateSystem(new Vec3(i, j, k), 0, 0, 0)), null);
+  }
+
+  @Test
+  public void testFindObjects()
+  {
+    assertFindsSameObjects(region(2.1, 4.9, 0.0, 9.0, 5.0, 5.0));
+    assertFindsSameObjects(region(-100, 100, -100, 100, -100, 100));
+    assertFindsSameObjects(region(20, 30, 0, 1, 0, 1));
+    assertEquals(1000, scene.getSpatialIndex().findObjects(box -> true).length);
+  }
+
+  @Test
+  public void testMovedObject()
+  {
+    SceneSpatialIndex index = scene.getSpatialIndex();
+    Predicate<BoundingBox> test = region(19.5, 20.5, 19.5, 20.5, 19.5, 20.5);
+    assertEquals(0, index.findObjects(test).length);
+    scene.getObject(123).getCoords().setOrigin(new Vec3(20, 20, 20));
+    assertArrayEquals(new int [] {123}, index.findObjects(test));
+    assertFindsSameObjects(region(1.1, 1.9, 2.1, 2.9, 0, 9));
+    assertSame(index, scene.getSpatialIndex());
+  }
+
+  @Test
+  public void testModifiedObject()
+  {
+    SceneSpatialIndex index = scene.getSpatialIndex();
+    Predicate<BoundingBox> test = region(9.0, 9.1, 9.0, 9.1, 9.0, 9.1);
+    assertArrayEquals(new int [] {999}, index.findObjects(test));
+    Cube cube = (Cube) scene.getObject(0).getObject();
+    cube.setSize(20.0, 20.0, 20.0);
+    scene.objectModified(cube);
+    assertArrayEquals(new int [] {0, 999}, index.findObjects(test));
+  }
+
+  @Test
+  public void testHiddenObject()
+  {
+    Predicate<BoundingBox> test = region(4.9, 5.1, 4.9, 5.1, 4.9, 5.1);
+    assertArrayEquals(new int [] {555}, scene.getSpatialIndex().findObjects(test));
+    scene.getObject(555).setVisible(false);
+    assertEquals(0, scene.getSpatialIndex().findObjects(test).length);
+    scene.getObject(555).setVisible(true);
+    assertArrayEquals(new int [] {555}, scene.getSpatialIndex().findObjects(test));
+  }
+
+  @Test
+  public void testOnlyChangedObjectsAreUpdated()
+  {
+    SceneSpatialIndex index = scene.getSpatialIndex();
+    Predicate<BoundingBox> test = region(3.9, 4.1, 3.9, 4.1, -100, 100);
+    index.findObjects(test);
+    resetBoundsRequests();
+    index.findObjects(test);
+    assertEquals(0, countBoundsRequests());
+
+    // Changing an object's coordinate system, replacing it, or distorting it should cause only
+    // that object to be checked again.
+
+    scene.getObject(440).getCoords().setOrigin(new Vec3(4, 4, 20));
+    assertArrayEquals(new int [] {440, 441, 442, 443, 444, 445, 446, 447, 448, 449}, index.findObjects(test));
+    assertEquals(1, countBoundsRequests());
+    resetBoundsRequests();
+    scene.getObject(441).setCoords(new CoordinateSystem(new Vec3(20, 20, 20), 0, 0, 0));
+    assertArrayEquals(new int [] {440, 442, 443, 444, 445, 446, 447, 448, 449}, index.findObjects(test));
+    assertEquals(1, countBoundsRequests());
+    resetBoundsRequests();
+    scene.getObject(442).addDistortion(new ScaleDistortion(2.0, 2.0, 2.0, null, null));
+    index.findObjects(test);
+    assertEquals(1, ((TestObjectInfo) scene.getObject(442)).boundsRequests);
+    assertEquals(1, countBoundsRequests());
+    resetBoundsRequests();
+
+    // Changing a coordinate system the object no longer uses should not affect it.
+
+    CoordinateSystem oldCoords = scene.getObject(443).getCoords();
+    scene.getObject(443).setCoords(oldCoords.duplicate());
+    index.findObjects(test);
+    resetBoundsRequests();
+    oldCoords.setOrigin(new Vec3(20, 20, 20));
+    assertArrayEquals(new int [] {440, 442, 443, 444, 445, 446, 447, 448, 449}, index.findObjects(test));
+    assertEquals(0, countBoundsRequests());
+  }
+
+  @Test
+  public void testAddAndRemoveObjects()
+  {
+    scene.getSpatialIndex();
+    scene.removeObject(0, null);
+    scene.addObject(new TestObjectInfo(new Cube(1.0, 1.0, 1.0), new CoordinateSystem(new Vec3(-5, -5, -5), 0, 0, 0)), null);
+    assertArrayEquals(new int [] {999}, scene.getSpatialIndex().findObjects(region(-6, -4, -6, -4, -6, -4)));
+    assertFindsSameObjects(region(0, 3, 0, 3, 0, 3));
+  }
+
+  /** Count how many times the bounds of objects have been requested. */
+
+  private int countBoundsRequests()
+  {
+    int count = 0;
+    for (ObjectInfo info : scene.getObjects())
+      count += ((TestObjectInfo) info).boundsRequests;
+    return count;
+  }
+
+  private void resetBoundsRequests()
+  {
+    for (ObjectInfo info : scene.getObjects())
+      ((TestObjectInfo) info).boundsRequests = 0;
+  }
+
+  /** Get a test for whether a box intersects a region. */
+
+  private static Predicate<BoundingBox> region(double minx, double maxx, double miny, double maxy, double minz, double maxz)
+  {
+    BoundingBox region = new BoundingBox(minx, maxx, miny, maxy, minz, maxz);
+    return box -> box.intersects(region);
+  }
+
+  /** Check that the index finds the same objects as testing every one individually. */
+
+  private void assertFindsSameObjects(Predicate<BoundingBox> test)
+  {
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < scene.getNumObjects(); i++)
+    {
+      ObjectInfo info = scene.getObject(i);
+      if (test.test(info.getBounds().transformAndOutset(info.getCoords().fromLocal())))
+        expected.add(i);
+    }
+    int found[] = scene.getSpatialIndex().findObjects(test);
+    assertEquals(expected.size(), found.length);
+    for (int i = 0; i < found.length; i++)
+      assertEquals((int) expected.get(i), found[i]);
+  }
+
+  /** ObjectInfo.getBounds() looks up the interactive surface error in the application preferences,
+      which are not available in tests.  This caches the object's own bounds the same way instead. */
+
+  private static class TestObjectInfo extends ObjectInfo
+  {
+    private BoundingBox bounds;
+    int boundsRequests;
+
+    TestObjectInfo(Object3D obj, CoordinateSystem coords)
+    {
+      super(obj, coords, "Cube");
+    }
+
+    @Override
+    public BoundingBox getBounds()
+    {
+      boundsRequests++;
+      if (bounds == null)
+        bounds = getObject().getBounds();
+      return bounds;
+    }
+
+    @Override
+    public void clearCachedMeshes()
+    {
+      super.clearCachedMeshes();
+      bounds = null;
+    }
+  }
+}
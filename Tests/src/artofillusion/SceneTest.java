@@ -10,6 +10,10 @@
 
 package artofillusion;
 
+import artofillusion.animation.ObjectRef;
+import artofillusion.animation.PositionTrack;
+import artofillusion.animation.Smoothness;
+import artofillusion.animation.VectorKeyframe;
 import artofillusion.math.CoordinateSystem;
 import artofillusion.math.RGBColor;
 import artofillusion.math.Vec3;
@@ -18,6 +22,8 @@ import artofillusion.object.ObjectInfo;
 import artofillusion.object.SceneCamera;
 import artofillusion.object.Sphere;
 import artofillusion.object.SpotLight;
+import artofillusion.util.ThreadManager;
+import java.util.Collections;
 import java.util.List;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -105,5 +111,126 @@ public class SceneTest {
       
     }
     
+    /**
+     * Add an object whose position is animated from x=x0 at time 0 to x=x1 at time 1.  If
+     * relativeTo is not null, the position is relative to that object.
+     */
+    private static ObjectInfo addAnimatedObject(Scene scene, double x0, double x1, ObjectInfo relativeTo)
+    {
+      ObjectInfo info = new ObjectInfo(new NullObject(), new CoordinateSystem(), "animated");
+      scene.addObject(info, null);
+      PositionTrack track = (PositionTrack) info.getTracks()[0];
+      track.setKeyframe(0.0, new VectorKeyframe(x0, 0.0, 0.0), new Smoothness());
+      track.setKeyframe(1.0, new VectorKeyframe(x1, 0.0, 0.0), new Smoothness());
+      if (relativeTo != null)
+      {
+        track.setCoordinateSystem(PositionTrack.OBJECT);
+        track.setCoordsObject(new ObjectRef(relativeTo));
+      }
+      return info;
+    }
+
+    @Test
+    public void testSetTimeAppliesDependenciesFirst()
+    {
+      Scene scene = new Scene();
+      ObjectInfo target = new ObjectInfo(new NullObject(), new CoordinateSystem(), "target");
+      ObjectInfo follower = new ObjectInfo(new NullObject(), new CoordinateSystem(), "follower");
+      scene.addObject(follower, null);
+      scene.addObject(target, null);
+      PositionTrack targetTrack = (PositionTrack) target.getTracks()[0];
+      targetTrack.setKeyframe(0.0, new VectorKeyframe(5.0, 0.0, 0.0), new Smoothness());
+      targetTrack.setKeyframe(1.0, new VectorKeyframe(10.0, 0.0, 0.0), new Smoothness());
+      PositionTrack followerTrack = (PositionTrack) follower.getTracks()[0];
+      followerTrack.setKeyframe(0.0, new VectorKeyframe(1.0, 0.0, 0.0), new Smoothness());
+      followerTrack.setCoordinateSystem(PositionTrack.OBJECT);
+      followerTrack.setCoordsObject(new ObjectRef(target));
+
+      // The follower comes first in the scene, but must be updated after the target.
+
+      scene.setTime(1.0);
+      assertEquals(10.0, target.getCoords().getOrigin().x, 1e-10);
+      assertEquals(11.0, follower.getCoords().getOrigin().x, 1e-10);
+      scene.setTime(0.0);
+      assertEquals(6.0, follower.getCoords().getOrigin().x, 1e-10);
+
+      // Changing the dependency should be noticed without any explicit notification.
+
+      followerTrack.setCoordinateSystem(PositionTrack.WORLD);
+      scene.setTime(1.0);
+      assertEquals(1.0, follower.getCoords().getOrigin().x, 1e-10);
+    }
+
+    @Test
+    public void testSetTimeLeavesStaticObjects()
+    {
+      Scene scene = new Scene();
+      ObjectInfo fixed = new ObjectInfo(new NullObject(), new CoordinateSystem(new Vec3(3.0, 2.0, 1.0), 0.0, 0.0, 0.0), "fixed");
+      scene.addObject(fixed, null);
+      ObjectInfo moving = addAnimatedObject(scene, 0.0, 4.0, null);
+      scene.setTime(0.5);
+      assertEquals(new Vec3(3.0, 2.0, 1.0), fixed.getCoords().getOrigin());
+      assertEquals(2.0, moving.getCoords().getOrigin().x, 1e-10);
+
+      // Disabling a track should stop it from being applied.
+
+      moving.getTracks()[0].setEnabled(false);
+      moving.getCoords().setOrigin(new Vec3(7.0, 0.0, 0.0));
+      scene.setTime(1.0);
+      assertEquals(7.0, moving.getCoords().getOrigin().x, 1e-10);
+    }
+
+    @Test
+    public void testApplyTracksAfterModification()
+    {
+      Scene scene = new Scene();
+      ObjectInfo target = new ObjectInfo(new NullObject(), new CoordinateSystem(), "target");
+      scene.addObject(target, null);
+      ObjectInfo follower = addAnimatedObject(scene, 1.0, 1.0, target);
+      ObjectInfo grandchild = addAnimatedObject(scene, 0.0, 0.0, follower);
+      ObjectInfo other = addAnimatedObject(scene, 2.0, 2.0, null);
+      scene.setTime(0.0);
+      assertEquals(1.0, grandchild.getCoords().getOrigin().x, 1e-10);
+
+      // Moving the target should update everything that depends on it, and nothing else.
+
+      target.getCoords().setOrigin(new Vec3(5.0, 0.0, 0.0));
+      other.getCoords().setOrigin(new Vec3(-1.0, 0.0, 0.0));
+      scene.applyTracksAfterModification(Collections.singletonList(target));
+      assertEquals(5.0, target.getCoords().getOrigin().x, 1e-10);
+      assertEquals(6.0, follower.getCoords().getOrigin().x, 1e-10);
+      assertEquals(6.0, grandchild.getCoords().getOrigin().x, 1e-10);
+      assertEquals(-1.0, other.getCoords().getOrigin().x, 1e-10);
+    }
+
+    @Test
+    public void testSetTimeInParallel()
+    {
+      int poolSize = ThreadManager.getPoolSize();
+      ThreadManager.setPoolSize(4);
+      try
+      {
+        // Build many independent chains of objects, enough that each level is updated in parallel.
+
+        Scene scene = new Scene();
+        ObjectInfo roots[] = new ObjectInfo [300], leaves[] = new ObjectInfo [300];
+        for (int i = 0; i < roots.length; i++)
+        {
+          roots[i] = addAnimatedObject(scene, i, 2*i, null);
+          ObjectInfo middle = addAnimatedObject(scene, 1.0, 2.0, roots[i]);
+          leaves[i] = addAnimatedObject(scene, 1.0, 3.0, middle);
+        }
+        scene.setTime(1.0);
+        for (int i = 0; i < roots.length; i++)
+          assertEquals(2*i+5.0, leaves[i].getCoords().getOrigin().x, 1e-10);
+        scene.setTime(0.5);
+        for (int i = 0; i < roots.length; i++)
+          assertEquals(1.5*i+3.5, leaves[i].getCoords().getOrigin().x, 1e-10);
+      }
+      finally
+      {
+        ThreadManager.setPoolSize(poolSize);
+      }
+    }
 
 }
@@ -0,0 +1,95 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion;
+
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SceneViewerTest
+{
+  private static final double TOL = 0.001;
+
+  /** Create an object whose rendering mesh gets finer as the surface error decreases. */
+
+  private static TriangleMesh createMesh()
+  {
+    TriangleMesh mesh = new Sphere(1.0, 1.0, 1.0).convertToTriangleMesh(0.3);
+    mesh.setSmoothingMethod(Mesh.APPROXIMATING);
+    Texture tex = new UniformTexture();
+    mesh.setTexture(tex, tex.getDefaultMapping(mesh));
+    return mesh;
+  }
+
+  /** Get the level of detail which would be used to display an object at a given distance. */
+
+  private static int getLevel(Camera camera, BoundingBox bounds, double distance)
+  {
+    camera.setObjectTransform(Mat4.translation(0.0, 0.0, distance));
+    double maxError = SceneViewer.getMaxPreviewError(camera, bounds, camera.isPerspective());
+    return ObjectInfo.getPreviewLevel(TOL, maxError);
+  }
+
+  @Test
+  public void testDistantObjectsUseCoarserMeshes()
+  {
+    Camera camera = new Camera();
+    camera.setScreenParams(0.0, 100.0, 400, 300);
+    BoundingBox obj = new BoundingBox(-1.0, 1.0, -1.0, 1.0, -1.0, 1.0);
+    int levels[] = new int [] {getLevel(camera, obj, 3.0), getLevel(camera, obj, 20.0),
+        getLevel(camera, obj, 60.0), getLevel(camera, obj, 1000.0)};
+    assertArrayEquals(new int [] {0, 1, 2, ObjectInfo.COARSE_PREVIEW_LEVELS}, levels);
+
+    // Each level should actually have fewer triangles than the one before.
+
+    int lastCount = Integer.MAX_VALUE;
+    for (int level : levels)
+    {
+      double tol = TOL*Math.pow(ObjectInfo.PREVIEW_DETAIL_FACTOR, level);
+      int count = createMesh().getRenderingMesh(tol, true, null).triangle.length;
+      assertTrue(count < lastCount);
+      lastCount = count;
+    }
+  }
+
+  @Test
+  public void testNearbyObjectsUseFullMesh()
+  {
+    Camera camera = new Camera();
+    camera.setScreenParams(0.0, 100.0, 400, 300);
+    BoundingBox obj = new BoundingBox(-1.0, 1.0, -1.0, 1.0, -1.0, 1.0);
+
+    // An object which surrounds the camera must be measured at the clipping plane, not behind it.
+
+    assertEquals(0, getLevel(camera, obj, 0.0));
+    assertEquals(0, getLevel(camera, obj, -50.0));
+    assertEquals(0, getLevel(camera, new BoundingBox(-1.0, 1.0, -1.0, 1.0, -1000.0, 1000.0), 900.0));
+
+    // A parallel projection does not depend on distance.
+
+    camera.setScreenParamsParallel(1000.0, 400, 300);
+    assertEquals(0, getLevel(camera, obj, 3.0));
+    assertEquals(0, getLevel(camera, obj, 1000.0));
+    camera.setScreenParamsParallel(1.0, 400, 300);
+    assertEquals(ObjectInfo.COARSE_PREVIEW_LEVELS, getLevel(camera, obj, 3.0));
+  }
+
+  @Test
+  public void testPreviewLevel()
+  {
+    assertEquals(0, ObjectInfo.getPreviewLevel(TOL, 0.0));
+    assertEquals(0, ObjectInfo.getPreviewLevel(TOL, TOL*ObjectInfo.PREVIEW_DETAIL_FACTOR*0.99));
+    assertEquals(1, ObjectInfo.getPreviewLevel(TOL, TOL*ObjectInfo.PREVIEW_DETAIL_FACTOR));
+    assertEquals(ObjectInfo.COARSE_PREVIEW_LEVELS, ObjectInfo.getPreviewLevel(TOL, Double.MAX_VALUE));
+  }
+}
@@ -0,0 +1,120 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.object;
+
+import artofillusion.math.*;
+import artofillusion.texture.*;
+import artofillusion.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class CSGModellerTest
+{
+  private static final int OPERATIONS[] = {CSGObject.UNION, CSGObject.INTERSECTION, CSGObject.DIFFERENCE12, CSGObject.DIFFERENCE21};
+
+  private static int oldPoolSize;
+  private static TriangleMesh sphere, cube;
+  private static CoordinateSystem sphereCoords, cubeCoords;
+  private static Texture texture;
+
+  @BeforeClass
+  public static void setUpClass()
+  {
+    // Make sure the parallel path really uses several threads, even on a single processor.
+
+    oldPoolSize = ThreadManager.getPoolSize();
+    ThreadManager.setPoolSize(4);
+
+    // Both meshes are large enough to be split in parallel.  The cube is rotated so that
+    // its faces cut through the sphere at arbitrary angles.
+
+    texture = new UniformTexture();
+    sphere = new Sphere(1.0, 1.0, 1.0).convertToTriangleMesh(0.05);
+    sphere.setTexture(texture, texture.getDefaultMapping(sphere));
+    sphere = TriangleMesh.subdivideLoop(sphere, null, Double.MAX_VALUE);
+    cube = new Cube(1.6, 1.6, 1.6).convertToTriangleMesh(0.05);
+    cube.setTexture(texture, texture.getDefaultMapping(cube));
+    for (int i = 0; i < 3; i++)
+      cube = TriangleMesh.subdivideEdges(cube, null, 0.0);
+    sphereCoords = new CoordinateSystem(new Vec3(), 0, 0, 0);
+    cubeCoords = new CoordinateSystem(new Vec3(0.1, 0.2, 0.3), 10, 20, 30);
+  }
+
+  @AfterClass
+  public static void tearDownClass()
+  {
+    ThreadManager.setPoolSize(oldPoolSize);
+  }
+
+  @Test
+  public void testParallelMatchesSerial()
+  {
+    CSGModeller serial = new CSGModeller(sphere, cube, sphereCoords, cubeCoords, false);
+    CSGModeller parallel = new CSGModeller(sphere, cube, sphereCoords, cubeCoords, true);
+    for (int op : OPERATIONS)
+    {
+      TriangleMesh expected = serial.getMesh(op, texture);
+      TriangleMesh actual = parallel.getMesh(op, texture);
+      MeshVertex expectedVert[] = expected.getVertices(), actualVert[] = actual.getVertices();
+      assertEquals(expectedVert.length, actualVert.length);
+      for (int i = 0; i < expectedVert.length; i++)
+      {
+        assertEquals(expectedVert[i].r.x, actualVert[i].r.x, 0.0);
+        assertEquals(expectedVert[i].r.y, actualVert[i].r.y, 0.0);
+        assertEquals(expectedVert[i].r.z, actualVert[i].r.z, 0.0);
+      }
+      TriangleMesh.Face expectedFace[] = expected.getFaces(), actualFace[] = actual.getFaces();
+      assertEquals(expectedFace.length, actualFace.length);
+      for (int i = 0; i < expectedFace.length; i++)
+      {
+        assertEquals(expectedFace[i].v1, actualFace[i].v1);
+        assertEquals(expectedFace[i].v2, actualFace[i].v2);
+        assertEquals(expectedFace[i].v3, actualFace[i].v3);
+      }
+    }
+  }
+
+  @Test
+  public void testVolumes()
+  {
+    CSGModeller modeller = new CSGModeller(sphere, cube, sphereCoords, cubeCoords);
+    double union = getVolume(modeller.getMesh(CSGObject.UNION, texture));
+    double intersection = getVolume(modeller.getMesh(CSGObject.INTERSECTION, texture));
+    double difference12 = getVolume(modeller.getMesh(CSGObject.DIFFERENCE12, texture));
+    double difference21 = getVolume(modeller.getMesh(CSGObject.DIFFERENCE21, texture));
+    double sphereVolume = getVolume(sphere);
+    double cubeVolume = getVolume(cube);
+    assertEquals(sphereVolume+cubeVolume, union+intersection, 1e-6);
+    assertEquals(sphereVolume-intersection, difference12, 1e-6);
+    assertEquals(cubeVolume-intersection, difference21, 1e-6);
+    assertTrue(intersection > 0.0 && intersection < Math.min(sphereVolume, cubeVolume));
+  }
+
+  @Test
+  public void testClosed()
+  {
+    CSGModeller modeller = new CSGModeller(sphere, cube, sphereCoords, cubeCoords);
+    for (int op : OPERATIONS)
+      for (TriangleMesh.Edge edge : modeller.getMesh(op, texture).getEdges())
+        assertTrue(edge.f2 != -1);
+  }
+
+  /** Get the volume enclosed by a closed mesh. */
+
+  private static double getVolume(TriangleMesh mesh)
+  {
+    MeshVertex vert[] = mesh.getVertices();
+    double volume = 0.0;
+    for (TriangleMesh.Face f : mesh.getFaces())
+      volume += vert[f.v1].r.dot(vert[f.v2].r.cross(vert[f.v3].r))/6.0;
+    return volume;
+  }
+}
@@ -0,0 +1,143 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.object;
+
+import artofillusion.math.*;
+import artofillusion.util.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ImplicitObjectMeshTest
+{
+  private static int oldPoolSize;
+
+  @BeforeClass
+  public static void setUpClass()
+  {
+    // Make sure slabs really are meshed on several threads, even on a single processor.
+
+    oldPoolSize = ThreadManager.getPoolSize();
+    ThreadManager.setPoolSize(4);
+  }
+
+  @AfterClass
+  public static void tearDownClass()
+  {
+    ThreadManager.setPoolSize(oldPoolSize);
+  }
+
+  /**
+   * Create a sphere of radius 1 whose field has a gradient of exactly 1 everywhere, so empty space
+   * can be skipped.
+   */
+
+  private static ImplicitObject createConeFieldSphere()
+  {
+    return new ImplicitSphere(1.0, 2.0) {
+      @Override
+      public double getFieldValue(double x, double y, double z, double size, double time)
+      {
+        return 2.0-Math.sqrt(x*x+y*y+z*z);
+      }
+
+      @Override
+      public double getMaxGradient()
+      {
+        return 1.0;
+      }
+    };
+  }
+
+  private static CompoundImplicitObject createMetaballs()
+  {
+    CompoundImplicitObject obj = new CompoundImplicitObject();
+    Random random = new Random(0);
+    for (int i = 0; i < 8; i++)
+      obj.addObject(new ImplicitSphere(0.5, 1.0), new CoordinateSystem(new Vec3(2*random.nextDouble(), 2*random.nextDouble(), 2*random.nextDouble()), 0, 0, 0));
+    return obj;
+  }
+
+  @Test
+  public void testSurfaceAccuracy()
+  {
+    List<Vec3> vertices = new ArrayList<Vec3>();
+    List<int[]> faces = new ArrayList<int[]>();
+    createConeFieldSphere().generateMesh(0.05, vertices, faces);
+    assertTrue(faces.size() > 1000);
+    for (Vec3 v : vertices)
+      assertEquals(1.0, v.length(), 0.01);
+    assertClosed(faces);
+  }
+
+  @Test
+  public void testSlabsAreJoined()
+  {
+    // The mesh spans many slabs.  Every edge must be shared by exactly two faces.
+
+    List<Vec3> vertices = new ArrayList<Vec3>();
+    List<int[]> faces = new ArrayList<int[]>();
+    createMetaballs().generateMesh(0.05, vertices, faces);
+    assertTrue(faces.size() > 1000);
+    assertClosed(faces);
+  }
+
+  @Test
+  public void testParallelMatchesSerial()
+  {
+    for (ImplicitObject obj : new ImplicitObject[] {createConeFieldSphere(), createMetaballs()})
+    {
+      List<Vec3> vertices1 = new ArrayList<Vec3>(), vertices2 = new ArrayList<Vec3>();
+      List<int[]> faces1 = new ArrayList<int[]>(), faces2 = new ArrayList<int[]>();
+      obj.generateMesh(0.05, vertices1, faces1, false, false);
+      obj.generateMesh(0.05, vertices2, faces2, true, false);
+      assertSameMesh(vertices1, faces1, vertices2, faces2);
+    }
+  }
+
+  @Test
+  public void testSparseMatchesDense()
+  {
+    ImplicitObject obj = createConeFieldSphere();
+    List<Vec3> vertices1 = new ArrayList<Vec3>(), vertices2 = new ArrayList<Vec3>();
+    List<int[]> faces1 = new ArrayList<int[]>(), faces2 = new ArrayList<int[]>();
+    obj.generateMesh(0.05, vertices1, faces1, true, false);
+    obj.generateMesh(0.05, vertices2, faces2, true, true);
+    assertSameMesh(vertices1, faces1, vertices2, faces2);
+  }
+
+  private static void assertClosed(List<int[]> faces)
+  {
+    Map<Long, Integer> edgeCount = new HashMap<Long, Integer>();
+    for (int face[] : faces)
+      for (int i = 0; i < 3; i++)
+      {
+        long v1 = Math.min(face[i], face[(i+1)%3]), v2 = Math.max(face[i], face[(i+1)%3]);
+        edgeCount.merge((v1<<32)+v2, 1, Integer::sum);
+      }
+    for (int count : edgeCount.values())
+      assertEquals(2, count);
+  }
+
+  private static void assertSameMesh(List<Vec3> vertices1, List<int[]> faces1, List<Vec3> vertices2, List<int[]> faces2)
+  {
+    assertEquals(vertices1.size(), vertices2.size());
+    for (int i = 0; i < vertices1.size(); i++)
+    {
+      assertEquals(vertices1.get(i).x, vertices2.get(i).x, 0.0);
+      assertEquals(vertices1.get(i).y, vertices2.get(i).y, 0.0);
+      assertEquals(vertices1.get(i).z, vertices2.get(i).z, 0.0);
+    }
+    assertEquals(faces1.size(), faces2.size());
+    for (int i = 0; i < faces1.size(); i++)
+      assertArrayEquals(faces1.get(i), faces2.get(i));
+  }
+}
@@ -0,0 +1,140 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.object;
+
+import artofillusion.math.*;
+import artofillusion.texture.*;
+import artofillusion.util.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TriangleMeshSubdivisionTest
+{
+  private static int oldPoolSize;
+  private static TriangleMesh grid, sphere;
+
+  @BeforeClass
+  public static void setUpClass()
+  {
+    // Make sure the parallel path really uses several threads, even on a single processor.
+
+    oldPoolSize = ThreadManager.getPoolSize();
+    ThreadManager.setPoolSize(4);
+
+    // An open, rippled grid has boundary edges.  A sphere is closed.  Both are large enough to be
+    // subdivided in parallel, and have randomly placed creases and corners.
+
+    int n = 80;
+    Vec3 v[] = new Vec3 [n*n];
+    for (int i = 0; i < n; i++)
+      for (int j = 0; j < n; j++)
+        v[i*n+j] = new Vec3(0.1*i, Math.sin(0.3*i)*Math.cos(0.2*j), 0.1*j);
+    int f[][] = new int [2*(n-1)*(n-1)][];
+    for (int i = 0, k = 0; i < n-1; i++)
+      for (int j = 0; j < n-1; j++)
+      {
+        f[k++] = new int [] {i*n+j, i*n+j+1, (i+1)*n+j};
+        f[k++] = new int [] {i*n+j+1, (i+1)*n+j+1, (i+1)*n+j};
+      }
+    grid = new TriangleMesh(v, f);
+    sphere = new Sphere(1.0, 1.5, 0.8).convertToTriangleMesh(0.01);
+    Random random = new Random(0);
+    Texture tex = new UniformTexture();
+    for (TriangleMesh mesh : new TriangleMesh[] {grid, sphere})
+    {
+      mesh.setTexture(tex, tex.getDefaultMapping(mesh));
+      for (TriangleMesh.Edge edge : mesh.getEdges())
+        if (random.nextInt(4) == 0)
+          edge.smoothness = random.nextFloat();
+      for (MeshVertex vert : mesh.getVertices())
+        if (random.nextInt(5) == 0)
+          ((TriangleMesh.Vertex) vert).smoothness = random.nextFloat();
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass()
+  {
+    ThreadManager.setPoolSize(oldPoolSize);
+  }
+
+  @Test
+  public void testLoopSinglePass()
+  {
+    for (TriangleMesh mesh : new TriangleMesh[] {grid, sphere})
+      assertSameMesh(TriangleMesh.subdivideLoop(mesh, null, Double.MAX_VALUE, false), TriangleMesh.subdivideLoop(mesh, null, Double.MAX_VALUE, true));
+  }
+
+  @Test
+  public void testLoopToTolerance()
+  {
+    for (TriangleMesh mesh : new TriangleMesh[] {grid, sphere})
+      assertSameMesh(TriangleMesh.subdivideLoop(mesh, null, 0.02, false), TriangleMesh.subdivideLoop(mesh, null, 0.02, true));
+  }
+
+  @Test
+  public void testButterflySinglePass()
+  {
+    for (TriangleMesh mesh : new TriangleMesh[] {grid, sphere})
+      assertSameMesh(TriangleMesh.subdivideButterfly(mesh, null, Double.MAX_VALUE, false), TriangleMesh.subdivideButterfly(mesh, null, Double.MAX_VALUE, true));
+  }
+
+  @Test
+  public void testButterflyPartial()
+  {
+    // Only split some of the edges, so faces are divided in every possible way.
+
+    for (TriangleMesh mesh : new TriangleMesh[] {grid, sphere})
+    {
+      Random random = new Random(1);
+      boolean split[] = new boolean [mesh.getEdges().length];
+      for (int i = 0; i < split.length; i++)
+        split[i] = random.nextBoolean();
+      assertSameMesh(TriangleMesh.subdivideButterfly(mesh, split, Double.MAX_VALUE, false), TriangleMesh.subdivideButterfly(mesh, split, Double.MAX_VALUE, true));
+    }
+  }
+
+  private static void assertSameMesh(TriangleMesh expected, TriangleMesh actual)
+  {
+    MeshVertex v1[] = expected.getVertices(), v2[] = actual.getVertices();
+    assertEquals(v1.length, v2.length);
+    for (int i = 0; i < v1.length; i++)
+    {
+      TriangleMesh.Vertex a = (TriangleMesh.Vertex) v1[i], b = (TriangleMesh.Vertex) v2[i];
+      assertEquals(a.r.x, b.r.x, 0.0);
+      assertEquals(a.r.y, b.r.y, 0.0);
+      assertEquals(a.r.z, b.r.z, 0.0);
+      assertEquals(a.smoothness, b.smoothness, 0.0f);
+      assertEquals(a.edges, b.edges);
+      assertEquals(a.firstEdge, b.firstEdge);
+      assertEquals(a.ikJoint, b.ikJoint);
+      assertEquals(a.ikWeight, b.ikWeight, 0.0);
+    }
+    TriangleMesh.Edge e1[] = expected.getEdges(), e2[] = actual.getEdges();
+    assertEquals(e1.length, e2.length);
+    for (int i = 0; i < e1.length; i++)
+    {
+      assertEquals(e1[i].v1, e2[i].v1);
+      assertEquals(e1[i].v2, e2[i].v2);
+      assertEquals(e1[i].f1, e2[i].f1);
+      assertEquals(e1[i].f2, e2[i].f2);
+      assertEquals(e1[i].smoothness, e2[i].smoothness, 0.0f);
+    }
+    TriangleMesh.Face f1[] = expected.getFaces(), f2[] = actual.getFaces();
+    assertEquals(f1.length, f2.length);
+    for (int i = 0; i < f1.length; i++)
+    {
+      assertArrayEquals(new int [] {f1[i].v1, f1[i].v2, f1[i].v3, f1[i].e1, f1[i].e2, f1[i].e3},
+          new int [] {f2[i].v1, f2[i].v2, f2[i].v3, f2[i].e1, f2[i].e2, f2[i].e3});
+    }
+  }
+}
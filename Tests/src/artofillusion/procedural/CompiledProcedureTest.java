@@ -0,0 +1,286 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.procedural;
+
+import artofillusion.math.*;
+import artofillusion.ui.*;
+import java.awt.*;
+import java.util.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompiledProcedureTest
+{
+  @BeforeClass
+  public static void setUpClass()
+  {
+    Translate.setLocale(Locale.US);
+  }
+
+  /**
+   * Create a procedure which uses an expression, shares values between several modules, and has
+   * parts which do not depend on the point.
+   */
+
+  private Procedure createProcedure()
+  {
+    Procedure proc = new Procedure(new OutputModule [] {
+      new OutputModule("Color", "white", 0.0, new RGBColor(1.0f, 1.0f, 1.0f), IOPort.COLOR),
+      new OutputModule("Value", "0", 0.0, null, IOPort.NUMBER),
+      new OutputModule("Bump", "0", 0.0, null, IOPort.NUMBER)
+    });
+    OutputModule output[] = proc.getOutputModules();
+    Module noise = new NoiseModule(new Point());
+    ExprModule expr = new ExprModule(new Point());
+    expr.setExpr("sin(input1*4)+input1*input1+x*(2*pi)-input2");
+    Module product = new ProductModule(new Point());
+    Module three = new NumberModule(new Point(), 3.0);
+    Module one = new NumberModule(new Point(), 1.0);
+    Module two = new NumberModule(new Point(), 2.0);
+    Module constantSum = new SumModule(new Point());
+    Module sine = new SineModule(new Point());
+    Module rgb = new RGBModule(new Point());
+    Module bump = new SumModule(new Point());
+    Module unused = new TurbulenceModule(new Point());
+    for (Module m : new Module [] {noise, expr, product, three, one, two, constantSum, sine, rgb, bump, unused})
+      proc.addModule(m);
+    proc.addLink(new Link(noise.getOutputPorts()[0], expr.getInputPorts()[0]));
+    proc.addLink(new Link(sine.getOutputPorts()[0], expr.getInputPorts()[1]));
+    proc.addLink(new Link(noise.getOutputPorts()[0], product.getInputPorts()[0]));
+    proc.addLink(new Link(three.getOutputPorts()[0], product.getInputPorts()[1]));
+    proc.addLink(new Link(one.getOutputPorts()[0], constantSum.getInputPorts()[0]));
+    proc.addLink(new Link(two.getOutputPorts()[0], constantSum.getInputPorts()[1]));
+    proc.addLink(new Link(constantSum.getOutputPorts()[0], sine.getInputPorts()[0]));
+    proc.addLink(new Link(expr.getOutputPorts()[0], rgb.getInputPorts()[0]));
+    proc.addLink(new Link(product.getOutputPorts()[0], rgb.getInputPorts()[1]));
+    proc.addLink(new Link(sine.getOutputPorts()[0], rgb.getInputPorts()[2]));
+    proc.addLink(new Link(product.getOutputPorts()[0], bump.getInputPorts()[0]));
+    proc.addLink(new Link(sine.getOutputPorts()[0], bump.getInputPorts()[1]));
+    proc.addLink(new Link(rgb.getOutputPorts()[0], output[0].getInputPorts()[0]));
+    proc.addLink(new Link(expr.getOutputPorts()[0], output[1].getInputPorts()[0]));
+    proc.addLink(new Link(bump.getOutputPorts()[0], output[2].getInputPorts()[0]));
+    return proc;
+  }
+
+  /**
+   * A compiled procedure should produce exactly the same outputs as the original one.
+   */
+
+  @Test
+  public void testCompiledMatchesInterpreted()
+  {
+    Procedure interpreted = createProcedure();
+    Procedure compiled = CompiledProcedure.compile(createProcedure());
+    assertTrue(compiled instanceof CompiledProcedure);
+    assertSame(compiled.getPointInfo(), compiled.getPointInfo());
+    Random random = new Random(0);
+    RGBColor expectedColor = new RGBColor(), actualColor = new RGBColor();
+    Vec3 expectedGrad = new Vec3(), actualGrad = new Vec3();
+    for (int i = 0; i < 500; i++)
+    {
+      double x = random.nextDouble()*10-5, y = random.nextDouble()*10-5, z = random.nextDouble()*10-5;
+      double size = random.nextDouble()*0.1;
+      PointInfo expectedPoint = interpreted.getPointInfo();
+      PointInfo actualPoint = compiled.getPointInfo();
+      for (PointInfo p : new PointInfo [] {expectedPoint, actualPoint})
+      {
+        p.x = x;
+        p.y = y;
+        p.z = z;
+        p.xsize = p.ysize = p.zsize = size;
+      }
+      interpreted.initForPoint(expectedPoint);
+      compiled.initForPoint(actualPoint);
+      interpreted.getOutputColor(0, expectedColor);
+      compiled.getOutputColor(0, actualColor);
+      assertEquals(expectedColor.getRed(), actualColor.getRed(), 0.0f);
+      assertEquals(expectedColor.getGreen(), actualColor.getGreen(), 0.0f);
+      assertEquals(expectedColor.getBlue(), actualColor.getBlue(), 0.0f);
+      assertEquals(interpreted.getOutputValue(1), compiled.getOutputValue(1), 0.0);
+      assertEquals(interpreted.getOutputValue(2), compiled.getOutputValue(2), 0.0);
+      interpreted.getOutputGradient(2, expectedGrad);
+      compiled.getOutputGradient(2, actualGrad);
+      assertEquals(expectedGrad.x, actualGrad.x, 0.0);
+      assertEquals(expectedGrad.y, actualGrad.y, 0.0);
+      assertEquals(expectedGrad.z, actualGrad.z, 0.0);
+    }
+  }
+
+  /**
+   * Create a list of output modules with the specified value types.
+   */
+
+  private OutputModule[] createOutputs(int type[])
+  {
+    OutputModule output[] = new OutputModule [type.length];
+    for (int i = 0; i < type.length; i++)
+    {
+      if (type[i] == IOPort.COLOR)
+        output[i] = new OutputModule("Color", "white", 0.0, new RGBColor(1.0f, 1.0f, 1.0f), IOPort.COLOR);
+      else
+        output[i] = new OutputModule("Value", "0", 0.0, null, IOPort.NUMBER);
+    }
+    return output;
+  }
+
+  /**
+   * Compare a compiled procedure to the original one at a set of random points, checking every
+   * output according to its type.
+   */
+
+  private void checkOutputs(Procedure interpreted, Procedure compiled, int type[], String name)
+  {
+    Random random = new Random(0);
+    RGBColor expectedColor = new RGBColor(), actualColor = new RGBColor();
+    Vec3 expectedGrad = new Vec3(), actualGrad = new Vec3();
+    for (int i = 0; i < 200; i++)
+    {
+      double x = random.nextDouble()*10-5, y = random.nextDouble()*10-5, z = random.nextDouble()*10-5;
+      double t = random.nextDouble(), size = random.nextDouble()*0.1, angle = random.nextDouble()*2-1;
+      double param = random.nextDouble();
+      PointInfo expectedPoint = interpreted.getPointInfo();
+      PointInfo actualPoint = compiled.getPointInfo();
+      for (PointInfo p : new PointInfo [] {expectedPoint, actualPoint})
+      {
+        p.x = x;
+        p.y = y;
+        p.z = z;
+        p.t = t;
+        p.xsize = p.ysize = p.zsize = size;
+        p.viewangle = angle;
+        p.param = new double [] {param};
+      }
+      interpreted.initForPoint(expectedPoint);
+      compiled.initForPoint(actualPoint);
+      for (int j = 0; j < type.length; j++)
+      {
+        String message = name+" output "+j+" at point "+i;
+        if (type[j] == IOPort.COLOR)
+        {
+          interpreted.getOutputColor(j, expectedColor);
+          compiled.getOutputColor(j, actualColor);
+          assertEquals(message, expectedColor.getRed(), actualColor.getRed(), 0.0f);
+          assertEquals(message, expectedColor.getGreen(), actualColor.getGreen(), 0.0f);
+          assertEquals(message, expectedColor.getBlue(), actualColor.getBlue(), 0.0f);
+        }
+        else
+        {
+          assertEquals(message, interpreted.getOutputValue(j), compiled.getOutputValue(j), 0.0);
+          interpreted.getOutputGradient(j, expectedGrad);
+          compiled.getOutputGradient(j, actualGrad);
+          assertEquals(message, expectedGrad.x, actualGrad.x, 0.0);
+          assertEquals(message, expectedGrad.y, actualGrad.y, 0.0);
+          assertEquals(message, expectedGrad.z, actualGrad.z, 0.0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Every module bundled with the program should give the same results when compiled.  Each one is
+   * fed from the point coordinates and each of its outputs is routed to an output module of the
+   * matching type.
+   */
+
+  @Test
+  public void testEveryModuleMatchesInterpreted() throws Exception
+  {
+    Class<?> moduleClass[] = new Class<?> [] {AbsModule.class, BiasModule.class, BlendModule.class,
+        BlurModule.class, BrickModule.class, CellsModule.class, CheckerModule.class, ClipModule.class,
+        ColorDarkenModule.class, ColorDifferenceModule.class, ColorLightenModule.class, ColorModule.class,
+        ColorProductModule.class, ColorScaleModule.class, ColorSumModule.class, CompareModule.class,
+        CoordinateModule.class, CosineModule.class, DifferenceModule.class, ExpModule.class,
+        ExprModule.class, FunctionModule.class, GainModule.class, GridModule.class, HLSModule.class,
+        HSVModule.class, InterpModule.class, JitterModule.class, LogModule.class, MarbleModule.class,
+        MaxModule.class, MinModule.class, ModModule.class, NoiseModule.class, NumberModule.class,
+        ParameterModule.class, PolarModule.class, PowerModule.class, ProductModule.class, RGBModule.class,
+        RandomModule.class, RatioModule.class, ScaleShiftModule.class, SineModule.class,
+        SpectrumModule.class, SphericalModule.class, SqrtModule.class, SumModule.class,
+        TransformModule.class, TurbulenceModule.class, ViewAngleModule.class, WoodModule.class};
+    for (Class<?> cls : moduleClass)
+    {
+      Module module = (Module) cls.getConstructor(Point.class).newInstance(new Point());
+      IOPort input[] = module.getInputPorts(), outputPort[] = module.getOutputPorts();
+      int type[] = new int [outputPort.length];
+      for (int i = 0; i < type.length; i++)
+        type[i] = outputPort[i].getValueType();
+      Procedure proc = new Procedure(createOutputs(type));
+      OutputModule output[] = proc.getOutputModules();
+      proc.addModule(module);
+      Module coord[] = new Module [4];
+      for (int i = 0; i < coord.length; i++)
+      {
+        coord[i] = new CoordinateModule(new Point(), i);
+        proc.addModule(coord[i]);
+      }
+      Module rgb = new RGBModule(new Point());
+      proc.addModule(rgb);
+      for (int i = 0; i < 3; i++)
+        proc.addLink(new Link(coord[i].getOutputPorts()[0], rgb.getInputPorts()[i]));
+      for (int i = 0; i < input.length; i++)
+      {
+        if (input[i].getValueType() == IOPort.COLOR)
+          proc.addLink(new Link(rgb.getOutputPorts()[0], input[i]));
+        else
+          proc.addLink(new Link(coord[i%coord.length].getOutputPorts()[0], input[i]));
+      }
+      for (int i = 0; i < output.length; i++)
+        proc.addLink(new Link(outputPort[i], output[i].getInputPorts()[0]));
+
+      // Copy the procedure so both versions start with identical module settings.
+
+      Procedure copy = new Procedure(createOutputs(type));
+      copy.copy(proc);
+      Procedure compiled = CompiledProcedure.compile(copy);
+      assertTrue(cls.getSimpleName(), compiled instanceof CompiledProcedure);
+      checkOutputs(proc, compiled, type, cls.getSimpleName());
+    }
+  }
+
+  /**
+   * A procedure with a feedback loop cannot be compiled, so it should be interpreted instead.
+   */
+
+  @Test
+  public void testFeedbackFallsBack()
+  {
+    Procedure proc = new Procedure(new OutputModule [] {new OutputModule("Value", "0", 0.0, null, IOPort.NUMBER)});
+    Module sum1 = new SumModule(new Point());
+    Module sum2 = new SumModule(new Point());
+    proc.addModule(sum1);
+    proc.addModule(sum2);
+    proc.addLink(new Link(sum1.getOutputPorts()[0], sum2.getInputPorts()[0]));
+    proc.addLink(new Link(sum2.getOutputPorts()[0], sum1.getInputPorts()[0]));
+    proc.addLink(new Link(sum1.getOutputPorts()[0], proc.getOutputModules()[0].getInputPorts()[0]));
+    assertSame(proc, CompiledProcedure.compile(proc));
+  }
+
+  /**
+   * Disabling compilation should cause procedures to be interpreted.
+   */
+
+  @Test
+  public void testDisabled()
+  {
+    Procedure proc = createProcedure();
+    CompiledProcedure.setEnabled(false);
+    try
+    {
+      assertSame(proc, CompiledProcedure.compile(proc));
+    }
+    finally
+    {
+      CompiledProcedure.setEnabled(true);
+    }
+    assertTrue(CompiledProcedure.compile(proc) instanceof CompiledProcedure);
+  }
+}
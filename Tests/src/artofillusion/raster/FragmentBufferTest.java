@@ -0,0 +1,154 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FragmentBufferTest
+{
+  private static final int OPAQUE = 0;
+  private static final int TRANSPARENT = 0x12345678;
+
+  private static RasterContext createContext(int width, int height)
+  {
+    Camera camera = new Camera();
+    camera.setCameraCoordinates(new CoordinateSystem());
+    return new RasterContext(camera, width, height);
+  }
+
+  /** Add a single fragment to pixel (x, row). */
+
+  private static void add(FragmentBuffer buffer, RasterContext context, int x, int row, int addColor, int multColor, float depth, ObjectMaterialInfo material, boolean entering)
+  {
+    context.hasFragment[x] = true;
+    context.fragmentAddColor[x] = addColor;
+    context.fragmentMultColor[x] = multColor;
+    context.fragmentDepth[x] = depth;
+    buffer.addRow(row, x, x+1, material, entering, context);
+    context.hasFragment[x] = false;
+  }
+
+  /** Get the depths of all transparent fragments in a pixel, from front to back. */
+
+  private static List<Float> getDepths(FragmentBuffer buffer, int pixel)
+  {
+    List<Float> depths = new ArrayList<Float>();
+    for (int f = buffer.getFirstFragment(pixel); f != FragmentBuffer.NONE; f = buffer.getNextFragment(f))
+      depths.add(buffer.getDepth(f));
+    return depths;
+  }
+
+  @Test
+  public void testEmpty()
+  {
+    FragmentBuffer buffer = new FragmentBuffer(3, 2);
+    for (int i = 0; i < 6; i++)
+    {
+      assertEquals(FragmentBuffer.BACKGROUND_DEPTH, buffer.getOpaqueDepth(i), 0.0f);
+      assertEquals(FragmentBuffer.BACKGROUND_DEPTH, buffer.getFrontDepth(i), 0.0f);
+      assertEquals(FragmentBuffer.NONE, buffer.getFirstFragment(i));
+    }
+  }
+
+  @Test
+  public void testOpaqueFragments()
+  {
+    FragmentBuffer buffer = new FragmentBuffer(4, 4);
+    RasterContext context = createContext(4, 4);
+    add(buffer, context, 1, 2, 5, OPAQUE, 3.0f, null, true);
+    add(buffer, context, 1, 2, 6, OPAQUE, 4.0f, null, true);
+    assertEquals(3.0f, buffer.getOpaqueDepth(9), 0.0f);
+    assertEquals(5, buffer.getOpaqueColor(9));
+    add(buffer, context, 1, 2, 7, OPAQUE, 2.0f, null, true);
+    assertEquals(2.0f, buffer.getOpaqueDepth(9), 0.0f);
+    assertEquals(7, buffer.getFrontColor(9));
+    assertEquals(FragmentBuffer.BACKGROUND_DEPTH, buffer.getOpaqueDepth(8), 0.0f);
+  }
+
+  @Test
+  public void testTransparentFragments()
+  {
+    FragmentBuffer buffer = new FragmentBuffer(2, 2);
+    RasterContext context = createContext(2, 2);
+    add(buffer, context, 0, 0, 1, TRANSPARENT, 4.0f, null, true);
+    add(buffer, context, 0, 0, 2, TRANSPARENT, 2.0f, null, true);
+    add(buffer, context, 0, 0, 3, TRANSPARENT, 3.0f, null, true);
+    add(buffer, context, 0, 0, 4, TRANSPARENT, 1.0f, null, true);
+    assertEquals(Arrays.asList(1.0f, 2.0f, 3.0f, 4.0f), getDepths(buffer, 0));
+    assertEquals(4, buffer.getFrontColor(0));
+    assertEquals(TRANSPARENT, buffer.getMultiplicativeColor(buffer.getFirstFragment(0)));
+
+    // An opaque fragment should discard everything behind it, and transparent fragments
+    // behind it should be ignored.
+
+    add(buffer, context, 0, 0, 9, OPAQUE, 2.5f, null, true);
+    assertEquals(Arrays.asList(1.0f, 2.0f), getDepths(buffer, 0));
+    add(buffer, context, 0, 0, 5, TRANSPARENT, 2.5f, null, true);
+    add(buffer, context, 0, 0, 5, TRANSPARENT, 3.5f, null, true);
+    assertEquals(Arrays.asList(1.0f, 2.0f), getDepths(buffer, 0));
+    assertEquals(9, buffer.getOpaqueColor(0));
+    add(buffer, context, 0, 0, 10, OPAQUE, 0.5f, null, true);
+    assertEquals(FragmentBuffer.NONE, buffer.getFirstFragment(0));
+    assertEquals(10, buffer.getFrontColor(0));
+  }
+
+  @Test
+  public void testMaterialOrder()
+  {
+    FragmentBuffer buffer = new FragmentBuffer(1, 1);
+    RasterContext context = createContext(1, 1);
+    ObjectMaterialInfo material = new ObjectMaterialInfo(null, null);
+
+    // Where one object exits a material at the same depth another enters it, the entering
+    // fragment should come first.
+
+    add(buffer, context, 0, 0, 1, TRANSPARENT, 1.0f, material, true);
+    add(buffer, context, 0, 0, 2, TRANSPARENT, 2.0f, material, false);
+    add(buffer, context, 0, 0, 3, TRANSPARENT, 2.0f, material, true);
+    int f = buffer.getFirstFragment(0);
+    assertTrue(buffer.isEntering(f));
+    f = buffer.getNextFragment(f);
+    assertEquals(3, buffer.getAdditiveColor(f));
+    assertTrue(buffer.isEntering(f));
+    assertSame(material, buffer.getMaterial(f));
+    f = buffer.getNextFragment(f);
+    assertEquals(2, buffer.getAdditiveColor(f));
+    assertFalse(buffer.isEntering(f));
+    assertEquals(FragmentBuffer.NONE, buffer.getNextFragment(f));
+  }
+
+  @Test
+  public void testManyFragments()
+  {
+    // Create enough fragments to fill several blocks from two different contexts.
+
+    int width = 50, height = 40;
+    FragmentBuffer buffer = new FragmentBuffer(width, height);
+    RasterContext context1 = createContext(width, height);
+    RasterContext context2 = createContext(width, height);
+    Random random = new Random(0);
+    for (int layer = 0; layer < 10; layer++)
+      for (int row = 0; row < height; row++)
+        for (int x = 0; x < width; x++)
+          add(buffer, (row%2 == 0 ? context1 : context2), x, row, layer, TRANSPARENT, random.nextFloat(), null, true);
+    for (int i = 0; i < width*height; i++)
+    {
+      List<Float> depths = getDepths(buffer, i);
+      assertEquals(10, depths.size());
+      for (int j = 1; j < depths.size(); j++)
+        assertTrue(depths.get(j-1) <= depths.get(j));
+    }
+  }
+}
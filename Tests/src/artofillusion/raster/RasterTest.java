@@ -0,0 +1,188 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import artofillusion.*;
+import artofillusion.image.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RasterTest
+{
+  private static final int WIDTH = 150, HEIGHT = 100;
+
+  private Scene scene;
+  private ObjectInfo cameraInfo;
+
+  @Before
+  public void setUp()
+  {
+    // Create a scene with overlapping opaque and transparent objects, some of which cross the
+    // edges of the image and of the tiles.
+
+    Random random = new Random(0);
+    UniformTexture opaque = new UniformTexture();
+    opaque.specularity = 0.5f;
+    opaque.shininess = 0.5f;
+    UniformTexture transparent = new UniformTexture();
+    transparent.diffuseColor = new RGBColor(0.2f, 0.5f, 1.0f);
+    transparent.transparency = 0.5f;
+    scene = new Scene();
+    for (int i = 0; i < 40; i++)
+    {
+      Object3D obj;
+      if (i%3 == 0)
+        obj = new Sphere(0.8, 0.8, 0.8);
+      else if (i%3 == 1)
+        obj = new Cube(1.2, 0.8, 1.0);
+      else
+        obj = new Sphere(0.7, 1.0, 0.7).convertToTriangleMesh(0.05);
+      Texture tex = (i%4 == 0 ? transparent : opaque);
+      obj.setTexture(tex, tex.getDefaultMapping(obj));
+      Vec3 pos = new Vec3(random.nextDouble()*14-2, random.nextDouble()*12-1, random.nextDouble()*10);
+      CoordinateSystem coords = new CoordinateSystem(pos, random.nextDouble()*360, random.nextDouble()*360, random.nextDouble()*360);
+      scene.addObject(new TestObjectInfo(obj, coords, "Object "+i), null);
+    }
+    scene.addObject(new TestObjectInfo(new PointLight(new RGBColor(1.0f, 1.0f, 1.0f), 1.0f, 0.1), new CoordinateSystem(new Vec3(5.0, 15.0, 5.0), 0, 0, 0), "Light"), null);
+    SceneCamera sc = new SceneCamera();
+    cameraInfo = new TestObjectInfo(sc, new CoordinateSystem(new Vec3(5.0, 5.0, 25.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()), "Camera");
+    scene.addObject(cameraInfo, null);
+  }
+
+  /** Render the scene and wait for the image. */
+
+  private ComplexImage render(Raster raster)
+  {
+    SceneCamera sc = (SceneCamera) cameraInfo.getObject();
+    Camera camera = sc.createCamera(WIDTH, HEIGHT, cameraInfo.getCoords());
+    final ComplexImage result[] = new ComplexImage [1];
+    final CountDownLatch done = new CountDownLatch(1);
+    raster.renderScene(scene, camera, new RenderListener() {
+      @Override
+      public void imageComplete(ComplexImage image)
+      {
+        result[0] = image;
+        done.countDown();
+      }
+
+      @Override
+      public void renderingCanceled()
+      {
+        done.countDown();
+      }
+    }, sc);
+    try
+    {
+      done.await();
+    }
+    catch (InterruptedException ex)
+    {
+      fail("Interrupted while rendering");
+    }
+    assertNotNull(result[0]);
+    return result[0];
+  }
+
+  /** Get the pixels of an image. */
+
+  private static int[] getPixels(ComplexImage image) throws InterruptedException
+  {
+    int pixel[] = new int [image.getWidth()*image.getHeight()];
+    PixelGrabber grabber = new PixelGrabber(image.getImage(), 0, 0, image.getWidth(), image.getHeight(), pixel, 0, image.getWidth());
+    assertTrue(grabber.grabPixels());
+    return pixel;
+  }
+
+  /** Render the scene with and without tiles, and check that the images are identical. */
+
+  private void checkTiles(Map<String, Object> config) throws InterruptedException
+  {
+    ComplexImage image[] = new ComplexImage [2];
+    for (int i = 0; i < 2; i++)
+    {
+      Raster raster = new Raster();
+      raster.setConfiguration("highDynamicRange", true);
+      for (Map.Entry<String, Object> entry : config.entrySet())
+        raster.setConfiguration(entry.getKey(), entry.getValue());
+      raster.setConfiguration("renderInTiles", i == 1);
+      image[i] = render(raster);
+    }
+    int untiled[] = getPixels(image[0]), tiled[] = getPixels(image[1]);
+    int background = untiled[0], covered = 0;
+    for (int i = 0; i < untiled.length; i++)
+    {
+      assertEquals("pixel "+i, untiled[i], tiled[i]);
+      if (untiled[i] != background)
+        covered++;
+    }
+    assertTrue(covered > untiled.length/4);
+    for (int component : new int [] {ComplexImage.RED, ComplexImage.GREEN, ComplexImage.BLUE, ComplexImage.ALPHA, ComplexImage.DEPTH})
+      for (int y = 0; y < HEIGHT; y++)
+        for (int x = 0; x < WIDTH; x++)
+          assertEquals(image[0].getPixelComponent(x, y, component), image[1].getPixelComponent(x, y, component), 0.0f);
+  }
+
+  @Test(timeout = 120000)
+  public void testTilesMatchPhong() throws InterruptedException
+  {
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put("shadingMethod", Raster.PHONG);
+    config.put("antialiasing", 0);
+    checkTiles(config);
+  }
+
+  @Test(timeout = 120000)
+  public void testTilesMatchAntialiased() throws InterruptedException
+  {
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put("shadingMethod", Raster.GOURAUD);
+    config.put("antialiasing", 2);
+    checkTiles(config);
+  }
+
+  @Test(timeout = 120000)
+  public void testTilesMatchShadows() throws InterruptedException
+  {
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put("shadingMethod", Raster.HYBRID);
+    config.put("antialiasing", 4);
+    config.put("shadows", true);
+    checkTiles(config);
+  }
+
+  /** ObjectInfo.getBounds() looks up the interactive surface error in the application preferences,
+      which are not available in tests.  This caches the object's own bounds instead. */
+
+  private static class TestObjectInfo extends ObjectInfo
+  {
+    private BoundingBox bounds;
+
+    TestObjectInfo(Object3D obj, CoordinateSystem coords, String name)
+    {
+      super(obj, coords, name);
+    }
+
+    @Override
+    public BoundingBox getBounds()
+    {
+      if (bounds == null)
+        bounds = getObject().getBounds();
+      return bounds;
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raster;
+
+import artofillusion.math.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ShadowMapTest
+{
+  // A square occluder in the plane y=3, covering -2 < x < 2 and -2 < z < 2.
+
+  private static final double VERT[] = {-2, 3, -2, 2, 3, -2, 2, 3, 2, -2, 3, 2};
+  private static final int TRI[] = {0, 1, 2, 0, 2, 3};
+  private static final BoundingBox BOUNDS = new BoundingBox(-2, 2, 3, 3, -2, 2);
+
+  /** Rasterize the occluder into every band of every face of a map. */
+
+  private static void fill(ShadowMap map)
+  {
+    double temp[] = null;
+    for (int face = 0; face < map.getNumFaces(); face++)
+      for (int band = 0; band < map.getNumBands(); band++)
+        temp = map.rasterize(face, band, VERT, TRI, BOUNDS, temp);
+  }
+
+  @Test
+  public void testPointLight()
+  {
+    ShadowMap map = ShadowMap.createPoint(new Vec3(0, 6, 0), 1e-4, 256, 1);
+    assertEquals(6, map.getNumFaces());
+    fill(map);
+    assertEquals(0.0f, map.getLightFraction(new Vec3(0, 0, 0), 1.0), 0.0f);
+    assertEquals(0.0f, map.getLightFraction(new Vec3(3, 0, -3), 1.0), 0.0f);
+    assertEquals(1.0f, map.getLightFraction(new Vec3(5, 0, 0), 1.0), 0.0f);
+    assertEquals(1.0f, map.getLightFraction(new Vec3(0, 4, 0), 1.0), 0.0f);
+    assertEquals(1.0f, map.getLightFraction(new Vec3(0, 10, 0), 1.0), 0.0f);
+
+    // A point on the occluder itself should not be shadowed by it.
+
+    assertEquals(1.0f, map.getLightFraction(new Vec3(0.5, 3, 0.5), 1.0), 0.0f);
+  }
+
+  @Test
+  public void testSpotLight()
+  {
+    CoordinateSystem coords = new CoordinateSystem(new Vec3(0, 6, 0), new Vec3(0, -1, 0), new Vec3(0, 0, 1));
+    ShadowMap map = ShadowMap.createSpot(coords, Math.toRadians(60.0), 1e-4, 256, 1);
+    assertEquals(1, map.getNumFaces());
+    fill(map);
+    assertEquals(0.0f, map.getLightFraction(new Vec3(0, 0, 0), 1.0), 0.0f);
+    assertEquals(1.0f, map.getLightFraction(new Vec3(5, 0, 0), 1.0), 0.0f);
+    assertEquals(1.0f, map.getLightFraction(new Vec3(0, 4, 0), 1.0), 0.0f);
+  }
+
+  @Test
+  public void testDirectionalLight()
+  {
+    CoordinateSystem coords = new CoordinateSystem(new Vec3(), new Vec3(0, -1, 0), new Vec3(0, 0, 1));
+    BoundingBox receivers = new BoundingBox(-10, 10, 0, 3, -10, 10);
+    ShadowMap map = ShadowMap.createDirectional(coords, BOUNDS, receivers, 256, 1);
+    assertEquals(1, map.getNumFaces());
+    fill(map);
+    assertEquals(0.0f, map.getLightFraction(new Vec3(0, 0, 0), 1.0), 0.0f);
+    assertEquals(0.0f, map.getLightFraction(new Vec3(1.5, -20, 1.5), 1.0), 0.0f);
+    assertEquals(1.0f, map.getLightFraction(new Vec3(3, 0, 0), 1.0), 0.0f);
+    assertEquals(1.0f, map.getLightFraction(new Vec3(0, 5, 0), 1.0), 0.0f);
+  }
+
+  @Test
+  public void testFiltering()
+  {
+    // Points near the edge of the shadow should be partially lit.
+
+    CoordinateSystem coords = new CoordinateSystem(new Vec3(), new Vec3(0, -1, 0), new Vec3(0, 0, 1));
+    ShadowMap map = ShadowMap.createDirectional(coords, BOUNDS, BOUNDS, 64, 2);
+    fill(map);
+    float edge = map.getLightFraction(new Vec3(2, 0, 0), 1.0);
+    assertTrue(edge > 0.0f && edge < 1.0f);
+    assertEquals(0.0f, map.getLightFraction(new Vec3(0, 0, 0), 1.0), 0.0f);
+  }
+}
@@ -0,0 +1,235 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+
+public class BoundingVolumeHierarchyTest
+{
+  private static Scene scene;
+  private static Camera camera;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception
+  {
+    // Create a scene containing spheres, cubes, and triangle meshes.
+
+    Random random = new Random(0);
+    Texture tex = new UniformTexture();
+    scene = new Scene();
+    Object3D mesh = new Sphere(0.4, 0.6, 0.4).convertToTriangleMesh(0.02);
+    for (int i = 0; i < 300; i++)
+    {
+      Object3D obj;
+      switch (i%3)
+      {
+        case 0:
+          obj = new Sphere(0.5, 0.5, 0.5);
+          break;
+        case 1:
+          obj = new Cube(0.6, 0.3, 0.9);
+          break;
+        default:
+          obj = mesh.duplicate();
+      }
+      obj.setTexture(tex, tex.getDefaultMapping(obj));
+      Vec3 pos = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+      CoordinateSystem coords = new CoordinateSystem(pos, random.nextDouble()*360, random.nextDouble()*360, random.nextDouble()*360);
+      scene.addObject(new ObjectInfo(obj, coords, "Object "+i), null);
+    }
+    camera = new Camera();
+    camera.setCameraCoordinates(new CoordinateSystem(new Vec3(5.0, 5.0, 30.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()));
+  }
+
+  private static Raytracer createRaytracer(int accelerationStructure)
+  {
+    Raytracer rt = new Raytracer(scene, camera);
+    rt.setAdaptive(false);
+    rt.setAccelerationStructure(accelerationStructure);
+    for (int i = 0; i < scene.getNumObjects(); i++)
+      rt.addObject(scene.getObject(i));
+    rt.finishConstruction();
+    return rt;
+  }
+
+  /**
+   * Make sure the hierarchy stores every object exactly once, and that its bounds enclose the scene.
+   */
+
+  @Test
+  public void testStructure()
+  {
+    Raytracer rt = createRaytracer(Raytracer.ACCELERATION_BVH);
+    BoundingVolumeHierarchy bvh = rt.getBoundingVolumeHierarchy();
+    assertNotNull(bvh);
+    assertTrue(bvh.getNumNodes() > 1);
+    assertTrue(bvh.getMaxDepth() > 1);
+    BoundingBox bounds = bvh.getBounds();
+    for (RTObject obj : rt.getObjects())
+    {
+      BoundingBox objBounds = obj.getBounds();
+      assertTrue(bounds.minx <= objBounds.minx && bounds.maxx >= objBounds.maxx);
+      assertTrue(bounds.miny <= objBounds.miny && bounds.maxy >= objBounds.maxy);
+      assertTrue(bounds.minz <= objBounds.minz && bounds.maxz >= objBounds.maxz);
+    }
+    Ray r = new Ray(rt.getContext());
+    r.getOrigin().set(-100.0, 5.0, 5.0);
+    r.getDirection().set(1.0, 0.0, 0.0);
+    int count = bvh.findCandidateObjects(r, Double.MAX_VALUE);
+    RTObject candidates[] = rt.getContext().getCandidateObjects();
+    Set<RTObject> found = new HashSet<RTObject>();
+    for (int i = 0; i < count; i++)
+      assertTrue(found.add(candidates[i]));
+    assertNull(createRaytracer(Raytracer.ACCELERATION_OCTREE).getBoundingVolumeHierarchy());
+  }
+
+  /**
+   * Trace rays through the scene with both an octree and a bounding volume hierarchy, and make sure
+   * they find the same intersections.
+   */
+
+  @Test
+  public void testTraceRay()
+  {
+    Raytracer octree = createRaytracer(Raytracer.ACCELERATION_OCTREE);
+    Raytracer bvh = createRaytracer(Raytracer.ACCELERATION_BVH);
+    assertEquals(octree.getObjects().length, bvh.getObjects().length);
+    Random random = new Random(1);
+    int hits = 0;
+    for (int i = 0; i < 2000; i++)
+    {
+      Vec3 origin = new Vec3(random.nextDouble()*14-2, random.nextDouble()*14-2, random.nextDouble()*14-2);
+      if (i%2 == 0)
+      {
+        // Start some rays outside the scene.
+
+        origin.normalize();
+        origin.scale(30.0);
+      }
+      Vec3 dir = new Vec3(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5);
+      dir.normalize();
+      Raytracer.RayIntersection expected = octree.traceRay(origin, dir);
+      Raytracer.RayIntersection actual = bvh.traceRay(origin, dir);
+      if (expected.getFirst() == SurfaceIntersection.NO_INTERSECTION)
+      {
+        assertSame(SurfaceIntersection.NO_INTERSECTION, actual.getFirst());
+        continue;
+      }
+      hits++;
+      assertNotSame(SurfaceIntersection.NO_INTERSECTION, actual.getFirst());
+      assertEquals(expected.getDistance(), actual.getDistance(), 1e-10);
+      assertEquals(expected.getFirst().getObject().getIndex(), actual.getFirst().getObject().getIndex());
+    }
+    assertTrue(hits > 100);
+  }
+
+  /**
+   * Code that walks the octree, such as photon tracing and finding the material at a point, should
+   * still locate objects through the hierarchy.  The single root node must answer every node lookup
+   * immediately, and tracing a ray from it must only test the objects near the ray.
+   */
+
+  @Test
+  public void testRootNodeTraversal()
+  {
+    Raytracer rt = createRaytracer(Raytracer.ACCELERATION_BVH);
+    OctreeNode root = rt.getRootNode();
+    assertEquals(0, root.findChildNodes().length);
+    Ray r = new Ray(rt.getContext());
+    Raytracer.RayIntersection intersect = new Raytracer.RayIntersection();
+    int lastRayID[] = rt.getContext().lastRayID;
+    Random random = new Random(2);
+    int rays = 1000, tested = 0;
+    for (int i = 0; i < rays; i++)
+    {
+      r.getOrigin().set(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+      r.getDirection().set(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5);
+      r.getDirection().normalize();
+      r.newID();
+      OctreeNode node = root.findNode(r.getOrigin());
+      assertSame(root, node);
+      OctreeNode hitNode = rt.traceRay(r, node, intersect);
+      if (hitNode != null)
+      {
+        assertSame(root, hitNode);
+        Vec3 hit = new Vec3();
+        intersect.getFirst().intersectionPoint(0, hit);
+        assertSame(root, root.findNode(hit));
+      }
+      assertNull(root.findNextNode(r));
+      for (int id : lastRayID)
+        if (id == r.getID())
+          tested++;
+    }
+    assertTrue("Tested "+tested+" objects for "+rays+" rays", tested < rays*lastRayID.length/10);
+  }
+
+  /**
+   * Trace packets of rays, and make sure each one finds the same objects as when it is traced by itself.
+   */
+
+  @Test
+  public void testTraceRays()
+  {
+    Raytracer rt = createRaytracer(Raytracer.ACCELERATION_BVH);
+    BoundingVolumeHierarchy bvh = rt.getBoundingVolumeHierarchy();
+    Random random = new Random(2);
+    int size = 8;
+    Ray rays[] = new Ray [size];
+    for (int i = 0; i < size; i++)
+      rays[i] = new Ray(rt.getContext());
+    RTObject first[] = new RTObject [size], second[] = new RTObject [size];
+    double distance[] = new double [size];
+    int hits = 0;
+    for (int i = 0; i < 500; i++)
+    {
+      // Half the packets contain nearly parallel rays, like camera rays, and half contain unrelated rays.
+
+      boolean coherent = (i%2 == 0);
+      Vec3 origin = new Vec3(5.0, 5.0, 30.0);
+      Vec3 center = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+      int count = 1+random.nextInt(size);
+      for (int j = 0; j < count; j++)
+      {
+        Vec3 target = (coherent ? new Vec3(center.x+random.nextDouble()*0.2, center.y+random.nextDouble()*0.2, center.z) :
+            new Vec3(random.nextDouble()*14-2, random.nextDouble()*14-2, random.nextDouble()*14-2));
+        rays[j].getOrigin().set(origin);
+        rays[j].getDirection().set(target.minus(origin));
+        rays[j].getDirection().normalize();
+      }
+      bvh.traceRays(rays, count, first, second, distance);
+      for (int j = 0; j < count; j++)
+      {
+        Raytracer.RayIntersection expected = rt.traceRay(rays[j].getOrigin(), rays[j].getDirection());
+        if (expected.getFirst() == SurfaceIntersection.NO_INTERSECTION)
+        {
+          assertNull(first[j]);
+          continue;
+        }
+        hits++;
+        assertSame(expected.getFirst().getObject(), first[j]);
+        assertEquals(expected.getDistance(), distance[j], 0.0);
+        if (expected.getSecond() == SurfaceIntersection.NO_INTERSECTION)
+          assertNull(second[j]);
+        else
+          assertSame(expected.getSecond().getObject(), second[j]);
+      }
+    }
+    assertTrue(hits > 100);
+  }
+}
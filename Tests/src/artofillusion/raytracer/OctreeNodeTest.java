@@ -143,7 +143,48 @@ public class OctreeNodeTest
     }
   }
 
-  
+  /**
+   * Make sure building the tree in parallel produces exactly the same tree as building it serially.
+   */
+  @Test
+  public void testBuildTree()
+  {
+    Texture tex = new UniformTexture();
+    Random random = new Random(0);
+    RTObject objects[] = new RTObject [20000];
+    BoundingBox objBounds[] = new BoundingBox [objects.length];
+    for (int i = 0; i < objects.length; i++)
+    {
+      objects[i] = createSphere(new Vec3(random.nextDouble()*100, random.nextDouble()*10, random.nextDouble()*100), tex);
+      objBounds[i] = objects[i].getBounds();
+    }
+    OctreeNode serial = new OctreeNode(-1.0f, 101.0f, -1.0f, 11.0f, -1.0f, 101.0f, objects, objBounds, null);
+    OctreeNode parallel = OctreeNode.buildTree(-1.0f, 101.0f, -1.0f, 11.0f, -1.0f, 101.0f, objects, objBounds);
+    assertNotNull(serial.child);
+    assertSameTree(serial, parallel);
+  }
+
+  private void assertSameTree(OctreeNode expected, OctreeNode actual)
+  {
+    assertEquals(expected.getBounds().toString(), actual.getBounds().toString());
+    assertEquals(expected.midx, actual.midx, 0.0f);
+    assertEquals(expected.midy, actual.midy, 0.0f);
+    assertEquals(expected.midz, actual.midz, 0.0f);
+    assertArrayEquals(expected.getObjects(), actual.getObjects());
+    assertEquals(expected.child == null, actual.child == null);
+    if (expected.child == null)
+      return;
+    for (int i = 0; i < 8; i++)
+    {
+      assertEquals(expected.child[i] == null, actual.child[i] == null);
+      if (expected.child[i] != null)
+      {
+        assertSame(actual, actual.child[i].parent);
+        assertSameTree(expected.child[i], actual.child[i]);
+      }
+    }
+  }
+
   private void findIntersectingNodes(OctreeNode node, Ray ray, Set<OctreeNode> intersections)
   {
     if (!ray.intersects(node.getBounds()))
@@ -0,0 +1,86 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.math.*;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PhotonMapTest
+{
+  /**
+   * Build a photon map from random photons, and make sure that searching it finds the same
+   * photons as a brute force search.
+   */
+
+  @Test
+  public void testFindPhotons()
+  {
+    Random random = new Random(0);
+    int count = 50000, numEstimate = 50;
+    float pos[] = new float [3*count];
+    int ergb[] = new int [count];
+    short dir[] = new short [count];
+    RGBColor color = new RGBColor();
+    Vec3 v = new Vec3();
+    for (int i = 0; i < count; i++)
+    {
+      // Cluster some photons together so the tree is not perfectly uniform.
+
+      double scale = (i%2 == 0 ? 10.0 : 2.0);
+      pos[3*i] = (float) (random.nextDouble()*scale);
+      pos[3*i+1] = (float) (random.nextDouble()*scale);
+      pos[3*i+2] = (float) (random.nextDouble()*scale);
+      color.setRGB(random.nextFloat(), random.nextFloat(), random.nextFloat());
+      ergb[i] = color.getERGB();
+      v.set(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5);
+      v.normalize();
+      dir[i] = Photon.encodeDirection(v);
+    }
+    float originalPos[] = pos.clone();
+    PhotonMap map = new PhotonMap(count, numEstimate, false, false, true, false, null, null, new BoundingBox(0.0, 10.0, 0.0, 10.0, 0.0, 10.0), 0, null);
+    map.buildPhotonTree(pos, ergb, dir, count);
+    assertEquals(count, map.getNumPhotons());
+    PhotonMapContext pmc = new PhotonMapContext(map);
+    for (int i = 0; i < 200; i++)
+    {
+      Vec3 p = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+      float cutoff2 = (i%4 == 0 ? 0.01f : 1.0f);
+
+      // Find the nearest photons by brute force.
+
+      float x = (float) p.x, y = (float) p.y, z = (float) p.z;
+      float expected[] = new float [count];
+      int numExpected = 0;
+      for (int j = 0; j < count; j++)
+      {
+        float dx = originalPos[3*j]-x, dy = originalPos[3*j+1]-y, dz = originalPos[3*j+2]-z;
+        float dist2 = dx*dx + dy*dy + dz*dz;
+        if (dist2 < cutoff2)
+          expected[numExpected++] = dist2;
+      }
+      Arrays.sort(expected, 0, numExpected);
+      numExpected = Math.min(numExpected, numEstimate);
+
+      // Compare them to the ones found by searching the tree.
+
+      PhotonList list = pmc.nearbyPhotons;
+      list.init(cutoff2);
+      map.findPhotons(p, pmc);
+      assertEquals(numExpected, list.numFound);
+      float actual[] = Arrays.copyOf(list.dist2, list.numFound);
+      Arrays.sort(actual);
+      for (int j = 0; j < numExpected; j++)
+        assertEquals(expected[j], actual[j], 0.0f);
+    }
+  }
+}
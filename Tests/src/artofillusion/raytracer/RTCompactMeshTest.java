@@ -0,0 +1,125 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+
+public class RTCompactMeshTest
+{
+  private static Scene scene;
+  private static Camera camera;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception
+  {
+    // Create a scene containing a few finely triangulated meshes.
+
+    Random random = new Random(0);
+    Texture tex = new UniformTexture();
+    scene = new Scene();
+    for (int i = 0; i < 10; i++)
+    {
+      Object3D mesh = new Sphere(1.0, 1.5, 0.8).convertToTriangleMesh(0.005);
+      mesh.setTexture(tex, tex.getDefaultMapping(mesh));
+      Vec3 pos = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+      CoordinateSystem coords = new CoordinateSystem(pos, random.nextDouble()*360, random.nextDouble()*360, random.nextDouble()*360);
+      scene.addObject(new ObjectInfo(mesh, coords, "Object "+i), null);
+    }
+    camera = new Camera();
+    camera.setCameraCoordinates(new CoordinateSystem(new Vec3(5.0, 5.0, 30.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()));
+  }
+
+  private static Raytracer createRaytracer(boolean reducedMemory)
+  {
+    Raytracer rt = new Raytracer(scene, camera);
+    rt.setAdaptive(false);
+    rt.setUseReducedMemory(reducedMemory);
+    for (int i = 0; i < scene.getNumObjects(); i++)
+      rt.addObject(scene.getObject(i));
+    rt.finishConstruction();
+    return rt;
+  }
+
+  /**
+   * Make sure each mesh is represented by a single RTCompactMesh, and that it uses much less memory than
+   * an RTTriangle for every triangle.
+   */
+
+  @Test
+  public void testStructure()
+  {
+    Raytracer rt = createRaytracer(true);
+    RTObject obj[] = rt.getObjects();
+    assertEquals(scene.getNumObjects(), obj.length);
+    int triangles = 0;
+    long bytes = 0;
+    for (RTObject o : obj)
+    {
+      RTCompactMesh mesh = (RTCompactMesh) o;
+      triangles += mesh.getNumTriangles();
+      bytes += mesh.getMemoryUsage();
+    }
+    assertEquals(createRaytracer(false).getObjects().length, triangles);
+    assertTrue(bytes/(double) triangles < 100.0);
+  }
+
+  /**
+   * Trace rays through the scene with both representations of the meshes, and make sure they find the same
+   * intersections.
+   */
+
+  @Test
+  public void testTraceRay()
+  {
+    Raytracer full = createRaytracer(false);
+    Raytracer compact = createRaytracer(true);
+    Random random = new Random(1);
+    Vec3 expectedNormal = new Vec3(), actualNormal = new Vec3();
+    int hits = 0;
+    for (int i = 0; i < 2000; i++)
+    {
+      Vec3 origin = new Vec3(random.nextDouble()*14-2, random.nextDouble()*14-2, random.nextDouble()*14-2);
+      if (i%2 == 0)
+      {
+        // Start some rays outside the scene.
+
+        origin.normalize();
+        origin.scale(30.0);
+      }
+      Vec3 dir = new Vec3(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5);
+      dir.normalize();
+      Raytracer.RayIntersection expected = full.traceRay(origin, dir);
+      Raytracer.RayIntersection actual = compact.traceRay(origin, dir);
+      if (expected.getFirst() == SurfaceIntersection.NO_INTERSECTION)
+      {
+        assertSame(SurfaceIntersection.NO_INTERSECTION, actual.getFirst());
+        continue;
+      }
+      hits++;
+      assertTrue(actual.getFirst().getObject() instanceof RTCompactMesh);
+
+      // Vertices are stored in single precision, so the results will differ slightly.
+
+      assertEquals(expected.getDistance(), actual.getDistance(), 1e-4);
+      expected.getFirst().trueNormal(expectedNormal);
+      actual.getFirst().trueNormal(actualNormal);
+      assertEquals(1.0, expectedNormal.dot(actualNormal), 1e-3);
+    }
+    assertTrue(hits > 100);
+  }
+}
@@ -0,0 +1,152 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+
+public class RTInstanceTest
+{
+  private static Scene scene;
+  private static Camera camera;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception
+  {
+    // Create a scene in which many ObjectInfos share the same mesh, as they would for live duplicates.
+
+    Random random = new Random(0);
+    Texture tex = new UniformTexture();
+    scene = new Scene();
+    Object3D mesh = new Sphere(0.4, 0.6, 0.4).convertToTriangleMesh(0.02);
+    mesh.setTexture(tex, tex.getDefaultMapping(mesh));
+    for (int i = 0; i < 200; i++)
+    {
+      Vec3 pos = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+      CoordinateSystem coords = new CoordinateSystem(pos, random.nextDouble()*360, random.nextDouble()*360, random.nextDouble()*360);
+      scene.addObject(new ObjectInfo(mesh, coords, "Object "+i), null);
+    }
+    camera = new Camera();
+    camera.setCameraCoordinates(new CoordinateSystem(new Vec3(5.0, 5.0, 30.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()));
+  }
+
+  private static Raytracer createRaytracer(boolean instancing)
+  {
+    Raytracer rt = new Raytracer(scene, camera);
+    rt.setAdaptive(false);
+    rt.setUseInstancing(instancing);
+    rt.setAccelerationStructure(Raytracer.ACCELERATION_BVH);
+    for (int i = 0; i < scene.getNumObjects(); i++)
+      rt.addObject(scene.getObject(i));
+    rt.finishConstruction();
+    return rt;
+  }
+
+  /**
+   * Make sure that every copy of the shared mesh becomes an RTInstance, and that they all use the same geometry.
+   */
+
+  @Test
+  public void testStructure()
+  {
+    Raytracer rt = createRaytracer(true);
+    RTObject obj[] = rt.getObjects();
+    assertEquals(scene.getNumObjects(), obj.length);
+    InstancedGeometry geometry = ((RTInstance) obj[0]).getGeometry();
+    assertTrue(geometry.getNumTriangles() > 100);
+    for (RTObject o : obj)
+      assertSame(geometry, ((RTInstance) o).getGeometry());
+    assertTrue(createRaytracer(false).getObjects().length > 100*obj.length);
+  }
+
+  /**
+   * Trace rays through the scene with and without instancing, and make sure they find the same intersections.
+   */
+
+  @Test
+  public void testTraceRay()
+  {
+    Raytracer expanded = createRaytracer(false);
+    Raytracer instanced = createRaytracer(true);
+    Random random = new Random(1);
+    Vec3 expectedPoint = new Vec3(), actualPoint = new Vec3(), expectedNormal = new Vec3(), actualNormal = new Vec3();
+    int hits = 0;
+    for (int i = 0; i < 2000; i++)
+    {
+      Vec3 origin = new Vec3(random.nextDouble()*14-2, random.nextDouble()*14-2, random.nextDouble()*14-2);
+      if (i%2 == 0)
+      {
+        // Start some rays outside the scene.
+
+        origin.normalize();
+        origin.scale(30.0);
+      }
+      Vec3 dir = new Vec3(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5);
+      dir.normalize();
+      Raytracer.RayIntersection expected = expanded.traceRay(origin, dir);
+      Raytracer.RayIntersection actual = instanced.traceRay(origin, dir);
+      if (expected.getFirst() == SurfaceIntersection.NO_INTERSECTION)
+      {
+        assertSame(SurfaceIntersection.NO_INTERSECTION, actual.getFirst());
+        continue;
+      }
+      hits++;
+      assertTrue(actual.getFirst().getObject() instanceof RTInstance);
+      assertEquals(expected.getDistance(), actual.getDistance(), 1e-8);
+      expected.getFirst().intersectionPoint(0, expectedPoint);
+      actual.getFirst().intersectionPoint(0, actualPoint);
+      assertEquals(0.0, expectedPoint.distance(actualPoint), 1e-8);
+      expected.getFirst().trueNormal(expectedNormal);
+      actual.getFirst().trueNormal(actualNormal);
+      assertEquals(0.0, expectedNormal.distance(actualNormal), 1e-8);
+    }
+    assertTrue(hits > 100);
+  }
+
+  /**
+   * An object without a mesh should only be asked for one once, no matter how many instances of it
+   * there are.
+   */
+
+  @Test
+  public void testMissingMesh()
+  {
+    final AtomicInteger calls = new AtomicInteger();
+    TriangleMesh empty = new TriangleMesh(new Vec3 [] {new Vec3(), new Vec3(1.0, 0.0, 0.0), new Vec3(0.0, 1.0, 0.0)}, new int [][] {{0, 1, 2}}) {
+      @Override
+      public RenderingMesh getRenderingMesh(double tol, boolean interactive, ObjectInfo info)
+      {
+        calls.incrementAndGet();
+        return null;
+      }
+    };
+    Texture tex = new UniformTexture();
+    empty.setTexture(tex, tex.getDefaultMapping(empty));
+    Scene emptyScene = new Scene();
+    for (int i = 0; i < 20; i++)
+      emptyScene.addObject(new ObjectInfo(empty, new CoordinateSystem(new Vec3(i, 0.0, 0.0), 0.0, 0.0, 0.0), "Object "+i), null);
+    Raytracer rt = new Raytracer(emptyScene, camera);
+    rt.setAdaptive(false);
+    rt.setUseInstancing(true);
+    for (int i = 0; i < emptyScene.getNumObjects(); i++)
+      rt.addObject(emptyScene.getObject(i));
+    rt.finishConstruction();
+    assertEquals(0, rt.getObjects().length);
+    assertEquals(1, calls.get());
+  }
+}
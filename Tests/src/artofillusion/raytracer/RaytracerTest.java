@@ -0,0 +1,394 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.raytracer;
+
+import artofillusion.*;
+import artofillusion.image.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.Before;
+
+public class RaytracerTest
+{
+  private Scene scene;
+  private Camera camera;
+
+  /** How far (in pixels) differences from adaptive refinement can spread into a tile from its edges. */
+  private static final int EDGE_WIDTH = 4;
+
+  @Before
+  public void setUp()
+  {
+    // Create a scene containing a mix of primitives, meshes, and lights.
+
+    Random random = new Random(0);
+    Texture tex = new UniformTexture();
+    scene = new Scene();
+    for (int i = 0; i < 60; i++)
+    {
+      Object3D obj;
+      if (i%3 == 0)
+        obj = new Sphere(0.5, 0.5, 0.5);
+      else if (i%3 == 1)
+        obj = new Cube(0.8, 0.5, 0.6);
+      else
+        obj = new Sphere(0.4, 0.6, 0.4).convertToTriangleMesh(0.05);
+      obj.setTexture(tex, tex.getDefaultMapping(obj));
+      Vec3 pos = new Vec3(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*10);
+      CoordinateSystem coords = new CoordinateSystem(pos, random.nextDouble()*360, random.nextDouble()*360, random.nextDouble()*360);
+      scene.addObject(new ObjectInfo(obj, coords, "Object "+i), null);
+    }
+    scene.addObject(new ObjectInfo(new PointLight(new RGBColor(1.0f, 1.0f, 1.0f), 1.0f, 0.1), new CoordinateSystem(new Vec3(5.0, 15.0, 5.0), 0, 0, 0), "Light"), null);
+    camera = new Camera();
+    camera.setCameraCoordinates(new CoordinateSystem(new Vec3(5.0, 5.0, 30.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()));
+  }
+
+  private Raytracer createRaytracer()
+  {
+    Raytracer rt = new Raytracer(scene, camera);
+    rt.setAdaptive(false);
+    rt.setAccelerationStructure(Raytracer.ACCELERATION_BVH);
+    return rt;
+  }
+
+  /**
+   * Create objects for one Raytracer, then reuse them in another one after moving a single object.
+   * It should find the same intersections as a Raytracer which creates every object from scratch.
+   */
+
+  @Test
+  public void testReuseObjects()
+  {
+    Raytracer first = createRaytracer();
+    List<List<RTObject>> objects = new ArrayList<List<RTObject>>();
+    List<List<RTLight>> lights = new ArrayList<List<RTLight>>();
+    for (int i = 0; i < scene.getNumObjects(); i++)
+    {
+      objects.add(new ArrayList<RTObject>());
+      lights.add(new ArrayList<RTLight>());
+      first.createObjects(scene.getObject(i), objects.get(i), lights.get(i));
+    }
+    assertEquals(1, lights.get(scene.getNumObjects()-1).size());
+    scene.getObject(10).getCoords().setOrigin(new Vec3(5.0, 5.0, 5.0));
+    Raytracer reused = createRaytracer();
+    objects.set(10, new ArrayList<RTObject>());
+    reused.createObjects(scene.getObject(10), objects.get(10), lights.get(10));
+    for (int i = 0; i < scene.getNumObjects(); i++)
+      reused.addObjects(objects.get(i), lights.get(i));
+    reused.finishConstruction();
+    Raytracer expected = createRaytracer();
+    for (int i = 0; i < scene.getNumObjects(); i++)
+      expected.addObject(scene.getObject(i));
+    expected.finishConstruction();
+    assertEquals(expected.getObjects().length, reused.getObjects().length);
+    assertEquals(1, reused.getLights().length);
+
+    Random random = new Random(1);
+    int hits = 0;
+    for (int i = 0; i < 2000; i++)
+    {
+      Vec3 origin = new Vec3(random.nextDouble()*14-2, random.nextDouble()*14-2, random.nextDouble()*14-2);
+      Vec3 dir = new Vec3(random.nextDouble()-0.5, random.nextDouble()-0.5, random.nextDouble()-0.5);
+      dir.normalize();
+      Raytracer.RayIntersection expectedHit = expected.traceRay(origin, dir);
+      Raytracer.RayIntersection actualHit = reused.traceRay(origin, dir);
+      if (expectedHit.getFirst() == SurfaceIntersection.NO_INTERSECTION)
+      {
+        assertSame(SurfaceIntersection.NO_INTERSECTION, actualHit.getFirst());
+        continue;
+      }
+      hits++;
+      assertEquals(expectedHit.getDistance(), actualHit.getDistance(), 1e-10);
+    }
+    assertTrue(hits > 100);
+  }
+
+  /**
+   * Changing the camera after construction should update the node which contains it.
+   */
+
+  @Test
+  public void testSetCamera()
+  {
+    Raytracer rt = createRaytracer();
+    for (int i = 0; i < scene.getNumObjects(); i++)
+      rt.addObject(scene.getObject(i));
+    rt.finishConstruction();
+    Camera newCamera = camera.duplicate();
+    newCamera.setCameraCoordinates(new CoordinateSystem(new Vec3(5.0, 5.0, 5.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()));
+    rt.setCamera(newCamera);
+    assertSame(rt.getRootNode().findNode(new Vec3(5.0, 5.0, 5.0)), rt.getCameraNode());
+  }
+
+  /** Build the scene for an interactive preview, the way RaytracerRenderer does before rendering it. */
+
+  private static Raytracer buildPreview(RaytracerRenderer renderer, Scene scene, Camera camera)
+  {
+    renderer.theScene = scene;
+    renderer.theCamera = camera.duplicate();
+    renderer.listener = image -> {};
+    renderer.renderThread = Thread.currentThread();
+    renderer.buildScene();
+    return renderer.raytracer;
+  }
+
+  /** Count how many of the objects in one Raytracer were also used by another one. */
+
+  private static int countShared(Raytracer first, Raytracer second)
+  {
+    Set<RTObject> objects = Collections.newSetFromMap(new IdentityHashMap<RTObject, Boolean>());
+    objects.addAll(Arrays.asList(first.getObjects()));
+    int shared = 0;
+    for (RTObject obj : second.getObjects())
+      if (objects.contains(obj))
+        shared++;
+    return shared;
+  }
+
+  /**
+   * Successive previews should reuse the objects that have not changed, and recreate the ones that
+   * have been moved, modified, added, or removed.
+   */
+
+  @Test
+  public void testPreviewReusesObjects()
+  {
+    Texture tex = new UniformTexture();
+    Scene preview = new Scene();
+    for (int i = 0; i < 10; i++)
+    {
+      Object3D obj = (i%2 == 0 ? new Sphere(0.5, 0.5, 0.5) : new Cube(0.8, 0.5, 0.6));
+      obj.setTexture(tex, tex.getDefaultMapping(obj));
+      preview.addObject(new TestObjectInfo(obj, new CoordinateSystem(new Vec3(i, i%3, -i), 0, 0, 0), "Object "+i), null);
+    }
+    preview.addObject(new TestObjectInfo(new PointLight(new RGBColor(1.0f, 1.0f, 1.0f), 1.0f, 0.1), new CoordinateSystem(new Vec3(5.0, 15.0, 5.0), 0, 0, 0), "Light"), null);
+    RaytracerRenderer renderer = new RaytracerRenderer();
+    renderer.isPreview = true;
+    renderer.adaptive = true;
+    renderer.surfaceError = 0.05;
+    Raytracer first = buildPreview(renderer, preview, camera);
+    int total = first.getObjects().length;
+    assertEquals(1, first.getLights().length);
+
+    // If nothing has changed, the whole Raytracer should be reused, even if the camera moves.
+
+    assertSame(first, buildPreview(renderer, preview, camera));
+    Camera moved = camera.duplicate();
+    moved.setCameraCoordinates(new CoordinateSystem(new Vec3(0.0, 5.0, 20.0), new Vec3(0.0, 0.0, -1.0), Vec3.vy()));
+    assertSame(first, buildPreview(renderer, preview, moved));
+
+    // Moving an object or modifying it should only recreate that object.  Spheres and cubes are
+    // each represented by a single RTObject.
+
+    preview.getObject(0).getCoords().setOrigin(new Vec3(2.0, 2.0, 2.0));
+    Raytracer second = buildPreview(renderer, preview, camera);
+    assertNotSame(first, second);
+    assertEquals(total, second.getObjects().length);
+    assertEquals(total-1, countShared(first, second));
+    ((Sphere) preview.getObject(2).getObject()).setSize(1.0, 1.0, 1.0);
+    preview.objectModified(preview.getObject(2).getObject());
+    Raytracer third = buildPreview(renderer, preview, camera);
+    assertEquals(total-1, countShared(second, third));
+
+    // Adding, hiding, or removing objects should leave the others alone.
+
+    Object3D cube = new Cube(1.0, 1.0, 1.0);
+    cube.setTexture(tex, tex.getDefaultMapping(cube));
+    preview.addObject(new TestObjectInfo(cube, new CoordinateSystem(), "New cube"), null);
+    Raytracer fourth = buildPreview(renderer, preview, camera);
+    assertTrue(fourth.getObjects().length > total);
+    assertEquals(total, countShared(third, fourth));
+    preview.getObject(1).setVisible(false);
+    Raytracer fifth = buildPreview(renderer, preview, camera);
+    assertEquals(fifth.getObjects().length, countShared(fourth, fifth));
+    preview.removeObject(preview.getNumObjects()-1, null);
+    Raytracer sixth = buildPreview(renderer, preview, camera);
+    assertEquals(sixth.getObjects().length, countShared(fifth, sixth));
+    preview.getObject(1).setVisible(true);
+    assertEquals(total, buildPreview(renderer, preview, camera).getObjects().length);
+
+    // Changing the settings or the scene should recreate everything.
+
+    Raytracer last = buildPreview(renderer, preview, camera);
+    renderer.surfaceError = 0.1;
+    assertEquals(0, countShared(last, buildPreview(renderer, preview, camera)));
+    last = renderer.raytracer;
+    Scene other = new Scene();
+    for (int i = 0; i < preview.getNumObjects(); i++)
+      other.addObject(preview.getObject(i), null);
+    assertEquals(0, countShared(last, buildPreview(renderer, other, camera)));
+
+    // A final render should discard the cache.
+
+    last = renderer.raytracer;
+    renderer.isPreview = false;
+    assertEquals(0, countShared(last, buildPreview(renderer, other, camera)));
+    renderer.isPreview = true;
+    assertEquals(0, countShared(last, buildPreview(renderer, other, camera)));
+  }
+
+  /** Render the scene with adaptive antialiasing, dividing the image into tiles of a fixed size. */
+
+  private ComplexImage renderTiled(final int tileSize, boolean packets) throws InterruptedException
+  {
+    RaytracerRenderer renderer = new RaytracerRenderer()
+    {
+      @Override
+      protected int getTileSize()
+      {
+        return tileSize;
+      }
+    };
+    renderer.setConfiguration("antialiasing", 2);
+    renderer.setConfiguration("minRaysPerPixel", 4);
+    renderer.setConfiguration("maxRaysPerPixel", 16);
+    renderer.setConfiguration("accelerationStructure", Raytracer.ACCELERATION_BVH);
+    renderer.setConfiguration("reduceAccuracyForDistant", false);
+    renderer.setConfiguration("traceRayPackets", packets);
+    SceneCamera sc = new SceneCamera();
+    Camera cam = sc.createCamera(75, 50, camera.getCameraCoordinates());
+    final ComplexImage result[] = new ComplexImage [1];
+    final CountDownLatch done = new CountDownLatch(1);
+    renderer.renderScene(scene, cam, new RenderListener() {
+      @Override
+      public void imageComplete(ComplexImage image)
+      {
+        result[0] = image;
+        done.countDown();
+      }
+
+      @Override
+      public void renderingCanceled()
+      {
+        done.countDown();
+      }
+    }, sc);
+    done.await();
+    assertNotNull(result[0]);
+    return result[0];
+  }
+
+  /** Determine whether a pixel is within EDGE_WIDTH pixels of the edge of its tile. */
+
+  private static boolean isNearTileEdge(int x, int y, int tileSize)
+  {
+    int dx = x%tileSize, dy = y%tileSize;
+    return (Math.min(dx, tileSize-1-dx) < EDGE_WIDTH || Math.min(dy, tileSize-1-dy) < EDGE_WIDTH);
+  }
+
+  /**
+   * The adaptive antialiasing pass refines each tile independently, sampling a border around it.
+   * Every ray is generated the same way no matter how the image is divided, so pixels away from the
+   * tile edges should be identical to rendering the whole image as a single tile.  Near the edges,
+   * the decision of where to send more rays is based on less information, so pixels may differ
+   * slightly.
+   */
+
+  @Test(timeout = 120000)
+  public void testTileSizeDoesNotAffectImage() throws InterruptedException
+  {
+    ComplexImage expected = renderTiled(1000, false);
+    int width = expected.getWidth(), height = expected.getHeight();
+    float background = expected.getPixelComponent(0, 0, ComplexImage.RED);
+    int covered = 0;
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        if (expected.getPixelComponent(x, y, ComplexImage.RED) != background)
+          covered++;
+    assertTrue(covered > width*height/4);
+    for (int tileSize : new int [] {8, 13, 32})
+    {
+      ComplexImage actual = renderTiled(tileSize, false);
+      int interior = 0, different = 0;
+      for (int y = 0; y < height; y++)
+        for (int x = 0; x < width; x++)
+        {
+          boolean nearEdge = isNearTileEdge(x, y, tileSize);
+          boolean matches = true;
+          for (int component : new int [] {ComplexImage.RED, ComplexImage.GREEN, ComplexImage.BLUE, ComplexImage.ALPHA, ComplexImage.DEPTH})
+          {
+            float e = expected.getPixelComponent(x, y, component), a = actual.getPixelComponent(x, y, component);
+            String message = "tile size "+tileSize+", pixel ("+x+", "+y+")";
+            if (nearEdge)
+              assertEquals(message, e, a, 0.1f);
+            else
+              assertEquals(message, e, a, 0.0f);
+            matches &= (e == a);
+          }
+          if (!nearEdge)
+            interior++;
+          if (!matches)
+            different++;
+        }
+      if (tileSize > 2*EDGE_WIDTH)
+        assertTrue(interior > 0);
+      assertTrue("tile size "+tileSize+": "+different+" pixels differ", different < width*height/10);
+    }
+  }
+
+  /**
+   * Tracing camera rays in packets should produce exactly the same image as tracing them one at a time.
+   */
+
+  @Test(timeout = 120000)
+  public void testRayPacketsMatchSingleRays() throws InterruptedException
+  {
+    ComplexImage expected = renderTiled(16, false);
+    ComplexImage actual = renderTiled(16, true);
+    for (int component : new int [] {ComplexImage.RED, ComplexImage.GREEN, ComplexImage.BLUE, ComplexImage.ALPHA, ComplexImage.DEPTH})
+      for (int y = 0; y < expected.getHeight(); y++)
+        for (int x = 0; x < expected.getWidth(); x++)
+          assertEquals("pixel ("+x+", "+y+")", expected.getPixelComponent(x, y, component), actual.getPixelComponent(x, y, component), 0.0f);
+  }
+
+  /** ObjectInfo.getBounds() and getPreviewMesh() look up the interactive surface error in the
+      application preferences, which are not available in tests.  This uses a fixed surface error. */
+
+  private static class TestObjectInfo extends ObjectInfo
+  {
+    private BoundingBox bounds;
+    private RenderingMesh mesh;
+
+    TestObjectInfo(Object3D obj, CoordinateSystem coords, String name)
+    {
+      super(obj, coords, name);
+    }
+
+    @Override
+    public BoundingBox getBounds()
+    {
+      if (bounds == null)
+        bounds = new BoundingBox(getObject().getBounds());
+      return bounds;
+    }
+
+    @Override
+    public RenderingMesh getPreviewMesh()
+    {
+      if (mesh == null)
+        mesh = getObject().getRenderingMesh(0.05, true, this);
+      return mesh;
+    }
+
+    @Override
+    public void clearCachedMeshes()
+    {
+      super.clearCachedMeshes();
+      bounds = null;
+      mesh = null;
+    }
+  }
+}
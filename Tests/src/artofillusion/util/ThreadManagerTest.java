@@ -0,0 +1,279 @@
+/* Copyright (C) 2007 by Peter Eastman
+   Changes copyright (C) 2017 by Maksim Khramov
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+
+public class ThreadManagerTest
+{
+  @Test
+  public void testRun()
+  {
+    final AtomicBoolean flags[] = new AtomicBoolean[1000];
+    for (int i = 0; i < flags.length; i++)
+      flags[i] = new AtomicBoolean();
+    final AtomicBoolean error = new AtomicBoolean();
+    ThreadManager tm = new ThreadManager(flags.length, new artofillusion.util.ThreadManager.Task()
+    {
+      @Override
+      public void execute(int index)
+      {
+        if (flags[index].get())
+          error.set(true);
+        flags[index].set(true);
+      }
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    for (int repeat = 0; repeat < 50; repeat++)
+    {
+      for (int i = 0; i < flags.length; i++)
+        flags[i].set(false);
+      error.set(false);
+      tm.run();
+      assertFalse(error.get());
+      for (int i = 0; i < flags.length; i++)
+        assertTrue(flags[i].get());
+    }
+  }
+
+  @Test
+  public void testCancel()
+  {
+    final AtomicBoolean canceled = new AtomicBoolean();
+    final AtomicInteger errorCount = new AtomicInteger();
+    final ThreadManager tm = new ThreadManager();
+    tm.setNumIndices(1000);
+    tm.setTask(new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int index)
+      {
+        if (canceled.get())
+          errorCount.incrementAndGet();
+        if (index == 500)
+        {
+          tm.cancel();
+          canceled.set(true);
+        }
+      }
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    for (int repeat = 0; repeat < 50; repeat++)
+    {
+      canceled.set(false);
+      errorCount.set(0);
+      tm.run();
+      assertTrue(errorCount.get() < ThreadManager.getPoolSize());
+    }
+  }
+
+  @Test
+  public void testCleanup()
+  {
+    final Set<Thread> executed = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    final Set<Thread> cleaned = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    final AtomicInteger cleanupCount = new AtomicInteger();
+    for (int repeat = 0; repeat < 20; repeat++)
+    {
+      executed.clear();
+      cleaned.clear();
+      cleanupCount.set(0);
+      ThreadManager tm = new ThreadManager(100, new ThreadManager.Task()
+      {
+        @Override
+        public void execute(int index)
+        {
+          executed.add(Thread.currentThread());
+        }
+        @Override
+        public void cleanup()
+        {
+          cleaned.add(Thread.currentThread());
+          cleanupCount.incrementAndGet();
+        }
+      });
+      tm.run();
+      tm.run();
+      tm.finish();
+
+      // Cleanup should be invoked exactly once from every thread that executed the task,
+      // including the thread that called run().
+
+      assertEquals(executed, cleaned);
+      assertEquals(executed.size(), cleanupCount.get());
+      assertTrue(executed.size() <= ThreadManager.getPoolSize());
+    }
+  }
+
+  @Test
+  public void testMaxThreads()
+  {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    ThreadManager tm = new ThreadManager(200, new ThreadManager.Task()
+    {
+      @Override
+      public void execute(int index)
+      {
+        int count = running.incrementAndGet();
+        if (count > maxRunning.get())
+          maxRunning.set(count);
+        Thread.yield();
+        running.decrementAndGet();
+      }
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    tm.setMaxThreads(1);
+    for (int repeat = 0; repeat < 10; repeat++)
+      tm.run();
+    tm.finish();
+    assertEquals(1, maxRunning.get());
+  }
+
+  @Test(timeout = 60000)
+  public void testNested()
+  {
+    // Run tasks which themselves use ThreadManagers.  Even if every thread in the pool is busy
+    // with an outer task, the inner ones must still be able to complete.
+
+    final int outer = 4*ThreadManager.getPoolSize(), inner = 100;
+    final AtomicIntegerArray counts = new AtomicIntegerArray(outer);
+    ThreadManager tm = new ThreadManager(outer, new ThreadManager.Task()
+    {
+      @Override
+      public void execute(final int i)
+      {
+        ThreadManager nested = new ThreadManager(inner, new ThreadManager.Task()
+        {
+          @Override
+          public void execute(int j)
+          {
+            counts.incrementAndGet(i);
+          }
+          @Override
+          public void cleanup()
+          {
+          }
+        });
+        nested.run();
+        nested.finish();
+      }
+      @Override
+      public void cleanup()
+      {
+      }
+    });
+    tm.run();
+    tm.finish();
+    for (int i = 0; i < outer; i++)
+      assertEquals(inner, counts.get(i));
+  }
+
+  @Test(timeout = 60000)
+  public void testBusyPool() throws InterruptedException
+  {
+    // Keep every worker busy with long running tasks.  Other ThreadManagers should still be able
+    // to run and clean up without waiting for them to finish.
+
+    int oldPoolSize = ThreadManager.getPoolSize();
+    ThreadManager.setPoolSize(4);
+    final AtomicBoolean busy = new AtomicBoolean(true);
+    Thread background[] = new Thread [4];
+    try
+    {
+      final Set<Thread> executed = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+      final AtomicInteger cleanupCount = new AtomicInteger();
+      ThreadManager.Task task = new ThreadManager.Task()
+      {
+        @Override
+        public void execute(int index)
+        {
+          executed.add(Thread.currentThread());
+          Thread.yield();
+        }
+        @Override
+        public void cleanup()
+        {
+          cleanupCount.incrementAndGet();
+        }
+      };
+      ThreadManager tm = new ThreadManager(1000, task);
+      tm.run();
+      final Set<Thread> busyThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+      for (int i = 0; i < background.length; i++)
+      {
+        background[i] = new Thread(() -> {
+          ThreadManager longTask = new ThreadManager(1000000, new ThreadManager.Task()
+          {
+            @Override
+            public void execute(int index)
+            {
+              busyThreads.add(Thread.currentThread());
+              try
+              {
+                if (busy.get())
+                  Thread.sleep(1);
+              }
+              catch (InterruptedException ex)
+              {
+              }
+            }
+            @Override
+            public void cleanup()
+            {
+            }
+          });
+          longTask.run();
+          longTask.finish();
+        });
+        background[i].start();
+      }
+      Set<Thread> usedWorkers = new HashSet<Thread>(executed);
+      usedWorkers.remove(Thread.currentThread());
+      while (!busyThreads.containsAll(usedWorkers))
+        Thread.sleep(1);
+      tm.finish();
+      assertEquals(executed.size(), cleanupCount.get());
+      executed.clear();
+      ThreadManager tm2 = new ThreadManager(1000, task);
+      tm2.run();
+      tm2.finish();
+      assertTrue(executed.contains(Thread.currentThread()));
+      assertTrue(busy.get());
+    }
+    finally
+    {
+      busy.set(false);
+      for (Thread t : background)
+        if (t != null)
+          t.join();
+      ThreadManager.setPoolSize(oldPoolSize);
+    }
+  }
+}
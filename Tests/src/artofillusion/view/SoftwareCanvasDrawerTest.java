@@ -0,0 +1,169 @@
+/* Copyright (C) 2026 by the Art of Illusion contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.view;
+
+import artofillusion.*;
+import artofillusion.math.*;
+import artofillusion.object.*;
+import artofillusion.texture.*;
+import artofillusion.ui.*;
+import buoy.event.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SoftwareCanvasDrawerTest
+{
+  private static final int WIDTH = 200, HEIGHT = 150;
+
+  @BeforeClass
+  public static void setUpClass()
+  {
+    if (ViewerCanvas.backgroundColor == null)
+      ViewerCanvas.backgroundColor = Color.WHITE;
+    if (ViewerCanvas.lineColor == null)
+      ViewerCanvas.lineColor = Color.BLACK;
+  }
+
+  /** Create the meshes to draw.  They overlap each other, and the last one extends behind the
+      camera so it gets clipped by the near plane. */
+
+  private static RenderingMesh[] createMeshes()
+  {
+    Texture tex = new UniformTexture();
+    TriangleMesh obj[] = new TriangleMesh [] {
+      new Sphere(3.0, 2.5, 3.0).convertToTriangleMesh(0.1),
+      new Cube(4.0, 3.0, 2.0).convertToTriangleMesh(0.1),
+      new Sphere(2.5, 2.5, 2.5).convertToTriangleMesh(0.05),
+      new Cube(1.5, 1.5, 60.0).convertToTriangleMesh(0.1)
+    };
+    RenderingMesh mesh[] = new RenderingMesh [obj.length];
+    for (int i = 0; i < obj.length; i++)
+    {
+      obj[i].setTexture(tex, tex.getDefaultMapping(obj[i]));
+      if (i < 2)
+        obj[i] = TriangleMesh.subdivideLoop(obj[i], null, Double.MAX_VALUE);
+      mesh[i] = obj[i].getRenderingMesh(0.05, true, null);
+    }
+    return mesh;
+  }
+
+  /** Draw the meshes with one drawer and return a copy of the image. */
+
+  private static int[] draw(final RenderingMesh mesh[], final int mode, boolean deferred)
+  {
+    TestCanvas canvas = new TestCanvas(mesh, mode);
+    SoftwareCanvasDrawer drawer = (SoftwareCanvasDrawer) canvas.getCanvasDrawer();
+    drawer.setDeferredRendering(deferred);
+    assertEquals(deferred, drawer.getDeferredRendering());
+    BufferedImage screen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = screen.createGraphics();
+    drawer.paint(new RepaintEvent(canvas, g));
+    g.dispose();
+    return ((DataBufferInt) drawer.getImage().getRaster().getDataBuffer()).getData().clone();
+  }
+
+  /** Draw the meshes in immediate and deferred mode, and check that the images are identical. */
+
+  private void checkDeferred(int mode)
+  {
+    RenderingMesh mesh[] = createMeshes();
+    int immediate[] = draw(mesh, mode, false);
+    int deferred[] = draw(mesh, mode, true);
+    int background = ViewerCanvas.backgroundColor.getRGB(), covered = 0;
+    assertEquals(immediate.length, deferred.length);
+    for (int i = 0; i < immediate.length; i++)
+    {
+      assertEquals("pixel ("+(i%WIDTH)+", "+(i/WIDTH)+")", immediate[i], deferred[i]);
+      if (immediate[i] != background)
+        covered++;
+    }
+    assertTrue(covered > immediate.length/4);
+  }
+
+  @Test
+  public void testFlat()
+  {
+    checkDeferred(ViewerCanvas.RENDER_FLAT);
+  }
+
+  @Test
+  public void testSmooth()
+  {
+    checkDeferred(ViewerCanvas.RENDER_SMOOTH);
+  }
+
+  @Test
+  public void testTransparent()
+  {
+    checkDeferred(ViewerCanvas.RENDER_TRANSPARENT);
+  }
+
+  /** A ViewerCanvas which draws a fixed set of meshes at different positions, using flat, smooth,
+      or transparent shading. */
+
+  private static class TestCanvas extends ViewerCanvas
+  {
+    private final RenderingMesh mesh[];
+
+    TestCanvas(RenderingMesh mesh[], int mode)
+    {
+      super(false);
+      this.mesh = mesh;
+      renderMode = mode;
+      getComponent().setSize(WIDTH, HEIGHT);
+      perspective = true;
+      setScale(20.0);
+      setTool(new EditingTool(null) {
+        @Override
+        public int whichClicks()
+        {
+          return ALL_CLICKS;
+        }
+
+        @Override
+        public String getToolTipText()
+        {
+          return "";
+        }
+      });
+    }
+
+    @Override
+    public double[] estimateDepthRange()
+    {
+      return new double [] {0.01, 100.0};
+    }
+
+    @Override
+    public synchronized void updateImage()
+    {
+      Vec3 viewDir = new Vec3(0.0, 0.0, -1.0);
+      for (int i = 0; i < mesh.length; i++)
+      {
+        RGBColor color = new RGBColor(0.2f*i+0.1f, 0.5f, 0.9f-0.2f*i);
+        if (i == mesh.length-1)
+          theCamera.setObjectTransform(Mat4.translation(1.0, -3.5, Camera.DEFAULT_DISTANCE_TO_SCREEN));
+        else
+          theCamera.setObjectTransform(Mat4.translation(1.5*i+2.0, 0.8*i-3.0, -1.5*i));
+        if (renderMode == RENDER_FLAT)
+          drawer.renderMesh(mesh[i], new FlatVertexShader(mesh[i], color, viewDir), theCamera, true, null);
+        else if (renderMode == RENDER_SMOOTH)
+          drawer.renderMesh(mesh[i], new SmoothVertexShader(mesh[i], color, viewDir), theCamera, true, null);
+        else
+          drawer.renderMeshTransparent(mesh[i], new SmoothVertexShader(mesh[i], color, viewDir), theCamera, viewDir, null);
+      }
+    }
+  }
+}